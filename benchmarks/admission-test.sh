@@ -0,0 +1,92 @@
+#!/usr/bin/env bash
+#
+# Shows what admission control does for well-behaved clients while another client floods the service. A handful of
+# GOOD connections fetch a single package, first on their own and then while FLOOD connections page through every
+# package as fast as they can, with admission control off and then on. Each client sends its own X-Client-Id so
+# they get separate token buckets.
+#
+#   JAVA_HOME=/path/to/jdk-21 ./admission-test.sh [seconds]
+#
+# Expects the service jar to have been built (../mvnw package) and the benchmarks jar (../mvnw package here).
+set -euo pipefail
+
+SECONDS_TO_RUN=${1:-30}
+PACKAGES=${PACKAGES:-100000}
+GOOD=${GOOD:-8}
+FLOOD=${FLOOD:-2000}
+FLOOD_PATH=${FLOOD_PATH:-/package?limit=1000}
+CLIENT_RATE=${CLIENT_RATE:-20000}
+PORT=${PORT:-8080}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+
+cd "$(dirname "$0")"
+SERVICE_JAR=$(ls ../target/packageservice-*-exec.jar | head -n 1)
+
+# every connection is a file descriptor on both ends
+ulimit -n $(((GOOD + FLOOD) * 2 + 1024))
+
+load() {
+    "$JAVA" -cp target/benchmarks.jar uk.jordandoyle.packageservice.benchmark.LoadGenerator "$@"
+}
+
+run() {
+    local enabled=$1
+    local data
+    data=$(mktemp -d)
+
+    # Spring 4 generates classes through reflection that newer JDKs only allow if java.lang is opened up
+    "$JAVA" --add-opens java.base/java.lang=ALL-UNNAMED -jar "$SERVICE_JAR" \
+        --server.port="$PORT" \
+        --server.tomcat.max-connections=$((GOOD + FLOOD + 1000)) \
+        --packageservice.admission.enabled="$enabled" \
+        --packageservice.admission.client-rate="$CLIENT_RATE" \
+        --packageservice.admission.client-header=X-Client-Id \
+        --packageservice.snapshot.directory="$data/snapshots" \
+        --packageservice.store.directory="$data/packages" \
+        --packageservice.product-catalogue.directory="$data/products" \
+        --packageservice.rate-history.file="$data/rates/history.dat" \
+        > "$data/service.log" 2>&1 &
+    local service=$!
+
+    until curl -sf -o /dev/null "http://localhost:$PORT/health"; do
+        if ! kill -0 $service 2> /dev/null; then
+            cat "$data/service.log"
+            exit 1
+        fi
+
+        sleep 1
+    done
+
+    for ((i = 0; i < PACKAGES; i += 1000)); do
+        batch=$(seq "$i" $((i + 999 < PACKAGES - 1 ? i + 999 : PACKAGES - 1)) \
+            | sed 's/.*/{"name": "Package number &", "description": "Generated package &"}/' \
+            | paste -sd, -)
+        curl -sf -o /dev/null -H 'Content-Type: application/json' -d "[$batch]" "http://localhost:$PORT/package/batch"
+    done
+
+    local uuid
+    uuid=$(curl -sf "http://localhost:$PORT/package?limit=1" | grep -o '"uuid":"[^"]*"' | cut -d'"' -f4)
+    local good_url="http://localhost:$PORT/package/$uuid"
+
+    echo "admission=$enabled"
+    echo -n "  alone:        "
+    load "$good_url" "$GOOD" "$SECONDS_TO_RUN" "${WARMUP:-10}" "X-Client-Id: good"
+
+    # start the flood first so it's in full swing before we measure
+    load "http://localhost:$PORT$FLOOD_PATH" "$FLOOD" $((SECONDS_TO_RUN + 5)) 5 "X-Client-Id: flood" \
+        > "$data/flood.txt" &
+    local flood=$!
+    sleep 5
+
+    echo -n "  during flood: "
+    load "$good_url" "$GOOD" "$SECONDS_TO_RUN" 5 "X-Client-Id: good"
+    wait $flood
+    echo "  flood:        $(cat "$data/flood.txt")"
+
+    kill $service
+    wait $service || true
+    rm -rf "$data"
+}
+
+run false
+run true
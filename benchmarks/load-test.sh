@@ -0,0 +1,60 @@
+#!/usr/bin/env bash
+#
+# Compares the service running on Tomcat's platform thread pool against running on virtual threads, holding
+# CONNECTIONS keep-alive connections open and sending requests down all of them for SECONDS seconds.
+#
+#   JAVA_HOME=/path/to/jdk-21 ./load-test.sh [connections] [seconds] [path]
+#
+# Expects the service jar to have been built (../mvnw package) and the benchmarks jar (../mvnw package here).
+set -euo pipefail
+
+CONNECTIONS=${1:-10000}
+SECONDS_TO_RUN=${2:-30}
+REQUEST_PATH=${3:-/package?limit=10}
+PORT=${PORT:-8080}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+
+cd "$(dirname "$0")"
+SERVICE_JAR=$(ls ../target/packageservice-*-exec.jar | head -n 1)
+
+# every connection is a file descriptor on both ends
+ulimit -n $((CONNECTIONS * 2 + 1024))
+
+run() {
+    local virtual=$1
+    local data
+    data=$(mktemp -d)
+
+    # Spring 4 generates classes through reflection that newer JDKs only allow if java.lang is opened up
+    "$JAVA" --add-opens java.base/java.lang=ALL-UNNAMED -jar "$SERVICE_JAR" \
+        --server.port="$PORT" \
+        --server.tomcat.max-connections=$((CONNECTIONS + 1000)) \
+        --server.tomcat.accept-count=$CONNECTIONS \
+        --packageservice.virtual-threads.enabled="$virtual" \
+        --packageservice.snapshot.directory="$data/snapshots" \
+        --packageservice.store.directory="$data/packages" \
+        --packageservice.product-catalogue.directory="$data/products" \
+        --packageservice.rate-history.file="$data/rates/history.dat" \
+        > "$data/service.log" 2>&1 &
+    local service=$!
+
+    until curl -sf -o /dev/null "http://localhost:$PORT/health"; do
+        if ! kill -0 $service 2> /dev/null; then
+            cat "$data/service.log"
+            exit 1
+        fi
+
+        sleep 1
+    done
+
+    echo -n "virtual-threads=$virtual "
+    java -cp target/benchmarks.jar uk.jordandoyle.packageservice.benchmark.LoadGenerator \
+        "http://localhost:$PORT$REQUEST_PATH" "$CONNECTIONS" "$SECONDS_TO_RUN" "${WARMUP:-10}"
+
+    kill $service
+    wait $service || true
+    rm -rf "$data"
+}
+
+run false
+run true
@@ -0,0 +1,109 @@
+#!/usr/bin/env bash
+#
+# Measures read throughput as replicas are added. Starts a primary, fills it with PACKAGES packages, then adds one
+# replica at a time up to REPLICAS. Once each new replica has caught up, LoadGenerator is run against every node at
+# once for SECONDS seconds and the combined throughput is reported. Every node runs on this host and talks over
+# loopback, so reads only scale while there are spare cores for the extra JVMs.
+#
+#   JAVA_HOME=/path/to/jdk-21 ./replication-test.sh [replicas] [seconds] [path]
+#
+# Expects the service jar to have been built (../mvnw package) and the benchmarks jar (../mvnw package here).
+set -euo pipefail
+
+REPLICAS=${1:-3}
+SECONDS_TO_RUN=${2:-30}
+REQUEST_PATH=${3:-/package?limit=10}
+PACKAGES=${PACKAGES:-100000}
+CONNECTIONS=${CONNECTIONS:-64}
+HTTP_PORT=${PORT:-8080}
+REPLICATION_PORT=${REPLICATION_PORT:-7070}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+
+cd "$(dirname "$0")"
+SERVICE_JAR=$(ls ../target/packageservice-*-exec.jar | head -n 1)
+DATA=$(mktemp -d)
+NODES=()
+
+cleanup() {
+    for node in "${NODES[@]}"; do
+        kill "$node" 2> /dev/null || true
+    done
+
+    wait || true
+    rm -rf "$DATA"
+}
+
+trap cleanup EXIT
+
+# start a node and wait for it to come up, the remaining arguments are passed to the service
+start() {
+    local name=$1
+    local port=$2
+    shift 2
+    mkdir -p "$DATA/$name"
+
+    # Spring 4 generates classes through reflection that newer JDKs only allow if java.lang is opened up
+    "$JAVA" --add-opens java.base/java.lang=ALL-UNNAMED -jar "$SERVICE_JAR" \
+        --server.port="$port" \
+        --packageservice.snapshot.directory="$DATA/$name/snapshots" \
+        --packageservice.store.directory="$DATA/$name/packages" \
+        --packageservice.product-catalogue.directory="$DATA/$name/products" \
+        --packageservice.rate-history.file="$DATA/$name/rates/history.dat" \
+        "$@" > "$DATA/$name/service.log" 2>&1 &
+    local node=$!
+    NODES+=("$node")
+
+    until curl -sf -o /dev/null "http://localhost:$port/health"; do
+        if ! kill -0 "$node" 2> /dev/null; then
+            cat "$DATA/$name/service.log"
+            exit 1
+        fi
+
+        sleep 1
+    done
+}
+
+start primary "$HTTP_PORT" \
+    --packageservice.replication.role=primary \
+    --packageservice.replication.port="$REPLICATION_PORT"
+
+echo "Creating $PACKAGES packages on the primary"
+
+for ((i = 0; i < PACKAGES; i += 1000)); do
+    batch=$(seq "$i" $((i + 999 < PACKAGES - 1 ? i + 999 : PACKAGES - 1)) \
+        | sed 's/.*/{"name": "Package number &", "description": "Generated package &"}/' \
+        | paste -sd, -)
+    curl -sf -o /dev/null -H 'Content-Type: application/json' -d "[$batch]" "http://localhost:$HTTP_PORT/package/batch"
+done
+
+for ((replicas = 0; replicas <= REPLICAS; replicas++)); do
+    if ((replicas > 0)); then
+        port=$((HTTP_PORT + replicas))
+        start "replica-$replicas" "$port" \
+            --packageservice.replication.role=replica \
+            --packageservice.replication.primary="localhost:$REPLICATION_PORT"
+
+        # ready may still be waiting on downstream syncs, we only need the replica to have caught up
+        until curl -s "http://localhost:$port/ready" | grep -q '"synced":true,"connected":true,[^}]*"lagChanges":0'; do
+            sleep 1
+        done
+    fi
+
+    outputs=()
+    generators=()
+
+    for ((node = 0; node <= replicas; node++)); do
+        output="$DATA/load-$replicas-$node.txt"
+        outputs+=("$output")
+        java -cp target/benchmarks.jar uk.jordandoyle.packageservice.benchmark.LoadGenerator \
+            "http://localhost:$((HTTP_PORT + node))$REQUEST_PATH" "$CONNECTIONS" "$SECONDS_TO_RUN" "${WARMUP:-10}" \
+            > "$output" &
+        generators+=($!)
+    done
+
+    wait "${generators[@]}"
+
+    total=$(cat "${outputs[@]}" | grep -o 'throughput=[0-9]*' | cut -d= -f2 | awk '{ total += $1 } END { print total }')
+    echo "replicas=$replicas throughput=$total/s"
+    cat "${outputs[@]}" | sed 's/^/    /'
+done
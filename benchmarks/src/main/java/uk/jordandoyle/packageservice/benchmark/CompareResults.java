@@ -0,0 +1,102 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two sets of JMH results written with {@code -rf json}, printing the change in every benchmark that appears
+ * in both and exiting with a non-zero status if anything got slower by more than the allowed threshold.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar uk.jordandoyle.packageservice.benchmark.CompareResults \
+ *     baseline.json current.json [threshold percent, default 10]
+ * </pre>
+ */
+public final class CompareResults {
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <baseline.json> <current.json> [threshold %]");
+            System.exit(2);
+        }
+
+        Map<String, JsonNode> baseline = read(new File(args[0]));
+        Map<String, JsonNode> current = read(new File(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        int regressions = 0;
+
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode before = baseline.get(entry.getKey());
+
+            if (before == null) {
+                System.out.printf("%-80s %14s%n", entry.getKey(), "new");
+                continue;
+            }
+
+            JsonNode after = entry.getValue();
+            double oldScore = before.at("/primaryMetric/score").asDouble();
+            double newScore = after.at("/primaryMetric/score").asDouble();
+            double change = (newScore - oldScore) / oldScore * 100;
+
+            // throughput gets better as it goes up, everything else is a time and gets better as it goes down
+            boolean higherIsBetter = after.path("mode").asText().equals("thrpt");
+            double worse = higherIsBetter ? -change : change;
+            boolean regressed = worse > threshold;
+
+            if (regressed) {
+                regressions++;
+            }
+
+            System.out.printf("%-80s %12.3f -> %12.3f %s %+7.1f%%%s%n", entry.getKey(), oldScore, newScore,
+                    after.at("/primaryMetric/scoreUnit").asText(), change, regressed ? "  REGRESSION" : "");
+        }
+
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.printf("%-80s %14s%n", key, "missing");
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.1f%%%n", regressions, threshold);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Read a JMH results file, keyed by benchmark name and parameters.
+     */
+    private static Map<String, JsonNode> read(File file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            // drop the package name to keep the output readable, leaving Class.method
+            String benchmark = result.path("benchmark").asText();
+            int start = benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1;
+            StringBuilder key = new StringBuilder(benchmark.substring(start));
+            Iterator<Map.Entry<String, JsonNode>> params = result.path("params").fields();
+
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(key.indexOf("{") < 0 ? '{' : ',').append(param.getKey()).append('=')
+                        .append(param.getValue().asText());
+            }
+
+            if (key.indexOf("{") >= 0) {
+                key.append('}');
+            }
+
+            results.put(key.toString(), result);
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,68 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.jordandoyle.packageservice.domain.ConversionRate;
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting a single price with {@link ConversionRate} against the {@link BigDecimal} arithmetic it replaced.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class ConversionRateBenchmark {
+    @Param({"0.87943", "113.24"})
+    public String multiplier;
+
+    private BigDecimal rate;
+
+    private ConversionRate conversionRate;
+
+    private long[] prices;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        this.rate = new BigDecimal(this.multiplier);
+        this.conversionRate = ConversionRate.of(this.rate);
+
+        List<Product> products = Datasets.products(1024);
+        this.prices = new long[products.size()];
+
+        for (int i = 0; i < this.prices.length; i++) {
+            this.prices[i] = products.get(i).getPrice();
+        }
+    }
+
+    private long nextPrice() {
+        return this.prices[this.next++ & (this.prices.length - 1)];
+    }
+
+    @Benchmark
+    public BigDecimal bigDecimal() {
+        return BigDecimal.valueOf(this.nextPrice()).multiply(this.rate).setScale(2, BigDecimal.ROUND_HALF_UP);
+    }
+
+    @Benchmark
+    public BigDecimal fixedPoint() {
+        return this.conversionRate.convert(this.nextPrice());
+    }
+}
@@ -0,0 +1,118 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.domain.ProductOrdinals;
+import uk.jordandoyle.packageservice.request.PackageRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates the products and packages our benchmarks run against. Everything is generated from a fixed seed so
+ * every run of a benchmark sees exactly the same data.
+ */
+public final class Datasets {
+    /**
+     * Seed for all our generated data
+     */
+    public static final long SEED = 0x5eed;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private Datasets() {
+    }
+
+    /**
+     * Generate a product catalogue.
+     *
+     * @param count number of products
+     * @return generated products, product {@code i} has the id {@code P<i>}
+     */
+    public static List<Product> products(int count) {
+        Random random = new Random(SEED);
+        List<Product> products = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            products.add(new Product("P" + i, "Product number " + i, 1 + random.nextInt(100000)));
+        }
+
+        return products;
+    }
+
+    /**
+     * Generate a copy of a catalogue with some of the prices changed, as if the downstream catalogue had moved on
+     * since the last sync.
+     *
+     * @param products catalogue to copy
+     * @param every    change the price of every {@code every}th product, 0 to change nothing
+     * @return changed copy of the catalogue
+     */
+    public static List<Product> changedProducts(List<Product> products, int every) {
+        List<Product> changed = new ArrayList<>(products.size());
+
+        for (int i = 0; i < products.size(); i++) {
+            Product product = products.get(i);
+            int price = every > 0 && i % every == 0 ? product.getPrice() + 1 : product.getPrice();
+            changed.add(new Product(product.getId(), product.getName(), price));
+        }
+
+        return changed;
+    }
+
+    /**
+     * Generate a {@code POST /package} request body for products picked at random from a catalogue.
+     *
+     * @param size     number of products in the package
+     * @param products catalogue to pick products from
+     * @return request body
+     */
+    public static PackageRequest packageRequest(int size, List<Product> products) {
+        Random random = new Random(SEED);
+        LinkedHashSet<String> ids = new LinkedHashSet<>();
+
+        while (ids.size() < Math.min(size, products.size())) {
+            ids.add(products.get(random.nextInt(products.size())).getId());
+        }
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("name", "Requested package");
+        body.put("description", "Package of " + size + " products");
+        body.put("products", ids);
+
+        return OBJECT_MAPPER.convertValue(body, PackageRequest.class);
+    }
+
+    /**
+     * Generate packages made up of products picked at random from a catalogue.
+     *
+     * @param ordinals ordinals of the catalogue's products
+     * @param count    number of packages
+     * @param size     number of products in each package
+     * @param products catalogue to pick products from
+     * @return generated packages
+     */
+    public static List<Package> packages(ProductOrdinals ordinals, int count, int size, List<Product> products) {
+        Random random = new Random(SEED);
+        List<Package> packages = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+            List<Product> contents = new ArrayList<>(size);
+
+            for (int j = 0; j < size; j++) {
+                contents.add(products.get(random.nextInt(products.size())));
+            }
+
+            packages.add(new Package(ordinals, uuid, "Package number " + i, "Generated package " + i, contents));
+        }
+
+        return packages;
+    }
+}
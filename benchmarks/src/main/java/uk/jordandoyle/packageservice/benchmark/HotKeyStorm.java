@@ -0,0 +1,170 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import org.HdrHistogram.Histogram;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a storm of requests for the same package costs right after it changes, like the moment a marketing
+ * email goes out linking to a package whose price has just moved. Every storm changes the package, then releases
+ * every thread at once to fetch it, so each storm starts with nothing cached. It's run once with requests building
+ * their own responses and once with concurrent requests sharing a single build, and reports the CPU time each request
+ * took along with its latency.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar uk.jordandoyle.packageservice.benchmark.HotKeyStorm 64 500 1000
+ * </pre>
+ *
+ * Arguments are the number of threads in each storm, the number of storms to measure and the number of products in
+ * the package. As many storms again are run first to warm up.
+ */
+public final class HotKeyStorm {
+    /**
+     * Number of products in our catalogue
+     */
+    private static final int CATALOGUE_SIZE = 100000;
+
+    /**
+     * Longest latency we can record, anything longer is recorded as this
+     */
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final ServiceFixture service;
+
+    private final UUID uuid;
+
+    private HotKeyStorm(List<Product> products, int packageSize, long coalesceTimeoutMillis) throws IOException {
+        this.service = new ServiceFixture(new HeapProductCatalogue(), 100000, coalesceTimeoutMillis);
+        this.service.productRepository.addProducts(products, this.service.productRepository.startChangeSet());
+
+        Package p = Datasets.packages(this.service.productRepository.getOrdinals(), 1, packageSize, products).get(0);
+        this.service.packageRepository.addPackage(p);
+        this.uuid = p.getUuid();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int storms = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int packageSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+            System.err.println("This JVM can't measure thread CPU time");
+            System.exit(2);
+        }
+
+        THREADS.setThreadCpuTimeEnabled(true);
+        List<Product> products = Datasets.products(CATALOGUE_SIZE);
+
+        System.out.println("coalescing=off " + new HotKeyStorm(products, packageSize, 0).run(threads, storms));
+        System.out.println("coalescing=on  " + new HotKeyStorm(products, packageSize, 100).run(threads, storms));
+    }
+
+    /**
+     * Run warm up storms and then the storms we measure.
+     */
+    private Result run(int threads, int storms) throws InterruptedException {
+        // the last thread to arrive changes the package, so every storm starts with a stale response
+        CyclicBarrier barrier = new CyclicBarrier(threads, () -> this.service.packageRepository.updatePackage(
+                this.uuid, version -> true, current -> current.with(null, null, null)));
+        List<Worker> workers = new ArrayList<>(threads);
+
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(barrier, storms);
+            workers.add(worker);
+            worker.start();
+        }
+
+        Result result = new Result();
+
+        for (Worker worker : workers) {
+            worker.join();
+            result.add(worker);
+        }
+
+        result.coalesced = this.service.responseCache.getCoalesced();
+        return result;
+    }
+
+    /**
+     * Takes part in every storm, fetching the package once in each.
+     */
+    private final class Worker extends Thread {
+        private final CyclicBarrier barrier;
+
+        private final int storms;
+
+        private final Histogram latencies = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+
+        private long cpuNanos;
+
+        private Worker(CyclicBarrier barrier, int storms) {
+            this.barrier = barrier;
+            this.storms = storms;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int storm = -this.storms; storm < this.storms; storm++) {
+                    this.barrier.await();
+
+                    long cpu = THREADS.getCurrentThreadCpuTime();
+                    long start = System.nanoTime();
+                    HotKeyStorm.this.service.controller.getPackage(HotKeyStorm.this.uuid, "EUR", null, null);
+
+                    // storms before 0 are warming up
+                    if (storm >= 0) {
+                        this.latencies.recordValue(Math.min(System.nanoTime() - start, HIGHEST_TRACKABLE_NANOS));
+                        this.cpuNanos += THREADS.getCurrentThreadCpuTime() - cpu;
+                    }
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Everything measured across every worker.
+     */
+    private static final class Result {
+        private final Histogram latencies = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+
+        private long cpuNanos;
+
+        /**
+         * Requests given a response another request built, including warm up storms
+         */
+        private long coalesced;
+
+        private void add(Worker worker) {
+            this.latencies.add(worker.latencies);
+            this.cpuNanos += worker.cpuNanos;
+        }
+
+        @Override
+        public String toString() {
+            long requests = this.latencies.getTotalCount();
+
+            return String.format(Locale.ROOT, "requests=%d cpu=%.1fus/request p50=%.2fms p99=%.2fms max=%.2fms "
+                            + "coalesced=%d",
+                    requests, this.cpuNanos / 1e3 / requests,
+                    this.latencies.getValueAtPercentile(50.0) / 1e6,
+                    this.latencies.getValueAtPercentile(99.0) / 1e6,
+                    this.latencies.getMaxValue() / 1e6, this.coalesced);
+        }
+    }
+}
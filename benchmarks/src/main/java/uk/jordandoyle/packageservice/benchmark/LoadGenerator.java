@@ -0,0 +1,414 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds a large number of keep-alive connections open to a running service and sends requests down every one of them
+ * as fast as the service will answer, then reports throughput and latency percentiles. Each connection waits for a
+ * response before sending its next request, so the number of connections is the number of requests in flight.
+ *
+ * All the connections are driven by a handful of selector threads rather than a thread each, so the load generator
+ * itself can hold tens of thousands of connections open.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar uk.jordandoyle.packageservice.benchmark.LoadGenerator \
+ *     http://localhost:8080/package?limit=10 10000 30 10
+ * </pre>
+ *
+ * Arguments are the URL to request, the number of connections, how many seconds to measure for and how many seconds
+ * to warm up for first. Any further arguments are sent as request headers, such as {@code "X-Client-Id: flood"}.
+ */
+public final class LoadGenerator {
+    /**
+     * Longest latency we can record, anything longer is recorded as this
+     */
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final InetSocketAddress address;
+
+    private final byte[] request;
+
+    private final int connections;
+
+    private LoadGenerator(URI uri, int connections, List<String> headers) {
+        int port = uri.getPort() < 0 ? 80 : uri.getPort();
+        String path = uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        StringBuilder request = new StringBuilder("GET ").append(path).append(" HTTP/1.1\r\nHost: ")
+                .append(uri.getHost()).append(':').append(port).append("\r\n");
+
+        for (String header : headers) {
+            request.append(header).append("\r\n");
+        }
+
+        this.address = new InetSocketAddress(uri.getHost(), port);
+        this.request = request.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+        this.connections = connections;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LoadGenerator <url> <connections> [seconds] [warmup seconds] [header...]");
+            System.exit(2);
+        }
+
+        List<String> headers = args.length > 4 ? Arrays.asList(args).subList(4, args.length) : Collections.emptyList();
+        LoadGenerator generator = new LoadGenerator(URI.create(args[0]), Integer.parseInt(args[1]), headers);
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 30;
+        long warmup = args.length > 3 ? Long.parseLong(args[3]) : 10;
+
+        Result result = generator.run(TimeUnit.SECONDS.toNanos(warmup), TimeUnit.SECONDS.toNanos(seconds));
+        System.out.println(result);
+    }
+
+    /**
+     * Run the load.
+     *
+     * @param warmupNanos how long to send requests for before we start measuring
+     * @param nanos       how long to measure for
+     * @return what we measured
+     */
+    private Result run(long warmupNanos, long nanos) throws InterruptedException {
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), this.connections));
+        long start = System.nanoTime() + warmupNanos;
+        long end = start + nanos;
+        List<Worker> workers = new ArrayList<>(threads);
+
+        for (int i = 0; i < threads; i++) {
+            int share = this.connections / threads + (i < this.connections % threads ? 1 : 0);
+            Worker worker = new Worker(share, start, end);
+            workers.add(worker);
+            worker.start();
+        }
+
+        Result result = new Result(this.connections, nanos);
+
+        for (Worker worker : workers) {
+            worker.join();
+            result.add(worker);
+        }
+
+        return result;
+    }
+
+    /**
+     * Drives a share of the connections from a single thread.
+     */
+    private final class Worker extends Thread {
+        private final int connections;
+
+        private final long start;
+
+        private final long end;
+
+        private final Histogram latencies = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+
+        private long errors;
+
+        private long failedResponses;
+
+        private Worker(int connections, long start, long end) {
+            super("load-" + connections);
+            this.connections = connections;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            try (Selector selector = Selector.open()) {
+                for (int i = 0; i < this.connections; i++) {
+                    this.connect(selector);
+                }
+
+                while (System.nanoTime() < this.end) {
+                    selector.select(100);
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        this.handle(selector, key);
+                    }
+                }
+
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Load generator failed", e);
+            }
+        }
+
+        private void connect(Selector selector) throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(LoadGenerator.this.address);
+            channel.register(selector, SelectionKey.OP_CONNECT, new Connection());
+        }
+
+        private void handle(Selector selector, SelectionKey key) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    this.send(key, connection);
+                } else if (key.isWritable()) {
+                    channel.write(connection.out);
+
+                    if (!connection.out.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    this.read(selector, key, channel, connection);
+                }
+            } catch (IOException e) {
+                this.errors++;
+                this.reconnect(selector, key);
+            }
+        }
+
+        private void read(Selector selector, SelectionKey key, SocketChannel channel, Connection connection)
+                throws IOException {
+            if (channel.read(connection.in) < 0) {
+                // the server closed the connection, which it'll do every so often even with keep-alive
+                this.reconnect(selector, key);
+                return;
+            }
+
+            Response response = connection.parse();
+
+            if (response == null) {
+                return;
+            }
+
+            long now = System.nanoTime();
+
+            if (connection.sentAt >= this.start && now <= this.end) {
+                this.latencies.recordValue(Math.min(now - connection.sentAt, HIGHEST_TRACKABLE_NANOS));
+
+                if (response.status < 200 || response.status >= 300) {
+                    this.failedResponses++;
+                }
+            }
+
+            if (response.close) {
+                this.reconnect(selector, key);
+            } else {
+                this.send(key, connection);
+            }
+        }
+
+        private void send(SelectionKey key, Connection connection) throws IOException {
+            connection.out = ByteBuffer.wrap(LoadGenerator.this.request);
+            connection.sentAt = System.nanoTime();
+            ((SocketChannel) key.channel()).write(connection.out);
+            key.interestOps(connection.out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        private void reconnect(Selector selector, SelectionKey key) {
+            key.cancel();
+
+            try {
+                key.channel().close();
+                this.connect(selector);
+            } catch (IOException e) {
+                this.errors++;
+            }
+        }
+    }
+
+    /**
+     * A response we've finished reading.
+     */
+    private static final class Response {
+        private final int status;
+
+        /**
+         * Whether the server is closing the connection after this response
+         */
+        private final boolean close;
+
+        private Response(int status, boolean close) {
+            this.status = status;
+            this.close = close;
+        }
+    }
+
+    /**
+     * State of a single connection: the request being written and the response read so far.
+     */
+    private static final class Connection {
+        private ByteBuffer out;
+
+        private ByteBuffer in = ByteBuffer.allocate(16384);
+
+        private long sentAt;
+
+        /**
+         * Check if we've read a whole response yet. Once we have it's removed from the buffer.
+         *
+         * @return the response, or {@code null} if we haven't read all of it yet
+         */
+        private Response parse() {
+            byte[] bytes = this.in.array();
+            int length = this.in.position();
+            int headersEnd = indexOf(bytes, 0, length, "\r\n\r\n");
+
+            if (headersEnd < 0) {
+                this.growIfFull();
+                return null;
+            }
+
+            String headers = new String(bytes, 0, headersEnd, StandardCharsets.US_ASCII).toLowerCase(Locale.ROOT);
+            int bodyStart = headersEnd + 4;
+            int end;
+
+            if (headers.contains("\r\ntransfer-encoding: chunked")) {
+                end = chunkedEnd(bytes, bodyStart, length);
+            } else {
+                String contentLength = header(headers, "content-length");
+                end = bodyStart + (contentLength == null ? 0 : Integer.parseInt(contentLength));
+            }
+
+            if (end < 0 || end > length) {
+                this.growIfFull();
+                return null;
+            }
+
+            // keep anything after this response, there shouldn't be any since we only send one request at a time
+            System.arraycopy(bytes, end, bytes, 0, length - end);
+            this.in.position(length - end);
+
+            int status = Integer.parseInt(headers.substring(9, 12));
+            return new Response(status, "close".equals(header(headers, "connection")));
+        }
+
+        private void growIfFull() {
+            if (!this.in.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(this.in.capacity() * 2);
+                this.in.flip();
+                bigger.put(this.in);
+                this.in = bigger;
+            }
+        }
+
+        /**
+         * Find the end of a chunked body.
+         *
+         * @return index just after the body, or -1 if we haven't read all of it yet
+         */
+        private static int chunkedEnd(byte[] bytes, int position, int length) {
+            while (true) {
+                int lineEnd = indexOf(bytes, position, length, "\r\n");
+
+                if (lineEnd < 0) {
+                    return -1;
+                }
+
+                String size = new String(bytes, position, lineEnd - position, StandardCharsets.US_ASCII);
+                int extension = size.indexOf(';');
+                int chunkSize = Integer.parseInt((extension < 0 ? size : size.substring(0, extension)).trim(), 16);
+
+                if (chunkSize == 0) {
+                    // no trailers are sent to us, so the body ends with an empty line
+                    int end = indexOf(bytes, lineEnd, length, "\r\n\r\n");
+                    return end < 0 ? -1 : end + 4;
+                }
+
+                position = lineEnd + 2 + chunkSize + 2;
+
+                if (position > length) {
+                    return -1;
+                }
+            }
+        }
+
+        private static String header(String headers, String name) {
+            int index = headers.indexOf("\r\n" + name + ":");
+
+            if (index < 0) {
+                return null;
+            }
+
+            int start = index + name.length() + 3;
+            int end = headers.indexOf("\r\n", start);
+            return headers.substring(start, end < 0 ? headers.length() : end).trim();
+        }
+
+        private static int indexOf(byte[] bytes, int from, int length, String pattern) {
+            outer:
+            for (int i = from; i <= length - pattern.length(); i++) {
+                for (int j = 0; j < pattern.length(); j++) {
+                    if (bytes[i + j] != pattern.charAt(j)) {
+                        continue outer;
+                    }
+                }
+
+                return i;
+            }
+
+            return -1;
+        }
+    }
+
+    /**
+     * Everything measured across every worker.
+     */
+    private static final class Result {
+        private final int connections;
+
+        private final long nanos;
+
+        private final Histogram latencies = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+
+        private long errors;
+
+        private long failedResponses;
+
+        private Result(int connections, long nanos) {
+            this.connections = connections;
+            this.nanos = nanos;
+        }
+
+        private void add(Worker worker) {
+            this.latencies.add(worker.latencies);
+            this.errors += worker.errors;
+            this.failedResponses += worker.failedResponses;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = this.nanos / 1e9;
+
+            return String.format(Locale.ROOT, "connections=%d requests=%d throughput=%.0f/s p50=%.2fms "
+                            + "p99=%.2fms p999=%.2fms max=%.2fms non-2xx=%d errors=%d",
+                    this.connections, this.latencies.getTotalCount(), this.latencies.getTotalCount() / seconds,
+                    millis(this.latencies.getValueAtPercentile(50.0)),
+                    millis(this.latencies.getValueAtPercentile(99.0)),
+                    millis(this.latencies.getValueAtPercentile(99.9)),
+                    millis(this.latencies.getMaxValue()), this.failedResponses, this.errors);
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.buffer.BufferCounterService;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffers;
+import uk.jordandoyle.packageservice.metrics.LatencyHistograms;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What our instrumentation adds to every request: timing it into a latency histogram and bumping a counter. This
+ * needs to stay well under a microsecond, including when every request thread is recording at once.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private final LatencyHistograms.Latency latency = new LatencyHistograms(60000).forHandler("getPackage");
+
+    private final CounterService counterService = new BufferCounterService(new CounterBuffers());
+
+    @Benchmark
+    public void recordLatency() {
+        long started = System.nanoTime();
+        this.latency.record(System.nanoTime() - started);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordLatencyContended() {
+        long started = System.nanoTime();
+        this.latency.record(System.nanoTime() - started);
+    }
+
+    @Benchmark
+    public void incrementCounter() {
+        this.counterService.increment("package.get.currency-rejected");
+    }
+}
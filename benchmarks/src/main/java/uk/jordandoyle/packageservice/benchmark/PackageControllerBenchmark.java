@@ -0,0 +1,144 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.request.PackageRequest;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hot paths through {@link uk.jordandoyle.packageservice.web.PackageController}, called directly rather than
+ * over HTTP so we only measure our own code.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PackageControllerBenchmark {
+    /**
+     * Number of products in our catalogue
+     */
+    private static final int CATALOGUE_SIZE = 100000;
+
+    /**
+     * Number of packages created by each batch request
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * A service holding a set of packages to fetch.
+     */
+    @State(Scope.Benchmark)
+    public static class GetState {
+        /**
+         * USD is served without any conversion
+         */
+        @Param({"USD", "EUR"})
+        public String currency;
+
+        /**
+         * Whether serialised responses are cached, without it every request converts and serialises the package
+         */
+        @Param({"true", "false"})
+        public boolean responseCache;
+
+        @Param({"10"})
+        public int packageSize;
+
+        private ServiceFixture service;
+
+        private UUID[] uuids;
+
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            this.service = new ServiceFixture(new HeapProductCatalogue(), this.responseCache ? 100000 : 0);
+
+            List<Product> products = Datasets.products(CATALOGUE_SIZE);
+            this.service.productRepository.addProducts(products, this.service.productRepository.startChangeSet());
+
+            List<Package> packages = Datasets.packages(this.service.productRepository.getOrdinals(), 1024,
+                    this.packageSize, products);
+            this.uuids = new UUID[packages.size()];
+
+            for (int i = 0; i < packages.size(); i++) {
+                this.service.packageRepository.addPackage(packages.get(i));
+                this.uuids[i] = packages.get(i).getUuid();
+            }
+        }
+
+        private UUID nextUuid() {
+            return this.uuids[this.next++ & (this.uuids.length - 1)];
+        }
+    }
+
+    /**
+     * A service to create packages in, emptied out before every iteration so it doesn't grow without bound.
+     */
+    @State(Scope.Benchmark)
+    public static class CreateState {
+        @Param({"1", "10", "1000"})
+        public int packageSize;
+
+        private List<Product> products;
+
+        private PackageRequest request;
+
+        /**
+         * {@link #BATCH_SIZE} copies of {@link #request}
+         */
+        private List<PackageRequest> batch;
+
+        private ServiceFixture service;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.products = Datasets.products(CATALOGUE_SIZE);
+            this.request = Datasets.packageRequest(this.packageSize, this.products);
+            this.batch = Collections.nCopies(BATCH_SIZE, this.request);
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() throws IOException {
+            this.service = new ServiceFixture(new HeapProductCatalogue(), 100000);
+            this.service.productRepository.addProducts(this.products, this.service.productRepository.startChangeSet());
+        }
+    }
+
+    @Benchmark
+    public ResponseEntity<byte[]> getPackage(GetState state) throws IOException {
+        return state.service.controller.getPackage(state.nextUuid(), state.currency, null, null);
+    }
+
+    @Benchmark
+    public ResponseEntity createPackage(CreateState state) {
+        return state.service.controller.createPackage(state.request);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public ResponseEntity createPackagesBatch(CreateState state) {
+        return state.service.controller.createPackages(state.batch);
+    }
+}
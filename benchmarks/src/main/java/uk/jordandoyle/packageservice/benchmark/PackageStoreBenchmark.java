@@ -0,0 +1,146 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.domain.ProductOrdinals;
+import uk.jordandoyle.packageservice.store.LogPackageStore;
+import uk.jordandoyle.packageservice.store.StoredPackage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Write throughput and recovery time of {@link LogPackageStore}.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PackageStoreBenchmark {
+    /**
+     * An open store to write packages to.
+     */
+    @State(Scope.Benchmark)
+    public static class WriteState {
+        @Param({"true", "false"})
+        public boolean fsync;
+
+        private Path directory;
+
+        private LogPackageStore store;
+
+        private Package p;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            this.directory = Files.createTempDirectory("package-store");
+            this.store = new LogPackageStore(this.directory, this.fsync);
+            this.store.recover();
+            this.p = Datasets.packages(new ProductOrdinals(), 1, 10, Datasets.products(10)).get(0);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            this.store.close();
+            delete(this.directory);
+        }
+    }
+
+    /**
+     * A store on disk holding a log of packages and, optionally, a snapshot.
+     */
+    @State(Scope.Benchmark)
+    public static class RecoveryState {
+        @Param({"100000"})
+        public int packages;
+
+        @Param({"true", "false"})
+        public boolean snapshot;
+
+        private Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            this.directory = Files.createTempDirectory("package-store");
+            List<Package> packages = Datasets.packages(new ProductOrdinals(), this.packages, 5,
+                    Datasets.products(10000));
+
+            try (LogPackageStore store = new LogPackageStore(this.directory, false)) {
+                store.recover();
+
+                for (Package p : packages) {
+                    store.save(p);
+                }
+
+                if (this.snapshot) {
+                    store.snapshot(packages);
+                } else {
+                    store.save(packages.get(0)).join();
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(this.directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(1)
+    public void saveSingleWriter(WriteState state) {
+        state.store.save(state.p).join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(32)
+    public void saveConcurrentWriters(WriteState state) {
+        // concurrent writers share fsyncs through group commit
+        state.store.save(state.p).join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public Collection<StoredPackage> recover(RecoveryState state) throws IOException {
+        try (LogPackageStore store = new LogPackageStore(state.directory, false)) {
+            return store.recover();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            List<Path> paths = new ArrayList<>();
+            files.sorted(Comparator.reverseOrder()).forEach(paths::add);
+
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
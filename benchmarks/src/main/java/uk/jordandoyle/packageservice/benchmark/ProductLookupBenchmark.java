@@ -0,0 +1,104 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.catalogue.MappedProductCatalogue;
+import uk.jordandoyle.packageservice.catalogue.ProductCatalogue;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.repository.ProductRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Product lookups through {@link ProductRepository} with each of our catalogue backends.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class ProductLookupBenchmark {
+    @Param({"heap", "mapped"})
+    public String catalogue;
+
+    @Param({"1000000"})
+    public int products;
+
+    private Path directory;
+
+    private ProductCatalogue productCatalogue;
+
+    private ProductRepository productRepository;
+
+    /**
+     * Ids to look up, in a fixed random order
+     */
+    private String[] ids;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (this.catalogue.equals("mapped")) {
+            this.directory = Files.createTempDirectory("product-catalogue");
+            this.productCatalogue = new MappedProductCatalogue(this.directory);
+        } else {
+            this.productCatalogue = new HeapProductCatalogue();
+        }
+
+        this.productRepository = new ProductRepository(this.productCatalogue);
+        List<Product> products = Datasets.products(this.products);
+        this.productRepository.addProducts(products, this.productRepository.startChangeSet());
+
+        Random random = new Random(Datasets.SEED);
+        this.ids = new String[1 << 16];
+
+        for (int i = 0; i < this.ids.length; i++) {
+            // copied, as ids parsed from a request would be, so lookups can't match keys by identity
+            this.ids[i] = new String(products.get(random.nextInt(products.size())).getId());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.productCatalogue.close();
+
+        if (this.directory != null) {
+            Files.deleteIfExists(this.directory.resolve("products.idx"));
+            Files.deleteIfExists(this.directory.resolve("products.dat"));
+            Files.deleteIfExists(this.directory);
+        }
+    }
+
+    private String nextId() {
+        return this.ids[this.next++ & (this.ids.length - 1)];
+    }
+
+    @Benchmark
+    public Product getProductById() {
+        return this.productRepository.getProductById(this.nextId());
+    }
+
+    @Benchmark
+    public int getPrice() {
+        return this.productRepository.getPrice(this.nextId());
+    }
+}
@@ -0,0 +1,158 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.catalogue.MappedProductCatalogue;
+import uk.jordandoyle.packageservice.catalogue.ProductCatalogue;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.repository.ProductChangeSet;
+import uk.jordandoyle.packageservice.repository.ProductRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk operations on {@link ProductRepository} and {@link uk.jordandoyle.packageservice.repository.PackageRepository}
+ * at the sizes we see in production.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RepositoryBenchmark {
+    /**
+     * Size of the batches {@link uk.jordandoyle.packageservice.service.ProductServiceSynchroniser} hands over
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * A repository already holding the full catalogue, ready to be resynced.
+     */
+    @State(Scope.Benchmark)
+    public static class ResyncState {
+        @Param({"heap", "mapped"})
+        public String catalogue;
+
+        @Param({"1000000"})
+        public int products;
+
+        /**
+         * Change the price of every nth product on each resync, 0 for a resync where nothing changed
+         */
+        @Param({"0", "100"})
+        public int changeEvery;
+
+        private Path directory;
+
+        private ProductCatalogue productCatalogue;
+
+        private ProductRepository productRepository;
+
+        /**
+         * Catalogues to alternate between so that every resync sees the same number of changes
+         */
+        private List<Product> original;
+
+        private List<Product> changed;
+
+        private boolean flip;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            if (this.catalogue.equals("mapped")) {
+                this.directory = Files.createTempDirectory("product-catalogue");
+                this.productCatalogue = new MappedProductCatalogue(this.directory);
+            } else {
+                this.productCatalogue = new HeapProductCatalogue();
+            }
+
+            this.productRepository = new ProductRepository(this.productCatalogue);
+            this.original = Datasets.products(this.products);
+            this.changed = Datasets.changedProducts(this.original, this.changeEvery);
+            this.productRepository.addProducts(Datasets.changedProducts(this.original, 0),
+                    this.productRepository.startChangeSet());
+        }
+
+        private List<Product> nextCatalogue() {
+            this.flip = !this.flip;
+            return this.flip ? this.changed : this.original;
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            this.productCatalogue.close();
+
+            if (this.directory != null) {
+                Files.deleteIfExists(this.directory.resolve("products.idx"));
+                Files.deleteIfExists(this.directory.resolve("products.dat"));
+                Files.deleteIfExists(this.directory);
+            }
+        }
+    }
+
+    /**
+     * A repository holding a large number of packages.
+     */
+    @State(Scope.Benchmark)
+    public static class PackagesState {
+        @Param({"1000000"})
+        public int packages;
+
+        private ServiceFixture service;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            this.service = new ServiceFixture(new HeapProductCatalogue(), 0);
+
+            List<Product> products = Datasets.products(10000);
+            this.service.productRepository.addProducts(products, this.service.productRepository.startChangeSet());
+
+            for (Package p : Datasets.packages(this.service.productRepository.getOrdinals(), this.packages, 5,
+                    products)) {
+                this.service.packageRepository.addPackage(p);
+            }
+        }
+    }
+
+    @Benchmark
+    public ProductChangeSet resyncCatalogue(ResyncState state) {
+        ProductRepository repository = state.productRepository;
+        List<Product> products = state.nextCatalogue();
+        ProductChangeSet changes = repository.startChangeSet();
+
+        for (int i = 0; i < products.size(); i += BATCH_SIZE) {
+            repository.addProducts(products.subList(i, Math.min(i + BATCH_SIZE, products.size())), changes);
+        }
+
+        return changes;
+    }
+
+    @Benchmark
+    public long getPackages(PackagesState state) {
+        // walk every package the way GET /package would when serialising them
+        long versions = 0;
+
+        for (Package p : state.service.packageRepository.getPackages()) {
+            versions += p.getVersion();
+        }
+
+        return versions;
+    }
+}
@@ -0,0 +1,104 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.repository.PackageQuery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A page of results from {@link uk.jordandoyle.packageservice.repository.PackageRepository#search} for queries that
+ * each lean on a different index. Generated packages are named {@code Package number <i>}, so a name search for a
+ * number only matches a handful of packages while a search for {@code package} matches all of them.
+ *
+ * Run with {@code -p packages=10000000 -jvmArgsAppend -Xmx12g} to check searches at the largest size we plan for.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+    /**
+     * Packages in each page of results, the same as the default for {@code GET /package/search}
+     */
+    private static final int PAGE_SIZE = 100;
+
+    @State(Scope.Benchmark)
+    public static class PackagesState {
+        @Param({"1000000"})
+        public int packages;
+
+        private ServiceFixture service;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            this.service = new ServiceFixture(new HeapProductCatalogue(), 0);
+
+            List<Product> products = Datasets.products(10000);
+            this.service.productRepository.addProducts(products, this.service.productRepository.startChangeSet());
+
+            List<Package> batch = new ArrayList<>(1000);
+
+            for (Package p : Datasets.packages(this.service.productRepository.getOrdinals(), this.packages, 5,
+                    products)) {
+                batch.add(p);
+
+                if (batch.size() == 1000) {
+                    this.service.packageRepository.addPackages(batch);
+                    batch.clear();
+                }
+            }
+
+            this.service.packageRepository.addPackages(batch);
+        }
+
+        private List<Package> search(PackageQuery query) {
+            return this.service.packageRepository.search(query, null, PAGE_SIZE);
+        }
+    }
+
+    @Benchmark
+    public List<Package> byName(PackagesState state) {
+        return state.search(new PackageQuery("12345", null, null, null));
+    }
+
+    @Benchmark
+    public List<Package> byProduct(PackagesState state) {
+        return state.search(new PackageQuery(null, Collections.singletonList("P42"), null, null));
+    }
+
+    @Benchmark
+    public List<Package> byPriceRange(PackagesState state) {
+        return state.search(new PackageQuery(null, null, 250000L, 250500L));
+    }
+
+    @Benchmark
+    public List<Package> byProductAndPrice(PackagesState state) {
+        // the product narrows it down the most, its packages are then checked against the price
+        return state.search(new PackageQuery(null, Collections.singletonList("P42"), 300000L, null));
+    }
+
+    @Benchmark
+    public List<Package> unselective(PackagesState state) {
+        // matches most packages, so we walk them in order until we've filled a page
+        return state.search(new PackageQuery("package", null, 100000L, null));
+    }
+}
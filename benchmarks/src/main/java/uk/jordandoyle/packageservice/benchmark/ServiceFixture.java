@@ -0,0 +1,111 @@
+package uk.jordandoyle.packageservice.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.buffer.BufferCounterService;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffers;
+import org.springframework.util.ReflectionUtils;
+import uk.jordandoyle.packageservice.catalogue.ProductCatalogue;
+import uk.jordandoyle.packageservice.cluster.Cluster;
+import uk.jordandoyle.packageservice.cluster.PackageRouter;
+import uk.jordandoyle.packageservice.domain.ExchangeRate;
+import uk.jordandoyle.packageservice.feed.PriceFeed;
+import uk.jordandoyle.packageservice.repository.ExchangeRateRepository;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+import uk.jordandoyle.packageservice.repository.ProductRepository;
+import uk.jordandoyle.packageservice.store.InMemoryPackageStore;
+import uk.jordandoyle.packageservice.web.PackageController;
+import uk.jordandoyle.packageservice.web.PackageResponseCache;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+/**
+ * The service's controller and repositories wired together by hand, the same way Spring would wire them, so
+ * benchmarks can call straight into them without starting an application context or a web server.
+ */
+public final class ServiceFixture {
+    /**
+     * Exchange rates used by every benchmark
+     */
+    private static final String EXCHANGE_RATES = "{\"base\":\"USD\",\"date\":\"2017-07-03\","
+            + "\"rates\":{\"EUR\":0.87943,\"GBP\":0.77211,\"JPY\":113.24}}";
+
+    public final ProductRepository productRepository;
+
+    public final PackageRepository packageRepository;
+
+    public final ExchangeRateRepository exchangeRateRepository;
+
+    public final PackageResponseCache responseCache;
+
+    public final PackageController controller;
+
+    /**
+     * Wire up the service.
+     *
+     * @param catalogue         catalogue to hold products in
+     * @param responseCacheSize maximum size of the response cache, 0 disables it
+     */
+    public ServiceFixture(ProductCatalogue catalogue, long responseCacheSize) throws IOException {
+        this(catalogue, responseCacheSize, 100);
+    }
+
+    /**
+     * Wire up the service.
+     *
+     * @param catalogue             catalogue to hold products in
+     * @param responseCacheSize     maximum size of the response cache, 0 disables it
+     * @param coalesceTimeoutMillis longest a request waits for another to build the same response, 0 never waits
+     */
+    public ServiceFixture(ProductCatalogue catalogue, long responseCacheSize, long coalesceTimeoutMillis)
+            throws IOException {
+        this.productRepository = new ProductRepository(catalogue);
+
+        this.packageRepository = new PackageRepository();
+        inject(this.packageRepository, "packageStore", new InMemoryPackageStore());
+        inject(this.packageRepository, "productRepository", this.productRepository);
+
+        this.exchangeRateRepository = new ExchangeRateRepository();
+        this.exchangeRateRepository.setCurrentExchangeRate(
+                JacksonFactory.getDefaultInstance().fromString(EXCHANGE_RATES, ExchangeRate.class));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        this.responseCache = new PackageResponseCache(responseCacheSize, coalesceTimeoutMillis);
+        inject(this.responseCache, "objectMapper", objectMapper);
+
+        CounterService counterService = new BufferCounterService(new CounterBuffers());
+
+        PriceFeed priceFeed = new PriceFeed(256, 1, false);
+        inject(priceFeed, "packageRepository", this.packageRepository);
+        inject(priceFeed, "exchangeRateRepository", this.exchangeRateRepository);
+        inject(priceFeed, "counterService", counterService);
+
+        // a single node, so the router hands everything straight to our repository
+        Cluster cluster = new Cluster("", "", 1);
+        PackageRouter packageRouter = new PackageRouter();
+        inject(packageRouter, "cluster", cluster);
+        inject(packageRouter, "packageRepository", this.packageRepository);
+
+        this.controller = new PackageController();
+        inject(this.controller, "productRepository", this.productRepository);
+        inject(this.controller, "packageRepository", this.packageRepository);
+        inject(this.controller, "packageRouter", packageRouter);
+        inject(this.controller, "cluster", cluster);
+        inject(this.controller, "exchangeRateRepository", this.exchangeRateRepository);
+        inject(this.controller, "responseCache", this.responseCache);
+        inject(this.controller, "objectMapper", objectMapper);
+        inject(this.controller, "counterService", counterService);
+        inject(this.controller, "priceFeed", priceFeed);
+    }
+
+    /**
+     * Set an {@code @Autowired} field.
+     */
+    private static void inject(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+}
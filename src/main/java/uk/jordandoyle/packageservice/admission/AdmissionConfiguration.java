@@ -0,0 +1,30 @@
+package uk.jordandoyle.packageservice.admission;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Puts admission control in front of {@code /package}, unless {@code packageservice.admission.enabled} is false.
+ * Cheap and {@link Expensive} requests each get an adaptive concurrency limit, and clients are rate limited too if
+ * {@code packageservice.admission.client-rate} is set. Price feed subscriptions are left alone, they're meant to stay
+ * open. Our interceptor runs before any other so rejected requests cost as little as possible.
+ */
+@Configuration
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(name = "packageservice.admission.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionConfiguration extends WebMvcConfigurerAdapter {
+    @Autowired
+    private AdmissionInterceptor admissionInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this.admissionInterceptor)
+                .addPathPatterns("/package", "/package/**")
+                .excludePathPatterns("/package/prices");
+    }
+}
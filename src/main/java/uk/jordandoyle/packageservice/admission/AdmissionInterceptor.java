@@ -0,0 +1,181 @@
+package uk.jordandoyle.packageservice.admission;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import uk.jordandoyle.packageservice.cluster.Cluster;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether we take on a request before any work is done on it. A client that's used up its token bucket gets
+ * a 429, and a request that would take us over the concurrency limit for its kind of request gets a 503, both with a
+ * {@code Retry-After} and straight away rather than after waiting in a queue. Rejections are counted in
+ * {@code /metrics} as {@code counter.admission.rejected.rate-limited} and
+ * {@code counter.admission.rejected.overloaded.*}.
+ */
+@Component
+@ConditionalOnProperty(name = "packageservice.admission.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionInterceptor extends HandlerInterceptorAdapter {
+    /**
+     * Request attribute holding the admission of a request we've let in, kept until the response is complete
+     */
+    private static final String ADMISSION = AdmissionInterceptor.class.getName() + ".admission";
+
+    /**
+     * Seconds a client turned away because we're overloaded should wait before trying again
+     */
+    private static final String OVERLOADED_RETRY_AFTER = "1";
+
+    private final GradientLimit cheap;
+
+    private final GradientLimit expensive;
+
+    /**
+     * Buckets for each client, or {@code null} if clients aren't rate limited
+     */
+    private final TokenBuckets buckets;
+
+    /**
+     * Tokens an {@link Expensive} request takes from its client's bucket, every other request takes one
+     */
+    private final double expensiveCost;
+
+    /**
+     * Header identifying the client, or {@code null} to tell clients apart by their address
+     */
+    private final String clientHeader;
+
+    @Autowired
+    private CounterService counterService;
+
+    @Autowired
+    private Cluster cluster;
+
+    @Autowired
+    public AdmissionInterceptor(@Value("${packageservice.admission.cheap.initial-limit:100}") int cheapInitial,
+                                @Value("${packageservice.admission.cheap.min-limit:10}") int cheapMin,
+                                @Value("${packageservice.admission.cheap.max-limit:1000}") int cheapMax,
+                                @Value("${packageservice.admission.expensive.initial-limit:10}") int expensiveInitial,
+                                @Value("${packageservice.admission.expensive.min-limit:1}") int expensiveMin,
+                                @Value("${packageservice.admission.expensive.max-limit:100}") int expensiveMax,
+                                @Value("${packageservice.admission.client-rate:0}") double clientRate,
+                                @Value("${packageservice.admission.client-burst:0}") double clientBurst,
+                                @Value("${packageservice.admission.max-clients:100000}") int maxClients,
+                                @Value("${packageservice.admission.expensive-cost:10}") double expensiveCost,
+                                @Value("${packageservice.admission.client-header:}") String clientHeader) {
+        this.cheap = new GradientLimit("cheap", cheapInitial, cheapMin, cheapMax);
+        this.expensive = new GradientLimit("expensive", expensiveInitial, expensiveMin, expensiveMax);
+        // without a burst a client can make a second's worth of requests at once
+        this.buckets = clientRate <= 0 ? null
+                : new TokenBuckets(clientRate, clientBurst > 0 ? clientBurst : clientRate, maxClients);
+        this.expensiveCost = expensiveCost;
+        this.clientHeader = clientHeader.isEmpty() ? null : clientHeader;
+    }
+
+    public List<GradientLimit> getLimits() {
+        return Arrays.asList(this.cheap, this.expensive);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // we're called again when a streamed response is dispatched back to us, it's already been let in
+        if (!(handler instanceof HandlerMethod) || request.getAttribute(ADMISSION) != null) {
+            return true;
+        }
+
+        boolean expensive = ((HandlerMethod) handler).hasMethodAnnotation(Expensive.class);
+
+        // requests forwarded by another node were already charged to their client there
+        boolean forwarded = this.cluster.isForwarded(request);
+
+        if (this.buckets != null && !forwarded) {
+            long waitNanos = this.buckets.tryTake(this.getClient(request), expensive ? this.expensiveCost : 1);
+
+            if (waitNanos > 0) {
+                this.counterService.increment("admission.rejected.rate-limited");
+                // round up, a client retrying a moment too soon would only be turned away again
+                long seconds = TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1);
+                return reject(response, HttpStatus.TOO_MANY_REQUESTS, Long.toString(seconds));
+            }
+        }
+
+        GradientLimit limit = expensive ? this.expensive : this.cheap;
+
+        if (!limit.tryAcquire()) {
+            this.counterService.increment("admission.rejected.overloaded." + limit.getName());
+            return reject(response, HttpStatus.SERVICE_UNAVAILABLE, OVERLOADED_RETRY_AFTER);
+        }
+
+        request.setAttribute(ADMISSION, new Admission(limit, System.nanoTime(), !isExport(request)));
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Admission admission = (Admission) request.getAttribute(ADMISSION);
+
+        if (admission == null) {
+            return;
+        }
+
+        request.removeAttribute(ADMISSION);
+
+        if (admission.sampled) {
+            admission.limit.release(System.nanoTime() - admission.started);
+        } else {
+            admission.limit.release();
+        }
+    }
+
+    private String getClient(HttpServletRequest request) {
+        String client = this.clientHeader == null ? null : request.getHeader(this.clientHeader);
+        return client == null ? request.getRemoteAddr() : client;
+    }
+
+    /**
+     * Check if a request is streaming every package, which takes as long as there are packages to write however
+     * loaded we are, so it tells us nothing about how we're coping.
+     */
+    private static boolean isExport(HttpServletRequest request) {
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        return accept != null && accept.contains("application/x-ndjson");
+    }
+
+    private static boolean reject(HttpServletResponse response, HttpStatus status, String retryAfter) {
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+        return false;
+    }
+
+    /**
+     * A request we've let in and the slot it holds.
+     */
+    private static final class Admission {
+        private final GradientLimit limit;
+
+        private final long started;
+
+        /**
+         * Whether how long the request takes counts towards its limit
+         */
+        private final boolean sampled;
+
+        private Admission(GradientLimit limit, long started, boolean sampled) {
+            this.limit = limit;
+            this.started = started;
+            this.sampled = sampled;
+        }
+    }
+}
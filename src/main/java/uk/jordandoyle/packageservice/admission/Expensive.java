@@ -0,0 +1,18 @@
+package uk.jordandoyle.packageservice.admission;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a controller method whose requests can cost a lot more to answer than a single package lookup, such as
+ * listing packages or working on a batch. They're admitted against their own concurrency limit so a flood of them
+ * can't crowd out cheap requests, and take more tokens from their client's bucket.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Expensive {
+}
@@ -0,0 +1,233 @@
+package uk.jordandoyle.packageservice.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Limit on the number of requests in flight that adapts to how long they take. Latencies are averaged over short
+ * windows and compared with the quickest window we've seen recently, which stands in for how long requests take
+ * without any queueing. While the two are close the limit creeps up, and as the latest window gets slower the limit is
+ * cut by the same proportion, so requests stop queueing for threads and CPU soon after latency starts to climb.
+ *
+ * The quickest window slowly drifts upwards, so if requests genuinely get slower, say because packages have grown,
+ * the limit recovers in a minute or so. A long running average would drift too, but it catches up with an overload
+ * in seconds and lets the limit grow back while requests are still queueing.
+ *
+ * The limit only grows while requests are actually using it, an idle service doesn't talk itself into a limit it has
+ * never been tested at.
+ *
+ * Every release adds its latency to the current window without taking a lock, the limit is only worked out again
+ * once per window, by whichever release finds the window has run its course.
+ */
+public class GradientLimit {
+    /**
+     * Length of each window latencies are averaged over
+     */
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Fewest latencies needed to close a window, so a quiet window doesn't move the limit on one slow request
+     */
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    /**
+     * How much the quickest window's latency drifts upwards each window, around 1.5x a minute
+     */
+    private static final double BASELINE_DRIFT = 0.0007;
+
+    /**
+     * How much slower than the quickest window requests can get before the limit is cut
+     */
+    private static final double TOLERANCE = 1.5;
+
+    /**
+     * Share of each new limit that's blended into the current one, so a single window can't swing it too far
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final String name;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final LongSupplier clock;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Current limit, read on every request so it's kept separately from {@link #estimate}
+     */
+    private volatile int limit;
+
+    /**
+     * Fractional limit the window updates work on, guarded by {@link #closing}
+     */
+    private double estimate;
+
+    /**
+     * Average latency of the quickest window, drifting upwards, in nanoseconds, or 0 until the first window closes,
+     * guarded by {@link #closing}
+     */
+    private double baseline;
+
+    /**
+     * Window latencies are currently being added to
+     */
+    private volatile Window window;
+
+    /**
+     * Held while a window is closed and the limit worked out again
+     */
+    private final Lock closing = new ReentrantLock();
+
+    /**
+     * @param name         name of the requests being limited, for metrics
+     * @param initialLimit limit to start at
+     * @param minLimit     lowest the limit can fall to
+     * @param maxLimit     highest the limit can rise to
+     */
+    public GradientLimit(String name, int initialLimit, int minLimit, int maxLimit) {
+        this(name, initialLimit, minLimit, maxLimit, System::nanoTime);
+    }
+
+    GradientLimit(String name, int initialLimit, int minLimit, int maxLimit, LongSupplier clock) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits for " + name + " have to be 1 <= min <= initial <= max");
+        }
+
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.clock = clock;
+        this.limit = initialLimit;
+        this.estimate = initialLimit;
+        this.window = new Window(clock.getAsLong());
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Take a slot for a request, if we're under the limit. Every slot taken has to be given back with
+     * {@link #release}.
+     *
+     * @return true, if the request can go ahead
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = this.inFlight.get();
+
+            if (current >= this.limit) {
+                return false;
+            }
+
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back a slot, without its latency counting towards the limit.
+     */
+    public void release() {
+        this.inFlight.decrementAndGet();
+    }
+
+    /**
+     * Give back a slot and count how long the request took towards the limit.
+     *
+     * @param latencyNanos how long the request held its slot for
+     */
+    public void release(long latencyNanos) {
+        int peak = this.inFlight.getAndDecrement();
+        Window window = this.window;
+        window.add(latencyNanos, peak);
+
+        if (this.clock.getAsLong() - window.start >= WINDOW_NANOS && window.samples.sum() >= MIN_WINDOW_SAMPLES) {
+            this.close(window);
+        }
+    }
+
+    /**
+     * Start a new window and work out the limit from the one that's just finished, unless another release already
+     * has.
+     */
+    private void close(Window finished) {
+        if (!this.closing.tryLock()) {
+            return;
+        }
+
+        try {
+            if (this.window != finished) {
+                return;
+            }
+
+            // releases still adding to the finished window after this are left out of both windows
+            this.window = new Window(this.clock.getAsLong());
+            this.update(finished);
+        } finally {
+            this.closing.unlock();
+        }
+    }
+
+    private void update(Window finished) {
+        double latency = (double) finished.total.sum() / finished.samples.sum();
+        this.baseline = this.baseline == 0 ? latency : Math.min(latency, this.baseline * (1 + BASELINE_DRIFT));
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * this.baseline / latency));
+        // leave a little headroom for requests to queue, more at higher limits where latency is noisier
+        double target = this.estimate * gradient + Math.sqrt(this.estimate);
+
+        if (target > this.estimate && finished.peak.get() < this.estimate / 2) {
+            // we've not been using the limit we have, so we've no idea if a higher one would be any good
+            target = this.estimate;
+        }
+
+        this.estimate = Math.max(this.minLimit, Math.min(this.maxLimit,
+                this.estimate * (1 - SMOOTHING) + target * SMOOTHING));
+        this.limit = (int) this.estimate;
+    }
+
+    /**
+     * Latencies of the requests released during one window. Releases on many threads add to it at once, so each
+     * total is striped across cells rather than contended on one.
+     */
+    private static final class Window {
+        private final long start;
+
+        private final LongAdder total = new LongAdder();
+
+        private final LongAdder samples = new LongAdder();
+
+        /**
+         * Most requests in flight at once during the window
+         */
+        private final LongAccumulator peak = new LongAccumulator(Math::max, 0);
+
+        private Window(long start) {
+            this.start = start;
+        }
+
+        private void add(long latencyNanos, int inFlight) {
+            this.total.add(latencyNanos);
+            this.samples.increment();
+            this.peak.accumulate(inFlight);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package uk.jordandoyle.packageservice.admission;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket for each client, so no single client can take more than its share of requests. Each bucket fills
+ * at a steady rate up to a burst and every request takes tokens from its client's bucket, more for requests that cost
+ * us more to answer.
+ *
+ * Buckets are dropped once a client has been idle long enough for its bucket to have filled up again, so a dropped
+ * bucket is no different from a new one.
+ */
+public class TokenBuckets {
+    private final double tokensPerNano;
+
+    private final double burst;
+
+    private final LongSupplier clock;
+
+    private final Cache<String, Bucket> buckets;
+
+    /**
+     * @param ratePerSecond tokens added to each bucket a second
+     * @param burst         most tokens a bucket can hold
+     * @param maxClients    most clients we keep a bucket for, the least recently seen are dropped first
+     */
+    public TokenBuckets(double ratePerSecond, double burst, int maxClients) {
+        this(ratePerSecond, burst, maxClients, System::nanoTime);
+    }
+
+    TokenBuckets(double ratePerSecond, double burst, int maxClients, LongSupplier clock) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Token buckets need a positive rate and a burst of at least 1");
+        }
+
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.clock = clock;
+        this.buckets = CacheBuilder.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterAccess((long) Math.ceil(burst / this.tokensPerNano), TimeUnit.NANOSECONDS)
+                .build();
+    }
+
+    /**
+     * Take tokens from a client's bucket, if it has enough.
+     *
+     * @param client identifies the client
+     * @param tokens tokens the request costs, more than the burst are treated as the whole burst
+     * @return 0 if the tokens were taken, otherwise how many nanoseconds until the bucket will have enough
+     */
+    public long tryTake(String client, double tokens) {
+        Bucket bucket;
+
+        try {
+            bucket = this.buckets.get(client, () -> new Bucket(this.burst, this.clock.getAsLong()));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bucket.tryTake(Math.min(tokens, this.burst));
+    }
+
+    private final class Bucket {
+        private double tokens;
+
+        private long updated;
+
+        private Bucket(double tokens, long updated) {
+            this.tokens = tokens;
+            this.updated = updated;
+        }
+
+        private synchronized long tryTake(double wanted) {
+            long now = TokenBuckets.this.clock.getAsLong();
+            this.tokens = Math.min(TokenBuckets.this.burst,
+                    this.tokens + (now - this.updated) * TokenBuckets.this.tokensPerNano);
+            this.updated = now;
+
+            if (this.tokens >= wanted) {
+                this.tokens -= wanted;
+                return 0;
+            }
+
+            return (long) Math.ceil((wanted - this.tokens) / TokenBuckets.this.tokensPerNano);
+        }
+    }
+}
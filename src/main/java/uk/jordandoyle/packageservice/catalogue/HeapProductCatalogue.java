@@ -0,0 +1,69 @@
+package uk.jordandoyle.packageservice.catalogue;
+
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Catalogue holding every product as an object on the heap. Nothing survives a restart.
+ */
+public class HeapProductCatalogue implements ProductCatalogue {
+    /**
+     * All the products we know about
+     */
+    private final Map<String, Product> products = new ConcurrentHashMap<>();
+
+    @Override
+    public Change put(Product product) {
+        Product productRef = this.products.putIfAbsent(product.getId(), product);
+
+        if (productRef == null) {
+            return Change.ADDED;
+        }
+
+        return productRef.update(product) ? Change.CHANGED : Change.UNCHANGED;
+    }
+
+    @Override
+    public Product restore(Product product) {
+        Product existing = this.products.putIfAbsent(product.getId(), product);
+        return existing == null ? product : existing;
+    }
+
+    @Override
+    public Product get(String id) {
+        return this.products.get(id);
+    }
+
+    @Override
+    public int getPrice(String id) {
+        Product product = this.products.get(id);
+        return product == null ? -1 : product.getPrice();
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return this.products.size();
+    }
+
+    @Override
+    public Collection<Product> getProducts() {
+        return Collections.unmodifiableCollection(this.products.values());
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
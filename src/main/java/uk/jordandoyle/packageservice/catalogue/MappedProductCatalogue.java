@@ -0,0 +1,641 @@
+package uk.jordandoyle.packageservice.catalogue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Catalogue holding products off-heap in a pair of memory-mapped files, so a large catalogue doesn't add to heap
+ * size or GC marking time and is still there when we restart.
+ *
+ * {@code products.dat} holds one variable length record per product, appended as products are added:
+ *
+ * <pre>
+ * int    hash of the id
+ * int    price in whole US dollars
+ * short  id length in chars
+ * int    name length in bytes, -1 if the product has no name
+ * int    bytes reserved for the name
+ * char[] id
+ * byte[] UTF-8 name, padded to the reserved length
+ * </pre>
+ *
+ * {@code products.idx} is an open addressing hash table with linear probing. Each slot holds the hash of a product's
+ * id in its high 32 bits and the offset of its record in {@code products.dat} in its low 32 bits, or 0 if empty, and
+ * the table is doubled whenever it becomes half full. Keeping the hash in the slot means a lookup only touches the
+ * record it's after rather than every record it probes past. Prices are read straight out of the mapped record. A
+ * record is rewritten in place when a product changes unless its new name doesn't fit, in which case a new record is
+ * appended and the slot repointed. The index can always be rebuilt from the records, later records for an id
+ * replacing earlier ones.
+ *
+ * Nothing is cached on the heap, every {@link Product} we hand out is decoded from its record when it's asked for.
+ * The instances packages hold are kept up to date by
+ * {@link uk.jordandoyle.packageservice.repository.ProductRepository}.
+ *
+ * Writes are serialised by a {@link StampedLock}. Lookups by id use optimistic reads and only fall back to taking the
+ * read lock if a write happened underneath them.
+ */
+public class MappedProductCatalogue implements ProductCatalogue {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedProductCatalogue.class);
+
+    /**
+     * Magic number of our index, the index is rebuilt from the data file if it's missing or in an older format
+     */
+    private static final int INDEX_MAGIC = 0x50434932;
+
+    private static final int DATA_MAGIC = 0x50434454;
+
+    /**
+     * Size of the header at the start of each file
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Size of the fixed part of a record
+     */
+    private static final int RECORD_HEADER_SIZE = 18;
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private static final long INITIAL_DATA_SIZE = 16 * 1024 * 1024;
+
+    private final FileChannel indexChannel;
+
+    private final FileChannel dataChannel;
+
+    private final StampedLock lock = new StampedLock();
+
+    private volatile MappedByteBuffer index;
+
+    private volatile MappedByteBuffer data;
+
+    /**
+     * Number of slots in the index, always a power of 2
+     */
+    private int capacity;
+
+    /**
+     * Number of products in the catalogue
+     */
+    private volatile int size;
+
+    /**
+     * Offset in the data file the next record will be written at
+     */
+    private long used;
+
+    public MappedProductCatalogue(Path directory) throws IOException {
+        Files.createDirectories(directory);
+
+        this.indexChannel = FileChannel.open(directory.resolve("products.idx"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.dataChannel = FileChannel.open(directory.resolve("products.dat"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (this.dataChannel.size() >= HEADER_SIZE) {
+            this.open();
+        } else {
+            this.create();
+        }
+    }
+
+    /**
+     * Open a catalogue we've written before.
+     */
+    private void open() throws IOException {
+        this.data = this.dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, this.dataChannel.size());
+
+        if (this.data.getInt(0) != DATA_MAGIC) {
+            throw new IOException("Product catalogue files are damaged");
+        }
+
+        this.used = this.data.getLong(8);
+
+        if (this.indexChannel.size() < HEADER_SIZE) {
+            this.rebuildIndex();
+            return;
+        }
+
+        MappedByteBuffer index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, this.indexChannel.size());
+
+        if (index.getInt(0) != INDEX_MAGIC) {
+            this.rebuildIndex();
+            return;
+        }
+
+        this.index = index;
+        this.capacity = index.getInt(4);
+
+        // drop any slots pointing at records that never made it to disk
+        int size = 0;
+
+        for (int slot = 0; slot < this.capacity; slot++) {
+            long entry = index.getLong(slotOffset(slot));
+            int record = record(entry);
+
+            if (entry == 0) {
+                continue;
+            } else if (record < HEADER_SIZE || (long) record + RECORD_HEADER_SIZE > this.used) {
+                LOGGER.warn("Dropping damaged product catalogue entry");
+                index.putLong(slotOffset(slot), 0);
+            } else {
+                size++;
+            }
+        }
+
+        this.size = size;
+        LOGGER.info("Opened product catalogue with {} products", size);
+    }
+
+    /**
+     * Build a new index from the records in our data file.
+     */
+    private void rebuildIndex() throws IOException {
+        LOGGER.info("Rebuilding product catalogue index");
+        this.index = this.createIndex(INITIAL_CAPACITY);
+        this.size = 0;
+
+        for (long record = HEADER_SIZE; record + RECORD_HEADER_SIZE <= this.used; ) {
+            int offset = (int) record;
+            long end = record + RECORD_HEADER_SIZE + this.data.getShort(offset + 8) * 2L
+                    + this.data.getInt(offset + 14);
+
+            if (end > this.used) {
+                LOGGER.warn("Dropping damaged product catalogue entry");
+                break;
+            }
+
+            int hash = this.data.getInt(offset);
+            String id = readId(this.data, offset);
+            int slot = this.find(this.index, this.data, this.capacity, id, hash);
+
+            if (slot >= 0) {
+                // a newer record for a product we've already seen
+                this.index.putLong(slotOffset(slot), entry(hash, offset));
+            } else {
+                this.insert(hash, id, offset);
+            }
+
+            record = end;
+        }
+
+        LOGGER.info("Rebuilt product catalogue index with {} products", this.size);
+    }
+
+    /**
+     * Create an empty catalogue.
+     */
+    private void create() throws IOException {
+        this.data = this.dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_DATA_SIZE);
+        this.data.putInt(0, DATA_MAGIC);
+        this.used = HEADER_SIZE;
+        this.data.putLong(8, this.used);
+
+        this.index = this.createIndex(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Map an empty index with the given number of slots. The file is only ever grown, never truncated, as readers
+     * may still be using the old mapping.
+     */
+    private MappedByteBuffer createIndex(int capacity) throws IOException {
+        long size = HEADER_SIZE + capacity * 8L;
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Product catalogue index is too large");
+        }
+
+        MappedByteBuffer index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        for (int slot = 0; slot < capacity; slot++) {
+            index.putLong(slotOffset(slot), 0);
+        }
+
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, capacity);
+        this.capacity = capacity;
+        return index;
+    }
+
+    @Override
+    public Change put(Product product) {
+        long stamp = this.lock.writeLock();
+
+        try {
+            int hash = hash(product.getId());
+            int slot = this.find(this.index, this.data, this.capacity, product.getId(), hash);
+
+            if (slot < 0) {
+                this.insert(hash, product.getId(), this.append(product, hash));
+                return Change.ADDED;
+            }
+
+            int record = record(this.index.getLong(slotOffset(slot)));
+
+            if (this.data.getInt(record + 4) == product.getPrice()
+                    && nameEquals(this.data, record, product.getName())) {
+                return Change.UNCHANGED;
+            }
+
+            this.data.putInt(record + 4, product.getPrice());
+
+            if (!writeName(this.data, record, product.getName())) {
+                // the new name doesn't fit in the old record, so write out a new one and point the index at it
+                this.index.putLong(slotOffset(slot), entry(hash, this.append(product, hash)));
+            }
+
+            return Change.CHANGED;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write to product catalogue", e);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Product restore(Product product) {
+        Product existing = this.get(product.getId());
+
+        if (existing != null) {
+            return existing;
+        }
+
+        long stamp = this.lock.writeLock();
+
+        try {
+            int hash = hash(product.getId());
+
+            if (this.find(this.index, this.data, this.capacity, product.getId(), hash) < 0) {
+                this.insert(hash, product.getId(), this.append(product, hash));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write to product catalogue", e);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+
+        return this.get(product.getId());
+    }
+
+    @Override
+    public Product get(String id) {
+        long stamp = this.lock.tryOptimisticRead();
+        Product product = this.readProduct(id);
+
+        if (!this.lock.validate(stamp)) {
+            stamp = this.lock.readLock();
+
+            try {
+                product = this.readProduct(id);
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+
+        return product;
+    }
+
+    @Override
+    public int getPrice(String id) {
+        long stamp = this.lock.tryOptimisticRead();
+        int price = this.readPrice(id);
+
+        if (!this.lock.validate(stamp)) {
+            stamp = this.lock.readLock();
+
+            try {
+                price = this.readPrice(id);
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+
+        return price;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public Collection<Product> getProducts() {
+        long stamp = this.lock.readLock();
+
+        try {
+            List<Product> products = new ArrayList<>(this.size);
+
+            for (int slot = 0; slot < this.capacity; slot++) {
+                long entry = this.index.getLong(slotOffset(slot));
+
+                if (entry != 0) {
+                    products.add(read(this.data, record(entry)));
+                }
+            }
+
+            return products;
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void flush() {
+        long stamp = this.lock.readLock();
+
+        try {
+            this.data.force();
+            this.index.force();
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.flush();
+        this.indexChannel.close();
+        this.dataChannel.close();
+    }
+
+    /**
+     * Read a product's price, the caller must validate the read against {@link #lock}.
+     */
+    private int readPrice(String id) {
+        try {
+            int record = this.lookup(id);
+            return record == 0 ? -1 : this.data.getInt(record + 4);
+        } catch (IndexOutOfBoundsException e) {
+            // the buffers were swapped out from under us, this read will fail validation
+            return -1;
+        }
+    }
+
+    /**
+     * Decode a product from its record, the caller must validate the read against {@link #lock}. Lengths are only
+     * ever overwritten with lengths that fit the record, so a read racing a write can decode garbage but never read
+     * outside the record.
+     */
+    private Product readProduct(String id) {
+        try {
+            int record = this.lookup(id);
+            return record == 0 ? null : read(this.data, record);
+        } catch (IndexOutOfBoundsException e) {
+            // the buffers were swapped out from under us, this read will fail validation
+            return null;
+        }
+    }
+
+    /**
+     * Find the record for a product.
+     *
+     * @return offset of the record or 0 if we don't know about the product
+     */
+    private int lookup(String id) {
+        MappedByteBuffer index = this.index;
+        MappedByteBuffer data = this.data;
+        int capacity = index.getInt(4);
+        int slot = this.find(index, data, capacity, id, hash(id));
+        return slot < 0 ? 0 : record(index.getLong(slotOffset(slot)));
+    }
+
+    /**
+     * Find the slot holding a product.
+     *
+     * @return the slot holding the product, or {@code -(empty slot) - 1} for the slot it would go in
+     */
+    private int find(MappedByteBuffer index, MappedByteBuffer data, int capacity, String id, int hash) {
+        int mask = capacity - 1;
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = index.getLong(slotOffset(slot));
+
+            if (entry == 0) {
+                return -slot - 1;
+            } else if (hash(entry) == hash && idEquals(data, record(entry), id)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Add a record for a product we don't know about yet to the index.
+     */
+    private void insert(int hash, String id, int record) throws IOException {
+        if ((this.size + 1) * 2 > this.capacity) {
+            this.resizeIndex(this.capacity * 2);
+        }
+
+        int slot = -this.find(this.index, this.data, this.capacity, id, hash) - 1;
+        this.index.putLong(slotOffset(slot), entry(hash, record));
+        this.size++;
+    }
+
+    /**
+     * Write a new record to the end of the data file.
+     *
+     * @return offset of the record
+     */
+    private int append(Product product, int hash) throws IOException {
+        String id = product.getId();
+        byte[] name = product.getName() == null ? new byte[0] : product.getName().getBytes(StandardCharsets.UTF_8);
+
+        // leave a bit of room so a slightly longer name can be written in place
+        int nameCapacity = name.length + 8;
+        long record = this.used;
+        long end = record + RECORD_HEADER_SIZE + id.length() * 2L + nameCapacity;
+
+        if (end > this.data.capacity()) {
+            this.resizeData(Math.max(end, this.data.capacity() * 2L));
+        }
+
+        MappedByteBuffer data = this.data;
+        int offset = (int) record;
+        data.putInt(offset, hash);
+        data.putInt(offset + 4, product.getPrice());
+        data.putShort(offset + 8, (short) id.length());
+        data.putInt(offset + 10, product.getName() == null ? -1 : name.length);
+        data.putInt(offset + 14, nameCapacity);
+
+        for (int i = 0; i < id.length(); i++) {
+            data.putChar(offset + RECORD_HEADER_SIZE + i * 2, id.charAt(i));
+        }
+
+        int nameOffset = offset + RECORD_HEADER_SIZE + id.length() * 2;
+
+        for (int i = 0; i < name.length; i++) {
+            data.put(nameOffset + i, name[i]);
+        }
+
+        this.used = end;
+        data.putLong(8, this.used);
+        return offset;
+    }
+
+    private void resizeIndex(int capacity) throws IOException {
+        MappedByteBuffer old = this.index;
+        int oldCapacity = this.capacity;
+        long[] entries = new long[this.size];
+        int count = 0;
+
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long entry = old.getLong(slotOffset(slot));
+
+            if (entry != 0) {
+                entries[count++] = entry;
+            }
+        }
+
+        MappedByteBuffer index = this.createIndex(capacity);
+
+        for (int i = 0; i < count; i++) {
+            int slot = hash(entries[i]) & (capacity - 1);
+
+            while (index.getLong(slotOffset(slot)) != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+
+            index.putLong(slotOffset(slot), entries[i]);
+        }
+
+        this.index = index;
+    }
+
+    private void resizeData(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Product catalogue data file is too large");
+        }
+
+        this.data.force();
+        this.data = this.dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * 8;
+    }
+
+    private static int hash(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Pack the hash of a product's id and the offset of its record into an index slot.
+     */
+    private static long entry(int hash, int record) {
+        return (long) hash << 32 | record;
+    }
+
+    private static int hash(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int record(long entry) {
+        return (int) entry;
+    }
+
+    private static boolean idEquals(MappedByteBuffer data, int offset, String id) {
+        if (data.getShort(offset + 8) != id.length()) {
+            return false;
+        }
+
+        int start = offset + RECORD_HEADER_SIZE;
+        int i = 0;
+
+        // compare four chars at a time, the buffer is big endian so the first char is in the high bits
+        for (; i + 4 <= id.length(); i += 4) {
+            long chars = (long) id.charAt(i) << 48 | (long) id.charAt(i + 1) << 32 | (long) id.charAt(i + 2) << 16
+                    | id.charAt(i + 3);
+
+            if (data.getLong(start + i * 2) != chars) {
+                return false;
+            }
+        }
+
+        for (; i < id.length(); i++) {
+            if (data.getChar(start + i * 2) != id.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean nameEquals(MappedByteBuffer data, int record, String name) {
+        String current = readName(data, record);
+        return current == null ? name == null : current.equals(name);
+    }
+
+    /**
+     * Overwrite the name in a record.
+     *
+     * @return false if the name doesn't fit in the record
+     */
+    private static boolean writeName(MappedByteBuffer data, int offset, String name) {
+        byte[] bytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > data.getInt(offset + 14)) {
+            return false;
+        }
+
+        int nameOffset = offset + RECORD_HEADER_SIZE + data.getShort(offset + 8) * 2;
+
+        for (int i = 0; i < bytes.length; i++) {
+            data.put(nameOffset + i, bytes[i]);
+        }
+
+        data.putInt(offset + 10, name == null ? -1 : bytes.length);
+        return true;
+    }
+
+    private static Product read(MappedByteBuffer data, int offset) {
+        return new Product(readId(data, offset), readName(data, offset), data.getInt(offset + 4));
+    }
+
+    private static String readId(MappedByteBuffer data, int offset) {
+        char[] id = new char[data.getShort(offset + 8)];
+
+        for (int i = 0; i < id.length; i++) {
+            id[i] = data.getChar(offset + RECORD_HEADER_SIZE + i * 2);
+        }
+
+        return new String(id);
+    }
+
+    private static String readName(MappedByteBuffer data, int offset) {
+        int length = data.getInt(offset + 10);
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] name = new byte[length];
+        int nameOffset = offset + RECORD_HEADER_SIZE + data.getShort(offset + 8) * 2;
+
+        for (int i = 0; i < length; i++) {
+            name[i] = data.get(nameOffset + i);
+        }
+
+        return new String(name, StandardCharsets.UTF_8);
+    }
+}
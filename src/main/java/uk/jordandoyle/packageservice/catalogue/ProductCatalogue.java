@@ -0,0 +1,79 @@
+package uk.jordandoyle.packageservice.catalogue;
+
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Storage for the products behind {@link uk.jordandoyle.packageservice.repository.ProductRepository}.
+ *
+ * Catalogues don't have to hand out the same {@link Product} instance for a product every time it's asked for. The
+ * instances packages hold on to are tracked by {@link uk.jordandoyle.packageservice.domain.ProductOrdinals}, which
+ * the repository keeps up to date as products change.
+ */
+public interface ProductCatalogue extends Closeable {
+    /**
+     * What happened to a product when it was put into the catalogue.
+     */
+    enum Change {
+        ADDED, CHANGED, UNCHANGED
+    }
+
+    /**
+     * Add a product to the catalogue or update our copy of it.
+     *
+     * @param product latest details of the product
+     * @return what happened to the product
+     */
+    Change put(Product product);
+
+    /**
+     * Add a product to the catalogue only if we don't know about it yet.
+     *
+     * @param product last known details of the product
+     * @return the latest details we have of the product
+     */
+    Product restore(Product product);
+
+    /**
+     * Get a product by its id.
+     *
+     * @param id id of the product
+     * @return the latest details of the product or {@code null} if we don't know about it
+     */
+    Product get(String id);
+
+    /**
+     * Get the price of a product by its id without needing a {@link Product} instance.
+     *
+     * @param id id of the product
+     * @return price in whole US dollars or {@code -1} if we don't know about the product
+     */
+    int getPrice(String id);
+
+    /**
+     * Get the number of products in the catalogue.
+     */
+    int size();
+
+    /**
+     * Check if the catalogue keeps its products between restarts, so whatever it holds when we start up is a whole
+     * catalogue from an earlier sync rather than just the products our packages were read back with.
+     */
+    boolean isPersistent();
+
+    /**
+     * Get every product in the catalogue.
+     */
+    Collection<Product> getProducts();
+
+    /**
+     * Make sure everything put into the catalogue so far has been written out, for catalogues that persist their
+     * products.
+     *
+     * @throws IOException if the catalogue couldn't be written
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,31 @@
+package uk.jordandoyle.packageservice.catalogue;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Picks the {@link ProductCatalogue} to use based on {@code packageservice.product-catalogue.type}, products are held
+ * on the heap unless this is set to {@code mapped}.
+ */
+@Configuration
+public class ProductCatalogueConfiguration {
+    @Bean
+    @ConditionalOnProperty(name = "packageservice.product-catalogue.type", havingValue = "mapped")
+    public ProductCatalogue mappedProductCatalogue(
+            @Value("${packageservice.product-catalogue.directory:data/products}") String directory)
+            throws IOException {
+        return new MappedProductCatalogue(Paths.get(directory));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "packageservice.product-catalogue.type", havingValue = "heap",
+            matchIfMissing = true)
+    public ProductCatalogue heapProductCatalogue() {
+        return new HeapProductCatalogue();
+    }
+}
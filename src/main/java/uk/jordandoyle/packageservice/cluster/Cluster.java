@@ -0,0 +1,225 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * The nodes packages are partitioned between and which of them we are. Every node is named by the base URL other
+ * nodes reach it on, such as {@code http://10.0.0.1:8080}, and every node has to be given the same list of nodes.
+ * Unless {@code packageservice.cluster.nodes} is set we're on our own and own every package.
+ *
+ * Requests between nodes skip steps that were already done by the node they came from, so we only believe a request
+ * came from a node if it has {@code packageservice.cluster.secret} in {@link #SECRET_HEADER}. Without a secret we
+ * fall back to trusting requests from the addresses nodes resolve to, and from this host so it can be administered
+ * locally.
+ */
+@Component
+public class Cluster {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(Cluster.class);
+
+    /**
+     * Header nodes send {@code packageservice.cluster.secret} in
+     */
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+    /**
+     * Our own name, as it appears in the list of nodes
+     */
+    private final String self;
+
+    /**
+     * Number of points each node is placed at around the ring
+     */
+    private final int virtualNodes;
+
+    /**
+     * Secret shared by every node, or empty to trust requests by their address
+     */
+    private final String secret;
+
+    /**
+     * Current ring, or {@code null} if we aren't partitioning packages
+     */
+    private volatile HashRing ring;
+
+    /**
+     * Addresses our nodes resolved to when they were last set
+     */
+    private volatile Set<InetAddress> nodeAddresses = Collections.emptySet();
+
+    public Cluster(String nodes, String self, int virtualNodes) {
+        this(nodes, self, virtualNodes, "");
+    }
+
+    @Autowired
+    public Cluster(@Value("${packageservice.cluster.nodes:}") String nodes,
+                   @Value("${packageservice.cluster.self:}") String self,
+                   @Value("${packageservice.cluster.virtual-nodes:1024}") int virtualNodes,
+                   @Value("${packageservice.cluster.secret:}") String secret) {
+        this.self = normalise(self);
+        this.virtualNodes = virtualNodes;
+        this.secret = secret;
+
+        if (!nodes.trim().isEmpty()) {
+            this.setNodes(Arrays.asList(nodes.split(",")));
+        }
+    }
+
+    /**
+     * Check if packages are partitioned between several nodes.
+     */
+    public boolean isEnabled() {
+        return this.ring != null;
+    }
+
+    public String getSelf() {
+        return this.self;
+    }
+
+    /**
+     * Get the secret nodes send with every request to each other, or an empty string if there isn't one.
+     */
+    public String getSecret() {
+        return this.secret;
+    }
+
+    /**
+     * Check if a request came from another node, or from someone administering the cluster.
+     *
+     * @param request request to check
+     * @return true, if the request has our secret or, without one, came from one of our nodes or this host
+     */
+    public boolean isTrusted(HttpServletRequest request) {
+        if (!this.secret.isEmpty()) {
+            String sent = request.getHeader(SECRET_HEADER);
+
+            // compare in constant time so the secret can't be guessed a character at a time
+            return sent != null && MessageDigest.isEqual(this.secret.getBytes(StandardCharsets.UTF_8),
+                    sent.getBytes(StandardCharsets.UTF_8));
+        }
+
+        try {
+            // the remote address is always a literal, so this never does a lookup
+            InetAddress address = InetAddress.getByName(request.getRemoteAddr());
+            return address.isLoopbackAddress() || this.nodeAddresses.contains(address);
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check if a request was forwarded to us by another node. Any client can send the header a node marks forwarded
+     * requests with, so it only counts if the request is also {@link #isTrusted(HttpServletRequest) trusted}.
+     *
+     * @param request request to check
+     * @return true, if another node forwarded the request
+     */
+    public boolean isForwarded(HttpServletRequest request) {
+        return request.getHeader(PackageForwarder.FORWARDED_BY) != null && this.isTrusted(request);
+    }
+
+    /**
+     * Get every node in the cluster, or just us if we aren't partitioning packages.
+     */
+    public List<String> getNodes() {
+        HashRing ring = this.ring;
+        return ring == null ? Collections.singletonList(this.self) : ring.getNodes();
+    }
+
+    /**
+     * Get the node owning a package.
+     *
+     * @param uuid uuid of the package
+     * @return name of the node, which is {@link #getSelf()} if we own it
+     */
+    public String getOwner(UUID uuid) {
+        HashRing ring = this.ring;
+        return ring == null ? this.self : ring.getOwner(uuid);
+    }
+
+    /**
+     * Check if we own a package.
+     */
+    public boolean isLocal(UUID uuid) {
+        return this.getOwner(uuid).equals(this.self);
+    }
+
+    /**
+     * Change the nodes packages are partitioned between. Packages we hold that now belong to another node have to be
+     * moved by {@link PackageRouter#rebalance()}.
+     *
+     * @param nodes names of every node in the cluster, including us
+     * @return the ring before the change, or {@code null} if we weren't partitioning packages
+     * @throws IllegalArgumentException if we aren't one of the nodes
+     */
+    public synchronized HashRing setNodes(List<String> nodes) {
+        List<String> names = nodes.stream()
+                .map(Cluster::normalise)
+                .filter(name -> !name.isEmpty())
+                .distinct()
+                .collect(Collectors.toList());
+
+        if (!names.contains(this.self)) {
+            throw new IllegalArgumentException("packageservice.cluster.self (" + this.self
+                    + ") has to be one of the nodes " + names);
+        }
+
+        HashRing previous = this.ring;
+        this.ring = new HashRing(names, this.virtualNodes);
+        this.nodeAddresses = resolve(names);
+
+        LOGGER.info("Partitioning packages between {}", names);
+        return previous;
+    }
+
+    /**
+     * Look up the addresses of every node, so requests from them can be recognised without a lookup each time.
+     */
+    private static Set<InetAddress> resolve(List<String> nodes) {
+        Set<InetAddress> addresses = new HashSet<>();
+
+        for (String node : nodes) {
+            try {
+                String host = URI.create(node).getHost();
+
+                if (host == null) {
+                    throw new IllegalArgumentException("no host in the node's URL");
+                }
+
+                addresses.addAll(Arrays.asList(InetAddress.getAllByName(host)));
+            } catch (IllegalArgumentException | UnknownHostException e) {
+                LOGGER.warn("Couldn't resolve {}, requests from it won't be trusted: {}", node, e.toString());
+            }
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Tidy up a node name so the same node always has the same name.
+     */
+    private static String normalise(String node) {
+        String name = node.trim();
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+}
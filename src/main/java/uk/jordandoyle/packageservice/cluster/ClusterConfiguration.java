@@ -0,0 +1,27 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Forwards requests for packages we don't own to their owners. The interceptor lets everything through unless
+ * {@code packageservice.cluster.nodes} is set, so it's always registered and nodes can be added at runtime. The
+ * {@code /cluster} endpoints are only open to other nodes and this host, or whoever has the cluster's secret.
+ */
+@Configuration
+public class ClusterConfiguration extends WebMvcConfigurerAdapter {
+    @Autowired
+    private Cluster cluster;
+
+    @Autowired
+    private PackageForwarder packageForwarder;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new PackageForwardingInterceptor(this.cluster, this.packageForwarder))
+                .addPathPatterns("/package/*");
+        registry.addInterceptor(new ClusterTrustInterceptor(this.cluster)).addPathPatterns("/cluster/**");
+    }
+}
@@ -0,0 +1,136 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.repository.PackageQuery;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Endpoints nodes use to talk to each other, plus {@code /cluster/nodes} for changing which nodes packages are
+ * partitioned between. Packages are sent in the binary format of {@link PackageTransfer}, and are always read from our
+ * own repository, never from other nodes.
+ */
+@RestController
+public class ClusterController {
+    /**
+     * Most packages another node can ask us for in a single page
+     */
+    private static final int MAX_PAGE_SIZE = 10000;
+
+    @Autowired
+    private Cluster cluster;
+
+    @Autowired
+    private PackageRouter packageRouter;
+
+    @Autowired
+    private PackageRepository packageRepository;
+
+    /**
+     * Get the nodes packages are partitioned between.
+     */
+    @RequestMapping(value = "/cluster/nodes", method = RequestMethod.GET)
+    public List<String> getNodes() {
+        return this.cluster.getNodes();
+    }
+
+    /**
+     * Change the nodes packages are partitioned between and start handing packages we no longer own to their new
+     * owners. Every node has to be sent the same list.
+     *
+     * @param nodes base URL of every node in the cluster, including this one
+     * @return the nodes packages are now partitioned between, or 400 if we aren't one of them
+     */
+    @RequestMapping(value = "/cluster/nodes", method = RequestMethod.PUT)
+    public ResponseEntity<List<String>> setNodes(@RequestBody List<String> nodes) {
+        try {
+            this.cluster.setNodes(nodes);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        this.packageRouter.rebalance();
+        return ResponseEntity.ok(this.cluster.getNodes());
+    }
+
+    /**
+     * Store packages another node has handed to us, either new packages we own or packages moved to us.
+     */
+    @RequestMapping(value = "/cluster/packages", method = RequestMethod.POST,
+            consumes = PackageTransfer.CONTENT_TYPE)
+    public ResponseEntity<Void> adoptPackages(HttpServletRequest request) throws IOException {
+        this.packageRepository.adoptPackages(PackageTransfer.readPackages(request.getInputStream()));
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * Get a page of the packages we hold, in uuid order.
+     */
+    @RequestMapping(value = "/cluster/packages", method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> getPackages(
+            @RequestParam(value = "after", required = false) UUID after,
+            @RequestParam("limit") int limit) {
+        List<Package> page = this.packageRepository.streamPackages(after)
+                .limit(Math.max(0, Math.min(limit, MAX_PAGE_SIZE)))
+                .collect(Collectors.toList());
+
+        return transfer(page);
+    }
+
+    /**
+     * Search the packages we hold, in uuid order.
+     */
+    @RequestMapping(value = "/cluster/packages/search", method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> search(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "product", required = false) List<String> products,
+            @RequestParam(value = "minPrice", required = false) Long minPrice,
+            @RequestParam(value = "maxPrice", required = false) Long maxPrice,
+            @RequestParam(value = "after", required = false) UUID after,
+            @RequestParam("limit") int limit) {
+        return transfer(this.packageRepository.search(new PackageQuery(name, products, minPrice, maxPrice), after,
+                Math.max(0, Math.min(limit, MAX_PAGE_SIZE))));
+    }
+
+    /**
+     * Get whichever of a set of packages we hold.
+     */
+    @RequestMapping(value = "/cluster/packages/lookup", method = RequestMethod.POST,
+            consumes = PackageTransfer.CONTENT_TYPE)
+    public ResponseEntity<StreamingResponseBody> lookup(HttpServletRequest request) throws IOException {
+        List<UUID> uuids = PackageTransfer.readUuids(request.getInputStream());
+        Collection<Package> found = new ArrayList<>(uuids.size());
+
+        for (UUID uuid : uuids) {
+            Package p = this.packageRepository.getPackage(uuid);
+
+            if (p != null) {
+                found.add(p);
+            }
+        }
+
+        return transfer(found);
+    }
+
+    private static ResponseEntity<StreamingResponseBody> transfer(Collection<Package> packages) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(PackageTransfer.CONTENT_TYPE))
+                .body(out -> PackageTransfer.writePackages(out, packages));
+    }
+}
@@ -0,0 +1,29 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Turns away requests to the {@code /cluster} endpoints with a 403 unless they come from another node or someone
+ * administering the cluster, otherwise anyone could change the nodes or hand us packages.
+ */
+public class ClusterTrustInterceptor extends HandlerInterceptorAdapter {
+    private final Cluster cluster;
+
+    public ClusterTrustInterceptor(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (this.cluster.isTrusted(request)) {
+            return true;
+        }
+
+        response.setStatus(HttpStatus.FORBIDDEN.value());
+        return false;
+    }
+}
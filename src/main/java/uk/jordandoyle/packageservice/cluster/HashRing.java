@@ -0,0 +1,111 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Consistent hash ring deciding which node owns each package. Every node is placed at a number of points around the
+ * ring, and a package belongs to the first node point at or after the hash of its uuid, wrapping around at the end.
+ *
+ * A node's points only depend on its own name, so adding a node only takes over the ranges just before its points
+ * and removing one only hands its ranges to the nodes after them. Every other package keeps its owner. Placing each
+ * node at many points spreads its ranges around the ring so packages are split evenly between nodes.
+ *
+ * Rings are immutable, membership changes build a new ring.
+ */
+public final class HashRing {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<String> nodes;
+
+    /**
+     * Position of every point around the ring, in ascending order
+     */
+    private final long[] points;
+
+    /**
+     * Node at each point, {@code owners[i]} is at {@code points[i]}
+     */
+    private final String[] owners;
+
+    /**
+     * @param nodes        names of the nodes in the ring, every node in a cluster has to use the same names
+     * @param virtualNodes number of points each node is placed at
+     */
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one node");
+        }
+
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(nodes)));
+
+        Point[] points = new Point[this.nodes.size() * virtualNodes];
+        int i = 0;
+
+        for (String node : this.nodes) {
+            for (int v = 0; v < virtualNodes; v++) {
+                points[i++] = new Point(HASH.hashString(node + "#" + v, StandardCharsets.UTF_8).asLong(), node);
+            }
+        }
+
+        // ties are vanishingly rare, but break them by name so every node builds the same ring
+        Arrays.sort(points, (a, b) -> a.position != b.position
+                ? Long.compare(a.position, b.position)
+                : a.node.compareTo(b.node));
+
+        this.points = new long[points.length];
+        this.owners = new String[points.length];
+
+        for (i = 0; i < points.length; i++) {
+            this.points[i] = points[i].position;
+            this.owners[i] = points[i].node;
+        }
+    }
+
+    public List<String> getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * Get the node owning a package.
+     *
+     * @param uuid uuid of the package
+     * @return name of the owning node
+     */
+    public String getOwner(UUID uuid) {
+        // uuids we generate are random, but ones from elsewhere might not be, so mix every bit in
+        long hash = HASH.newHasher(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .hash()
+                .asLong();
+        int i = Arrays.binarySearch(this.points, hash);
+
+        if (i < 0) {
+            // not exactly on a point, take the next one along
+            i = -i - 1;
+        }
+
+        return this.owners[i == this.points.length ? 0 : i];
+    }
+
+    private static final class Point {
+        private final long position;
+
+        private final String node;
+
+        private Point(long position, String node) {
+            this.position = position;
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import java.io.IOException;
+
+/**
+ * Thrown when work has to go to another node in the cluster but the node couldn't be reached or didn't answer.
+ */
+public class NodeUnavailableException extends RuntimeException {
+    /**
+     * Name of the node we couldn't reach
+     */
+    private final String node;
+
+    public NodeUnavailableException(String node, IOException cause) {
+        super("Node " + node + " is unavailable", cause);
+        this.node = node;
+    }
+
+    public String getNode() {
+        return this.node;
+    }
+}
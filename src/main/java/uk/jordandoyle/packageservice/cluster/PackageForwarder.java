@@ -0,0 +1,275 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.repository.PackageQuery;
+import uk.jordandoyle.packageservice.store.StoredPackage;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Talks to the other nodes in the cluster, over a pool of keep-alive connections to each of them so forwarding a
+ * request doesn't cost a new connection.
+ */
+@Component
+public class PackageForwarder {
+    /**
+     * Header naming the node a request was forwarded by. A forwarded request is always answered by the node it was
+     * sent to, so nodes that briefly disagree about who owns a package can't bounce a request between them.
+     */
+    static final String FORWARDED_BY = "X-Forwarded-By-Node";
+
+    /**
+     * Headers that only apply to a single connection, these are never copied onto a forwarded request or response
+     */
+    private static final Set<String> HOP_BY_HOP = ImmutableSet.of("connection", "keep-alive", "proxy-authenticate",
+            "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", "host", "content-length");
+
+    /**
+     * Headers nodes mark their requests to each other with, these are never copied from a client's request
+     */
+    private static final Set<String> NODE_HEADERS = ImmutableSet.of(FORWARDED_BY.toLowerCase(),
+            Cluster.SECRET_HEADER.toLowerCase());
+
+    private final CloseableHttpClient client;
+
+    @Autowired
+    private Cluster cluster;
+
+    @Autowired
+    public PackageForwarder(@Value("${packageservice.cluster.connections-per-node:64}") int connectionsPerNode,
+                            @Value("${packageservice.cluster.timeout:10000}") int timeoutMillis) {
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setDefaultMaxPerRoute(connectionsPerNode);
+        connections.setMaxTotal(Integer.MAX_VALUE);
+
+        this.client = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(timeoutMillis)
+                        .setConnectionRequestTimeout(timeoutMillis)
+                        .setSocketTimeout(timeoutMillis)
+                        .build())
+                .disableCookieManagement()
+                .disableRedirectHandling()
+                // requests aren't all idempotent, let the client decide whether to try again
+                .disableAutomaticRetries()
+                .build();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        this.client.close();
+    }
+
+    /**
+     * Send a client's request on to another node as it is and copy the node's response back to the client.
+     *
+     * @param node     node to send the request to
+     * @param request  request from the client
+     * @param response response to the client
+     * @throws IOException if the node couldn't be reached or the client went away
+     */
+    public void forward(String node, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String query = request.getQueryString();
+        RequestBuilder forwarded = RequestBuilder.create(request.getMethod())
+                .setUri(node + request.getRequestURI() + (query == null ? "" : "?" + query));
+
+        for (String name : Collections.list(request.getHeaderNames())) {
+            // a client can't pass itself off as a node by sending our headers along
+            if (!HOP_BY_HOP.contains(name.toLowerCase()) && !NODE_HEADERS.contains(name.toLowerCase())) {
+                for (String value : Collections.list(request.getHeaders(name))) {
+                    forwarded.addHeader(name, value);
+                }
+            }
+        }
+
+        this.addNodeHeaders(forwarded);
+
+        if (request.getContentLengthLong() > 0 || request.getHeader("Transfer-Encoding") != null) {
+            forwarded.setEntity(new InputStreamEntity(request.getInputStream(), request.getContentLengthLong()));
+        }
+
+        try (CloseableHttpResponse answer = this.client.execute(forwarded.build())) {
+            response.setStatus(answer.getStatusLine().getStatusCode());
+
+            for (Header header : answer.getAllHeaders()) {
+                if (!HOP_BY_HOP.contains(header.getName().toLowerCase())) {
+                    response.addHeader(header.getName(), header.getValue());
+                }
+            }
+
+            HttpEntity entity = answer.getEntity();
+
+            if (entity != null) {
+                try (InputStream in = entity.getContent()) {
+                    OutputStream out = response.getOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int read;
+
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Hand packages over to another node, which stores them as they are.
+     *
+     * @param node     node to send the packages to
+     * @param packages packages it now owns
+     * @throws IOException if the node couldn't be reached or didn't store the packages
+     */
+    public void sendPackages(String node, Collection<Package> packages) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        PackageTransfer.writePackages(body, packages);
+
+        RequestBuilder request = RequestBuilder.post(node + "/cluster/packages")
+                .setEntity(new ByteArrayEntity(body.toByteArray(), ContentType.create(PackageTransfer.CONTENT_TYPE)));
+
+        try (CloseableHttpResponse response = this.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+        }
+    }
+
+    /**
+     * Get a page of the packages another node owns, in uuid order.
+     *
+     * @param node  node to ask
+     * @param after only return packages after this uuid, or {@code null} to start from the beginning
+     * @param limit most packages to return
+     */
+    public List<StoredPackage> getPage(String node, UUID after, int limit) throws IOException {
+        URIBuilder uri = this.uri(node, "/cluster/packages").addParameter("limit", Integer.toString(limit));
+
+        if (after != null) {
+            uri.addParameter("after", after.toString());
+        }
+
+        return this.readPackages(RequestBuilder.get(build(uri)));
+    }
+
+    /**
+     * Search the packages another node owns, a page at a time in uuid order.
+     *
+     * @param node  node to ask
+     * @param query what to search for
+     * @param after only return packages after this uuid, or {@code null} to start from the beginning
+     * @param limit most packages to return
+     */
+    public List<StoredPackage> search(String node, PackageQuery query, UUID after, int limit) throws IOException {
+        URIBuilder uri = this.uri(node, "/cluster/packages/search")
+                .addParameter("name", String.join(" ", query.getNameTokens()))
+                .addParameter("minPrice", Long.toString(query.getMinPrice()))
+                .addParameter("maxPrice", Long.toString(query.getMaxPrice()))
+                .addParameter("limit", Integer.toString(limit));
+
+        for (String productId : query.getProductIds()) {
+            uri.addParameter("product", productId);
+        }
+
+        if (after != null) {
+            uri.addParameter("after", after.toString());
+        }
+
+        return this.readPackages(RequestBuilder.get(build(uri)));
+    }
+
+    /**
+     * Get the packages another node owns out of a set of uuids.
+     *
+     * @param node  node to ask
+     * @param uuids uuids of the packages to get
+     * @return the packages the node has, packages it doesn't have are left out
+     */
+    public List<StoredPackage> getPackages(String node, Collection<UUID> uuids) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        PackageTransfer.writeUuids(body, uuids);
+
+        return this.readPackages(RequestBuilder.post(node + "/cluster/packages/lookup")
+                .setEntity(new ByteArrayEntity(body.toByteArray(), ContentType.create(PackageTransfer.CONTENT_TYPE))));
+    }
+
+    private List<StoredPackage> readPackages(RequestBuilder request) throws IOException {
+        try (CloseableHttpResponse response = this.execute(request)) {
+            try (InputStream in = response.getEntity().getContent()) {
+                return PackageTransfer.readPackages(in);
+            }
+        }
+    }
+
+    /**
+     * Send a request between nodes, failing unless the node answers with a 200.
+     */
+    private CloseableHttpResponse execute(RequestBuilder request) throws IOException {
+        this.addNodeHeaders(request);
+        CloseableHttpResponse response = this.client.execute(request.build());
+
+        if (response.getStatusLine().getStatusCode() != 200) {
+            String status = response.getStatusLine().toString();
+            EntityUtils.consume(response.getEntity());
+            response.close();
+            throw new IOException(request.getUri() + " answered with " + status);
+        }
+
+        return response;
+    }
+
+    /**
+     * Mark a request as coming from us, so the node it's sent to trusts it.
+     */
+    private void addNodeHeaders(RequestBuilder request) {
+        request.addHeader(FORWARDED_BY, this.cluster.getSelf());
+
+        if (!this.cluster.getSecret().isEmpty()) {
+            request.addHeader(Cluster.SECRET_HEADER, this.cluster.getSecret());
+        }
+    }
+
+    private URIBuilder uri(String node, String path) throws IOException {
+        try {
+            return new URIBuilder(node + path);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid node " + node, e);
+        }
+    }
+
+    private static URI build(URIBuilder uri) throws IOException {
+        try {
+            return uri.build();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+}
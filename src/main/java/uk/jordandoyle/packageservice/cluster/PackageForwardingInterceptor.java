@@ -0,0 +1,77 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Forwards requests for a single package, {@code /package/{id}}, to the node owning it and passes its response
+ * straight back, so any node can be asked for any package.
+ */
+public class PackageForwardingInterceptor extends HandlerInterceptorAdapter {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackageForwardingInterceptor.class);
+
+    private final Cluster cluster;
+
+    private final PackageForwarder packageForwarder;
+
+    public PackageForwardingInterceptor(Cluster cluster, PackageForwarder packageForwarder) {
+        this.cluster = cluster;
+        this.packageForwarder = packageForwarder;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        if (!this.cluster.isEnabled() || this.cluster.isForwarded(request)) {
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(
+                HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String id = variables == null ? null : variables.get("id");
+
+        if (id == null) {
+            return true;
+        }
+
+        final String owner;
+
+        try {
+            owner = this.cluster.getOwner(UUID.fromString(id));
+        } catch (IllegalArgumentException e) {
+            // not a uuid, let the controller turn it away
+            return true;
+        }
+
+        if (owner.equals(this.cluster.getSelf())) {
+            return true;
+        }
+
+        try {
+            this.packageForwarder.forward(owner, request, response);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to forward {} {} to {}: {}", request.getMethod(), request.getRequestURI(), owner,
+                    e.toString());
+
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,427 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.repository.PackageQuery;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+import uk.jordandoyle.packageservice.store.StoredPackage;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sends work on packages to the nodes owning them. Packages are only held by their owner, so adding a package stores
+ * it on its owner and listing or searching packages merges what every node holds, in uuid order. Requests for a single
+ * package are forwarded to its owner before they get this far, see {@link PackageForwardingInterceptor}.
+ *
+ * Unless packages are partitioned everything goes straight to our own repository.
+ */
+@Component
+public class PackageRouter {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackageRouter.class);
+
+    /**
+     * Most packages handed over to another node in one go while rebalancing
+     */
+    private static final int TRANSFER_BATCH_SIZE = 1000;
+
+    /**
+     * How long we wait before trying again if a node couldn't take the packages we were handing it
+     */
+    private static final long REBALANCE_RETRY_MILLIS = 5000;
+
+    @Autowired
+    private Cluster cluster;
+
+    @Autowired
+    private PackageRepository packageRepository;
+
+    @Autowired
+    private PackageForwarder packageForwarder;
+
+    /**
+     * Moves packages we no longer own to their new owners, one rebalance at a time
+     */
+    private final ScheduledExecutorService rebalancer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cluster-rebalance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    public void shutdown() {
+        this.rebalancer.shutdownNow();
+    }
+
+    /**
+     * Add a new package to the node owning it.
+     *
+     * @param p package to add
+     * @return the package as it's now held
+     * @throws NodeUnavailableException if the owner couldn't be reached
+     */
+    public Package addPackage(Package p) {
+        String owner = this.cluster.getOwner(p.getUuid());
+
+        if (owner.equals(this.cluster.getSelf())) {
+            return this.packageRepository.addPackage(p);
+        }
+
+        this.send(owner, Collections.singletonList(p));
+        return p;
+    }
+
+    /**
+     * Add a batch of new packages, each to the node owning it.
+     *
+     * @param packages packages to add
+     * @throws NodeUnavailableException if an owner couldn't be reached
+     */
+    public void addPackages(Collection<Package> packages) {
+        for (Map.Entry<String, List<Package>> owned : this.byOwner(packages, Package::getUuid).entrySet()) {
+            if (owned.getKey().equals(this.cluster.getSelf())) {
+                this.packageRepository.addPackages(owned.getValue());
+            } else {
+                this.send(owned.getKey(), owned.getValue());
+            }
+        }
+    }
+
+    /**
+     * Get packages by uuid from whichever nodes own them, asking each node once for all of its packages.
+     *
+     * @param uuids uuids of the packages to get
+     * @return the packages we found, keyed by uuid
+     * @throws NodeUnavailableException if an owner couldn't be reached
+     */
+    public Map<UUID, Package> getPackages(Collection<UUID> uuids) {
+        Map<UUID, Package> packages = new HashMap<>();
+
+        for (Map.Entry<String, List<UUID>> owned : this.byOwner(uuids, uuid -> uuid).entrySet()) {
+            if (owned.getKey().equals(this.cluster.getSelf())) {
+                for (UUID uuid : owned.getValue()) {
+                    Package p = this.packageRepository.getPackage(uuid);
+
+                    if (p != null) {
+                        packages.put(uuid, p);
+                    }
+                }
+
+                continue;
+            }
+
+            try {
+                for (StoredPackage stored : this.packageForwarder.getPackages(owned.getKey(), owned.getValue())) {
+                    packages.put(stored.getUuid(), this.packageRepository.restore(stored));
+                }
+            } catch (IOException e) {
+                throw new NodeUnavailableException(owned.getKey(), e);
+            }
+        }
+
+        return packages;
+    }
+
+    /**
+     * Get every node's packages in uuid order, starting after the given uuid, like
+     * {@link PackageRepository#streamPackages}. Other nodes are asked for their packages a page at a time as the
+     * stream is consumed.
+     *
+     * @param after    uuid to start after, or {@code null} to start from the first package
+     * @param pageSize number of packages to ask each other node for at a time
+     * @return packages in uuid order, throwing {@link NodeUnavailableException} as it's read if a node can't be reached
+     */
+    public Stream<Package> streamPackages(UUID after, int pageSize) {
+        if (!this.cluster.isEnabled()) {
+            return this.packageRepository.streamPackages(after);
+        }
+
+        List<Iterator<Package>> sources = new ArrayList<>();
+
+        for (String node : this.cluster.getNodes()) {
+            sources.add(node.equals(this.cluster.getSelf())
+                    ? this.packageRepository.streamPackages(after).iterator()
+                    : new RemotePages(node, after, pageSize));
+        }
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new MergedPackages(sources),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Search every node's packages, like {@link PackageRepository#search}.
+     *
+     * @param query what to search for
+     * @param after uuid to start after, or {@code null} to start from the first package
+     * @param limit maximum number of packages to return
+     * @return matching packages in uuid order
+     * @throws NodeUnavailableException if a node couldn't be reached
+     */
+    public List<Package> search(PackageQuery query, UUID after, int limit) {
+        List<Package> local = this.packageRepository.search(query, after, limit);
+
+        if (!this.cluster.isEnabled()) {
+            return local;
+        }
+
+        // each node's first matches after the cursor, the first of all of those are the page
+        TreeMap<UUID, Package> matches = new TreeMap<>();
+
+        for (Package p : local) {
+            matches.put(p.getUuid(), p);
+        }
+
+        for (String node : this.cluster.getNodes()) {
+            if (node.equals(this.cluster.getSelf())) {
+                continue;
+            }
+
+            try {
+                for (StoredPackage stored : this.packageForwarder.search(node, query, after, limit)) {
+                    matches.putIfAbsent(stored.getUuid(), this.packageRepository.restore(stored));
+                }
+            } catch (IOException e) {
+                throw new NodeUnavailableException(node, e);
+            }
+        }
+
+        return matches.values().stream().limit(limit).collect(Collectors.toList());
+    }
+
+    /**
+     * Once we've started, move any packages we recovered that another node owns to that node.
+     */
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        if (this.cluster.isEnabled()) {
+            this.rebalance();
+        }
+    }
+
+    /**
+     * Hand every package we hold but no longer own to its owner, in the background. A package is only deleted here
+     * once its owner has stored it, and only if it hasn't changed since we sent it, otherwise it's sent again.
+     * Requests for a package are forwarded to its new owner as soon as the cluster changes, so until it's been handed
+     * over it may briefly be missing.
+     */
+    public void rebalance() {
+        this.rebalancer.execute(this::moveMisplaced);
+    }
+
+    private void moveMisplaced() {
+        try {
+            int moved;
+            int total = 0;
+
+            do {
+                moved = 0;
+                Map<String, List<Package>> batches = new HashMap<>();
+                Iterator<Package> packages = this.packageRepository.streamPackages(null).iterator();
+
+                while (packages.hasNext()) {
+                    Package p = packages.next();
+                    String owner = this.cluster.getOwner(p.getUuid());
+
+                    if (owner.equals(this.cluster.getSelf())) {
+                        continue;
+                    }
+
+                    List<Package> batch = batches.computeIfAbsent(owner, k -> new ArrayList<>());
+                    batch.add(p);
+
+                    if (batch.size() == TRANSFER_BATCH_SIZE) {
+                        moved += this.handOver(owner, batch);
+                        batch.clear();
+                    }
+                }
+
+                for (Map.Entry<String, List<Package>> batch : batches.entrySet()) {
+                    if (!batch.getValue().isEmpty()) {
+                        moved += this.handOver(batch.getKey(), batch.getValue());
+                    }
+                }
+
+                total += moved;
+            } while (moved > 0);
+
+            if (total > 0) {
+                LOGGER.info("Handed over {} packages to the nodes now owning them", total);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to hand over packages, trying again in {}ms", REBALANCE_RETRY_MILLIS, e);
+            this.rebalancer.schedule(this::moveMisplaced, REBALANCE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Send a batch of packages to their owner and delete our copies of them.
+     *
+     * @return number of packages sent, including any that changed after we sent them and are still here to send again
+     */
+    private int handOver(String owner, List<Package> batch) throws IOException {
+        this.packageForwarder.sendPackages(owner, batch);
+
+        for (Package p : batch) {
+            this.packageRepository.deletePackage(p.getUuid(), version -> version == p.getVersion());
+        }
+
+        return batch.size();
+    }
+
+    private void send(String owner, List<Package> packages) {
+        try {
+            this.packageForwarder.sendPackages(owner, packages);
+        } catch (IOException e) {
+            throw new NodeUnavailableException(owner, e);
+        }
+    }
+
+    /**
+     * Group things by the node owning them, keeping them in the order they were given.
+     */
+    private <T> Map<String, List<T>> byOwner(Collection<T> items, Function<T, UUID> uuid) {
+        Map<String, List<T>> owned = new LinkedHashMap<>();
+
+        for (T item : items) {
+            owned.computeIfAbsent(this.cluster.getOwner(uuid.apply(item)), k -> new ArrayList<>()).add(item);
+        }
+
+        return owned;
+    }
+
+    /**
+     * Another node's packages in uuid order, fetched a page at a time as they're needed.
+     */
+    private final class RemotePages implements Iterator<Package> {
+        private final String node;
+
+        private final int pageSize;
+
+        private UUID after;
+
+        private Iterator<StoredPackage> page = Collections.emptyIterator();
+
+        private boolean exhausted;
+
+        private RemotePages(String node, UUID after, int pageSize) {
+            this.node = node;
+            this.after = after;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!this.page.hasNext() && !this.exhausted) {
+                List<StoredPackage> next;
+
+                try {
+                    next = PackageRouter.this.packageForwarder.getPage(this.node, this.after, this.pageSize);
+                } catch (IOException e) {
+                    throw new NodeUnavailableException(this.node, e);
+                }
+
+                this.exhausted = next.size() < this.pageSize;
+                this.page = next.iterator();
+
+                if (!next.isEmpty()) {
+                    this.after = next.get(next.size() - 1).getUuid();
+                }
+            }
+
+            return this.page.hasNext();
+        }
+
+        @Override
+        public Package next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return PackageRouter.this.packageRepository.restore(this.page.next());
+        }
+    }
+
+    /**
+     * Merges packages from several sources, each already in uuid order, into one in uuid order. A package being
+     * handed between nodes can briefly be held by both, so only the first copy of each uuid is kept.
+     */
+    private static final class MergedPackages implements Iterator<Package> {
+        private final PriorityQueue<PeekingIterator<Package>> sources;
+
+        private UUID last;
+
+        private MergedPackages(List<Iterator<Package>> sources) {
+            this.sources = new PriorityQueue<>(Math.max(1, sources.size()),
+                    Comparator.comparing((PeekingIterator<Package> source) -> source.peek().getUuid()));
+
+            for (Iterator<Package> source : sources) {
+                this.offer(Iterators.peekingIterator(source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!this.sources.isEmpty() && this.sources.peek().peek().getUuid().equals(this.last)) {
+                this.advance();
+            }
+
+            return !this.sources.isEmpty();
+        }
+
+        @Override
+        public Package next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Package p = this.advance();
+            this.last = p.getUuid();
+            return p;
+        }
+
+        private Package advance() {
+            PeekingIterator<Package> source = this.sources.poll();
+            Package p = source.next();
+            this.offer(source);
+            return p;
+        }
+
+        private void offer(PeekingIterator<Package> source) {
+            if (source.hasNext()) {
+                this.sources.add(source);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.store.PackageCodec;
+import uk.jordandoyle.packageservice.store.StoredPackage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Binary format packages are moved between nodes in, the same records the package store writes, each preceded by
+ * {@code true} and followed by a {@code false} once there are no more.
+ */
+final class PackageTransfer {
+    /**
+     * Content type of package transfers
+     */
+    static final String CONTENT_TYPE = "application/octet-stream";
+
+    /**
+     * Most uuids we'll read from a single transfer
+     */
+    private static final int MAX_UUIDS = 1 << 20;
+
+    private PackageTransfer() {
+    }
+
+    static void writePackages(OutputStream stream, Collection<Package> packages) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+
+        for (Package p : packages) {
+            out.writeBoolean(true);
+            PackageCodec.writeSave(out, p);
+        }
+
+        out.writeBoolean(false);
+        out.flush();
+    }
+
+    static List<StoredPackage> readPackages(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+        List<StoredPackage> packages = new ArrayList<>();
+
+        while (in.readBoolean()) {
+            byte type = in.readByte();
+
+            if (!PackageCodec.isSave(type)) {
+                throw new IOException("Unexpected record in package transfer");
+            }
+
+            packages.add(PackageCodec.readSave(in, type));
+        }
+
+        return packages;
+    }
+
+    static void writeUuids(OutputStream stream, Collection<UUID> uuids) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(uuids.size());
+
+        for (UUID uuid : uuids) {
+            PackageCodec.writeUuid(out, uuid);
+        }
+
+        out.flush();
+    }
+
+    static List<UUID> readUuids(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        int count = in.readInt();
+
+        if (count < 0 || count > MAX_UUIDS) {
+            throw new IOException("Unexpected number of uuids " + count);
+        }
+
+        List<UUID> uuids = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            uuids.add(PackageCodec.readUuid(in));
+        }
+
+        return uuids;
+    }
+}
@@ -0,0 +1,141 @@
+package uk.jordandoyle.packageservice.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * An exchange rate from USD precomputed as a fixed-point multiplier, so converting a whole number amount is integer
+ * arithmetic instead of {@link BigDecimal#multiply} and {@link BigDecimal#setScale}.
+ *
+ * Conversions always give exactly the same result as
+ * {@code BigDecimal.valueOf(amount).multiply(multiplier).setScale(2, RoundingMode.HALF_UP)}: the rate is held with its
+ * full precision as an unscaled long and the product is only rounded once, half up to 2 decimal places. Rates too
+ * precise to fit in a long, and products that would overflow one, fall back to {@link BigDecimal}.
+ */
+public final class ConversionRate {
+    /**
+     * Number of decimal places in converted amounts
+     */
+    private static final int SCALE = 2;
+
+    /**
+     * Powers of ten that fit in a long
+     */
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Converts every amount to itself, used for USD. This has to be declared after {@link #POWERS_OF_TEN}.
+     */
+    public static final ConversionRate IDENTITY = of(BigDecimal.ONE);
+
+    /**
+     * The rate as it was given to us
+     */
+    private final BigDecimal multiplier;
+
+    /**
+     * The rate's unscaled value, scaled up so that {@code amount * unscaled} is the converted amount in units of
+     * {@code 10^-(SCALE + shift)}
+     */
+    private final long unscaled;
+
+    /**
+     * Number of decimal places below {@link #SCALE} we need to round away after multiplying
+     */
+    private final int shift;
+
+    /**
+     * False if this rate can't be represented as a long and every conversion uses {@link BigDecimal}
+     */
+    private final boolean fixedPoint;
+
+    private ConversionRate(BigDecimal multiplier, long unscaled, int shift, boolean fixedPoint) {
+        this.multiplier = multiplier;
+        this.unscaled = unscaled;
+        this.shift = shift;
+        this.fixedPoint = fixedPoint;
+    }
+
+    /**
+     * Precompute a conversion rate.
+     *
+     * @param multiplier exchange rate from USD
+     * @return the rate
+     */
+    public static ConversionRate of(BigDecimal multiplier) {
+        int shift = multiplier.scale() - SCALE;
+
+        try {
+            if (shift > 0) {
+                if (shift < POWERS_OF_TEN.length) {
+                    return new ConversionRate(multiplier, multiplier.unscaledValue().longValueExact(), shift, true);
+                }
+            } else {
+                // the rate has fewer decimal places than our output so there's never anything to round
+                long unscaled = multiplier.unscaledValue().longValueExact();
+
+                if (-shift < POWERS_OF_TEN.length) {
+                    return new ConversionRate(multiplier, Math.multiplyExact(unscaled, POWERS_OF_TEN[-shift]), 0,
+                            true);
+                }
+            }
+        } catch (ArithmeticException e) {
+            // the rate doesn't fit in a long, fall through to using BigDecimal
+        }
+
+        return new ConversionRate(multiplier, 0, 0, false);
+    }
+
+    /**
+     * Convert an amount of whole US dollars, rounded half up to 2 decimal places.
+     *
+     * @param amount amount to convert
+     * @return converted amount
+     */
+    public BigDecimal convert(long amount) {
+        if (this.fixedPoint) {
+            try {
+                return BigDecimal.valueOf(roundHalfUp(Math.multiplyExact(amount, this.unscaled), this.shift), SCALE);
+            } catch (ArithmeticException e) {
+                // far too big an amount for a long, fall through to using BigDecimal
+            }
+        }
+
+        return BigDecimal.valueOf(amount).multiply(this.multiplier).setScale(SCALE, BigDecimal.ROUND_HALF_UP);
+    }
+
+    /**
+     * Drop {@code digits} decimal digits from a value, rounding half away from zero like {@link BigDecimal}'s
+     * {@code HALF_UP}.
+     */
+    private static long roundHalfUp(long value, int digits) {
+        if (digits == 0) {
+            return value;
+        }
+
+        long divisor = POWERS_OF_TEN[digits];
+        long quotient = value / divisor;
+        long remainder = value % divisor;
+
+        // divisor is a power of ten so half of it is always exact
+        if (Math.abs(remainder) >= divisor / 2) {
+            quotient += Long.signum(value);
+        }
+
+        return quotient;
+    }
+
+    /**
+     * Get the rate as it was given to us.
+     */
+    public BigDecimal getMultiplier() {
+        return this.multiplier;
+    }
+}
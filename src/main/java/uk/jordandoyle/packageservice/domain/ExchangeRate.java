@@ -25,6 +25,15 @@ public class ExchangeRate {
     @Key
     private Map<String, BigDecimal> rates;
 
+    public ExchangeRate() {
+    }
+
+    public ExchangeRate(String base, DateTime date, Map<String, BigDecimal> rates) {
+        this.base = base;
+        this.date = date;
+        this.rates = rates;
+    }
+
     public String getBase() {
         return this.base;
     }
@@ -1,42 +1,236 @@
 package uk.jordandoyle.packageservice.domain;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A package of products ready to be sent out to a customer.
+ *
+ * Packages are immutable, every change builds a new copy with the next version number. The copy is published by
+ * swapping it in for the old one in {@link uk.jordandoyle.packageservice.repository.PackageRepository}, so a reader
+ * always sees every property of a package from the same version.
  */
-public class Package {
+@JsonSerialize(using = PackageSerializer.class)
+public final class Package {
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * Order products are listed in by {@link #getProducts()}
+     */
+    private static final Comparator<Product> BY_ID = Comparator.comparing(Product::getId);
+
     /**
      * UUID of this package
      */
-    private UUID uuid;
+    private final UUID uuid;
+
+    /**
+     * Ordinals of the products we can be built from, owned by our
+     * {@link uk.jordandoyle.packageservice.repository.ProductRepository}
+     */
+    private final ProductOrdinals ordinals;
 
     /**
      * Name of this package of products
      */
-    private String name;
+    private final String name;
 
     /**
      * Description of this package
      */
-    private String description;
+    private final String description;
+
+    /**
+     * Sorted {@link #ordinals} of the products in this package
+     */
+    private final int[] products;
+
+    /**
+     * Incremented every time this package is changed
+     */
+    private final long version;
+
+    /**
+     * Total price of all the products in this package in whole US dollars, as of when this copy was built
+     */
+    private final long totalPrice;
+
+    /**
+     * Prices we've already converted for this package, discarded when the exchange rates change.
+     */
+    private volatile PriceSnapshot priceSnapshot;
+
+    public Package(ProductOrdinals ordinals, String name, String description, Collection<Product> products) {
+        this(ordinals, UUID.randomUUID(), name, description, products);
+    }
+
+    public Package(ProductOrdinals ordinals, UUID uuid, String name, String description,
+                   Collection<Product> products) {
+        this(ordinals, uuid, name, description, products, 1);
+    }
+
+    /**
+     * Rebuild a package at a specific version, such as the version it had when it was persisted.
+     */
+    public Package(ProductOrdinals ordinals, UUID uuid, String name, String description,
+                   Collection<Product> products, long version) {
+        this(ordinals, uuid, name, description, toOrdinals(ordinals, products), version);
+    }
+
+    private Package(ProductOrdinals ordinals, UUID uuid, String name, String description, int[] products,
+                    long version) {
+        this.uuid = uuid;
+        this.ordinals = ordinals;
+        this.name = name;
+        this.description = description;
+        this.products = products;
+        this.version = version;
+        this.totalPrice = this.sumPrices(products);
+    }
+
+    /**
+     * Get the products in this package, sorted by id. Ordinals depend on the order each node first saw its products,
+     * so listing products by id is what keeps responses, and so their ETags, the same on every node.
+     */
+    public List<Product> getProducts() {
+        Product[] products = new Product[this.products.length];
+
+        for (int i = 0; i < products.length; i++) {
+            products[i] = this.ordinals.get(this.products[i]);
+        }
+
+        Arrays.sort(products, BY_ID);
+        return Collections.unmodifiableList(Arrays.asList(products));
+    }
+
+    /**
+     * Check if a product is in this package.
+     *
+     * @param product product to look for
+     * @return true, if the package contains the product
+     */
+    public boolean containsProduct(Product product) {
+        int ordinal = this.ordinals.find(product);
+        return ordinal >= 0 && Arrays.binarySearch(this.products, ordinal) >= 0;
+    }
+
+    /**
+     * Get the products in this package that aren't in another package.
+     *
+     * @param other package to compare with
+     * @return products only in this package, in no particular order
+     */
+    public List<Product> getProductsNotIn(Package other) {
+        // walk both sorted arrays to find what's missing from the other package
+        int[] missing = new int[this.products.length];
+        int size = 0;
+
+        for (int i = 0, j = 0; i < this.products.length; i++) {
+            while (j < other.products.length && other.products[j] < this.products[i]) {
+                j++;
+            }
+
+            if (j == other.products.length || other.products[j] != this.products[i]) {
+                missing[size++] = this.products[i];
+            }
+        }
+
+        return new ProductList(this.ordinals, Arrays.copyOf(missing, size));
+    }
 
     /**
-     * List of products in this package.
+     * Get a copy of this package with some of its properties changed.
+     *
+     * @param name        new name, or {@code null} to keep the current name
+     * @param description new description, or {@code null} to keep the current description
+     * @param products    products the copy should contain, or {@code null} to keep the current products
+     * @return the changed copy, with the next version number
      */
-    @JsonIgnore
-    private Set<Product> products = new HashSet<>();
+    public Package with(String name, String description, Collection<Product> products) {
+        return new Package(this.ordinals, this.uuid,
+                name == null ? this.name : name,
+                description == null ? this.description : description,
+                products == null ? this.products : toOrdinals(this.ordinals, products),
+                this.version + 1);
+    }
 
-    public Package() {
-        this.uuid = UUID.randomUUID();
+    /**
+     * Get a copy of this package with its total price recalculated from scratch. This needs to be done whenever one
+     * of the products in this package changes. The version is kept as it is, since the version only tracks changes
+     * made to the package itself and is what's persisted.
+     */
+    public Package refreshed() {
+        return new Package(this.ordinals, this.uuid, this.name, this.description, this.products, this.version);
     }
 
-    public Set<Product> getProducts() {
-        return this.products;
+    /**
+     * Check if our total price still matches the current prices of our products.
+     *
+     * @return false, if a product has changed since this copy was built and it needs to be {@link #refreshed()}
+     */
+    public boolean isPriceCurrent() {
+        return this.sumPrices(this.products) == this.totalPrice;
+    }
+
+    /**
+     * Get the price of this package converted to the given currency. The conversion is only done the first time a
+     * currency is requested after the exchange rates change.
+     *
+     * @param currency    currency to convert to
+     * @param rate        exchange rate from USD to {@code currency}
+     * @param rateVersion {@link RateTable#getVersion()} of the table {@code rate} came from
+     * @return converted prices for this package
+     */
+    public PackagePrice getPrice(String currency, ConversionRate rate, long rateVersion) {
+        PriceSnapshot current = this.priceSnapshot;
+
+        if (current == null || current.rateVersion != rateVersion) {
+            current = this.rebuildPriceSnapshot(rateVersion);
+        }
+
+        final PriceSnapshot snapshot = current;
+        PackagePrice price = snapshot.prices.get(currency);
+
+        if (price == null) {
+            price = snapshot.prices.computeIfAbsent(currency,
+                    c -> PackagePrice.convert(c, rate, snapshot.totalPrice, snapshot.products));
+        }
+
+        return price;
+    }
+
+    /**
+     * Get the price of this package converted with rates other than the current ones, such as a past day's. These
+     * prices aren't cached since they're rarely asked for twice.
+     *
+     * @param currency currency to convert to
+     * @param rate     exchange rate from USD to {@code currency}
+     * @return converted prices for this package
+     */
+    public PackagePrice convertPrice(String currency, ConversionRate rate) {
+        return PackagePrice.convert(currency, rate, this.totalPrice, this.getProducts());
+    }
+
+    private synchronized PriceSnapshot rebuildPriceSnapshot(long rateVersion) {
+        PriceSnapshot snapshot = this.priceSnapshot;
+
+        if (snapshot != null && snapshot.rateVersion == rateVersion) {
+            // another thread beat us to it
+            return snapshot;
+        }
+
+        snapshot = new PriceSnapshot(rateVersion, this.totalPrice, this.getProducts());
+        this.priceSnapshot = snapshot;
+        return snapshot;
     }
 
     public UUID getUuid() {
@@ -47,16 +241,25 @@ public class Package {
         return this.name;
     }
 
-    public void setName(String name) {
-        this.name = name;
-    }
-
     public String getDescription() {
         return this.description;
     }
 
-    public void setDescription(String description) {
-        this.description = description;
+    /**
+     * Get the version of this package, every change to the name, description or products of a package gives it a
+     * higher version.
+     *
+     * @return version of this copy of the package
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Get the total price of all the products in this package in whole US dollars, as of when this copy was built.
+     */
+    public long getTotalPrice() {
+        return this.totalPrice;
     }
 
     @Override
@@ -66,10 +269,97 @@ public class Package {
 
     @Override
     public int hashCode() {
-        int result = this.uuid.hashCode();
-        result = 31 * result + this.name.hashCode();
-        result = 31 * result + this.description.hashCode();
-        result = 31 * result + this.products.hashCode();
-        return result;
+        return this.uuid.hashCode();
+    }
+
+    private static int[] toOrdinals(ProductOrdinals productOrdinals, Collection<Product> products) {
+        if (products.isEmpty()) {
+            return EMPTY;
+        }
+
+        int[] ordinals = new int[products.size()];
+        int size = 0;
+
+        for (Product product : products) {
+            ordinals[size++] = productOrdinals.of(product);
+        }
+
+        Arrays.sort(ordinals);
+        size = dedupe(ordinals);
+        return size == ordinals.length ? ordinals : Arrays.copyOf(ordinals, size);
+    }
+
+    private long sumPrices(int[] products) {
+        long total = 0;
+
+        for (int ordinal : products) {
+            total += this.ordinals.get(ordinal).getPrice();
+        }
+
+        return total;
+    }
+
+    /**
+     * Remove duplicates from a sorted array, moving the unique values to the front.
+     *
+     * @return number of unique values
+     */
+    private static int dedupe(int[] sorted) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int size = 1;
+
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[size - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Read only view of a set of product ordinals.
+     */
+    private static final class ProductList extends AbstractList<Product> {
+        private final ProductOrdinals productOrdinals;
+
+        private final int[] ordinals;
+
+        private ProductList(ProductOrdinals productOrdinals, int[] ordinals) {
+            this.productOrdinals = productOrdinals;
+            this.ordinals = ordinals;
+        }
+
+        @Override
+        public Product get(int index) {
+            return this.productOrdinals.get(this.ordinals[index]);
+        }
+
+        @Override
+        public int size() {
+            return this.ordinals.length;
+        }
+    }
+
+    /**
+     * Converted prices for a package, valid until the exchange rates change.
+     */
+    private static final class PriceSnapshot {
+        private final long rateVersion;
+
+        private final long totalPrice;
+
+        private final List<Product> products;
+
+        private final ConcurrentMap<String, PackagePrice> prices = new ConcurrentHashMap<>(4);
+
+        private PriceSnapshot(long rateVersion, long totalPrice, List<Product> products) {
+            this.rateVersion = rateVersion;
+            this.totalPrice = totalPrice;
+            this.products = products;
+        }
     }
 }
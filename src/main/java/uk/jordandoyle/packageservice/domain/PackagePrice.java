@@ -0,0 +1,79 @@
+package uk.jordandoyle.packageservice.domain;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Price of a package and each of its products converted to a single currency. Instances are immutable and are
+ * cached against their {@link Package} until a price, the package's products or the exchange rates change.
+ */
+public final class PackagePrice {
+    /**
+     * Currency these prices are in
+     */
+    private final String currency;
+
+    /**
+     * Total price of the package in {@link #currency}
+     */
+    private final BigDecimal price;
+
+    /**
+     * Products that were in the package when these prices were calculated
+     */
+    private final List<Product> products;
+
+    /**
+     * Converted price of each product in the package, in the same order as {@link #products}
+     */
+    private final BigDecimal[] productPrices;
+
+    private PackagePrice(String currency, BigDecimal price, List<Product> products, BigDecimal[] productPrices) {
+        this.currency = currency;
+        this.price = price;
+        this.products = products;
+        this.productPrices = productPrices;
+    }
+
+    /**
+     * Convert a package total and its products to the given currency.
+     *
+     * @param currency   currency we're converting to
+     * @param rate       exchange rate from USD to {@code currency}
+     * @param totalPrice total price of the package in whole US dollars
+     * @param products   products in the package, this list must not be modified afterwards
+     * @return converted prices
+     */
+    public static PackagePrice convert(String currency, ConversionRate rate, long totalPrice,
+                                       List<Product> products) {
+        BigDecimal[] productPrices = new BigDecimal[products.size()];
+
+        for (int i = 0; i < productPrices.length; i++) {
+            productPrices[i] = rate.convert(products.get(i).getPrice());
+        }
+
+        return new PackagePrice(currency, rate.convert(totalPrice), products, productPrices);
+    }
+
+    public String getCurrency() {
+        return this.currency;
+    }
+
+    public BigDecimal getPrice() {
+        return this.price;
+    }
+
+    public List<Product> getProducts() {
+        return this.products;
+    }
+
+    /**
+     * Get the converted price of a product in this package.
+     *
+     * @param index index of the product in {@link #getProducts()}
+     * @return converted price
+     */
+    public BigDecimal getProductPrice(int index) {
+        return this.productPrices[index];
+    }
+}
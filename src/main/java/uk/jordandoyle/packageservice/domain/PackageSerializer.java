@@ -0,0 +1,26 @@
+package uk.jordandoyle.packageservice.domain;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Writes a {@link Package} straight to a {@link JsonGenerator}, so Jackson never has to introspect the class. Only
+ * the uuid, name and description are written, prices depend on the currency and are written by the controller.
+ */
+public final class PackageSerializer extends StdSerializer<Package> {
+    public PackageSerializer() {
+        super(Package.class);
+    }
+
+    @Override
+    public void serialize(Package p, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("uuid", p.getUuid().toString());
+        generator.writeStringField("name", p.getName());
+        generator.writeStringField("description", p.getDescription());
+        generator.writeEndObject();
+    }
+}
@@ -1,27 +1,33 @@
 package uk.jordandoyle.packageservice.domain;
 
-import com.google.api.client.util.Key;
+import java.util.Objects;
 
 public final class Product {
     /**
      * ID of this product given to us by the
      * external API
      */
-    @Key
     private String id;
 
     /**
      * The name of this product
      */
-    @Key
     private String name;
 
     /**
-     * The price of this product in USD cents
+     * The price of this product in whole US dollars, {@code usdPrice} in the Product Service
      */
-    @Key("usdPrice")
     private int price;
 
+    public Product() {
+    }
+
+    public Product(String id, String name, int price) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+    }
+
     public String getId() {
         return this.id;
     }
@@ -34,6 +40,22 @@ public final class Product {
         return this.price;
     }
 
+    /**
+     * Copy the details of a newer copy of this product into this instance.
+     *
+     * @param newProduct product with the same id as this one
+     * @return true, if anything about this product changed
+     */
+    public boolean update(Product newProduct) {
+        if (this.price == newProduct.price && Objects.equals(this.name, newProduct.name)) {
+            return false;
+        }
+
+        this.name = newProduct.name;
+        this.price = newProduct.price;
+        return true;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Product && ((Product) obj).getId().equals(this.getId());
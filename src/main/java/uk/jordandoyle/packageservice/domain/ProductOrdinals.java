@@ -0,0 +1,208 @@
+package uk.jordandoyle.packageservice.domain;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Gives every product that ends up in a package a small, dense int ordinal so packages can store their membership as
+ * a sorted {@code int[]} rather than a set of references. Each
+ * {@link uk.jordandoyle.packageservice.repository.ProductRepository} owns one of these, and its packages should only
+ * be built with it.
+ *
+ * Ordinals are given out by product id, so however many copies of a product we decode there's only ever one instance
+ * behind an ordinal, the first one we were given. That instance is kept up to date with {@link #update(Product)}.
+ * Ordinals of products no package has held for a while are given back by {@link #reclaim(Predicate)} and handed out
+ * again, so the table only grows as big as the set of products in packages at any one time.
+ */
+public final class ProductOrdinals {
+    /**
+     * Initial size of {@link #products}
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Product for each ordinal, {@code null} for ordinals that have been reclaimed. Slots are always written before
+     * the ordinal is published in {@link #ordinals}.
+     */
+    private volatile Product[] products = new Product[INITIAL_CAPACITY];
+
+    /**
+     * Ordinal of every product id we've handed one out for
+     */
+    private final ConcurrentMap<String, Integer> ordinals = new ConcurrentHashMap<>();
+
+    /**
+     * Reads the latest details of a product from the catalogue, used to catch up on any change made while a product
+     * was being registered
+     */
+    private final Function<String, Product> latest;
+
+    /**
+     * Ordinals that have been reclaimed and can be handed out again, guarded by this
+     */
+    private int[] free = new int[16];
+
+    /**
+     * Number of ordinals in {@link #free}, guarded by this
+     */
+    private int freeSize;
+
+    /**
+     * Next ordinal that has never been handed out, guarded by this
+     */
+    private int next;
+
+    /**
+     * Ids that weren't in use when {@link #reclaim(Predicate)} last ran and haven't been looked up since
+     */
+    private final Set<String> unused = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create a set of ordinals for products that are never changed, such as in tests.
+     */
+    public ProductOrdinals() {
+        this(id -> null);
+    }
+
+    /**
+     * @param latest gets the latest details of a product by its id, or {@code null} if it's not known
+     */
+    public ProductOrdinals(Function<String, Product> latest) {
+        this.latest = latest;
+    }
+
+    /**
+     * Get the ordinal for a product, assigning one if this is the first time we've seen its id.
+     *
+     * @param product product to look up
+     * @return ordinal of the product
+     */
+    public int of(Product product) {
+        String id = product.getId();
+        Integer ordinal = this.ordinals.get(id);
+
+        // a package being built with the product uses it as much as one we hold does, but reclaim may be giving the
+        // ordinal back right now, so wait for it to finish and take the slow path
+        if (ordinal == null || this.unused.remove(id)) {
+            return this.assign(product);
+        }
+
+        // it may have been given back between us reading it and checking it was unused
+        return ordinal.equals(this.ordinals.get(id)) ? ordinal : this.assign(product);
+    }
+
+    /**
+     * Get the ordinal of a product, if it has one.
+     *
+     * @param product product to look up
+     * @return ordinal of the product, or {@code -1} if it hasn't been given one
+     */
+    public int find(Product product) {
+        Integer ordinal = this.ordinals.get(product.getId());
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * Get the product for an ordinal returned by {@link #of(Product)}.
+     *
+     * @param ordinal ordinal of the product
+     * @return product with the given ordinal
+     */
+    public Product get(int ordinal) {
+        return this.products[ordinal];
+    }
+
+    /**
+     * Copy the details of a changed product into the instance behind its ordinal, if it has one.
+     *
+     * @param changed latest details of the product
+     */
+    public void update(Product changed) {
+        Integer ordinal = this.ordinals.get(changed.getId());
+        Product product = ordinal == null ? null : this.products[ordinal];
+
+        if (product != null && product != changed) {
+            product.update(changed);
+        }
+    }
+
+    /**
+     * Get the number of ordinals currently handed out.
+     */
+    public int size() {
+        return this.ordinals.size();
+    }
+
+    /**
+     * Give back the ordinals of products that weren't in use the last time this was called and still aren't, so
+     * they can be handed out again. A product has to be out of use for a whole interval between calls before its
+     * ordinal is reclaimed, which gives anything still reading an old copy of a package time to finish with it.
+     * Looking a product up with {@link #of(Product)} counts as using it, so packages that have been built but not
+     * stored yet keep their products.
+     *
+     * @param inUse checks whether a package holds the product with the given id
+     * @return number of ordinals reclaimed
+     */
+    public synchronized int reclaim(Predicate<String> inUse) {
+        int reclaimed = 0;
+
+        for (String id : this.ordinals.keySet()) {
+            if (inUse.test(id)) {
+                this.unused.remove(id);
+            } else if (this.unused.contains(id)) {
+                // only unmark it once it's gone, so a lookup racing with us either sees the mark or sees it gone
+                this.release(id);
+                this.unused.remove(id);
+                reclaimed++;
+            } else {
+                this.unused.add(id);
+            }
+        }
+
+        return reclaimed;
+    }
+
+    private synchronized int assign(Product product) {
+        Integer existing = this.ordinals.get(product.getId());
+
+        if (existing != null) {
+            // another thread beat us to it
+            return existing;
+        }
+
+        int ordinal = this.freeSize > 0 ? this.free[--this.freeSize] : this.next++;
+        Product[] current = this.products;
+
+        if (ordinal >= current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+
+        current[ordinal] = product;
+        this.products = current;
+        this.ordinals.put(product.getId(), ordinal);
+
+        // the product may have changed after our copy was read but before anyone could find it here to update it
+        Product latest = this.latest.apply(product.getId());
+
+        if (latest != null && latest != product) {
+            product.update(latest);
+        }
+
+        return ordinal;
+    }
+
+    private void release(String id) {
+        int ordinal = this.ordinals.remove(id);
+        this.products[ordinal] = null;
+
+        if (this.freeSize == this.free.length) {
+            this.free = Arrays.copyOf(this.free, this.free.length * 2);
+        }
+
+        this.free[this.freeSize++] = ordinal;
+    }
+}
@@ -0,0 +1,95 @@
+package uk.jordandoyle.packageservice.domain;
+
+import com.google.api.client.util.DateTime;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the exchange rates we fetched at one point in time, along with every rate precomputed as a
+ * {@link ConversionRate}. New rates are installed by publishing a whole new table, so anyone still holding the
+ * previous table carries on reading consistent rates from it.
+ */
+public final class RateTable {
+    /**
+     * Incremented every time a new table is installed
+     */
+    private final long version;
+
+    /**
+     * Base currency the exchange rates are based on
+     */
+    private final String base;
+
+    /**
+     * Date these exchange rates are for
+     */
+    private final DateTime date;
+
+    /**
+     * Exchange rates as they were given to us
+     */
+    private final Map<String, BigDecimal> rates;
+
+    /**
+     * Exchange rates ready to convert prices with
+     */
+    private final Map<String, ConversionRate> conversionRates;
+
+    public RateTable(long version, ExchangeRate exchangeRate) {
+        this(version, exchangeRate.getBase(), exchangeRate.getDate(), exchangeRate.getRates() == null
+                ? Collections.emptyMap() : exchangeRate.getRates());
+    }
+
+    public RateTable(long version, String base, DateTime date, Map<String, BigDecimal> rates) {
+        Map<String, ConversionRate> conversionRates = new HashMap<>(rates.size() * 2);
+
+        for (Map.Entry<String, BigDecimal> rate : rates.entrySet()) {
+            conversionRates.put(rate.getKey(), ConversionRate.of(rate.getValue()));
+        }
+
+        this.version = version;
+        this.base = base;
+        this.date = date;
+        this.rates = Collections.unmodifiableMap(new HashMap<>(rates));
+        this.conversionRates = Collections.unmodifiableMap(conversionRates);
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public String getBase() {
+        return this.base;
+    }
+
+    public DateTime getDate() {
+        return this.date;
+    }
+
+    public Map<String, BigDecimal> getRates() {
+        return this.rates;
+    }
+
+    /**
+     * Check if we have a rate for a currency.
+     *
+     * @param currency upper case currency code
+     * @return true, if we can convert to the currency
+     */
+    public boolean hasRate(String currency) {
+        return this.conversionRates.containsKey(currency);
+    }
+
+    /**
+     * Get the rate to convert prices to a currency with.
+     *
+     * @param currency upper case currency code
+     * @return the rate, or {@link ConversionRate#IDENTITY} if we don't have a rate for the currency
+     */
+    public ConversionRate getRate(String currency) {
+        return this.conversionRates.getOrDefault(currency, ConversionRate.IDENTITY);
+    }
+}
@@ -0,0 +1,31 @@
+package uk.jordandoyle.packageservice.feed;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Latest prices of a package in each of the currencies a subscriber asked for, sent whenever any of them changes.
+ */
+public final class PriceChange {
+    private final UUID uuid;
+
+    /**
+     * Total price of the package keyed by currency code, in the order the subscriber asked for them
+     */
+    private final Map<String, BigDecimal> prices;
+
+    PriceChange(UUID uuid, Map<String, BigDecimal> prices) {
+        this.uuid = uuid;
+        this.prices = Collections.unmodifiableMap(prices);
+    }
+
+    public UUID getUuid() {
+        return this.uuid;
+    }
+
+    public Map<String, BigDecimal> getPrices() {
+        return this.prices;
+    }
+}
@@ -0,0 +1,264 @@
+package uk.jordandoyle.packageservice.feed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import uk.jordandoyle.packageservice.domain.ConversionRate;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.RateTable;
+import uk.jordandoyle.packageservice.repository.ExchangeRateRepository;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+import uk.jordandoyle.packageservice.repository.ProductChangeSet;
+import uk.jordandoyle.packageservice.threads.VirtualThreads;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Pushes package prices to subscribers as they change, so clients don't have to keep polling for them. Prices only
+ * change when a product sync changes products or new exchange rates are installed, so that's the only time we look
+ * for changes, once per sync. Each subscriber gets a single change per package per sync, and only for packages whose
+ * price in one of the subscriber's currencies has actually moved.
+ *
+ * Changes are queued for each subscriber and sent on a separate pool of threads, so a slow subscriber never holds up
+ * a sync or other subscribers' changes being queued. Sending does block though: a subscriber whose connection has
+ * stalled holds one of the pool's threads until the write fails, which Tomcat gives up on after
+ * {@code server.connection-timeout}, and once every thread is stuck like that no other subscriber is sent anything.
+ * With {@code packageservice.virtual-threads.enabled=true} each subscriber being sent changes gets its own virtual
+ * thread instead, so only the stalled subscriber waits. Changes dropped because a subscriber's buffer was full are
+ * counted in {@code /metrics} as {@code counter.price-feed.dropped}.
+ */
+@Component
+public class PriceFeed {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PriceFeed.class);
+
+    /**
+     * Subscribers to each package
+     */
+    private final Map<UUID, Set<Subscription>> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Most changes held for a subscriber before the oldest are dropped
+     */
+    private final int bufferSize;
+
+    /**
+     * Sends changes to subscribers, each subscriber is only ever being sent changes on one thread at a time
+     */
+    private final Executor executor;
+
+    /**
+     * Pool behind {@link #executor}, or {@code null} if changes are sent on virtual threads
+     */
+    private final ThreadPoolTaskExecutor pool;
+
+    @Autowired
+    private PackageRepository packageRepository;
+
+    @Autowired
+    private ExchangeRateRepository exchangeRateRepository;
+
+    @Autowired
+    private CounterService counterService;
+
+    @Autowired
+    public PriceFeed(@Value("${packageservice.price-feed.buffer-size:256}") int bufferSize,
+                     @Value("${packageservice.price-feed.pool-size:2}") int poolSize,
+                     @Value("${packageservice.virtual-threads.enabled:false}") boolean virtualThreads) {
+        this.bufferSize = bufferSize;
+
+        if (virtualThreads) {
+            this.pool = null;
+            this.executor = VirtualThreads.newExecutor("price-feed-");
+        } else {
+            this.pool = new ThreadPoolTaskExecutor();
+            this.pool.setCorePoolSize(poolSize);
+            this.pool.setThreadNamePrefix("price-feed-");
+            this.pool.initialize();
+            this.executor = this.pool;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+
+    /**
+     * Subscribe to the prices of some packages. The current prices of every package that exists are sent straight
+     * away, then changes are sent as they happen.
+     *
+     * @param packages   uuids of the packages to subscribe to
+     * @param currencies upper case codes of the currencies to send prices in, these must all be ones we can convert to
+     * @param sink       sends changes to the subscriber
+     * @return the subscription, to be passed to {@link #unsubscribe} once the subscriber goes away
+     */
+    public Subscription subscribe(Collection<UUID> packages, List<String> currencies, Subscription.Sink sink) {
+        Subscription subscription = new Subscription(new HashSet<>(packages), new ArrayList<>(currencies), sink,
+                this.bufferSize);
+
+        for (UUID uuid : subscription.getPackages()) {
+            this.subscribers.computeIfAbsent(uuid, k -> ConcurrentHashMap.newKeySet()).add(subscription);
+        }
+
+        RateTable rates = this.exchangeRateRepository.getRateTable();
+
+        for (UUID uuid : subscription.getPackages()) {
+            this.publish(uuid, rates, Collections.singleton(subscription));
+        }
+
+        this.counterService.increment("price-feed.subscribed");
+        return subscription;
+    }
+
+    /**
+     * Stop sending changes to a subscriber.
+     *
+     * @param subscription subscription returned by {@link #subscribe}
+     */
+    public void unsubscribe(Subscription subscription) {
+        subscription.close();
+
+        for (UUID uuid : subscription.getPackages()) {
+            this.subscribers.computeIfPresent(uuid, (k, subscriptions) -> {
+                subscriptions.remove(subscription);
+                return subscriptions.isEmpty() ? null : subscriptions;
+            });
+        }
+    }
+
+    /**
+     * Send the new prices of every subscribed package containing a product that changed during a product sync.
+     *
+     * @param changes products that changed
+     */
+    @EventListener
+    public void onProductsChanged(ProductChangeSet changes) {
+        if (this.subscribers.isEmpty()) {
+            return;
+        }
+
+        Set<UUID> affected = new HashSet<>();
+
+        for (String productId : changes.getChangedIds()) {
+            for (UUID uuid : this.packageRepository.getPackagesContaining(productId)) {
+                if (this.subscribers.containsKey(uuid)) {
+                    affected.add(uuid);
+                }
+            }
+        }
+
+        this.publishAll(affected, this.exchangeRateRepository.getRateTable());
+    }
+
+    /**
+     * Send the new prices of a package that's been changed, in case its products have changed.
+     *
+     * @param uuid uuid of the package
+     */
+    public void onPackageChanged(UUID uuid) {
+        Set<Subscription> subscriptions = this.subscribers.get(uuid);
+
+        if (subscriptions != null) {
+            this.publish(uuid, this.exchangeRateRepository.getRateTable(), subscriptions);
+        }
+    }
+
+    /**
+     * Send the new prices of every subscribed package after new exchange rates are installed.
+     *
+     * @param rates the new rates
+     */
+    @EventListener
+    public void onRatesChanged(RateTable rates) {
+        this.publishAll(new ArrayList<>(this.subscribers.keySet()), rates);
+    }
+
+    private void publishAll(Collection<UUID> packages, RateTable rates) {
+        for (UUID uuid : packages) {
+            Set<Subscription> subscriptions = this.subscribers.get(uuid);
+
+            if (subscriptions != null) {
+                this.publish(uuid, rates, subscriptions);
+            }
+        }
+    }
+
+    /**
+     * Work out a package's prices and queue them for every subscriber they've changed for.
+     */
+    private void publish(UUID uuid, RateTable rates, Collection<Subscription> subscriptions) {
+        Package p = this.packageRepository.getPackage(uuid);
+
+        if (p == null) {
+            return;
+        }
+
+        // we may be called before the repository has refreshed the package for this sync
+        Package pricing = p.isPriceCurrent() ? p : p.refreshed();
+        Map<String, BigDecimal> converted = new HashMap<>();
+
+        for (Subscription subscription : subscriptions) {
+            Map<String, BigDecimal> prices = new LinkedHashMap<>();
+
+            for (String currency : subscription.getCurrencies()) {
+                BigDecimal price = converted.computeIfAbsent(currency, c -> convert(pricing, c, rates));
+
+                if (price != null) {
+                    prices.put(currency, price);
+                }
+            }
+
+            if (subscription.offer(uuid, prices, () -> this.counterService.increment("price-feed.dropped"))) {
+                this.executor.execute(() -> this.drain(subscription));
+            }
+        }
+    }
+
+    private void drain(Subscription subscription) {
+        try {
+            subscription.drain();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Price feed subscriber went away", e);
+            this.unsubscribe(subscription);
+        }
+    }
+
+    /**
+     * Convert a package's price the same way {@code GET /package/:id} does, so both share the package's cached
+     * prices.
+     *
+     * @return the price, or {@code null} if we can't convert to the currency
+     */
+    private static BigDecimal convert(Package p, String currency, RateTable rates) {
+        if (!currency.equals("USD") && (rates == null || !rates.hasRate(currency))) {
+            return null;
+        }
+
+        ConversionRate rate = rates == null ? ConversionRate.IDENTITY : rates.getRate(currency);
+        return p.getPrice(currency, rate, rates == null ? 0 : rates.getVersion()).getPrice();
+    }
+}
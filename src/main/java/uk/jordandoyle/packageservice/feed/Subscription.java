@@ -0,0 +1,169 @@
+package uk.jordandoyle.packageservice.feed;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A client's subscription to the prices of a set of packages. Changes waiting to be sent are held in a bounded buffer
+ * with at most one change per package, so a package whose price moves again before its last change was sent only
+ * sends the latest prices. When the buffer is full the oldest change is dropped to make room.
+ */
+public final class Subscription {
+    /**
+     * Sends a change to the client.
+     */
+    public interface Sink {
+        /**
+         * Send a change, blocking until it's been written.
+         *
+         * @param change change to send
+         * @throws IOException if the client has gone away
+         */
+        void send(PriceChange change) throws IOException;
+    }
+
+    private final Set<UUID> packages;
+
+    private final List<String> currencies;
+
+    private final Sink sink;
+
+    /**
+     * Most changes we'll hold for the client before dropping the oldest
+     */
+    private final int capacity;
+
+    /**
+     * Changes waiting to be sent keyed by package, oldest first
+     */
+    private final LinkedHashMap<UUID, PriceChange> pending = new LinkedHashMap<>();
+
+    /**
+     * Prices of each package in the latest change we've sent or queued, used to skip changes the client already
+     * has. A package is left out if its last change was dropped, so its next change is always sent.
+     */
+    private final Map<UUID, Map<String, BigDecimal>> latest = new HashMap<>();
+
+    /**
+     * Whether a thread has been asked to send our pending changes
+     */
+    private boolean draining;
+
+    private volatile boolean closed;
+
+    Subscription(Set<UUID> packages, List<String> currencies, Sink sink, int capacity) {
+        this.packages = Collections.unmodifiableSet(packages);
+        this.currencies = Collections.unmodifiableList(currencies);
+        this.sink = sink;
+        this.capacity = capacity;
+    }
+
+    Set<UUID> getPackages() {
+        return this.packages;
+    }
+
+    List<String> getCurrencies() {
+        return this.currencies;
+    }
+
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Queue a package's latest prices to be sent, unless they're the same as the last prices we sent or queued.
+     *
+     * @param uuid    uuid of the package
+     * @param prices  latest prices keyed by currency, in the order of {@link #getCurrencies()}
+     * @param dropped counted when the buffer is full and the oldest change has to be dropped
+     * @return true, if the caller needs to start a thread calling {@link #drain()}
+     */
+    synchronized boolean offer(UUID uuid, Map<String, BigDecimal> prices, Runnable dropped) {
+        if (this.closed || samePrices(this.latest.get(uuid), prices)) {
+            return false;
+        }
+
+        this.latest.put(uuid, prices);
+
+        if (!this.pending.containsKey(uuid) && this.pending.size() >= this.capacity) {
+            Iterator<UUID> oldest = this.pending.keySet().iterator();
+            this.latest.remove(oldest.next());
+            oldest.remove();
+            dropped.run();
+        }
+
+        // replacing a pending change keeps its place in the queue
+        this.pending.put(uuid, new PriceChange(uuid, prices));
+
+        if (this.draining) {
+            return false;
+        }
+
+        this.draining = true;
+        return true;
+    }
+
+    /**
+     * Send every pending change to the client, until there are none left. Only one thread drains a subscription at
+     * a time.
+     *
+     * @throws IOException if the client has gone away, the subscription is closed and nothing else will be sent
+     */
+    void drain() throws IOException {
+        while (true) {
+            PriceChange next;
+
+            synchronized (this) {
+                Iterator<PriceChange> oldest = this.pending.values().iterator();
+
+                if (this.closed || !oldest.hasNext()) {
+                    this.draining = false;
+                    return;
+                }
+
+                next = oldest.next();
+                oldest.remove();
+            }
+
+            try {
+                this.sink.send(next);
+            } catch (IOException | RuntimeException e) {
+                this.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stop sending changes, anything still pending is discarded.
+     */
+    synchronized void close() {
+        this.closed = true;
+        this.pending.clear();
+        this.latest.clear();
+    }
+
+    private static boolean samePrices(Map<String, BigDecimal> a, Map<String, BigDecimal> b) {
+        if (a == null || a.size() != b.size()) {
+            return false;
+        }
+
+        for (Map.Entry<String, BigDecimal> entry : b.entrySet()) {
+            BigDecimal other = a.get(entry.getKey());
+
+            if (other == null || other.compareTo(entry.getValue()) != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
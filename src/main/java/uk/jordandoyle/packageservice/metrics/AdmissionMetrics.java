@@ -0,0 +1,36 @@
+package uk.jordandoyle.packageservice.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import uk.jordandoyle.packageservice.admission.AdmissionInterceptor;
+import uk.jordandoyle.packageservice.admission.GradientLimit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Publishes the current concurrency limit for each kind of request in {@code /metrics} as
+ * {@code admission.*.limit}, alongside how many of them are in flight as {@code admission.*.in-flight}.
+ */
+@Component
+public class AdmissionMetrics implements PublicMetrics {
+    @Autowired(required = false)
+    private AdmissionInterceptor admissionInterceptor;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        if (this.admissionInterceptor != null) {
+            for (GradientLimit limit : this.admissionInterceptor.getLimits()) {
+                metrics.add(new Metric<>("admission." + limit.getName() + ".limit", limit.getLimit()));
+                metrics.add(new Metric<>("admission." + limit.getName() + ".in-flight", limit.getInFlight()));
+            }
+        }
+
+        return metrics;
+    }
+}
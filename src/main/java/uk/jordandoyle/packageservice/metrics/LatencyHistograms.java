@@ -0,0 +1,237 @@
+package uk.jordandoyle.packageservice.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HDR histograms of how long things take, such as each controller method and each sync. Recording a value is wait
+ * free and doesn't allocate, so it's cheap enough to do on every request.
+ *
+ * Percentiles are reported over the last complete window rather than since we started, so a slow minute stands out
+ * instead of being averaged away by hours of fast ones. Windows are rolled over when the histograms are read, so the
+ * percentiles cover at least {@code packageservice.metrics.latency-window} milliseconds.
+ */
+@Component
+public class LatencyHistograms {
+    /**
+     * Longest time we can record, anything longer is recorded as this
+     */
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    /**
+     * Percentiles are accurate to 1%, which keeps each histogram down to a few tens of kilobytes
+     */
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    /**
+     * Histograms we're recording to, keyed by metric name and labels
+     */
+    private final ConcurrentMap<String, Latency> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * Shortest window percentiles are reported over, in nanoseconds
+     */
+    private final long windowNanos;
+
+    @Autowired
+    public LatencyHistograms(@Value("${packageservice.metrics.latency-window:60000}") long windowMillis) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    /**
+     * Get the histogram for a controller method.
+     *
+     * @param handler name of the controller method, such as {@code PackageController.getPackage}
+     * @return the histogram, created if this is the first time it's been asked for
+     */
+    public Latency forHandler(String handler) {
+        return this.get("http_request_duration_seconds", "handler", handler);
+    }
+
+    /**
+     * Get the histogram for a sync with a downstream service.
+     *
+     * @param sync name of the sync
+     * @return the histogram, created if this is the first time it's been asked for
+     */
+    public Latency forSync(String sync) {
+        return this.get("sync_duration_seconds", "sync", sync);
+    }
+
+    private Latency get(String metric, String label, String value) {
+        String key = metric + '{' + label + "=\"" + value + "\"}";
+        Latency latency = this.latencies.get(key);
+        return latency != null ? latency : this.latencies.computeIfAbsent(key,
+                k -> new Latency(metric, label, value, System.nanoTime()));
+    }
+
+    /**
+     * Take a snapshot of every histogram, rolling over any whose window has ended.
+     *
+     * @return snapshots in no particular order
+     */
+    public Collection<Snapshot> snapshot() {
+        long now = System.nanoTime();
+        List<Snapshot> snapshots = new ArrayList<>(this.latencies.size());
+
+        for (Latency latency : this.latencies.values()) {
+            snapshots.add(latency.snapshot(now, this.windowNanos));
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Latency of a single operation.
+     */
+    public static final class Latency {
+        private final String metric;
+
+        private final String label;
+
+        private final String value;
+
+        private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+
+        /**
+         * Number of values recorded since we started
+         */
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Total of every value recorded since we started, in nanoseconds
+         */
+        private final LongAdder sum = new LongAdder();
+
+        /**
+         * Values recorded in the last complete window, or {@code null} if the first window hasn't ended yet
+         */
+        private Histogram window;
+
+        /**
+         * Histogram handed back to {@link #recorder} to be reused for the next window
+         */
+        private Histogram recycled;
+
+        /**
+         * When the current window started
+         */
+        private long windowStart;
+
+        private Latency(String metric, String label, String value, long windowStart) {
+            this.metric = metric;
+            this.label = label;
+            this.value = value;
+            this.windowStart = windowStart;
+        }
+
+        /**
+         * Record how long a single operation took.
+         *
+         * @param nanos time taken in nanoseconds
+         */
+        public void record(long nanos) {
+            this.recorder.recordValue(Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE_NANOS));
+            this.count.increment();
+            this.sum.add(nanos);
+        }
+
+        private synchronized Snapshot snapshot(long now, long windowNanos) {
+            if (now - this.windowStart >= windowNanos) {
+                // swap the recorder's histogram out, handing back the one from the window before last
+                Histogram ended = this.recorder.getIntervalHistogram(this.recycled);
+                this.recycled = this.window;
+                this.window = ended;
+                this.windowStart = now;
+            }
+
+            return new Snapshot(this.metric, this.label, this.value, this.count.sum(), this.sum.sum(),
+                    this.window == null ? null : new double[]{
+                            this.window.getValueAtPercentile(50.0),
+                            this.window.getValueAtPercentile(99.0),
+                            this.window.getValueAtPercentile(99.9),
+                            this.window.getMaxValue()
+                    });
+        }
+    }
+
+    /**
+     * Point in time copy of a histogram.
+     */
+    public static final class Snapshot {
+        private final String metric;
+
+        private final String label;
+
+        private final String value;
+
+        private final long count;
+
+        private final long sumNanos;
+
+        /**
+         * p50, p99, p999 and max in nanoseconds, or {@code null} if we don't have a complete window yet
+         */
+        private final double[] percentiles;
+
+        private Snapshot(String metric, String label, String value, long count, long sumNanos, double[] percentiles) {
+            this.metric = metric;
+            this.label = label;
+            this.value = value;
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.percentiles = percentiles;
+        }
+
+        public String getMetric() {
+            return this.metric;
+        }
+
+        public String getLabel() {
+            return this.label;
+        }
+
+        public String getValue() {
+            return this.value;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getSumNanos() {
+            return this.sumNanos;
+        }
+
+        public double getP50Nanos() {
+            return this.percentile(0);
+        }
+
+        public double getP99Nanos() {
+            return this.percentile(1);
+        }
+
+        public double getP999Nanos() {
+            return this.percentile(2);
+        }
+
+        public double getMaxNanos() {
+            return this.percentile(3);
+        }
+
+        private double percentile(int index) {
+            return this.percentiles == null ? Double.NaN : this.percentiles[index];
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package uk.jordandoyle.packageservice.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records how long each controller method takes in {@link LatencyHistograms}, from the request reaching the
+ * controller to the response being complete. Streamed responses are timed until the last byte has been written.
+ */
+@Component
+public class LatencyInterceptor extends HandlerInterceptorAdapter {
+    /**
+     * Request attribute holding when the request reached us, in nanoseconds
+     */
+    private static final String STARTED = LatencyInterceptor.class.getName() + ".started";
+
+    /**
+     * Histogram for each controller method, so we don't have to build its name on every request. Controllers share
+     * method names, such as {@code search}, so each is named after its class too.
+     */
+    private final ConcurrentMap<Method, LatencyHistograms.Latency> latencies = new ConcurrentHashMap<>();
+
+    @Autowired
+    private LatencyHistograms latencyHistograms;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // we're called again when a streamed response is dispatched back to us, keep the original start time
+        if (handler instanceof HandlerMethod && request.getAttribute(STARTED) == null) {
+            request.setAttribute(STARTED, System.nanoTime());
+        }
+
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Object started = request.getAttribute(STARTED);
+
+        if (started != null) {
+            this.getLatency(((HandlerMethod) handler).getMethod()).record(System.nanoTime() - (Long) started);
+        }
+    }
+
+    private LatencyHistograms.Latency getLatency(Method method) {
+        LatencyHistograms.Latency latency = this.latencies.get(method);
+        return latency != null ? latency : this.latencies.computeIfAbsent(method,
+                m -> this.latencyHistograms.forHandler(m.getDeclaringClass().getSimpleName() + '.' + m.getName()));
+    }
+}
@@ -0,0 +1,20 @@
+package uk.jordandoyle.packageservice.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Times every request to our controllers.
+ */
+@Configuration
+public class MetricsConfiguration extends WebMvcConfigurerAdapter {
+    @Autowired
+    private LatencyInterceptor latencyInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this.latencyInterceptor);
+    }
+}
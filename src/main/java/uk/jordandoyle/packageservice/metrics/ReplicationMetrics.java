@@ -0,0 +1,44 @@
+package uk.jordandoyle.packageservice.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import uk.jordandoyle.packageservice.replication.ReplicationClient;
+import uk.jordandoyle.packageservice.replication.ReplicationServer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Publishes how replication is doing in {@code /metrics}: the number of replicas following a primary, and how far a
+ * replica is behind its primary.
+ */
+@Component
+public class ReplicationMetrics implements PublicMetrics {
+    @Autowired(required = false)
+    private ReplicationServer replicationServer;
+
+    @Autowired(required = false)
+    private ReplicationClient replicationClient;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        if (this.replicationServer != null) {
+            metrics.add(new Metric<>("replication.replicas", this.replicationServer.getReplicaCount()));
+            metrics.add(new Metric<>("replication.sequence", this.replicationServer.getSequence()));
+        }
+
+        if (this.replicationClient != null) {
+            metrics.add(new Metric<>("replication.connected", this.replicationClient.isConnected() ? 1 : 0));
+            metrics.add(new Metric<>("replication.sequence", this.replicationClient.getSequence()));
+            metrics.add(new Metric<>("replication.lag.changes", this.replicationClient.getLagChanges()));
+            metrics.add(new Metric<>("replication.lag.millis", this.replicationClient.getLagMillis()));
+        }
+
+        return metrics;
+    }
+}
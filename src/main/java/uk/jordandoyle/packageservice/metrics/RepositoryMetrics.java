@@ -0,0 +1,47 @@
+package uk.jordandoyle.packageservice.metrics;
+
+import com.google.common.cache.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+import uk.jordandoyle.packageservice.repository.ProductRepository;
+import uk.jordandoyle.packageservice.web.PackageResponseCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Publishes how much we're holding in memory in {@code /metrics}: the number of packages and products we know about
+ * and how well the response cache is doing.
+ */
+@Component
+public class RepositoryMetrics implements PublicMetrics {
+    @Autowired
+    private PackageRepository packageRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private PackageResponseCache responseCache;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        CacheStats stats = this.responseCache.getStats();
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        metrics.add(new Metric<>("packages.count", this.packageRepository.size()));
+        metrics.add(new Metric<>("products.count", this.productRepository.size()));
+        metrics.add(new Metric<>("response-cache.size", this.responseCache.size()));
+        metrics.add(new Metric<>("response-cache.hits", stats.hitCount()));
+        metrics.add(new Metric<>("response-cache.misses", stats.missCount()));
+        metrics.add(new Metric<>("response-cache.evictions", stats.evictionCount()));
+        metrics.add(new Metric<>("response-cache.coalesced", this.responseCache.getCoalesced()));
+        metrics.add(new Metric<>("response-cache.coalesce-timeouts", this.responseCache.getCoalesceTimeouts()));
+
+        return metrics;
+    }
+}
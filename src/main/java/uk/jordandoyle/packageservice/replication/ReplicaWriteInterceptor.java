@@ -0,0 +1,27 @@
+package uk.jordandoyle.packageservice.replication;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Turns away changes to packages made on a replica with a 405, every change has to be made on the primary so it ends
+ * up in the log the replicas follow.
+ */
+public class ReplicaWriteInterceptor extends HandlerInterceptorAdapter {
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String method = request.getMethod();
+
+        if (method.equals("GET") || method.equals("HEAD") || method.equals("OPTIONS")) {
+            return true;
+        }
+
+        response.setStatus(HttpStatus.METHOD_NOT_ALLOWED.value());
+        response.setHeader(HttpHeaders.ALLOW, "GET, HEAD");
+        return false;
+    }
+}
@@ -0,0 +1,57 @@
+package uk.jordandoyle.packageservice.replication;
+
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.store.PackageCodec;
+import uk.jordandoyle.packageservice.store.PackageStore;
+import uk.jordandoyle.packageservice.store.StoredPackage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Store used by a primary, writes every change through to another store and then appends it to our
+ * {@link ReplicationLog} to be streamed to replicas.
+ *
+ * Changes are only appended once they're durable, so a replica never holds a change we could lose in a crash. The
+ * repository writes changes to a package in order and stores complete them in the order they were written, so the log
+ * sees changes to each package in the order they were made.
+ */
+public class ReplicatingPackageStore implements PackageStore {
+    private final PackageStore store;
+
+    private final ReplicationLog log;
+
+    public ReplicatingPackageStore(PackageStore store, ReplicationLog log) {
+        this.store = store;
+        this.log = log;
+    }
+
+    @Override
+    public Collection<StoredPackage> recover() throws IOException {
+        return this.store.recover();
+    }
+
+    @Override
+    public CompletableFuture<Void> save(Package p) {
+        byte[] record = PackageCodec.encodeSave(p);
+        return this.store.save(p).thenRun(() -> this.log.append(record));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(UUID uuid) {
+        byte[] record = PackageCodec.encodeDelete(uuid);
+        return this.store.delete(uuid).thenRun(() -> this.log.append(record));
+    }
+
+    @Override
+    public void snapshot(Collection<Package> packages) throws IOException {
+        this.store.snapshot(packages);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.store.close();
+    }
+}
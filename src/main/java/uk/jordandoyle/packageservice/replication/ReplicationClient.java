@@ -0,0 +1,296 @@
+package uk.jordandoyle.packageservice.replication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.jordandoyle.packageservice.feed.PriceFeed;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+import uk.jordandoyle.packageservice.store.PackageCodec;
+import uk.jordandoyle.packageservice.store.StoredPackage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Runs on a replica, follows the log of our primary and applies every change to our repository. If the connection
+ * drops we reconnect and resume from the last change we applied, or catch up from a snapshot if the primary can't
+ * resume from there.
+ *
+ * How far behind we are is measured against the latest change the primary told us about, both as a number of changes
+ * and as the time between that change and the last one we applied, using the primary's clock so the two hosts' clocks
+ * don't need to agree.
+ */
+public class ReplicationClient implements Closeable {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationClient.class);
+
+    private final InetSocketAddress primary;
+
+    private final PackageRepository packageRepository;
+
+    private final PriceFeed priceFeed;
+
+    /**
+     * Longest we'll wait to hear from the primary before giving up on the connection, this should be a few times the
+     * primary's heartbeat interval
+     */
+    private final int timeoutMillis;
+
+    /**
+     * How long we wait before reconnecting after losing the primary
+     */
+    private final long reconnectDelayMillis;
+
+    private final Thread follower = new Thread(this::followLoop, "replication-follower");
+
+    /**
+     * Connection to the primary, if we have one
+     */
+    private volatile Socket socket;
+
+    private volatile boolean closed;
+
+    /**
+     * Id of the primary's log we're following
+     */
+    private volatile long logId;
+
+    /**
+     * Sequence number of the last change we applied, or {@link ReplicationProtocol#NO_POSITION} until we've caught up
+     * from our first snapshot
+     */
+    private volatile long applied = ReplicationProtocol.NO_POSITION;
+
+    /**
+     * When the last change we applied was made, on the primary's clock
+     */
+    private volatile long appliedTimestamp;
+
+    /**
+     * Sequence number of the latest change the primary has told us about
+     */
+    private volatile long latest;
+
+    /**
+     * When the latest change the primary has told us about was made, on the primary's clock
+     */
+    private volatile long latestTimestamp;
+
+    /**
+     * When we last heard from the primary, on our clock
+     */
+    private volatile long lastContact;
+
+    private volatile boolean connected;
+
+    public ReplicationClient(InetSocketAddress primary, PackageRepository packageRepository, PriceFeed priceFeed,
+                             int timeoutMillis, long reconnectDelayMillis) {
+        this.primary = primary;
+        this.packageRepository = packageRepository;
+        this.priceFeed = priceFeed;
+        this.timeoutMillis = timeoutMillis;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        this.follower.setDaemon(true);
+    }
+
+    /**
+     * Start following the primary in the background.
+     */
+    public void start() {
+        this.follower.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.follower.interrupt();
+        Socket socket = this.socket;
+
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Check if we've caught up from a snapshot of the primary at least once, until then we may be missing packages.
+     */
+    public boolean isSynced() {
+        return this.applied != ReplicationProtocol.NO_POSITION;
+    }
+
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    /**
+     * Get the sequence number of the last change we applied.
+     */
+    public long getSequence() {
+        return this.applied;
+    }
+
+    /**
+     * Get the number of changes the primary had told us about that we hadn't applied yet, as of when we last heard
+     * from it.
+     */
+    public long getLagChanges() {
+        return this.isSynced() ? Math.max(0, this.latest - this.applied) : this.latest;
+    }
+
+    /**
+     * Get how much older the last change we applied is than the latest change the primary had told us about, 0 if
+     * we've applied everything.
+     */
+    public long getLagMillis() {
+        return this.getLagChanges() == 0 ? 0 : Math.max(0, this.latestTimestamp - this.appliedTimestamp);
+    }
+
+    /**
+     * Get how long it's been since we last heard from the primary, {@code -1} if we never have.
+     */
+    public long getMillisSinceContact() {
+        return this.lastContact == 0 ? -1 : System.currentTimeMillis() - this.lastContact;
+    }
+
+    private void followLoop() {
+        while (!this.closed) {
+            try (Socket socket = new Socket()) {
+                this.socket = socket;
+                socket.connect(this.primary, this.timeoutMillis);
+                socket.setSoTimeout(this.timeoutMillis);
+                socket.setTcpNoDelay(true);
+
+                this.follow(socket);
+            } catch (IOException e) {
+                if (this.connected) {
+                    LOGGER.warn("Lost connection to primary {}, reconnecting: {}", this.primary, e.toString());
+                } else if (!this.closed) {
+                    LOGGER.debug("Failed to connect to primary {}", this.primary, e);
+                }
+            } finally {
+                this.connected = false;
+                this.socket = null;
+            }
+
+            try {
+                Thread.sleep(this.reconnectDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Apply everything the primary sends us until the connection drops.
+     */
+    private void follow(Socket socket) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+
+        out.writeInt(ReplicationProtocol.MAGIC);
+        out.writeLong(this.logId);
+        out.writeLong(this.applied);
+        out.flush();
+
+        this.connected = true;
+        LOGGER.info("Following primary {} from change {}", this.primary, this.applied);
+
+        while (!this.closed) {
+            byte type = in.readByte();
+            this.lastContact = System.currentTimeMillis();
+
+            if (type == ReplicationProtocol.SNAPSHOT) {
+                this.readSnapshot(in);
+            } else if (type == ReplicationProtocol.BATCH) {
+                this.readBatch(in);
+            } else {
+                throw new IOException("Unexpected frame " + type + " from primary");
+            }
+        }
+    }
+
+    /**
+     * Apply a snapshot over the packages we already have, then drop any we have that the primary doesn't.
+     */
+    private void readSnapshot(DataInputStream in) throws IOException {
+        long logId = in.readLong();
+        long sequence = in.readLong();
+        long timestamp = in.readLong();
+        Set<UUID> uuids = new HashSet<>();
+
+        // carry on serving what we had while the snapshot is applied
+        while (in.readBoolean()) {
+            byte type = in.readByte();
+
+            if (!PackageCodec.isSave(type)) {
+                throw new IOException("Unexpected record in snapshot");
+            }
+
+            StoredPackage p = PackageCodec.readSave(in, type);
+            this.packageRepository.replicate(p);
+            this.priceFeed.onPackageChanged(p.getUuid());
+            uuids.add(p.getUuid());
+        }
+
+        this.packageRepository.removeAllExcept(uuids);
+
+        this.logId = logId;
+        this.appliedTimestamp = timestamp;
+        this.latest = sequence;
+        this.latestTimestamp = timestamp;
+        this.applied = sequence;
+        this.lastContact = System.currentTimeMillis();
+
+        LOGGER.info("Caught up from a snapshot of {} packages up to change {}", uuids.size(), sequence);
+    }
+
+    private void readBatch(DataInputStream in) throws IOException {
+        long first = in.readLong();
+        this.latest = in.readLong();
+        this.latestTimestamp = in.readLong();
+        int count = in.readInt();
+
+        if (count > 0 && first != this.applied + 1) {
+            throw new IOException("Expected change " + (this.applied + 1) + " from primary but got " + first);
+        }
+
+        for (int i = 0; i < count; i++) {
+            long timestamp = in.readLong();
+            byte[] record = new byte[in.readInt()];
+            in.readFully(record);
+
+            this.apply(record);
+            this.appliedTimestamp = timestamp;
+            this.applied = first + i;
+        }
+
+        this.lastContact = System.currentTimeMillis();
+    }
+
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+
+        if (PackageCodec.isSave(type)) {
+            StoredPackage p = PackageCodec.readSave(in, type);
+            this.packageRepository.replicate(p);
+            this.priceFeed.onPackageChanged(p.getUuid());
+        } else if (type == PackageCodec.DELETE) {
+            this.packageRepository.replicateDelete(PackageCodec.readUuid(in));
+        } else {
+            throw new IOException("Unexpected record " + type + " from primary");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package uk.jordandoyle.packageservice.replication;
+
+import com.google.common.net.HostAndPort;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import uk.jordandoyle.packageservice.feed.PriceFeed;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Sets up replication based on {@code packageservice.replication.role}. A {@code primary} streams every change to its
+ * packages to replicas connecting on {@code packageservice.replication.port}, a {@code replica} follows the primary at
+ * {@code packageservice.replication.primary} and only serves reads. Nothing is replicated unless the role is set.
+ */
+@Configuration
+public class ReplicationConfiguration extends WebMvcConfigurerAdapter {
+    /**
+     * Whether we're a {@code primary}, a {@code replica} or neither
+     */
+    @Value("${packageservice.replication.role:none}")
+    private String role;
+
+    @Bean
+    @ConditionalOnProperty(name = "packageservice.replication.role", havingValue = "primary")
+    public ReplicationLog replicationLog(@Value("${packageservice.replication.log-size:100000}") int logSize) {
+        return new ReplicationLog(logSize);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "packageservice.replication.role", havingValue = "primary")
+    public ReplicationServer replicationServer(ReplicationLog replicationLog, PackageRepository packageRepository,
+                                               @Value("${packageservice.replication.port:7070}") int port,
+                                               @Value("${packageservice.replication.heartbeat-interval:1000}")
+                                                       long heartbeatMillis) throws IOException {
+        return new ReplicationServer(port, replicationLog, packageRepository, heartbeatMillis);
+    }
+
+    @Bean(initMethod = "start")
+    @ConditionalOnProperty(name = "packageservice.replication.role", havingValue = "replica")
+    public ReplicationClient replicationClient(PackageRepository packageRepository, PriceFeed priceFeed,
+                                               @Value("${packageservice.replication.primary}") String primary,
+                                               @Value("${packageservice.replication.timeout:10000}") int timeoutMillis,
+                                               @Value("${packageservice.replication.reconnect-delay:1000}")
+                                                       long reconnectDelayMillis) {
+        HostAndPort address = HostAndPort.fromString(primary).withDefaultPort(7070);
+        return new ReplicationClient(new InetSocketAddress(address.getHost(), address.getPort()), packageRepository,
+                priceFeed, timeoutMillis, reconnectDelayMillis);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (this.role.equals("replica")) {
+            registry.addInterceptor(new ReplicaWriteInterceptor()).addPathPatterns("/package", "/package/**");
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package uk.jordandoyle.packageservice.replication;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The most recent changes made to our packages, in the order they were made, for streaming to replicas. Every change
+ * is given the next sequence number once it's durable in our own store. Only the latest changes are held, a replica
+ * that falls further behind than that has to catch up from a snapshot instead.
+ *
+ * Sequence numbers start again from 1 each time we start, so the log is also given a random id. A replica resuming
+ * from a sequence number it got from a different id has to catch up from a snapshot.
+ */
+public class ReplicationLog {
+    /**
+     * Identifies this run of the log
+     */
+    private final long id = new SecureRandom().nextLong();
+
+    /**
+     * Latest changes, the change with sequence number {@code n} is held at {@code n % records.length}
+     */
+    private final Record[] records;
+
+    /**
+     * Sequence number of the latest change, 0 if nothing has changed yet
+     */
+    private long sequence;
+
+    /**
+     * When the latest change was made, in milliseconds since the epoch
+     */
+    private long timestamp = System.currentTimeMillis();
+
+    public ReplicationLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Replication log needs room for at least one change");
+        }
+
+        this.records = new Record[capacity];
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    /**
+     * Add a change to the end of the log and wake anyone waiting for it.
+     *
+     * @param record change encoded by {@link uk.jordandoyle.packageservice.store.PackageCodec}
+     */
+    public synchronized void append(byte[] record) {
+        this.sequence++;
+        this.timestamp = System.currentTimeMillis();
+        this.records[(int) (this.sequence % this.records.length)] = new Record(this.timestamp, record);
+        this.notifyAll();
+    }
+
+    /**
+     * Get the sequence number and time of the latest change, a snapshot taken after this is called reflects every
+     * change up to it.
+     */
+    public synchronized Batch getLatest() {
+        return new Batch(this.sequence + 1, Collections.emptyList(), this.sequence, this.timestamp);
+    }
+
+    /**
+     * Read the changes following a sequence number, waiting for one to be made if there aren't any yet.
+     *
+     * @param after         sequence number of the last change the caller has
+     * @param max           most changes to return
+     * @param timeoutMillis longest to wait for a change, an empty batch is returned if none are made
+     * @return the changes, or {@code null} if the log no longer holds every change following {@code after}
+     * @throws InterruptedException if we're interrupted while waiting
+     */
+    public synchronized Batch read(long after, int max, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+
+        while (this.canResume(after) && after == this.sequence && remaining > 0) {
+            this.wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+
+        if (!this.canResume(after)) {
+            return null;
+        }
+
+        int count = (int) Math.min(max, this.sequence - after);
+        List<Record> records = new ArrayList<>(count);
+
+        for (long i = after + 1; i <= after + count; i++) {
+            records.add(this.records[(int) (i % this.records.length)]);
+        }
+
+        return new Batch(after + 1, records, this.sequence, this.timestamp);
+    }
+
+    /**
+     * Check if we still hold every change following a sequence number.
+     */
+    public synchronized boolean canResume(long after) {
+        return after >= 0 && after <= this.sequence && this.sequence - after <= this.records.length;
+    }
+
+    /**
+     * A change in the log.
+     */
+    public static final class Record {
+        /**
+         * When the change was made, in milliseconds since the epoch
+         */
+        private final long timestamp;
+
+        /**
+         * Change encoded by {@link uk.jordandoyle.packageservice.store.PackageCodec}
+         */
+        private final byte[] bytes;
+
+        Record(long timestamp, byte[] bytes) {
+            this.timestamp = timestamp;
+            this.bytes = bytes;
+        }
+
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+
+        public byte[] getBytes() {
+            return this.bytes;
+        }
+    }
+
+    /**
+     * Consecutive changes read from the log, along with where the log was up to when they were read.
+     */
+    public static final class Batch {
+        /**
+         * Sequence number of the first change in the batch
+         */
+        private final long first;
+
+        private final List<Record> records;
+
+        /**
+         * Sequence number of the latest change in the log
+         */
+        private final long latest;
+
+        /**
+         * When the latest change in the log was made
+         */
+        private final long latestTimestamp;
+
+        Batch(long first, List<Record> records, long latest, long latestTimestamp) {
+            this.first = first;
+            this.records = records;
+            this.latest = latest;
+            this.latestTimestamp = latestTimestamp;
+        }
+
+        public long getFirst() {
+            return this.first;
+        }
+
+        public List<Record> getRecords() {
+            return this.records;
+        }
+
+        public long getLatest() {
+            return this.latest;
+        }
+
+        public long getLatestTimestamp() {
+            return this.latestTimestamp;
+        }
+    }
+}
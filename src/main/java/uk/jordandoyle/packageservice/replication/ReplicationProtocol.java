@@ -0,0 +1,42 @@
+package uk.jordandoyle.packageservice.replication;
+
+/**
+ * Frames exchanged between a primary and its replicas over TCP.
+ *
+ * A replica opens the connection by sending {@link #MAGIC}, the id of the primary's log it last followed and the
+ * sequence number of the last change it applied from it, or {@link #NO_POSITION} if it has nothing. The primary
+ * replies with a {@link #SNAPSHOT} if it can't resume from there, then streams {@link #BATCH} frames for as long as
+ * the connection stays open:
+ *
+ * <code><pre>
+ * SNAPSHOT: log id, sequence number, timestamp, then (true, save record)* false
+ * BATCH:    first sequence number, latest sequence number, latest timestamp, count, then (timestamp, length, record)*
+ * </pre></code>
+ *
+ * Records are encoded by {@link uk.jordandoyle.packageservice.store.PackageCodec}. A batch is sent at least every
+ * heartbeat interval even if there's nothing in it, so a replica always knows how far behind it is.
+ */
+final class ReplicationProtocol {
+    /**
+     * Sent by a replica when it connects
+     */
+    static final int MAGIC = 0x504b5231;
+
+    /**
+     * Sequence number sent by a replica that needs a snapshot
+     */
+    static final long NO_POSITION = -1;
+
+    /**
+     * Frame holding every package the primary has
+     */
+    static final byte SNAPSHOT = 1;
+
+    /**
+     * Frame holding consecutive changes from the primary's log
+     */
+    static final byte BATCH = 2;
+
+    private ReplicationProtocol() {
+    }
+}
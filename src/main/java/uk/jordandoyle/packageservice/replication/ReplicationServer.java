@@ -0,0 +1,218 @@
+package uk.jordandoyle.packageservice.replication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+import uk.jordandoyle.packageservice.store.PackageCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs on a primary, accepts connections from replicas and streams our {@link ReplicationLog} to each of them on a
+ * thread of its own. A replica that's new, or too far behind for the log to still hold the changes it's missing, is
+ * sent a snapshot of every package first.
+ *
+ * Snapshots are taken from the repository while changes are still being made, so a snapshot may already reflect some
+ * changes after the sequence number it's sent with. Changes hold the whole package, so applying them again over the
+ * snapshot is harmless.
+ */
+public class ReplicationServer implements Closeable {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationServer.class);
+
+    /**
+     * Most changes sent to a replica in a single batch
+     */
+    private static final int MAX_BATCH_SIZE = 4096;
+
+    private final ReplicationLog log;
+
+    private final PackageRepository packageRepository;
+
+    /**
+     * Longest we'll go without sending a replica a batch, even if there aren't any changes
+     */
+    private final long heartbeatMillis;
+
+    private final ServerSocket serverSocket;
+
+    /**
+     * Connections to replicas we're streaming to
+     */
+    private final Set<Socket> replicas = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean closed;
+
+    public ReplicationServer(int port, ReplicationLog log, PackageRepository packageRepository, long heartbeatMillis)
+            throws IOException {
+        this.log = log;
+        this.packageRepository = packageRepository;
+        this.heartbeatMillis = heartbeatMillis;
+        this.serverSocket = new ServerSocket(port);
+
+        Thread acceptor = new Thread(this::acceptLoop, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        LOGGER.info("Streaming changes to replicas on port {}", this.serverSocket.getLocalPort());
+    }
+
+    /**
+     * Get the port we're listening for replicas on.
+     */
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * Get the sequence number of the latest change in our log.
+     */
+    public long getSequence() {
+        return this.log.getLatest().getLatest();
+    }
+
+    /**
+     * Get the number of replicas currently connected to us.
+     */
+    public int getReplicaCount() {
+        return this.replicas.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.serverSocket.close();
+
+        for (Socket replica : this.replicas) {
+            replica.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!this.closed) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                this.replicas.add(socket);
+
+                Thread sender = new Thread(() -> this.serve(socket), "replication-" + socket.getRemoteSocketAddress());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!this.closed) {
+                    LOGGER.error("Failed to accept a replica", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stream changes to a replica until it goes away or we're closed.
+     */
+    private void serve(Socket socket) {
+        SocketAddress replica = socket.getRemoteSocketAddress();
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                    64 * 1024));
+
+            if (in.readInt() != ReplicationProtocol.MAGIC) {
+                throw new IOException("Not a replica");
+            }
+
+            long logId = in.readLong();
+            long after = in.readLong();
+
+            if (logId == this.log.getId() && this.log.canResume(after)) {
+                LOGGER.info("Replica {} resuming after change {}", replica, after);
+            } else {
+                after = this.sendSnapshot(out, replica);
+            }
+
+            while (!this.closed) {
+                ReplicationLog.Batch batch = this.log.read(after, MAX_BATCH_SIZE, this.heartbeatMillis);
+
+                if (batch == null) {
+                    LOGGER.warn("Replica {} fell too far behind after change {}", replica, after);
+                    after = this.sendSnapshot(out, replica);
+                    continue;
+                }
+
+                writeBatch(out, batch);
+                out.flush();
+                after += batch.getRecords().size();
+            }
+        } catch (IOException e) {
+            if (!this.closed) {
+                LOGGER.info("Replica {} disconnected: {}", replica, e.toString());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.replicas.remove(socket);
+
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close connection to replica {}", replica, e);
+            }
+        }
+    }
+
+    /**
+     * Send a replica every package we have.
+     *
+     * @return sequence number of the latest change the snapshot reflects
+     */
+    private long sendSnapshot(DataOutputStream out, SocketAddress replica) throws IOException {
+        // every change up to here is already in the repository
+        ReplicationLog.Batch latest = this.log.getLatest();
+        int count = 0;
+
+        out.writeByte(ReplicationProtocol.SNAPSHOT);
+        out.writeLong(this.log.getId());
+        out.writeLong(latest.getLatest());
+        out.writeLong(latest.getLatestTimestamp());
+
+        for (Package p : this.packageRepository.getPackages()) {
+            out.writeBoolean(true);
+            PackageCodec.writeSave(out, p);
+            count++;
+        }
+
+        out.writeBoolean(false);
+        out.flush();
+
+        LOGGER.info("Sent a snapshot of {} packages up to change {} to replica {}", count, latest.getLatest(),
+                replica);
+        return latest.getLatest();
+    }
+
+    private static void writeBatch(DataOutputStream out, ReplicationLog.Batch batch) throws IOException {
+        out.writeByte(ReplicationProtocol.BATCH);
+        out.writeLong(batch.getFirst());
+        out.writeLong(batch.getLatest());
+        out.writeLong(batch.getLatestTimestamp());
+        out.writeInt(batch.getRecords().size());
+
+        for (ReplicationLog.Record record : batch.getRecords()) {
+            out.writeLong(record.getTimestamp());
+            out.writeInt(record.getBytes().length);
+            out.write(record.getBytes());
+        }
+    }
+}
@@ -3,47 +3,75 @@ package uk.jordandoyle.packageservice.repository;
 import com.google.api.client.util.DateTime;
 import org.springframework.stereotype.Repository;
 import uk.jordandoyle.packageservice.domain.ExchangeRate;
+import uk.jordandoyle.packageservice.domain.RateTable;
 
 import java.math.BigDecimal;
 import java.util.Map;
 
 @Repository
 public class ExchangeRateRepository {
-    private ExchangeRate currentExchangeRate;
+    /**
+     * The current rates, replaced as a whole whenever new rates come in. {@code null} until we've fetched any rates.
+     */
+    private volatile RateTable rateTable;
 
     /**
-     * Set the current exchange rates
+     * Set the current exchange rates. Readers holding the previous rates can carry on using them, they'll see the
+     * new rates the next time they call {@link #getRateTable()}.
      *
      * @param exchangeRate
      */
-    public void setCurrentExchangeRate(ExchangeRate exchangeRate) {
-        this.currentExchangeRate = exchangeRate;
+    public synchronized void setCurrentExchangeRate(ExchangeRate exchangeRate) {
+        this.rateTable = new RateTable(this.getVersion() + 1, exchangeRate);
+    }
+
+    /**
+     * Get the current exchange rates. Callers that read more than one rate or the version alongside the rates
+     * should hold on to a single table rather than calling this again.
+     *
+     * @return current rates, or {@code null} if we haven't fetched any yet
+     */
+    public RateTable getRateTable() {
+        return this.rateTable;
+    }
+
+    /**
+     * Get the version of the current exchange rates, this changes every time new rates are installed.
+     *
+     * @return current exchange rate version
+     */
+    public long getVersion() {
+        RateTable rateTable = this.rateTable;
+        return rateTable == null ? 0 : rateTable.getVersion();
     }
 
     /**
-     * Proxy method to {@link ExchangeRate#getBase()}.
+     * Proxy method to {@link RateTable#getBase()}.
      *
      * @return base currency the exchange rates are based on
      */
     public String getBase() {
-        return this.currentExchangeRate.getBase();
+        RateTable rateTable = this.rateTable;
+        return rateTable == null ? null : rateTable.getBase();
     }
 
     /**
-     * Proxy method to {@link ExchangeRate#getDate()}.
+     * Proxy method to {@link RateTable#getDate()}.
      *
      * @return date these exchange rates are for
      */
     public DateTime getDate() {
-        return this.currentExchangeRate.getDate();
+        RateTable rateTable = this.rateTable;
+        return rateTable == null ? null : rateTable.getDate();
     }
 
     /**
-     * Proxy method to {@link ExchangeRate#getRates()}.
+     * Proxy method to {@link RateTable#getRates()}.
      *
-     * @return exchange rates for {@link ExchangeRate#base}
+     * @return exchange rates for {@link RateTable#getBase()}
      */
     public Map<String, BigDecimal> getRates() {
-        return this.currentExchangeRate.getRates();
+        RateTable rateTable = this.rateTable;
+        return rateTable == null ? null : rateTable.getRates();
     }
 }
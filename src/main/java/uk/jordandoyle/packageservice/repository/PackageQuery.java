@@ -0,0 +1,102 @@
+package uk.jordandoyle.packageservice.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What to search for in {@link PackageRepository#search}. Every part of a query is optional, a package has to match
+ * all of the parts that are given.
+ */
+public final class PackageQuery {
+    /**
+     * Lower case words that each have to start a word in the package's name
+     */
+    private final List<String> nameTokens;
+
+    /**
+     * Ids of products the package has to contain
+     */
+    private final List<String> productIds;
+
+    /**
+     * Lowest total price in whole US dollars, inclusive
+     */
+    private final long minPrice;
+
+    /**
+     * Highest total price in whole US dollars, inclusive
+     */
+    private final long maxPrice;
+
+    /**
+     * Build a query.
+     *
+     * @param name       words that each have to start a word in the package's name, case insensitively, so
+     *                   {@code "gold pack"} matches {@code "Golden Package"}, or {@code null} to match any name
+     * @param productIds ids of products the package has to contain, or {@code null} to match any products
+     * @param minPrice   lowest total price in whole US dollars, or {@code null} for no lower bound
+     * @param maxPrice   highest total price in whole US dollars, or {@code null} for no upper bound
+     */
+    public PackageQuery(String name, Collection<String> productIds, Long minPrice, Long maxPrice) {
+        this.nameTokens = PackageSearchIndex.tokenise(name);
+        this.productIds = productIds == null ? Collections.emptyList() : new ArrayList<>(productIds);
+        this.minPrice = minPrice == null ? Long.MIN_VALUE : minPrice;
+        this.maxPrice = maxPrice == null ? Long.MAX_VALUE : maxPrice;
+    }
+
+    public List<String> getNameTokens() {
+        return this.nameTokens;
+    }
+
+    public List<String> getProductIds() {
+        return this.productIds;
+    }
+
+    public long getMinPrice() {
+        return this.minPrice;
+    }
+
+    public long getMaxPrice() {
+        return this.maxPrice;
+    }
+
+    /**
+     * Check if the query has a price range rather than matching every price.
+     */
+    boolean hasPriceRange() {
+        return this.minPrice != Long.MIN_VALUE || this.maxPrice != Long.MAX_VALUE;
+    }
+
+    /**
+     * Check if a package's name matches the query.
+     *
+     * @param name name of the package
+     * @return true, if every word in the query starts a word in the name
+     */
+    boolean matchesName(String name) {
+        if (this.nameTokens.isEmpty()) {
+            return true;
+        }
+
+        List<String> tokens = PackageSearchIndex.tokenise(name);
+
+        for (String prefix : this.nameTokens) {
+            if (tokens.stream().noneMatch(token -> token.startsWith(prefix))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if a total price is in the query's range.
+     *
+     * @param price total price in whole US dollars
+     */
+    boolean matchesPrice(long price) {
+        return price >= this.minPrice && price <= this.maxPrice;
+    }
+}
@@ -1,33 +1,210 @@
 package uk.jordandoyle.packageservice.repository;
 
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Striped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
 import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.store.PackageStore;
+import uk.jordandoyle.packageservice.store.StoredPackage;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- * Datastore for packages. This is currently only backed by a HashMap and no persistent datastore.
+ * Datastore for packages. Every package is held in memory, changes are written through to a {@link PackageStore} so
+ * they survive a restart and the store is read back on startup.
  *
- * TODO: this should be persisted to DynamoDB or something and then this class repurposed as a second level cache.
+ * Packages are immutable, a change builds a new copy of the package and swaps it in for the copy it was built from.
+ * If another change got there first the swap fails and the change is built again from the latest copy. Readers never
+ * wait on writers and always see a whole package.
  */
 @Repository
 public class PackageRepository {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackageRepository.class);
+
+    /**
+     * Most candidates we'll gather from an index for a search. If every index a search could use matches more
+     * packages than this we walk our packages in order instead, which is quicker when that many packages match.
+     */
+    static final int SEARCH_CANDIDATE_LIMIT = 16384;
+
     /**
      * All the packages we own
      */
     private final Map<UUID, Package> packages = new ConcurrentHashMap<>();
 
+    /**
+     * UUIDs of all the packages we own in order, so packages can be listed a page at a time in a stable order
+     */
+    private final NavigableSet<UUID> order = new ConcurrentSkipListSet<>();
+
+    /**
+     * Locks held while a changed package is swapped in and queued for writing to our store, so the store and our
+     * product index always see changes to a package in the same order we made them. Changes are built before the
+     * lock is taken, so it's only held for the swap itself.
+     */
+    private final Striped<Lock> locks = Striped.lock(256);
+
+    @Autowired
+    private PackageStore packageStore;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    /**
+     * Reverse index of product id to the packages containing that product, used to find the packages we need to
+     * refresh when a product changes.
+     */
+    private final Map<String, Set<UUID>> packagesByProduct = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes of package names and prices, used to search for packages
+     */
+    private final PackageSearchIndex searchIndex = new PackageSearchIndex();
+
+    /**
+     * Read back every package from our store.
+     */
+    @PostConstruct
+    public void recover() throws IOException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+
+        for (StoredPackage stored : this.packageStore.recover()) {
+            Package p = this.restore(stored);
+            this.index(p.getUuid(), p.getProducts());
+            this.searchIndex.updateName(p.getUuid(), null, p.getName());
+            this.searchIndex.updatePrice(p.getUuid(), p.getTotalPrice());
+            this.packages.put(p.getUuid(), p);
+            this.order.add(p.getUuid());
+        }
+
+        LOGGER.info("Recovered {} packages in {}ms", this.packages.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Compact our store so recovery only has to read a snapshot and a short log.
+     */
+    @Scheduled(fixedDelayString = "${packageservice.store.snapshot-interval:300000}")
+    @PreDestroy // and take one on shutdown so we start up quicker next time
+    public void snapshot() throws IOException {
+        this.packageStore.snapshot(this.getPackages());
+    }
+
+    /**
+     * Give back the ordinals of products no package has held since we last checked, so the ordinal table doesn't
+     * keep growing as products come and go.
+     */
+    @Scheduled(fixedDelayString = "${packageservice.product-ordinals.reclaim-interval:60000}")
+    public void reclaimOrdinals() {
+        int reclaimed = this.productRepository.getOrdinals().reclaim(this.packagesByProduct::containsKey);
+
+        if (reclaimed > 0) {
+            LOGGER.debug("Reclaimed {} product ordinals", reclaimed);
+        }
+    }
+
     /**
      * Adds a new package to our datastore.
      *
      * @param p package to add
+     * @return the package as we're now holding it
+     */
+    public Package addPackage(Package p) {
+        this.index(p.getUuid(), p.getProducts());
+        await(this.queueSave(p));
+
+        // a product may have changed between the package being built and it being indexed
+        return this.refreshIfStale(p.getUuid());
+    }
+
+    /**
+     * Adds a batch of new packages to our datastore. Every package is queued for writing before we wait on any of
+     * them, so the whole batch can share a handful of writes to our store.
+     *
+     * @param packages packages to add
      */
-    public void addPackage(Package p) {
-        this.packages.put(p.getUuid(), p);
+    public void addPackages(Collection<Package> packages) {
+        List<CompletableFuture<Void>> written = new ArrayList<>(packages.size());
+
+        for (Package p : packages) {
+            this.index(p.getUuid(), p.getProducts());
+            written.add(this.queueSave(p));
+        }
+
+        await(CompletableFuture.allOf(written.toArray(new CompletableFuture[written.size()])));
+
+        for (Package p : packages) {
+            // a product may have changed between the package being built and it being indexed
+            this.refreshIfStale(p.getUuid());
+        }
+    }
+
+    /**
+     * Change a package we own. The change is built from the latest copy of the package and swapped in, if another
+     * change is swapped in first ours is built again from that one.
+     *
+     * @param uuid            uuid of the package to change
+     * @param expectedVersion checked against the version of the package each time the change is built, the change is
+     *                        only made if it matches
+     * @param change          builds the changed package from the current copy
+     * @return the changed package, or {@code null} if we don't own a package with the uuid
+     * @throws VersionConflictException if the package isn't at a version we expected
+     */
+    public Package updatePackage(UUID uuid, LongPredicate expectedVersion, UnaryOperator<Package> change) {
+        while (true) {
+            Package current = this.packages.get(uuid);
+
+            if (current == null) {
+                return null;
+            }
+
+            if (!expectedVersion.test(current.getVersion())) {
+                throw new VersionConflictException(current);
+            }
+
+            Package updated = change.apply(current);
+            CompletableFuture<Void> written = this.queueReplace(current, updated);
+
+            if (written != null) {
+                await(written);
+
+                // a product may have changed between the package being built and it being indexed
+                return this.refreshIfStale(uuid);
+            }
+        }
     }
 
     /**
@@ -46,7 +223,131 @@ public class PackageRepository {
      * @param uuid uuid of the package to remove
      */
     public void deletePackage(UUID uuid) {
-        this.packages.remove(uuid);
+        Lock lock = this.locks.get(uuid);
+        CompletableFuture<Void> written;
+
+        lock.lock();
+
+        try {
+            this.remove(uuid);
+            written = this.packageStore.delete(uuid);
+        } finally {
+            lock.unlock();
+        }
+
+        await(written);
+    }
+
+    /**
+     * Take on packages handed over by another node, keeping their uuids and versions. A package we already have a
+     * copy of is only replaced if the copy we've been given is newer, ours may have been changed since the handover
+     * was read, such as by a write forwarded to us as soon as we became the owner.
+     *
+     * @param stored packages as the other node wrote them
+     */
+    public void adoptPackages(Collection<StoredPackage> stored) {
+        List<UUID> adopted = new ArrayList<>(stored.size());
+        List<CompletableFuture<Void>> written = new ArrayList<>(stored.size());
+
+        for (StoredPackage s : stored) {
+            Package p = this.restore(s);
+            CompletableFuture<Void> saved = this.queueAdopt(p);
+
+            if (saved != null) {
+                adopted.add(p.getUuid());
+                written.add(saved);
+            }
+        }
+
+        await(CompletableFuture.allOf(written.toArray(new CompletableFuture[written.size()])));
+
+        for (UUID uuid : adopted) {
+            // a product may have changed since the other node wrote the package
+            this.refreshIfStale(uuid);
+        }
+    }
+
+    /**
+     * Delete a package from our datastore, but only if it's at a version we expected.
+     *
+     * @param uuid            uuid of the package to remove
+     * @param expectedVersion checked against the version of the package, it's only deleted if it matches
+     * @return true, if we deleted the package
+     */
+    public boolean deletePackage(UUID uuid, LongPredicate expectedVersion) {
+        Lock lock = this.locks.get(uuid);
+        CompletableFuture<Void> written;
+
+        lock.lock();
+
+        try {
+            Package current = this.packages.get(uuid);
+
+            if (current == null || !expectedVersion.test(current.getVersion())) {
+                return false;
+            }
+
+            this.remove(uuid);
+            written = this.packageStore.delete(uuid);
+        } finally {
+            lock.unlock();
+        }
+
+        await(written);
+        return true;
+    }
+
+    /**
+     * Apply a change to a package made by our primary. The change holds the whole package as the primary wrote it,
+     * so it replaces whatever copy we're holding. Replicated changes aren't written to our own store, a replica
+     * catches up from its primary whenever it starts.
+     *
+     * @param stored package as the primary wrote it
+     */
+    public void replicate(StoredPackage stored) {
+        Package p = this.restore(stored);
+        UUID uuid = p.getUuid();
+        Lock lock = this.locks.get(uuid);
+        lock.lock();
+
+        try {
+            this.publish(uuid, this.packages.get(uuid), p);
+        } finally {
+            lock.unlock();
+        }
+
+        // a product may have changed since the primary wrote the package
+        this.refreshIfStale(uuid);
+    }
+
+    /**
+     * Apply the deletion of a package by our primary.
+     *
+     * @param uuid uuid of the deleted package
+     */
+    public void replicateDelete(UUID uuid) {
+        Lock lock = this.locks.get(uuid);
+        lock.lock();
+
+        try {
+            this.remove(uuid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete every package that isn't in the given set, used once a replica has caught up from a snapshot of its
+     * primary to drop packages the primary deleted while we weren't following its log.
+     *
+     * @param uuids uuids of the packages to keep
+     */
+    public void removeAllExcept(Set<UUID> uuids) {
+        for (UUID uuid : this.order) {
+            if (!uuids.contains(uuid)) {
+                this.replicateDelete(uuid);
+            }
+        }
     }
 
     /**
@@ -58,6 +359,13 @@ public class PackageRepository {
         return this.packages.get(uuid);
     }
 
+    /**
+     * Get the number of packages we own.
+     */
+    public int size() {
+        return this.packages.size();
+    }
+
     /**
      * Get all packages from our datastore. This method returns an unmodifiable collection. Use the other method
      * provided by this class to interact with the collection.
@@ -65,4 +373,346 @@ public class PackageRepository {
     public Collection<Package> getPackages() {
         return Collections.unmodifiableCollection(this.packages.values());
     }
+
+    /**
+     * Get our packages in uuid order, starting after the given uuid. Packages are read lazily as the stream is
+     * consumed, so a caller only holds on to the packages it's using. Packages added or deleted while the stream is
+     * being read may or may not be seen.
+     *
+     * @param after uuid to start after, or {@code null} to start from the first package
+     * @return packages in uuid order
+     */
+    public Stream<Package> streamPackages(UUID after) {
+        Set<UUID> uuids = after == null ? this.order : this.order.tailSet(after, false);
+        return uuids.stream().map(this.packages::get).filter(Objects::nonNull);
+    }
+
+    /**
+     * Get the uuids of all the packages containing a product.
+     *
+     * @param productId id of the product
+     * @return uuids of packages containing the product
+     */
+    public Set<UUID> getPackagesContaining(String productId) {
+        Set<UUID> uuids = this.packagesByProduct.get(productId);
+        return uuids == null ? Collections.emptySet() : Collections.unmodifiableSet(uuids);
+    }
+
+    /**
+     * Search for packages matching a query, a page at a time in uuid order like {@link #streamPackages}. The index
+     * expected to match the fewest packages is used to find candidates, which are then checked against the whole
+     * query, so a search is as quick as its most selective part. If nothing in the query narrows it down to fewer
+     * than {@value #SEARCH_CANDIDATE_LIMIT} packages we walk every package after the cursor instead.
+     *
+     * @param query what to search for
+     * @param after uuid to start after, or {@code null} to start from the first package
+     * @param limit maximum number of packages to return
+     * @return matching packages in uuid order
+     */
+    public List<Package> search(PackageQuery query, UUID after, int limit) {
+        List<Product> products = new ArrayList<>(query.getProductIds().size());
+
+        for (String productId : query.getProductIds()) {
+            Product product = this.productRepository.getProductById(productId);
+
+            if (product == null) {
+                // no package can contain a product we don't know about
+                return Collections.emptyList();
+            }
+
+            products.add(product);
+        }
+
+        Predicate<Package> matches = p -> query.matchesPrice(p.getTotalPrice()) && query.matchesName(p.getName())
+                && products.stream().allMatch(p::containsProduct);
+        Collection<UUID> candidates = this.searchCandidates(query);
+
+        if (candidates == null) {
+            return this.streamPackages(after).filter(matches).limit(limit).collect(Collectors.toList());
+        }
+
+        return candidates.stream()
+                .filter(uuid -> after == null || uuid.compareTo(after) > 0)
+                .sorted()
+                .map(this.packages::get)
+                .filter(p -> p != null && matches.test(p))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Find the smallest set of packages one of our indexes can narrow a query down to.
+     *
+     * @return uuids of the candidates, or {@code null} if no index narrows it down to fewer than
+     * {@link #SEARCH_CANDIDATE_LIMIT}
+     */
+    private Collection<UUID> searchCandidates(PackageQuery query) {
+        int best = SEARCH_CANDIDATE_LIMIT;
+        Supplier<Collection<UUID>> candidates = null;
+
+        for (String productId : query.getProductIds()) {
+            Set<UUID> uuids = this.getPackagesContaining(productId);
+
+            if (uuids.size() < best) {
+                best = uuids.size();
+                candidates = () -> uuids;
+            }
+        }
+
+        for (String prefix : query.getNameTokens()) {
+            int count = this.searchIndex.countNamePrefix(prefix, best);
+
+            if (count < best) {
+                best = count;
+                candidates = () -> this.searchIndex.getNamePrefix(prefix);
+            }
+        }
+
+        if (query.hasPriceRange()) {
+            int count = this.searchIndex.countPriceRange(query.getMinPrice(), query.getMaxPrice(), best);
+
+            if (count < best) {
+                candidates = () -> this.searchIndex.getPriceRange(query.getMinPrice(), query.getMaxPrice());
+            }
+        }
+
+        return candidates == null ? null : candidates.get();
+    }
+
+    /**
+     * Refresh the prices of every package containing a product that changed during a product sync.
+     *
+     * @param changes products that changed
+     */
+    @EventListener
+    public void onProductsChanged(ProductChangeSet changes) {
+        Set<UUID> affected = new HashSet<>();
+
+        for (String productId : changes.getChangedIds()) {
+            affected.addAll(this.getPackagesContaining(productId));
+        }
+
+        for (UUID uuid : affected) {
+            this.refresh(uuid, false);
+        }
+    }
+
+    /**
+     * Swap in a copy of a package with its prices recalculated, but only if a product has changed since it was
+     * built.
+     *
+     * @return the package as we're now holding it
+     */
+    private Package refreshIfStale(UUID uuid) {
+        return this.refresh(uuid, true);
+    }
+
+    /**
+     * Swap in a copy of a package with its prices recalculated. Prices aren't part of what we write to our store, so
+     * this only changes the package in memory.
+     *
+     * @param onlyIfStale leave the package as it is if its prices are still correct
+     * @return the package as we're now holding it, or {@code null} if it's been deleted
+     */
+    private Package refresh(UUID uuid, boolean onlyIfStale) {
+        while (true) {
+            Package current = this.packages.get(uuid);
+
+            if (current == null || (onlyIfStale && current.isPriceCurrent())) {
+                return current;
+            }
+
+            Package refreshed = current.refreshed();
+
+            if (this.replace(uuid, current, refreshed)) {
+                this.reindexPrice(uuid);
+                return refreshed;
+            }
+        }
+    }
+
+    /**
+     * Swap a changed package in for the copy it was built from and queue it to be written to our store.
+     *
+     * @param current copy the change was built from
+     * @param updated changed copy
+     * @return completes once the write is durable, or {@code null} if the package has changed since {@code current}
+     */
+    private CompletableFuture<Void> queueReplace(Package current, Package updated) {
+        UUID uuid = current.getUuid();
+        Lock lock = this.locks.get(uuid);
+        lock.lock();
+
+        try {
+            // index before we publish any prices so we can't miss a product change
+            if (this.packages.get(uuid) != current) {
+                return null;
+            }
+
+            this.index(uuid, updated.getProductsNotIn(current));
+
+            if (!this.replace(uuid, current, updated)) {
+                // prices were refreshed while we were indexing
+                return null;
+            }
+
+            this.unindex(uuid, current.getProductsNotIn(updated));
+            this.searchIndex.updateName(uuid, current.getName(), updated.getName());
+            this.searchIndex.updatePrice(uuid, this.packages.get(uuid).getTotalPrice());
+            return this.packageStore.save(updated);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Swap a new copy of a package into our map, but only if we're still holding exactly the copy it was built from.
+     * {@link Map#replace(Object, Object, Object)} won't do, as it compares with {@link Package#equals}, which only
+     * compares uuids, so it would happily replace a copy someone else swapped in after we read ours.
+     *
+     * @param current copy {@code updated} was built from
+     * @param updated new copy, which mustn't already be in our map
+     * @return true, if {@code updated} was swapped in
+     */
+    private boolean replace(UUID uuid, Package current, Package updated) {
+        return this.packages.computeIfPresent(uuid, (k, p) -> p == current ? updated : p) == updated;
+    }
+
+    /**
+     * Put a new package in our map and queue it to be written to our store.
+     *
+     * @return completes once the write is durable
+     */
+    private CompletableFuture<Void> queueSave(Package p) {
+        Lock lock = this.locks.get(p.getUuid());
+        lock.lock();
+
+        try {
+            Package previous = this.packages.put(p.getUuid(), p);
+            this.order.add(p.getUuid());
+            this.searchIndex.updateName(p.getUuid(), previous == null ? null : previous.getName(), p.getName());
+            this.searchIndex.updatePrice(p.getUuid(), p.getTotalPrice());
+            return this.packageStore.save(p);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Swap in a package handed over by another node, unless we're already holding that version of it or a newer one.
+     *
+     * @return future completed once the package is stored, or {@code null} if we kept our own copy
+     */
+    private CompletableFuture<Void> queueAdopt(Package p) {
+        UUID uuid = p.getUuid();
+        Lock lock = this.locks.get(uuid);
+        lock.lock();
+
+        try {
+            Package previous = this.packages.get(uuid);
+
+            if (previous != null && previous.getVersion() >= p.getVersion()) {
+                return null;
+            }
+
+            this.publish(uuid, previous, p);
+            return this.packageStore.save(p);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Swap in a copy of a package built elsewhere, in place of whatever copy we're holding. Must be called holding
+     * the package's lock.
+     *
+     * @param previous copy we're holding, or {@code null} if we don't have one
+     * @param p        copy to swap in
+     */
+    private void publish(UUID uuid, Package previous, Package p) {
+        // index before we publish any prices so we can't miss a product change
+        this.index(uuid, previous == null ? p.getProducts() : p.getProductsNotIn(previous));
+        this.packages.put(uuid, p);
+        this.order.add(uuid);
+
+        if (previous != null) {
+            this.unindex(uuid, previous.getProductsNotIn(p));
+        }
+
+        this.searchIndex.updateName(uuid, previous == null ? null : previous.getName(), p.getName());
+        this.searchIndex.updatePrice(uuid, p.getTotalPrice());
+    }
+
+    /**
+     * Bring a package's entry in the price index up to date with the copy we're holding. Packages are refreshed
+     * without holding their lock, so the entry is always rebuilt from whichever copy is current once we have the
+     * lock, rather than from the copy the caller swapped in.
+     */
+    private void reindexPrice(UUID uuid) {
+        Lock lock = this.locks.get(uuid);
+        lock.lock();
+
+        try {
+            Package current = this.packages.get(uuid);
+            this.searchIndex.updatePrice(uuid, current == null ? null : current.getTotalPrice());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a package out of our map and indexes, the caller must hold the package's lock.
+     */
+    private void remove(UUID uuid) {
+        Package p = this.packages.remove(uuid);
+        this.order.remove(uuid);
+
+        if (p != null) {
+            this.unindex(uuid, p.getProducts());
+            this.searchIndex.updateName(uuid, p.getName(), null);
+            this.searchIndex.updatePrice(uuid, null);
+        }
+    }
+
+    /**
+     * Build a package from what we read back from a store, a primary or another node.
+     */
+    public Package restore(StoredPackage stored) {
+        List<Product> products = new ArrayList<>(stored.getProducts().size());
+
+        // we might not have synced with the Product Service yet so use the last details we saw for each product
+        for (Product product : stored.getProducts()) {
+            products.add(this.productRepository.restoreProduct(product));
+        }
+
+        return new Package(this.productRepository.getOrdinals(), stored.getUuid(), stored.getName(),
+                stored.getDescription(), products, stored.getVersion());
+    }
+
+    private static void await(CompletableFuture<Void> written) {
+        try {
+            written.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? new UncheckedIOException((IOException) e.getCause()) : e;
+        }
+    }
+
+    private void index(UUID uuid, Collection<Product> products) {
+        for (Product product : products) {
+            this.packagesByProduct.compute(product.getId(), (k, uuids) -> {
+                Set<UUID> result = uuids == null ? ConcurrentHashMap.newKeySet() : uuids;
+                result.add(uuid);
+                return result;
+            });
+        }
+    }
+
+    private void unindex(UUID uuid, Collection<Product> products) {
+        for (Product product : products) {
+            this.packagesByProduct.computeIfPresent(product.getId(), (k, uuids) -> {
+                uuids.remove(uuid);
+                return uuids.isEmpty() ? null : uuids;
+            });
+        }
+    }
 }
@@ -0,0 +1,293 @@
+package uk.jordandoyle.packageservice.repository;
+
+import com.google.common.util.concurrent.Striped;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Secondary indexes over package names and total prices, used by {@link PackageRepository#search} to find matching
+ * packages without looking at every package we own. The indexes only narrow down which packages need to be looked
+ * at, every package they return is checked against the query before it's returned, so an index that's a moment
+ * behind a change can't produce a wrong result.
+ *
+ * Callers must hold the package's lock while changing its entries, so changes to a package are applied in order.
+ * Packages sharing a word in their names still change its entry at the same time, so each word's entry is only
+ * changed while holding a lock for that word.
+ */
+final class PackageSearchIndex {
+    private static final UUID MIN_UUID = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+
+    private static final UUID MAX_UUID = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    /**
+     * Lower case words in package names to the packages whose names contain them, sorted so every word starting with
+     * a prefix can be found together
+     */
+    private final NavigableMap<String, Set<UUID>> byNameToken = new ConcurrentSkipListMap<>();
+
+    /**
+     * Locks guarding changes to each word's entry in {@link #byNameToken}. Its {@code compute} methods aren't atomic,
+     * so without these a package could be added to a word's set just as the last package was removed from it and the
+     * set dropped, losing the new entry.
+     */
+    private final Striped<Lock> tokenLocks = Striped.lock(64);
+
+    /**
+     * Creates the set of packages for a word that's new to the index
+     */
+    private final Supplier<Set<UUID>> newUuidSet;
+
+    PackageSearchIndex() {
+        this(ConcurrentHashMap::newKeySet);
+    }
+
+    PackageSearchIndex(Supplier<Set<UUID>> newUuidSet) {
+        this.newUuidSet = newUuidSet;
+    }
+
+    /**
+     * Every package sorted by its total price in whole US dollars
+     */
+    private final NavigableSet<PriceEntry> byPrice = new ConcurrentSkipListSet<>();
+
+    /**
+     * Price each package is currently indexed at in {@link #byPrice}, so the entry can be found when it changes
+     */
+    private final Map<UUID, Long> indexedPrices = new ConcurrentHashMap<>();
+
+    /**
+     * Split a package name or name query into the words we index, lower cased and split on anything that isn't a
+     * letter or digit.
+     *
+     * @param name name to split, may be {@code null}
+     * @return words in the name, in the order they appear
+     */
+    static List<String> tokenise(String name) {
+        List<String> tokens = new ArrayList<>();
+
+        if (name == null) {
+            return tokens;
+        }
+
+        int start = -1;
+
+        for (int i = 0; i <= name.length(); i++) {
+            boolean wordCharacter = i < name.length() && Character.isLetterOrDigit(name.charAt(i));
+
+            if (wordCharacter && start < 0) {
+                start = i;
+            } else if (!wordCharacter && start >= 0) {
+                tokens.add(name.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Move a package's name entries from its old name to its new one.
+     *
+     * @param uuid    uuid of the package
+     * @param oldName name the package was indexed under, or {@code null} if it wasn't
+     * @param newName name to index the package under, or {@code null} to remove it
+     */
+    void updateName(UUID uuid, String oldName, String newName) {
+        List<String> oldTokens = tokenise(oldName);
+        List<String> newTokens = tokenise(newName);
+
+        for (String token : newTokens) {
+            if (!oldTokens.contains(token)) {
+                this.addName(token, uuid);
+            }
+        }
+
+        for (String token : oldTokens) {
+            if (!newTokens.contains(token)) {
+                this.removeName(token, uuid);
+            }
+        }
+    }
+
+    private void addName(String token, UUID uuid) {
+        Lock lock = this.tokenLocks.get(token);
+        lock.lock();
+
+        try {
+            Set<UUID> uuids = this.byNameToken.get(token);
+
+            if (uuids == null) {
+                uuids = this.newUuidSet.get();
+                this.byNameToken.put(token, uuids);
+            }
+
+            uuids.add(uuid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeName(String token, UUID uuid) {
+        Lock lock = this.tokenLocks.get(token);
+        lock.lock();
+
+        try {
+            Set<UUID> uuids = this.byNameToken.get(token);
+
+            if (uuids != null && uuids.remove(uuid) && uuids.isEmpty()) {
+                this.byNameToken.remove(token);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Index a package at its current total price, replacing any entry for an older price.
+     *
+     * @param uuid  uuid of the package
+     * @param price total price in whole US dollars, or {@code null} to remove the package's entry
+     */
+    void updatePrice(UUID uuid, Long price) {
+        Long old = price == null ? this.indexedPrices.remove(uuid) : this.indexedPrices.put(uuid, price);
+
+        if (old != null && !old.equals(price)) {
+            this.byPrice.remove(new PriceEntry(old, uuid));
+        }
+
+        if (price != null) {
+            this.byPrice.add(new PriceEntry(price, uuid));
+        }
+    }
+
+    /**
+     * Count the packages with a word in their name starting with a prefix, giving up once we've counted enough.
+     *
+     * @param prefix lower case prefix
+     * @param limit  stop counting once we reach this many
+     * @return number of packages, at most {@code limit}, this may count a package more than once if more than one
+     * word in its name starts with the prefix
+     */
+    int countNamePrefix(String prefix, int limit) {
+        int count = 0;
+
+        for (Set<UUID> uuids : this.namePrefix(prefix).values()) {
+            count += uuids.size();
+
+            if (count >= limit) {
+                return limit;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the packages with a word in their name starting with a prefix.
+     *
+     * @param prefix lower case prefix
+     * @return uuids of the packages
+     */
+    Collection<UUID> getNamePrefix(String prefix) {
+        Set<UUID> result = new HashSet<>();
+
+        for (Set<UUID> uuids : this.namePrefix(prefix).values()) {
+            result.addAll(uuids);
+        }
+
+        return result;
+    }
+
+    /**
+     * Count the packages with a total price in a range, giving up once we've counted enough.
+     *
+     * @param min   lowest price in whole US dollars, inclusive
+     * @param max   highest price in whole US dollars, inclusive
+     * @param limit stop counting once we reach this many
+     * @return number of packages, at most {@code limit}
+     */
+    int countPriceRange(long min, long max, int limit) {
+        int count = 0;
+
+        for (PriceEntry ignored : this.priceRange(min, max)) {
+            if (++count >= limit) {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the packages with a total price in a range.
+     *
+     * @param min lowest price in whole US dollars, inclusive
+     * @param max highest price in whole US dollars, inclusive
+     * @return uuids of the packages, cheapest first
+     */
+    Collection<UUID> getPriceRange(long min, long max) {
+        List<UUID> result = new ArrayList<>();
+
+        for (PriceEntry entry : this.priceRange(min, max)) {
+            result.add(entry.uuid);
+        }
+
+        return result;
+    }
+
+    private NavigableMap<String, Set<UUID>> namePrefix(String prefix) {
+        return this.byNameToken.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private NavigableSet<PriceEntry> priceRange(long min, long max) {
+        if (min > max) {
+            return new ConcurrentSkipListSet<>();
+        }
+
+        return this.byPrice.subSet(new PriceEntry(min, MIN_UUID), true, new PriceEntry(max, MAX_UUID), true);
+    }
+
+    /**
+     * A package in the price index, ordered by price and then uuid so packages with the same price can be told apart.
+     */
+    private static final class PriceEntry implements Comparable<PriceEntry> {
+        private final long price;
+
+        private final UUID uuid;
+
+        private PriceEntry(long price, UUID uuid) {
+            this.price = price;
+            this.uuid = uuid;
+        }
+
+        @Override
+        public int compareTo(PriceEntry other) {
+            int result = Long.compare(this.price, other.price);
+            return result != 0 ? result : this.uuid.compareTo(other.uuid);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof PriceEntry && this.compareTo((PriceEntry) obj) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(this.price) + this.uuid.hashCode();
+        }
+    }
+}
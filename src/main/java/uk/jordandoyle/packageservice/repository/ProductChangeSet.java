@@ -0,0 +1,85 @@
+package uk.jordandoyle.packageservice.repository;
+
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Changes made to the {@link ProductRepository} by a single synchronisation with the downstream catalogue.
+ */
+public final class ProductChangeSet {
+    /**
+     * Number of products we knew about before this change set was started
+     */
+    private final int knownProducts;
+
+    /**
+     * Ids of the existing products that changed
+     */
+    private final Set<String> changedIds = new HashSet<>();
+
+    private int added;
+
+    private int unchanged;
+
+    ProductChangeSet(int knownProducts) {
+        this.knownProducts = knownProducts;
+    }
+
+    void added(Product product) {
+        this.added++;
+    }
+
+    void changed(Product product) {
+        this.changedIds.add(product.getId());
+    }
+
+    void unchanged(Product product) {
+        this.unchanged++;
+    }
+
+    /**
+     * Get the number of products we didn't know about before.
+     */
+    public int getAdded() {
+        return this.added;
+    }
+
+    /**
+     * Get the number of existing products whose name or price changed.
+     */
+    public int getChanged() {
+        return this.changedIds.size();
+    }
+
+    /**
+     * Get the number of products we knew about that weren't in the catalogue. We keep hold of these products so
+     * packages containing them still resolve.
+     */
+    public int getRemoved() {
+        return Math.max(0, this.knownProducts - this.changedIds.size() - this.unchanged);
+    }
+
+    /**
+     * Get the ids of existing products whose name or price changed.
+     */
+    public Set<String> getChangedIds() {
+        return Collections.unmodifiableSet(this.changedIds);
+    }
+
+    /**
+     * Check if this change set touched any existing products.
+     *
+     * @return true, if any existing product changed
+     */
+    public boolean hasChanges() {
+        return !this.changedIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "added=" + this.added + ", changed=" + this.changedIds.size() + ", removed=" + this.getRemoved();
+    }
+}
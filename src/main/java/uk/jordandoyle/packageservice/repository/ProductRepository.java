@@ -1,15 +1,16 @@
 package uk.jordandoyle.packageservice.repository;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import uk.jordandoyle.packageservice.catalogue.ProductCatalogue;
 import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.domain.ProductOrdinals;
 
-import java.lang.reflect.Field;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Data store/container class to store all our known products from our downstream service.
@@ -17,60 +18,125 @@ import java.util.concurrent.ConcurrentHashMap;
 @Repository
 public final class ProductRepository {
     /**
-     * Class logger
+     * All the products we know about
      */
-    private static final Logger LOGGER = LoggerFactory.getLogger(ProductRepository.class);
+    private final ProductCatalogue catalogue;
 
     /**
-     * All the products we know about
+     * Ordinals of the products held by our packages
+     */
+    private final ProductOrdinals ordinals;
+
+    @Autowired
+    public ProductRepository(ProductCatalogue catalogue) {
+        this.catalogue = catalogue;
+        this.ordinals = new ProductOrdinals(catalogue::get);
+    }
+
+    /**
+     * Get the ordinals packages built from our products should use.
      */
-    private final Map<String, Product> products = new ConcurrentHashMap<>();
+    public ProductOrdinals getOrdinals() {
+        return this.ordinals;
+    }
 
     /**
      * Adds or updates our product store with this product.
      *
      * @param newProduct product to add/update
+     * @param changes    change set to record what happened to the product in
      */
-    public void addProduct(Product newProduct) {
-        if (this.products.containsKey(newProduct.getId())) {
-            // we don't want to replace our Product instance if the product changes because then our Packages will
-            // hold a reference to a different object.
-            Product productRef = this.products.get(newProduct.getId());
-
-            // try to copy over fields from our new product to our old.
-            for (Field field : Product.class.getDeclaredFields()) {
-                field.setAccessible(true);
-
-                try {
-                    field.set(productRef, field.get(newProduct));
-                } catch (IllegalAccessException e) {
-                    LOGGER.error("Failed to update field for product.", e);
-                }
-            }
-        } else {
-            // we don't already know about this project so just add it normally
-            this.products.put(newProduct.getId(), newProduct);
+    public void addProduct(Product newProduct, ProductChangeSet changes) {
+        // we don't replace the Product instance our Packages hold when the product changes, instead the new details
+        // are copied over to it.
+        switch (this.catalogue.put(newProduct)) {
+            case ADDED:
+                changes.added(newProduct);
+                break;
+            case CHANGED:
+                this.ordinals.update(newProduct);
+                changes.changed(newProduct);
+                break;
+            default:
+                changes.unchanged(newProduct);
         }
     }
 
+    /**
+     * Restore a product we've persisted, such as one held by a package read back from disk. If we already know
+     * about the product the details we have are returned instead, since they're newer.
+     *
+     * @param product last known details of the product
+     * @return the latest details of the product
+     */
+    public Product restoreProduct(Product product) {
+        return this.catalogue.restore(product);
+    }
+
     /**
      * Add a collection of products to our product store.
      *
      * @param products products to add to our store
+     * @return what changed in our store
      */
-    public void addProducts(Product[] products) {
+    public ProductChangeSet addProducts(Product[] products) {
+        ProductChangeSet changes = this.startChangeSet();
+        this.addProducts(Arrays.asList(products), changes);
+        return changes;
+    }
+
+    /**
+     * Add a batch of products to our product store, recording what happened in an existing change set.
+     *
+     * @param products products to add to our store
+     * @param changes  change set to record changes in, from {@link #startChangeSet()}
+     */
+    public void addProducts(Collection<Product> products, ProductChangeSet changes) {
         for (Product p : products) {
-            this.addProduct(p);
+            this.addProduct(p, changes);
         }
     }
 
+    /**
+     * Start recording a new set of changes against the products we know about now. Changes are recorded by
+     * passing the change set to {@link #addProducts(Collection, ProductChangeSet)}.
+     *
+     * @return an empty change set
+     */
+    public ProductChangeSet startChangeSet() {
+        return new ProductChangeSet(this.catalogue.size());
+    }
+
+    /**
+     * Make sure every product we've been given has been written out by our catalogue.
+     *
+     * @throws IOException if the catalogue couldn't be written
+     */
+    public void flush() throws IOException {
+        this.catalogue.flush();
+    }
+
     /**
      * Get all products that we know about.
      *
      * @return a list of products
      */
     public Collection<Product> getProducts() {
-        return Collections.unmodifiableCollection(this.products.values());
+        return this.catalogue.getProducts();
+    }
+
+    /**
+     * Check if our products are kept between restarts.
+     */
+    public boolean isPersistent() {
+        return this.catalogue.isPersistent();
+    }
+
+    /**
+     * Get the number of products we know about.
+     */
+    public int size() {
+        return this.catalogue.size();
     }
 
     /**
@@ -80,6 +146,36 @@ public final class ProductRepository {
      * @return product requested or {@code null} if it couldn't be found
      */
     public Product getProductById(String id) {
-        return this.products.get(id);
+        return this.catalogue.get(id);
+    }
+
+    /**
+     * Get a set of products by their unique identifiers in one go.
+     *
+     * @param ids ids to find products by
+     * @return products we found keyed by id, ids we don't know about are left out
+     */
+    public Map<String, Product> getProductsById(Collection<String> ids) {
+        Map<String, Product> products = new HashMap<>(ids.size() * 2);
+
+        for (String id : ids) {
+            Product product = this.catalogue.get(id);
+
+            if (product != null) {
+                products.put(id, product);
+            }
+        }
+
+        return products;
+    }
+
+    /**
+     * Get the price of a product by its unique identifier.
+     *
+     * @param id id to find product by
+     * @return price of the product in whole US dollars or {@code -1} if it couldn't be found
+     */
+    public int getPrice(String id) {
+        return this.catalogue.getPrice(id);
     }
 }
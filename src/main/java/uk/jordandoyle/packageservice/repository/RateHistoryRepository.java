@@ -0,0 +1,367 @@
+package uk.jordandoyle.packageservice.repository;
+
+import com.google.api.client.util.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import uk.jordandoyle.packageservice.domain.ExchangeRate;
+import uk.jordandoyle.packageservice.domain.RateTable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Every day's exchange rates we've ever fetched, so packages can be priced as of any past date without asking the
+ * downstream for them again.
+ *
+ * Rates are held by column: one array per currency with a slot for every day from the first day we have rates for,
+ * so looking up a day or a currency is just an array index. Days we have no rates for, such as weekends, carry the
+ * previous day's rates forward. The history is written to a single file every time a day is added and is only read
+ * back the first time it's needed.
+ */
+@Repository
+public class RateHistoryRepository {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RateHistoryRepository.class);
+
+    /**
+     * Marks the start of a history file
+     */
+    private static final int MAGIC = 0x52544831;
+
+    /**
+     * Scale stored for a day we don't have a rate for
+     */
+    private static final byte MISSING = Byte.MIN_VALUE;
+
+    /**
+     * File the history is kept in
+     */
+    private final Path file;
+
+    /**
+     * The history, {@code null} until it's first needed
+     */
+    private volatile History history;
+
+    @Autowired
+    public RateHistoryRepository(@Value("${packageservice.rate-history.file:data/rates/history.dat}") String file) {
+        this(Paths.get(file));
+    }
+
+    RateHistoryRepository(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Get the rates that were in effect on a day. If we don't have rates for the day itself we'll use the last rates
+     * before it.
+     *
+     * @param date day to get rates for
+     * @return rates for the day, or {@code null} if the day is before the first rates we have
+     */
+    public RateTable getRateTable(LocalDate date) {
+        return this.load().getRateTable(date.toEpochDay());
+    }
+
+    /**
+     * Add a day's rates to our history, replacing any rates we already had for the day.
+     *
+     * @param exchangeRate rates to add, these must have a date
+     * @throws IOException if the history couldn't be written to disk
+     */
+    public synchronized void record(ExchangeRate exchangeRate) throws IOException {
+        if (exchangeRate.getDate() == null || exchangeRate.getRates() == null) {
+            throw new IllegalArgumentException("Can't record exchange rates without a date and rates");
+        }
+
+        History updated = this.load().with(toLocalDate(exchangeRate.getDate()).toEpochDay(),
+                exchangeRate.getBase(), exchangeRate.getRates());
+
+        write(this.file, updated);
+        this.history = updated;
+    }
+
+    private History load() {
+        History current = this.history;
+
+        if (current == null) {
+            synchronized (this) {
+                current = this.history;
+
+                if (current == null) {
+                    try {
+                        current = Files.exists(this.file) ? read(this.file) : History.EMPTY;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Couldn't read exchange rate history from " + this.file, e);
+                    }
+
+                    LOGGER.info("Loaded {} days of exchange rate history", current.days);
+                    this.history = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    private static LocalDate toLocalDate(DateTime date) {
+        // Fixer gives us a plain date, RFC 3339 puts it first either way
+        return LocalDate.parse(date.toStringRfc3339().substring(0, 10));
+    }
+
+    /**
+     * Write a history to disk, replacing the file atomically so a crash never leaves us with half a history.
+     */
+    private static void write(Path file, History history) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+
+            out.writeInt(MAGIC);
+            out.writeLong(history.firstDay);
+            out.writeInt(history.days);
+            out.writeBoolean(history.base != null);
+
+            if (history.base != null) {
+                out.writeUTF(history.base);
+            }
+
+            out.writeInt(history.currencies.length);
+
+            for (String currency : history.currencies) {
+                out.writeUTF(currency);
+            }
+
+            // each currency's scales then unscaled values, column by column
+            for (int c = 0; c < history.currencies.length; c++) {
+                out.write(history.scales[c]);
+
+                for (long unscaled : history.unscaled[c]) {
+                    out.writeLong(unscaled);
+                }
+            }
+
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static History read(Path file) throws IOException {
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file)), new CRC32())) {
+            DataInputStream in = new DataInputStream(checked);
+
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an exchange rate history file");
+            }
+
+            long firstDay = in.readLong();
+            int days = in.readInt();
+            String base = in.readBoolean() ? in.readUTF() : null;
+            String[] currencies = new String[in.readInt()];
+
+            for (int c = 0; c < currencies.length; c++) {
+                currencies[c] = in.readUTF();
+            }
+
+            byte[][] scales = new byte[currencies.length][days];
+            long[][] unscaled = new long[currencies.length][days];
+
+            for (int c = 0; c < currencies.length; c++) {
+                in.readFully(scales[c]);
+
+                for (int d = 0; d < days; d++) {
+                    unscaled[c][d] = in.readLong();
+                }
+            }
+
+            long checksum = checked.getChecksum().getValue();
+
+            if (in.readLong() != checksum) {
+                throw new IOException("Exchange rate history is corrupt");
+            }
+
+            return new History(firstDay, days, base, currencies, scales, unscaled);
+        }
+    }
+
+    /**
+     * An immutable copy of the history. Adding a day builds a new copy, which is fine since that happens once a day.
+     */
+    private static final class History {
+        private static final History EMPTY = new History(0, 0, null, new String[0], new byte[0][], new long[0][]);
+
+        /**
+         * Epoch day of the first day we have rates for
+         */
+        private final long firstDay;
+
+        /**
+         * Number of days from {@link #firstDay} we have rates for
+         */
+        private final int days;
+
+        private final String base;
+
+        private final String[] currencies;
+
+        /**
+         * Scale of each currency's rate on each day, {@link #MISSING} if we have no rate
+         */
+        private final byte[][] scales;
+
+        /**
+         * Unscaled value of each currency's rate on each day
+         */
+        private final long[][] unscaled;
+
+        /**
+         * Rate tables we've already built for each day
+         */
+        private final AtomicReferenceArray<RateTable> tables;
+
+        private History(long firstDay, int days, String base, String[] currencies, byte[][] scales,
+                        long[][] unscaled) {
+            this.firstDay = firstDay;
+            this.days = days;
+            this.base = base;
+            this.currencies = currencies;
+            this.scales = scales;
+            this.unscaled = unscaled;
+            this.tables = new AtomicReferenceArray<>(days);
+        }
+
+        private RateTable getRateTable(long epochDay) {
+            if (this.days == 0 || epochDay < this.firstDay) {
+                return null;
+            }
+
+            // anything after our last day uses the latest rates we have
+            int day = (int) Math.min(epochDay - this.firstDay, this.days - 1);
+            RateTable table = this.tables.get(day);
+
+            if (table == null) {
+                Map<String, BigDecimal> rates = new HashMap<>(this.currencies.length * 2);
+
+                for (int c = 0; c < this.currencies.length; c++) {
+                    if (this.scales[c][day] != MISSING) {
+                        rates.put(this.currencies[c], BigDecimal.valueOf(this.unscaled[c][day], this.scales[c][day]));
+                    }
+                }
+
+                // historical tables are never cached against, the epoch day is as good a version as any
+                table = new RateTable(this.firstDay + day, this.base,
+                        new DateTime(LocalDate.ofEpochDay(this.firstDay + day).toString()), rates);
+                this.tables.set(day, table);
+            }
+
+            return table;
+        }
+
+        /**
+         * Build a copy of this history with a day's rates added.
+         */
+        private History with(long epochDay, String base, Map<String, BigDecimal> rates) {
+            long first = this.days == 0 ? epochDay : Math.min(this.firstDay, epochDay);
+            long last = this.days == 0 ? epochDay : Math.max(this.firstDay + this.days - 1, epochDay);
+            int days = Math.toIntExact(last - first + 1);
+            int offset = (int) (this.firstDay - first);
+
+            Map<String, Integer> columns = new LinkedHashMap<>();
+
+            for (String currency : this.currencies) {
+                columns.put(currency, columns.size());
+            }
+
+            for (String currency : rates.keySet()) {
+                columns.putIfAbsent(currency, columns.size());
+            }
+
+            byte[][] scales = new byte[columns.size()][days];
+            long[][] unscaled = new long[columns.size()][days];
+
+            for (int c = 0; c < scales.length; c++) {
+                Arrays.fill(scales[c], MISSING);
+
+                if (c < this.currencies.length) {
+                    System.arraycopy(this.scales[c], 0, scales[c], offset, this.days);
+                    System.arraycopy(this.unscaled[c], 0, unscaled[c], offset, this.days);
+                }
+            }
+
+            int day = (int) (epochDay - first);
+
+            for (Map.Entry<String, Integer> column : columns.entrySet()) {
+                int c = column.getValue();
+                BigDecimal rate = rates.get(column.getKey());
+                scales[c][day] = MISSING;
+
+                if (rate == null) {
+                    continue;
+                }
+
+                if (rate.scale() <= MISSING || rate.scale() > Byte.MAX_VALUE || rate.unscaledValue().bitLength() > 63) {
+                    LOGGER.warn("Not recording {} rate {}, it's too precise to store", column.getKey(), rate);
+                    continue;
+                }
+
+                scales[c][day] = (byte) rate.scale();
+                unscaled[c][day] = rate.unscaledValue().longValue();
+            }
+
+            // fill in the days we don't have rates for, such as weekends, with the rates from the day before
+            for (int c = 0; c < scales.length; c++) {
+                for (int d = 1; d < days; d++) {
+                    if (d != day && scales[c][d] == MISSING && isGap(first + d)) {
+                        scales[c][d] = scales[c][d - 1];
+                        unscaled[c][d] = unscaled[c][d - 1];
+                    }
+                }
+            }
+
+            return new History(first, days, base != null ? base : this.base,
+                    columns.keySet().toArray(new String[columns.size()]), scales, unscaled);
+        }
+
+        /**
+         * Check if a day is outside this history, so a new history built from it has no rates for the day.
+         */
+        private boolean isGap(long epochDay) {
+            return epochDay < this.firstDay || epochDay >= this.firstDay + this.days;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package uk.jordandoyle.packageservice.repository;
+
+import uk.jordandoyle.packageservice.domain.Package;
+
+/**
+ * Thrown when a package is updated on the condition that it's still at a version the caller has seen, but it's
+ * been changed since.
+ */
+public class VersionConflictException extends RuntimeException {
+    /**
+     * The package as it is now
+     */
+    private final Package current;
+
+    public VersionConflictException(Package current) {
+        super("Package " + current.getUuid() + " is at version " + current.getVersion());
+        this.current = current;
+    }
+
+    public Package getCurrent() {
+        return this.current;
+    }
+}
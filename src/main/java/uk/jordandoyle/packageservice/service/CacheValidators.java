@@ -0,0 +1,73 @@
+package uk.jordandoyle.packageservice.service;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.common.hash.HashCode;
+
+/**
+ * Validators for the last response we successfully applied from a downstream service. These let us make conditional
+ * requests so the downstream can tell us nothing has changed, or failing that let us spot an identical body ourselves
+ * before we do anything with it.
+ */
+final class CacheValidators {
+    /**
+     * {@code ETag} of the last response we applied
+     */
+    private String eTag;
+
+    /**
+     * {@code Last-Modified} of the last response we applied
+     */
+    private String lastModified;
+
+    /**
+     * Hash of the last body we applied, only kept if the downstream didn't give us any validators
+     */
+    private HashCode bodyHash;
+
+    /**
+     * Add conditional headers to a request to the downstream service.
+     *
+     * @param headers headers of the request we're about to send
+     */
+    synchronized void addTo(HttpHeaders headers) {
+        if (this.eTag != null) {
+            headers.setIfNoneMatch(this.eTag);
+        }
+
+        if (this.lastModified != null) {
+            headers.setIfModifiedSince(this.lastModified);
+        }
+    }
+
+    /**
+     * Check if a response from the downstream carries validators we can use on our next request.
+     *
+     * @param headers headers of the response
+     * @return true, if the response has an {@code ETag} or {@code Last-Modified} header
+     */
+    static boolean hasValidators(HttpHeaders headers) {
+        return headers.getETag() != null || headers.getLastModified() != null;
+    }
+
+    /**
+     * Check if a body hashes to the same value as the last body we applied.
+     *
+     * @param hash hash of the body we just received
+     * @return true, if the body is identical to the last one we applied
+     */
+    synchronized boolean isUnchanged(HashCode hash) {
+        return hash.equals(this.bodyHash);
+    }
+
+    /**
+     * Remember the validators of a response once it's been successfully applied.
+     *
+     * @param headers headers of the response we applied
+     * @param hash    hash of the body we applied, or {@code null} if we didn't need to hash it
+     */
+    synchronized void update(HttpHeaders headers, HashCode hash) {
+        this.eTag = headers.getETag();
+        this.lastModified = headers.getLastModified();
+        this.bodyHash = hash;
+    }
+}
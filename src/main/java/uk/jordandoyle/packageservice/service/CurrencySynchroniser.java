@@ -1,26 +1,36 @@
 package uk.jordandoyle.packageservice.service;
 
 import com.google.api.client.http.GenericUrl;
-import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
-import com.google.api.client.util.ExponentialBackOff;
 import com.google.common.base.Stopwatch;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Service;
 import uk.jordandoyle.packageservice.domain.ExchangeRate;
 import uk.jordandoyle.packageservice.repository.ExchangeRateRepository;
+import uk.jordandoyle.packageservice.repository.RateHistoryRepository;
 
 import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -35,6 +45,11 @@ public class CurrencySynchroniser {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(CurrencySynchroniser.class);
 
+    /**
+     * Prefix for the metrics we record about our syncs
+     */
+    private static final String METRIC_PREFIX = "sync.exchange-rates.";
+
     /**
      * Downstream endpoint we need to hit for product data
      */
@@ -43,38 +58,175 @@ public class CurrencySynchroniser {
     /**
      * Request factory for building HTTP requests for the downstream service
      */
-    private final HttpRequestFactory requestFactory = new NetHttpTransport()
-            .createRequestFactory(request -> request.setParser(new JsonObjectParser(new JacksonFactory())));
+    private final HttpRequestFactory requestFactory = new NetHttpTransport().createRequestFactory();
+
+    /**
+     * Parser for exchange rate responses
+     */
+    private final JsonObjectParser parser = new JsonObjectParser(new JacksonFactory());
+
+    /**
+     * Validators from the last exchange rates we applied
+     */
+    private final CacheValidators validators = new CacheValidators();
 
     @Autowired
     private ExchangeRateRepository exchangeRateRepository;
 
+    @Autowired
+    private RateHistoryRepository rateHistoryRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private CounterService counterService;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    @Autowired
+    private DownstreamSnapshots snapshots;
+
+    @Autowired
+    private SyncStatus syncStatus;
+
+    @Autowired
+    private SyncRunner syncRunner;
+
+    @Autowired
+    private ThreadPoolTaskScheduler syncScheduler;
+
+    /**
+     * Longest we'll spend fetching rates, including retries
+     */
+    @Value("${packageservice.sync.exchange-rates.time-budget:300000}")
+    private int timeBudgetMillis;
+
     /**
      * The Fixer API updates its rates at "around" 4pm CET every day, we'll sync up with them at 4:15pm.
      */
     @Scheduled(cron = "0 15 16 * * *", zone = "CET")
-    @PostConstruct // run this method on startup
-    @Async
     public void synchroniser() throws IOException {
+        this.syncRunner.run("exchange-rates", this::fetch);
+    }
+
+    private void fetch() throws IOException {
         LOGGER.info("Grabbing latest exchanges rates from downstream");
         Stopwatch stopwatch = Stopwatch.createStarted();
 
+        SyncDeadline deadline = new SyncDeadline(this.timeBudgetMillis);
+
         // build our http request
         HttpRequest request = this.requestFactory.buildGetRequest(this.EXCHANGE_RATE_ENDPOINT);
 
-        // don't spam the downstream service with requests if we can't hit it
-        request.setUnsuccessfulResponseHandler(new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff()));
+        // don't spam the downstream service with requests if we can't hit it, or keep trying forever
+        RetryPolicy.apply(request, deadline);
+
+        // let the downstream service tell us if nothing has changed since our last sync
+        this.validators.addTo(request.getHeaders());
+        request.setThrowExceptionOnExecuteError(false);
 
         // execute request (we're on a separate thread to main so we can run synchronously)
         HttpResponse response = request.execute();
 
-        // convert JSON result to a Bean
-        ExchangeRate exchangeRate = response.parseAs(ExchangeRate.class);
+        try {
+            if (response.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+                this.counterService.increment(METRIC_PREFIX + "skipped.not-modified");
+                this.syncStatus.synced(SyncStatus.Feed.EXCHANGE_RATES);
+                LOGGER.info("Exchange rates not modified since last sync, checked in {}ms",
+                        stopwatch.elapsed(TimeUnit.MILLISECONDS));
+                return;
+            } else if (!response.isSuccessStatusCode()) {
+                throw new HttpResponseException(response);
+            }
+
+            // the body is tiny so we can hash it up front in case the downstream didn't give us any validators
+            byte[] body;
+
+            try (InputStream in = deadline.limit(response.getContent())) {
+                body = ByteStreams.toByteArray(in);
+            }
 
-        // update the application exchange rate
-        this.exchangeRateRepository.setCurrentExchangeRate(exchangeRate);
+            HashCode hash = Hashing.murmur3_128().hashBytes(body);
+
+            if (this.validators.isUnchanged(hash)) {
+                this.counterService.increment(METRIC_PREFIX + "skipped.unchanged");
+                this.syncStatus.synced(SyncStatus.Feed.EXCHANGE_RATES);
+                LOGGER.info("Exchange rates unchanged since last sync, checked in {}ms",
+                        stopwatch.elapsed(TimeUnit.MILLISECONDS));
+                return;
+            }
+
+            // convert JSON result to a Bean
+            this.gaugeService.submit(METRIC_PREFIX + "bytes", body.length);
+            ExchangeRate exchangeRate = this.parser.parseAndClose(new ByteArrayInputStream(body),
+                    response.getContentCharset(), ExchangeRate.class);
+
+            // update the application exchange rate
+            this.exchangeRateRepository.setCurrentExchangeRate(exchangeRate);
+
+            // let anything holding on to prices know they've changed
+            this.eventPublisher.publishEvent(this.exchangeRateRepository.getRateTable());
+            this.recordHistory(exchangeRate);
+            this.saveSnapshot(exchangeRate);
+            this.validators.update(response.getHeaders(), hash);
+            this.syncStatus.synced(SyncStatus.Feed.EXCHANGE_RATES);
+        } finally {
+            response.disconnect();
+        }
 
         stopwatch.stop();
         LOGGER.info("Grabbed and parsed exchange rates in {}ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
     }
+
+    /**
+     * Fetch the latest rates as soon as we start, rather than waiting for the next scheduled sync. The fetch runs on
+     * the sync scheduler so a slow or unreachable Fixer can't hold up startup, until it's done we serve the rates
+     * restored from our last snapshot, if there is one.
+     */
+    @PostConstruct
+    public void synchroniseOnStartup() {
+        this.syncScheduler.execute(this::fetchOnStartup);
+    }
+
+    private void fetchOnStartup() {
+        try {
+            this.synchroniser();
+        } catch (IOException e) {
+            LOGGER.error("Couldn't fetch exchange rates on startup, serving {} until the next sync",
+                    this.syncStatus.getStatus(SyncStatus.Feed.EXCHANGE_RATES).getSource() == SyncStatus.Source.NONE
+                            ? "without rates" : "the last rates we fetched", e);
+        }
+    }
+
+    /**
+     * Keep a copy of the rates we just applied so we can start up with them.
+     */
+    private void saveSnapshot(ExchangeRate exchangeRate) {
+        try {
+            this.snapshots.saveExchangeRate(exchangeRate);
+        } catch (IOException e) {
+            this.counterService.increment(METRIC_PREFIX + "snapshot.failed");
+            LOGGER.error("Couldn't save exchange rate snapshot", e);
+        }
+    }
+
+    /**
+     * Keep the rates we just fetched so packages can still be priced with them after they've been replaced. Losing a
+     * day of history isn't worth failing the sync over, the current rates have already been applied.
+     */
+    private void recordHistory(ExchangeRate exchangeRate) {
+        if (exchangeRate.getDate() == null) {
+            LOGGER.warn("Exchange rates have no date, not adding them to the rate history");
+            return;
+        }
+
+        try {
+            this.rateHistoryRepository.record(exchangeRate);
+        } catch (IOException | RuntimeException e) {
+            this.counterService.increment(METRIC_PREFIX + "history.failed");
+            LOGGER.error("Couldn't add exchange rates to the rate history", e);
+        }
+    }
 }
@@ -0,0 +1,278 @@
+package uk.jordandoyle.packageservice.service;
+
+import com.google.api.client.util.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.jordandoyle.packageservice.domain.ExchangeRate;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.repository.ExchangeRateRepository;
+import uk.jordandoyle.packageservice.repository.ProductRepository;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Keeps a copy of the last product catalogue and exchange rates we successfully synchronised, and loads them back
+ * on startup so we can serve packages straight away rather than waiting for the downstream services. Snapshots are
+ * restored while the application context is starting, so before we start accepting requests.
+ */
+@Component
+public class DownstreamSnapshots {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownstreamSnapshots.class);
+
+    /**
+     * Marks the start of a product snapshot
+     */
+    private static final int PRODUCTS_MAGIC = 0x50524f31;
+
+    /**
+     * Marks the start of an exchange rate snapshot
+     */
+    private static final int EXCHANGE_RATES_MAGIC = 0x46585231;
+
+    /**
+     * Directory snapshots are kept in
+     */
+    private final Path directory;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ExchangeRateRepository exchangeRateRepository;
+
+    @Autowired
+    private SyncStatus syncStatus;
+
+    @Autowired
+    public DownstreamSnapshots(@Value("${packageservice.snapshot.directory:data/snapshots}") String directory) {
+        this(Paths.get(directory));
+    }
+
+    DownstreamSnapshots(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Load our last snapshots into the repositories. A missing or unreadable snapshot isn't fatal, we'll just have
+     * to wait for the downstream like we would on our very first start.
+     */
+    @PostConstruct
+    public void restore() {
+        Path products = this.directory.resolve("products.snapshot");
+
+        // a persistent catalogue that has anything in it is already warm and is at least as new as our snapshot, but
+        // a heap catalogue only holds what our packages were read back with so far
+        boolean warm = this.productRepository.isPersistent() && this.productRepository.size() > 0;
+
+        if (!warm && Files.exists(products)) {
+            try {
+                Instant savedAt = this.restoreProducts(products);
+                this.syncStatus.restored(SyncStatus.Feed.PRODUCTS, savedAt);
+                LOGGER.info("Restored {} products from snapshot taken at {}", this.productRepository.size(), savedAt);
+            } catch (IOException e) {
+                LOGGER.warn("Couldn't restore products from " + products, e);
+            }
+        } else if (warm) {
+            // we can't tell how old a persistent catalogue is, but it's there
+            this.syncStatus.restored(SyncStatus.Feed.PRODUCTS, null);
+        }
+
+        Path exchangeRates = this.directory.resolve("exchange-rates.snapshot");
+
+        if (Files.exists(exchangeRates)) {
+            try {
+                Instant savedAt = this.restoreExchangeRates(exchangeRates);
+                this.syncStatus.restored(SyncStatus.Feed.EXCHANGE_RATES, savedAt);
+                LOGGER.info("Restored exchange rates from snapshot taken at {}", savedAt);
+            } catch (IOException e) {
+                LOGGER.warn("Couldn't restore exchange rates from " + exchangeRates, e);
+            }
+        }
+    }
+
+    /**
+     * Replace our product snapshot with the given products.
+     *
+     * @param products every product we know about
+     * @throws IOException if the snapshot couldn't be written
+     */
+    public void saveProducts(Collection<Product> products) throws IOException {
+        write(this.directory.resolve("products.snapshot"), PRODUCTS_MAGIC, out -> {
+            out.writeInt(products.size());
+
+            for (Product product : products) {
+                out.writeUTF(product.getId());
+                writeNullable(out, product.getName());
+                out.writeInt(product.getPrice());
+            }
+        });
+    }
+
+    /**
+     * Replace our exchange rate snapshot with the given rates.
+     *
+     * @param exchangeRate rates we just applied
+     * @throws IOException if the snapshot couldn't be written
+     */
+    public void saveExchangeRate(ExchangeRate exchangeRate) throws IOException {
+        write(this.directory.resolve("exchange-rates.snapshot"), EXCHANGE_RATES_MAGIC, out -> {
+            writeNullable(out, exchangeRate.getBase());
+            writeNullable(out, exchangeRate.getDate() == null ? null : exchangeRate.getDate().toStringRfc3339());
+
+            Map<String, BigDecimal> rates = exchangeRate.getRates();
+            out.writeInt(rates == null ? 0 : rates.size());
+
+            if (rates != null) {
+                for (Map.Entry<String, BigDecimal> rate : rates.entrySet()) {
+                    out.writeUTF(rate.getKey());
+                    out.writeUTF(rate.getValue().toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Read a product snapshot into the repository. Products we already know about, such as ones read back with our
+     * packages, are kept as they are so they still match the prices those packages were read back with.
+     */
+    private Instant restoreProducts(Path file) throws IOException {
+        return read(file, PRODUCTS_MAGIC, in -> {
+            for (int remaining = in.readInt(); remaining > 0; remaining--) {
+                this.productRepository.restoreProduct(new Product(in.readUTF(), readNullable(in), in.readInt()));
+            }
+        });
+    }
+
+    private Instant restoreExchangeRates(Path file) throws IOException {
+        return read(file, EXCHANGE_RATES_MAGIC, in -> {
+            String base = readNullable(in);
+            String date = readNullable(in);
+            int count = in.readInt();
+            Map<String, BigDecimal> rates = new HashMap<>(count * 2);
+
+            for (int i = 0; i < count; i++) {
+                rates.put(in.readUTF(), new BigDecimal(in.readUTF()));
+            }
+
+            this.exchangeRateRepository.setCurrentExchangeRate(
+                    new ExchangeRate(base, date == null ? null : new DateTime(date), rates));
+        });
+    }
+
+    /**
+     * Write a snapshot, replacing the previous one atomically so a crash never leaves us with half a snapshot.
+     */
+    private static void write(Path file, int magic, Writer writer) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+
+            out.writeInt(magic);
+            out.writeLong(System.currentTimeMillis());
+            writer.write(out);
+
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot, checking it's intact before any of it is applied.
+     *
+     * @return when the snapshot was taken
+     */
+    private static Instant read(Path file, int magic, Reader reader) throws IOException {
+        verify(file);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != magic) {
+                throw new IOException("Not a snapshot we recognise");
+            }
+
+            Instant savedAt = Instant.ofEpochMilli(in.readLong());
+            reader.read(in);
+            return savedAt;
+        }
+    }
+
+    /**
+     * Check a snapshot's checksum matches its contents.
+     */
+    private static void verify(Path file) throws IOException {
+        long remaining = Files.size(file) - Long.BYTES;
+
+        if (remaining < 0) {
+            throw new IOException("Snapshot is truncated");
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[8192];
+
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+                if (read < 0) {
+                    throw new IOException("Snapshot is truncated");
+                }
+
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+
+            if (in.readLong() != crc.getValue()) {
+                throw new IOException("Snapshot is corrupt");
+            }
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface Reader {
+        void read(DataInputStream in) throws IOException;
+    }
+}
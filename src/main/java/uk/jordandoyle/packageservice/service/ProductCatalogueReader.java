@@ -0,0 +1,129 @@
+package uk.jordandoyle.packageservice.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the product catalogue from the downstream Product Service one product at a time, handing products over in
+ * batches as soon as each batch is full. At most one batch of products is held in memory at once no matter how big
+ * the catalogue is.
+ */
+public class ProductCatalogueReader {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProductCatalogueReader.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Maximum number of products to hold before handing them over
+     */
+    private final int batchSize;
+
+    public ProductCatalogueReader(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Read a JSON array of products from a stream.
+     *
+     * @param in       stream to read from, this isn't closed
+     * @param consumer called with each batch of products, the list passed is reused once the consumer returns
+     * @return number of products read
+     * @throws IOException if the stream couldn't be read or isn't a JSON array of products
+     */
+    public long read(InputStream in, Consumer<List<Product>> consumer) throws IOException {
+        List<Product> batch = new ArrayList<>(this.batchSize);
+        long count = 0;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Expected product catalogue to be an array");
+            }
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Product product = readProduct(parser);
+
+                if (product == null) {
+                    continue;
+                }
+
+                batch.add(product);
+                count++;
+
+                if (batch.size() == this.batchSize) {
+                    consumer.accept(batch);
+                    batch.clear();
+                }
+            }
+
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                throw new JsonParseException(parser, "Expected product object in catalogue");
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+
+        return count;
+    }
+
+    /**
+     * Read a single product, the parser should be positioned on the product's {@link JsonToken#START_OBJECT}.
+     *
+     * @return the product or {@code null} if it had no id
+     */
+    private static Product readProduct(JsonParser parser) throws IOException {
+        String id = null;
+        String name = null;
+        int price = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            switch (field) {
+                case "id":
+                    id = parser.getValueAsString();
+                    break;
+                case "name":
+                    name = parser.getValueAsString();
+                    break;
+                case "usdPrice":
+                    price = parser.getValueAsInt();
+                    break;
+                default:
+                    // we don't care about this field, skip over it and anything nested inside it
+                    if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                    }
+            }
+        }
+
+        if (id == null) {
+            LOGGER.warn("Skipping product without an id from downstream catalogue");
+            return null;
+        }
+
+        return new Product(id, name, price);
+    }
+}
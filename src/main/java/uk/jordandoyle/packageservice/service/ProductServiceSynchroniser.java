@@ -1,25 +1,35 @@
 package uk.jordandoyle.packageservice.service;
 
 import com.google.api.client.http.GenericUrl;
-import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.JsonObjectParser;
-import com.google.api.client.json.jackson2.JacksonFactory;
-import com.google.api.client.util.ExponentialBackOff;
 import com.google.common.base.Stopwatch;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.CountingInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.repository.ProductChangeSet;
 import uk.jordandoyle.packageservice.repository.ProductRepository;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -32,48 +42,191 @@ public class ProductServiceSynchroniser {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ProductServiceSynchroniser.class);
 
+    /**
+     * Prefix for the metrics we record about our syncs
+     */
+    private static final String METRIC_PREFIX = "sync.products.";
+
     /**
      * Downstream endpoint we need to hit for product data
      */
-    private static final GenericUrl PRODUCT_ENDPOINT = new GenericUrl("https://product-service.herokuapp" +
-            ".com/api/v1/products");
+    @Value("${packageservice.product-service.url:https://product-service.herokuapp.com/api/v1/products}")
+    private String productEndpoint;
+
+    /**
+     * Maximum number of products we'll hold in memory at once while reading the catalogue
+     */
+    @Value("${packageservice.product-service.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * Longest we'll spend fetching the catalogue, including retries
+     */
+    @Value("${packageservice.sync.products.time-budget:30000}")
+    private int timeBudgetMillis;
 
     /**
      * Request factory for building HTTP requests for the downstream service
      */
-    private final HttpRequestFactory requestFactory = new NetHttpTransport()
-            .createRequestFactory(request -> request.setParser(new JsonObjectParser(new JacksonFactory())));
+    private final HttpRequestFactory requestFactory = new NetHttpTransport().createRequestFactory();
 
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private CounterService counterService;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    @Autowired
+    private DownstreamSnapshots snapshots;
+
+    @Autowired
+    private SyncStatus syncStatus;
+
+    @Autowired
+    private SyncRunner syncRunner;
+
+    /**
+     * Validators from the last catalogue we applied
+     */
+    private final CacheValidators validators = new CacheValidators();
+
     /**
      * Synchronise our products with the downstream service.
      */
-    @Scheduled(fixedDelay = 10000)
-    @Async
+    @Scheduled(fixedDelayString = "${packageservice.sync.products.interval:10000}")
     public void synchronise() throws IOException {
+        this.syncRunner.run("products", this::fetch);
+    }
+
+    private void fetch() throws IOException {
         LOGGER.info("Grabbing latest product list from downstream Product Service");
         Stopwatch stopwatch = Stopwatch.createStarted();
 
+        SyncDeadline deadline = new SyncDeadline(this.timeBudgetMillis);
+
         // build our http request
-        HttpRequest request = this.requestFactory.buildGetRequest(PRODUCT_ENDPOINT);
+        HttpRequest request = this.requestFactory.buildGetRequest(new GenericUrl(this.productEndpoint));
 
-        // don't spam the downstream service with requests if we can't hit it
-        request.setUnsuccessfulResponseHandler(new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff()));
+        // don't spam the downstream service with requests if we can't hit it, or keep trying forever
+        RetryPolicy.apply(request, deadline);
 
         // downstream service requires basic auth
         request.getHeaders().setBasicAuthentication("user", "pass");
 
+        // let the downstream service tell us if nothing has changed since our last sync
+        this.validators.addTo(request.getHeaders());
+        request.setThrowExceptionOnExecuteError(false);
+
         // execute request (we're on a separate thread to main so we can run synchronously)
         HttpResponse response = request.execute();
 
-        // parse the result and add them to the product container - new products can be added but never removed
-        Product[] result = response.parseAs(Product[].class);
+        try {
+            if (response.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+                this.counterService.increment(METRIC_PREFIX + "skipped.not-modified");
+                this.syncStatus.synced(SyncStatus.Feed.PRODUCTS);
+                LOGGER.info("Product catalogue not modified since last sync, checked in {}ms",
+                        stopwatch.elapsed(TimeUnit.MILLISECONDS));
+                return;
+            } else if (!response.isSuccessStatusCode()) {
+                throw new HttpResponseException(response);
+            }
+
+            ProductChangeSet changes;
+            HashCode hash = null;
 
-        this.productRepository.addProducts(result);
+            if (CacheValidators.hasValidators(response.getHeaders())) {
+                // we'll get a 304 next time if nothing changes, so just stream the result into our repository
+                try (InputStream in = deadline.limit(response.getContent())) {
+                    changes = this.applyCatalogue(in);
+                }
+            } else {
+                // the downstream can't tell us if anything has changed, so write the catalogue to disk and see if
+                // it's identical to the last one we applied before we go to the effort of parsing it
+                File catalogue = File.createTempFile("products", ".json");
+
+                try {
+                    try (HashingInputStream in = new HashingInputStream(Hashing.murmur3_128(),
+                            deadline.limit(response.getContent()))) {
+                        Files.copy(in, catalogue.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        hash = in.hash();
+                    }
+
+                    if (this.validators.isUnchanged(hash)) {
+                        this.counterService.increment(METRIC_PREFIX + "skipped.unchanged");
+                        this.syncStatus.synced(SyncStatus.Feed.PRODUCTS);
+                        LOGGER.info("Product catalogue unchanged since last sync, checked in {}ms",
+                                stopwatch.elapsed(TimeUnit.MILLISECONDS));
+                        return;
+                    }
+
+                    try (InputStream in = new FileInputStream(catalogue)) {
+                        changes = this.applyCatalogue(in);
+                    }
+                } finally {
+                    if (!catalogue.delete()) {
+                        catalogue.deleteOnExit();
+                    }
+                }
+            }
+
+            this.validators.update(response.getHeaders(), hash);
+            this.syncStatus.synced(SyncStatus.Feed.PRODUCTS);
+
+            stopwatch.stop();
+            LOGGER.info("Grabbed and parsed products in {}ms ({})", stopwatch.elapsed(TimeUnit.MILLISECONDS),
+                    changes);
+        } finally {
+            response.disconnect();
+        }
+    }
 
-        stopwatch.stop();
-        LOGGER.info("Grabbed and parsed all products in {}ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    /**
+     * Stream a catalogue into the product container a batch at a time rather than reading the entire catalogue into
+     * memory first - new products can be added but never removed.
+     *
+     * @param in catalogue to read
+     * @return changes made to our product container
+     */
+    private ProductChangeSet applyCatalogue(InputStream in) throws IOException {
+        ProductChangeSet changes = this.productRepository.startChangeSet();
+        CountingInputStream counted = new CountingInputStream(in);
+
+        new ProductCatalogueReader(this.batchSize)
+                .read(counted, batch -> this.productRepository.addProducts(batch, changes));
+        this.gaugeService.submit(METRIC_PREFIX + "bytes", counted.getCount());
+
+        // make sure the catalogue is on disk, if it's persisted, so we can start up warm
+        this.productRepository.flush();
+
+        // let anything holding on to product data know which products changed
+        if (changes.hasChanges()) {
+            this.eventPublisher.publishEvent(changes);
+        }
+
+        // nothing holds on to new products yet, but our snapshot still needs them
+        if (changes.hasChanges() || changes.getAdded() > 0) {
+            this.saveSnapshot();
+        }
+
+        return changes;
+    }
+
+    /**
+     * Keep a copy of the catalogue we just applied so we can start up with it. The catalogue has already been
+     * applied, so failing to save it isn't worth failing the sync over.
+     */
+    private void saveSnapshot() {
+        try {
+            this.snapshots.saveProducts(this.productRepository.getProducts());
+        } catch (IOException e) {
+            this.counterService.increment(METRIC_PREFIX + "snapshot.failed");
+            LOGGER.error("Couldn't save product snapshot", e);
+        }
     }
 }
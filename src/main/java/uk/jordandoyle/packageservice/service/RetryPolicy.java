@@ -0,0 +1,63 @@
+package uk.jordandoyle.packageservice.service;
+
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+
+import java.io.IOException;
+
+/**
+ * How requests to our downstream services are retried. Failed requests and server errors are retried with a
+ * jittered exponential backoff, so instances that all saw the same failure don't retry in lockstep, until the time
+ * budget for the sync runs out.
+ */
+final class RetryPolicy {
+    /**
+     * Delay before the first retry
+     */
+    private static final int INITIAL_INTERVAL_MILLIS = 500;
+
+    /**
+     * Longest we'll wait between two retries
+     */
+    private static final int MAX_INTERVAL_MILLIS = 60000;
+
+    /**
+     * Each delay is randomly picked from this far either side of the nominal delay
+     */
+    private static final double RANDOMIZATION_FACTOR = 0.5;
+
+    private RetryPolicy() {
+    }
+
+    /**
+     * Set up retries and timeouts on a request.
+     *
+     * @param request  request to the downstream service
+     * @param deadline when we have to give up on the request, including retries
+     */
+    static void apply(HttpRequest request, SyncDeadline deadline) throws IOException {
+        int budgetMillis = deadline.remainingMillis();
+        BackOff backOff = new ExponentialBackOff.Builder()
+                .setInitialIntervalMillis(Math.min(INITIAL_INTERVAL_MILLIS, budgetMillis))
+                .setMaxIntervalMillis(Math.min(MAX_INTERVAL_MILLIS, budgetMillis))
+                .setRandomizationFactor(RANDOMIZATION_FACTOR)
+                .setMaxElapsedTimeMillis(budgetMillis)
+                .build();
+
+        request.setUnsuccessfulResponseHandler(new HttpBackOffUnsuccessfulResponseHandler(backOff));
+        request.setIOExceptionHandler(new HttpBackOffIOExceptionHandler(backOff));
+
+        // the backoff decides when to give up, not the number of attempts
+        request.setNumberOfRetries(Integer.MAX_VALUE);
+
+        // each attempt, retries included, only gets whatever is left of the budget
+        request.setInterceptor(attempt -> {
+            int remainingMillis = deadline.remainingMillis();
+            attempt.setConnectTimeout(remainingMillis);
+            attempt.setReadTimeout(remainingMillis);
+        });
+    }
+}
@@ -0,0 +1,70 @@
+package uk.jordandoyle.packageservice.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a sync's time budget runs out. Every attempt at a request is only given the time left until then, and reading
+ * the response stops once it has passed, so a downstream trickling out a response can't keep a sync going past its
+ * budget by more than a single read.
+ */
+final class SyncDeadline {
+    /**
+     * {@link System#nanoTime()} when the budget runs out
+     */
+    private final long expiresAt;
+
+    /**
+     * @param budgetMillis how long the sync can take from now
+     */
+    SyncDeadline(int budgetMillis) {
+        this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    /**
+     * Get the time left in the budget.
+     *
+     * @return milliseconds left, at least 1
+     * @throws SocketTimeoutException if the budget has run out
+     */
+    int remainingMillis() throws SocketTimeoutException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(this.expiresAt - System.nanoTime());
+
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Sync time budget ran out");
+        }
+
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+    /**
+     * Wrap a response body so reading it fails once the budget has run out.
+     *
+     * @param in response body
+     * @return body that can only be read until the deadline
+     */
+    InputStream limit(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                SyncDeadline.this.remainingMillis();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                SyncDeadline.this.remainingMillis();
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                SyncDeadline.this.remainingMillis();
+                return super.skip(n);
+            }
+        };
+    }
+}
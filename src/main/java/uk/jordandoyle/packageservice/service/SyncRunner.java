@@ -0,0 +1,87 @@
+package uk.jordandoyle.packageservice.service;
+
+import com.google.common.base.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Component;
+import uk.jordandoyle.packageservice.metrics.LatencyHistograms;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs syncs with the downstream services, making sure only one run of each sync is ever in progress. A run that
+ * comes around while the previous one is still going, such as the next tick while a slow fetch is retrying, is
+ * skipped rather than queued up behind it.
+ *
+ * Every run is recorded in {@code /metrics} under {@code counter.sync.<name>.*}, along with how long the last run
+ * took in {@code gauge.sync.<name>.duration}. How long runs take is also kept in {@link LatencyHistograms}.
+ */
+@Component
+public class SyncRunner {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncRunner.class);
+
+    /**
+     * Whether each sync is currently running, keyed by name
+     */
+    private final ConcurrentMap<String, AtomicBoolean> running = new ConcurrentHashMap<>();
+
+    @Autowired
+    private CounterService counterService;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    @Autowired
+    private LatencyHistograms latencyHistograms;
+
+    /**
+     * Run a sync unless a run of it is already in progress.
+     *
+     * @param name name of the sync, used in metric names
+     * @param sync the sync to run
+     * @return true, if the sync ran or false if it was skipped
+     * @throws IOException if the sync failed
+     */
+    boolean run(String name, Sync sync) throws IOException {
+        String prefix = "sync." + name + ".";
+        AtomicBoolean running = this.running.computeIfAbsent(name, n -> new AtomicBoolean());
+
+        if (!running.compareAndSet(false, true)) {
+            this.counterService.increment(prefix + "skipped.overlap");
+            LOGGER.info("Previous {} sync is still running, skipping this one", name);
+            return false;
+        }
+
+        this.counterService.increment(prefix + "runs");
+        Stopwatch stopwatch = Stopwatch.createStarted();
+
+        try {
+            sync.run();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            this.counterService.increment(prefix + "failed");
+            throw e;
+        } finally {
+            this.gaugeService.submit(prefix + "duration", stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            this.latencyHistograms.forSync(name).record(stopwatch.elapsed(TimeUnit.NANOSECONDS));
+            running.set(false);
+        }
+    }
+
+    /**
+     * A single run of a sync.
+     */
+    interface Sync {
+        void run() throws IOException;
+    }
+}
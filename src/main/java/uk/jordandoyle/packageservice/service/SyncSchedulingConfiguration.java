@@ -0,0 +1,62 @@
+package uk.jordandoyle.packageservice.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+import uk.jordandoyle.packageservice.threads.VirtualThreads;
+
+/**
+ * Runs our scheduled syncs on their own pool of threads, sized by {@code packageservice.sync.pool-size}, so a sync
+ * that's slow or retrying never holds up another sync and never takes threads from request handling. Every other
+ * {@code @Scheduled} job, such as the package store's snapshots, runs on the same pool, so it has a thread for each
+ * of those too. With {@code packageservice.virtual-threads.enabled=true} the pool's threads are virtual threads, so a
+ * sync blocked on a slow downstream doesn't tie up a platform thread.
+ */
+@Configuration
+public class SyncSchedulingConfiguration implements SchedulingConfigurer {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncSchedulingConfiguration.class);
+
+    /**
+     * Number of scheduled jobs that can run at once, by default one for each synchroniser plus one for each of the
+     * package repository's jobs, so a long snapshot of our packages never delays a sync
+     */
+    @Value("${packageservice.sync.pool-size:4}")
+    private int poolSize;
+
+    /**
+     * Whether syncs run on virtual threads
+     */
+    @Value("${packageservice.virtual-threads.enabled:false}")
+    private boolean virtualThreads;
+
+    @Bean
+    public ThreadPoolTaskScheduler syncScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(this.poolSize);
+        scheduler.setThreadNamePrefix("sync-");
+
+        if (this.virtualThreads) {
+            scheduler.setThreadFactory(VirtualThreads.newThreadFactory("sync-"));
+        }
+
+        scheduler.setErrorHandler(t -> LOGGER.error("Scheduled job failed", t));
+
+        // a sync is safe to abandon, anything it hasn't applied yet will be fetched again on startup
+        scheduler.setWaitForTasksToCompleteOnShutdown(false);
+
+        return scheduler;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        registrar.setTaskScheduler(this.syncScheduler());
+    }
+}
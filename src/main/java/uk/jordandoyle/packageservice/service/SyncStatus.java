@@ -0,0 +1,180 @@
+package uk.jordandoyle.packageservice.service;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps track of where our downstream data came from and when we last knew it was up to date, so we can tell if
+ * we're ready to serve traffic and how stale the data we're serving is. How long it's been since each feed was last
+ * known to be up to date is published in {@code /metrics} as {@code sync.<feed>.lag}, in milliseconds.
+ */
+@Component
+public class SyncStatus implements PublicMetrics {
+    /**
+     * Data we get from downstream services
+     */
+    public enum Feed {
+        PRODUCTS("products"),
+        EXCHANGE_RATES("exchange-rates");
+
+        /**
+         * Name of the feed in metrics
+         */
+        private final String name;
+
+        Feed(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Where the data we're serving came from
+     */
+    public enum Source {
+        /**
+         * We don't have any data yet
+         */
+        NONE,
+
+        /**
+         * Restored from the snapshot taken after our last successful sync, before we were restarted
+         */
+        SNAPSHOT,
+
+        /**
+         * Synchronised with the downstream service since we started
+         */
+        DOWNSTREAM
+    }
+
+    /**
+     * Status of each feed, replaced as a whole whenever it changes
+     */
+    private final Map<Feed, AtomicReference<Status>> statuses;
+
+    private final Clock clock;
+
+    public SyncStatus() {
+        this(Clock.systemUTC());
+    }
+
+    SyncStatus(Clock clock) {
+        Map<Feed, AtomicReference<Status>> statuses = new EnumMap<>(Feed.class);
+
+        for (Feed feed : Feed.values()) {
+            statuses.put(feed, new AtomicReference<>(new Status(Source.NONE, null)));
+        }
+
+        this.statuses = Collections.unmodifiableMap(statuses);
+        this.clock = clock;
+    }
+
+    /**
+     * Record that a feed has been restored from a snapshot. If we've already synchronised with the downstream the
+     * snapshot is older than what we have and is ignored.
+     *
+     * @param feed    feed that was restored
+     * @param savedAt when the snapshot was taken, or {@code null} if we don't know
+     */
+    public void restored(Feed feed, Instant savedAt) {
+        this.statuses.get(feed).getAndUpdate(current ->
+                current.source == Source.DOWNSTREAM ? current : new Status(Source.SNAPSHOT, savedAt));
+    }
+
+    /**
+     * Record that a feed has just been synchronised with the downstream, whether or not anything changed.
+     *
+     * @param feed feed that was synchronised
+     */
+    public void synced(Feed feed) {
+        this.statuses.get(feed).set(new Status(Source.DOWNSTREAM, this.clock.instant()));
+    }
+
+    /**
+     * Get the status of a feed.
+     *
+     * @param feed feed to get the status of
+     * @return current status of the feed
+     */
+    public Status getStatus(Feed feed) {
+        return this.statuses.get(feed).get();
+    }
+
+    /**
+     * Get how long it's been since a feed was last known to be up to date.
+     *
+     * @param feed feed to check
+     * @return age of the feed's data, or {@code null} if we don't have any data for the feed or don't know its age
+     */
+    public Duration getAge(Feed feed) {
+        Status status = this.getStatus(feed);
+        return status.updated == null ? null : Duration.between(status.updated, this.clock.instant());
+    }
+
+    /**
+     * Check if we have data for every feed, from either the downstream or a snapshot.
+     *
+     * @return true, if we can serve traffic
+     */
+    public boolean isReady() {
+        for (AtomicReference<Status> status : this.statuses.values()) {
+            if (status.get().source == Source.NONE) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>(Feed.values().length);
+
+        for (Feed feed : Feed.values()) {
+            Duration age = this.getAge(feed);
+
+            if (age != null) {
+                metrics.add(new Metric<>("sync." + feed.name + ".lag", age.toMillis()));
+            }
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Where a feed's data came from and when it was last known to be up to date.
+     */
+    public static final class Status {
+        private final Source source;
+
+        private final Instant updated;
+
+        private Status(Source source, Instant updated) {
+            this.source = source;
+            this.updated = updated;
+        }
+
+        public Source getSource() {
+            return this.source;
+        }
+
+        /**
+         * @return when the data was last known to be up to date, or {@code null} if we don't know
+         */
+        public Instant getUpdated() {
+            return this.updated;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package uk.jordandoyle.packageservice.store;
+
+import uk.jordandoyle.packageservice.domain.Package;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Store that doesn't persist anything, packages only live for as long as the application does.
+ */
+public class InMemoryPackageStore implements PackageStore {
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    @Override
+    public Collection<StoredPackage> recover() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public CompletableFuture<Void> save(Package p) {
+        return DONE;
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(UUID uuid) {
+        return DONE;
+    }
+
+    @Override
+    public void snapshot(Collection<Package> packages) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
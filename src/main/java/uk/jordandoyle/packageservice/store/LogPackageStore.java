@@ -0,0 +1,501 @@
+package uk.jordandoyle.packageservice.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.jordandoyle.packageservice.domain.Package;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stores packages on local disk as an append-only write-ahead log plus periodic snapshots.
+ *
+ * Every change is appended to the current log segment as a length prefixed, checksummed record holding the full
+ * state of the package. Writes from concurrent callers are batched by a single writer thread so a whole batch shares
+ * one fsync (group commit). Taking a snapshot rolls the log over to a new segment, writes every package to
+ * {@code snapshot-<segment>.dat} and then deletes the older segments.
+ *
+ * On recovery the newest snapshot is loaded and every segment from the snapshot onwards is replayed over the top of
+ * it. Records hold full package state so replaying a record the snapshot already reflects is harmless. A torn record
+ * at the end of the log, from a crash mid-write, is discarded along with anything after it.
+ */
+public class LogPackageStore implements PackageStore {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogPackageStore.class);
+
+    /**
+     * Identifies a snapshot file
+     */
+    private static final int SNAPSHOT_MAGIC = 0x504b4731;
+
+    /**
+     * Maximum number of records written in a single group commit
+     */
+    private static final int MAX_BATCH_SIZE = 4096;
+
+    /**
+     * Queued entry telling the writer thread to stop
+     */
+    private static final Entry SHUTDOWN = new Entry(null, null, null);
+
+    /**
+     * Directory holding our log segments and snapshots
+     */
+    private final Path directory;
+
+    /**
+     * Whether to fsync after every group commit, if this is off a power loss can lose the most recent writes
+     */
+    private final boolean fsync;
+
+    /**
+     * Records waiting to be written by the writer thread
+     */
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * Thread performing all writes to the log
+     */
+    private final Thread writer = new Thread(this::writeLoop, "package-store-writer");
+
+    /**
+     * Set if the writer thread fails, after which nothing else can be written
+     */
+    private volatile IOException failure;
+
+    /**
+     * Log segment we're currently appending to, only touched by the writer thread once we've recovered
+     */
+    private FileChannel log;
+
+    /**
+     * Number of the log segment we're currently appending to
+     */
+    private long segment;
+
+    public LogPackageStore(Path directory, boolean fsync) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.fsync = fsync;
+        this.writer.setDaemon(true);
+    }
+
+    @Override
+    public synchronized Collection<StoredPackage> recover() throws IOException {
+        if (this.log != null) {
+            throw new IllegalStateException("Package store has already been recovered");
+        }
+
+        Map<UUID, StoredPackage> packages = new LinkedHashMap<>();
+        TreeMap<Long, Path> snapshots = this.list("snapshot-", ".dat");
+        TreeMap<Long, Path> segments = this.list("log-", ".wal");
+        long firstSegment = 0;
+
+        // load the newest snapshot we can read, falling back to older ones if it's damaged
+        for (Map.Entry<Long, Path> snapshot : snapshots.descendingMap().entrySet()) {
+            try {
+                readSnapshot(snapshot.getValue(), packages);
+                firstSegment = snapshot.getKey();
+                break;
+            } catch (IOException e) {
+                LOGGER.error("Failed to read snapshot {}, trying an older one", snapshot.getValue(), e);
+                packages.clear();
+            }
+        }
+
+        // replay everything written since the snapshot
+        for (Path segment : segments.tailMap(firstSegment).values()) {
+            replay(segment, packages);
+        }
+
+        // always start a fresh segment so we never append after a torn record
+        long last = segments.isEmpty() ? firstSegment : segments.lastKey();
+        this.openSegment(Math.max(last, firstSegment) + 1);
+        this.writer.start();
+
+        return packages.values();
+    }
+
+    @Override
+    public CompletableFuture<Void> save(Package p) {
+        return this.append(PackageCodec.encodeSave(p));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(UUID uuid) {
+        return this.append(PackageCodec.encodeDelete(uuid));
+    }
+
+    @Override
+    public synchronized void snapshot(Collection<Package> packages) throws IOException {
+        if (this.log == null) {
+            throw new IllegalStateException("Package store hasn't been recovered yet");
+        }
+
+        // roll the log over, every change queued after this point will be replayed over the top of our snapshot
+        CompletableFuture<Long> rolled = new CompletableFuture<>();
+        this.enqueue(new Entry(null, null, rolled));
+        long segment = await(rolled);
+
+        Path snapshot = this.directory.resolve("snapshot-" + segment + ".dat");
+        Path temporary = this.directory.resolve("snapshot-" + segment + ".tmp");
+        int count = 0;
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 checksum = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), 64 * 1024), checksum));
+
+            out.writeInt(SNAPSHOT_MAGIC);
+
+            for (Package p : packages) {
+                out.writeBoolean(true);
+                PackageCodec.writeSave(out, p);
+                count++;
+            }
+
+            out.writeBoolean(false);
+            out.flush();
+
+            // the checksum covers everything before it
+            new DataOutputStream(Channels.newOutputStream(channel)).writeLong(checksum.getValue());
+            channel.force(true);
+        }
+
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+
+        // everything before this snapshot is now redundant
+        for (Map.Entry<Long, Path> old : this.list("snapshot-", ".dat").headMap(segment).entrySet()) {
+            Files.deleteIfExists(old.getValue());
+        }
+
+        for (Map.Entry<Long, Path> old : this.list("log-", ".wal").headMap(segment).entrySet()) {
+            Files.deleteIfExists(old.getValue());
+        }
+
+        LOGGER.info("Wrote snapshot of {} packages to {}", count, snapshot);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.writer.isAlive()) {
+            this.queue.add(SHUTDOWN);
+
+            try {
+                this.writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            if (this.log != null) {
+                this.log.close();
+            }
+        }
+    }
+
+    /**
+     * Frame a record with its length and checksum and queue it for the writer thread.
+     */
+    private CompletableFuture<Void> append(byte[] record) {
+        CRC32 checksum = new CRC32();
+        checksum.update(record);
+
+        ByteBuffer framed = ByteBuffer.allocate(8 + record.length);
+        framed.putInt(record.length);
+        framed.putInt((int) checksum.getValue());
+        framed.put(record);
+
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        this.enqueue(new Entry(framed.array(), written, null));
+        return written;
+    }
+
+    private void enqueue(Entry entry) {
+        if (this.failure != null) {
+            throw new UncheckedIOException("Package store has failed", this.failure);
+        } else if (!this.writer.isAlive()) {
+            throw new IllegalStateException("Package store isn't open");
+        }
+
+        this.queue.add(entry);
+    }
+
+    /**
+     * Main loop of the writer thread. Takes every record that's been queued up, writes them all out in one go and
+     * then syncs them to disk before telling the callers their writes are durable.
+     */
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        List<CompletableFuture<Void>> pending = new ArrayList<>(MAX_BATCH_SIZE);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+
+        try {
+            while (true) {
+                batch.add(this.queue.take());
+                this.queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+                for (Entry entry : batch) {
+                    if (entry == SHUTDOWN) {
+                        this.commit(buffer, pending);
+                        return;
+                    } else if (entry.rolled != null) {
+                        // everything before the roll has to go in the old segment
+                        this.commit(buffer, pending);
+                        this.openSegment(this.segment + 1);
+                        entry.rolled.complete(this.segment);
+                    } else {
+                        buffer.write(entry.record);
+                        pending.add(entry.written);
+                    }
+                }
+
+                this.commit(buffer, pending);
+                batch.clear();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to write to package store, no further changes will be persisted", e);
+            this.failure = e;
+
+            for (CompletableFuture<Void> written : pending) {
+                written.completeExceptionally(e);
+            }
+
+            // fail anything still waiting
+            for (Entry entry : batch) {
+                entry.fail(e);
+            }
+
+            Entry entry;
+
+            while ((entry = this.queue.poll()) != null) {
+                entry.fail(e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write out and sync everything buffered up, then complete the futures waiting on it.
+     */
+    private void commit(ByteArrayOutputStream buffer, List<CompletableFuture<Void>> pending) throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+
+        while (bytes.hasRemaining()) {
+            this.log.write(bytes);
+        }
+
+        if (this.fsync) {
+            this.log.force(false);
+        }
+
+        buffer.reset();
+
+        for (CompletableFuture<Void> written : pending) {
+            written.complete(null);
+        }
+
+        pending.clear();
+    }
+
+    private void openSegment(long segment) throws IOException {
+        if (this.log != null) {
+            this.log.close();
+        }
+
+        this.segment = segment;
+        this.log = FileChannel.open(this.directory.resolve("log-" + segment + ".wal"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * List files in our directory named {@code <prefix><number><suffix>}, keyed by number.
+     */
+    private TreeMap<Long, Path> list(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, prefix + "*" + suffix)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), file);
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Ignoring unexpected file {} in package store", file);
+                }
+            }
+        }
+
+        return files;
+    }
+
+    private static void readSnapshot(Path snapshot, Map<UUID, StoredPackage> packages) throws IOException {
+        CRC32 checksum = new CRC32();
+
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(snapshot), 64 * 1024)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(file, checksum));
+
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a package snapshot");
+            }
+
+            while (in.readBoolean()) {
+                byte type = in.readByte();
+
+                if (!PackageCodec.isSave(type)) {
+                    throw new IOException("Unexpected record in snapshot");
+                }
+
+                StoredPackage p = PackageCodec.readSave(in, type);
+                packages.put(p.getUuid(), p);
+            }
+
+            long expected = checksum.getValue();
+
+            if (new DataInputStream(file).readLong() != expected) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+        }
+    }
+
+    /**
+     * Replay a log segment over the packages we've recovered so far, truncating any torn records at the end.
+     */
+    private static void replay(Path segment, Map<UUID, StoredPackage> packages) throws IOException {
+        long valid = 0;
+        int records = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment),
+                64 * 1024))) {
+            long size = Files.size(segment);
+
+            while (true) {
+                byte[] record;
+
+                try {
+                    int length = in.readInt();
+                    int expected = in.readInt();
+
+                    if (length < 0 || valid + 8 + length > size) {
+                        break;
+                    }
+
+                    record = new byte[length];
+                    in.readFully(record);
+
+                    CRC32 checksum = new CRC32();
+                    checksum.update(record);
+
+                    if ((int) checksum.getValue() != expected) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+
+                DataInputStream body = new DataInputStream(new ByteArrayInputStream(record));
+                byte type = body.readByte();
+
+                if (PackageCodec.isSave(type)) {
+                    StoredPackage p = PackageCodec.readSave(body, type);
+                    packages.put(p.getUuid(), p);
+                } else if (type == PackageCodec.DELETE) {
+                    packages.remove(PackageCodec.readUuid(body));
+                } else {
+                    throw new IOException("Unknown record type " + type + " in " + segment);
+                }
+
+                valid += 8 + record.length;
+                records++;
+            }
+
+            if (valid < size) {
+                LOGGER.warn("Discarding {} bytes of torn records at the end of {}", size - valid, segment);
+            }
+        }
+
+        if (valid < Files.size(segment)) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+
+        LOGGER.info("Replayed {} records from {}", records, segment);
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for package store", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Something for the writer thread to do, either a framed record to write or a request to roll the log.
+     */
+    private static final class Entry {
+        private final byte[] record;
+
+        private final CompletableFuture<Void> written;
+
+        private final CompletableFuture<Long> rolled;
+
+        private Entry(byte[] record, CompletableFuture<Void> written, CompletableFuture<Long> rolled) {
+            this.record = record;
+            this.written = written;
+            this.rolled = rolled;
+        }
+
+        private void fail(IOException e) {
+            if (this.written != null) {
+                this.written.completeExceptionally(e);
+            }
+
+            if (this.rolled != null) {
+                this.rolled.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package uk.jordandoyle.packageservice.store;
+
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Binary encoding of packages used by the write-ahead log, snapshots and the replication stream.
+ */
+public final class PackageCodec {
+    /**
+     * Record type for a package being created or updated, written before packages had versions
+     */
+    static final byte SAVE = 1;
+
+    /**
+     * Record type for a package being deleted
+     */
+    public static final byte DELETE = 2;
+
+    /**
+     * Record type for a package being created or updated, along with its version
+     */
+    static final byte VERSIONED_SAVE = 3;
+
+    private PackageCodec() {
+    }
+
+    /**
+     * Encode a save record for a package.
+     */
+    public static byte[] encodeSave(Package p) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+        try {
+            writeSave(new DataOutputStream(buffer), p);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encode a delete record for a package.
+     */
+    public static byte[] encodeDelete(UUID uuid) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(17);
+
+        try {
+            writeDelete(new DataOutputStream(buffer), uuid);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    public static void writeSave(DataOutput out, Package p) throws IOException {
+        Collection<Product> products = p.getProducts();
+
+        out.writeByte(VERSIONED_SAVE);
+        writeUuid(out, p.getUuid());
+        out.writeLong(p.getVersion());
+        writeNullableString(out, p.getName());
+        writeNullableString(out, p.getDescription());
+        out.writeInt(products.size());
+
+        for (Product product : products) {
+            writeString(out, product.getId());
+            writeNullableString(out, product.getName());
+            out.writeInt(product.getPrice());
+        }
+    }
+
+    static void writeDelete(DataOutput out, UUID uuid) throws IOException {
+        out.writeByte(DELETE);
+        writeUuid(out, uuid);
+    }
+
+    /**
+     * Check if a record type is one of the save records.
+     */
+    public static boolean isSave(byte type) {
+        return type == SAVE || type == VERSIONED_SAVE;
+    }
+
+    /**
+     * Read the body of a save record, the record type should already have been read.
+     *
+     * @param type type of the record, {@link #SAVE} records are read as version 1
+     */
+    public static StoredPackage readSave(DataInput in, byte type) throws IOException {
+        UUID uuid = readUuid(in);
+        long version = type == VERSIONED_SAVE ? in.readLong() : 1;
+        String name = readNullableString(in);
+        String description = readNullableString(in);
+        int count = in.readInt();
+        List<Product> products = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            products.add(new Product(readString(in), readNullableString(in), in.readInt()));
+        }
+
+        return new StoredPackage(uuid, version, name, description, products);
+    }
+
+    public static void writeUuid(DataOutput out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    public static UUID readUuid(DataInput in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    /**
+     * Write a length prefixed UTF-8 string, unlike {@link DataOutput#writeUTF(String)} this has no 64KB limit.
+     */
+    private static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeNullableString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+
+        if (s != null) {
+            writeString(out, s);
+        }
+    }
+
+    private static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? readString(in) : null;
+    }
+}
@@ -0,0 +1,49 @@
+package uk.jordandoyle.packageservice.store;
+
+import uk.jordandoyle.packageservice.domain.Package;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Persistent storage behind {@link uk.jordandoyle.packageservice.repository.PackageRepository}. The repository keeps
+ * every package in memory and writes each change through to the store so it can be recovered after a restart.
+ */
+public interface PackageStore extends Closeable {
+    /**
+     * Read back every package we've persisted. This is called once on startup before anything is written.
+     *
+     * @return persisted packages
+     * @throws IOException if the store couldn't be read
+     */
+    Collection<StoredPackage> recover() throws IOException;
+
+    /**
+     * Persist the current state of a package. The package is serialised before this method returns so it's safe
+     * to change the package straight away, but the change is only durable once the returned future completes.
+     *
+     * @param p package to persist
+     * @return completes once the package has been durably written
+     */
+    CompletableFuture<Void> save(Package p);
+
+    /**
+     * Persist the deletion of a package.
+     *
+     * @param uuid uuid of the deleted package
+     * @return completes once the deletion has been durably written
+     */
+    CompletableFuture<Void> delete(UUID uuid);
+
+    /**
+     * Compact everything written so far into a snapshot of the given packages, so recovery doesn't need to replay
+     * the entire history of the store.
+     *
+     * @param packages every package we currently hold
+     * @throws IOException if the snapshot couldn't be written
+     */
+    void snapshot(Collection<Package> packages) throws IOException;
+}
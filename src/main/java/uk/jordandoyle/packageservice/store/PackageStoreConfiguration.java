@@ -0,0 +1,39 @@
+package uk.jordandoyle.packageservice.store;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import uk.jordandoyle.packageservice.replication.ReplicatingPackageStore;
+import uk.jordandoyle.packageservice.replication.ReplicationLog;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Picks the {@link PackageStore} to use based on {@code packageservice.store.type}, packages are only held in memory
+ * unless this is set to {@code log}. On a primary the store also feeds every change into the {@link ReplicationLog}
+ * streamed to replicas.
+ */
+@Configuration
+public class PackageStoreConfiguration {
+    @Bean
+    @ConditionalOnProperty(name = "packageservice.store.type", havingValue = "log")
+    public PackageStore logPackageStore(@Value("${packageservice.store.directory:data/packages}") String directory,
+                                        @Value("${packageservice.store.fsync:true}") boolean fsync,
+                                        ObjectProvider<ReplicationLog> replicationLog) throws IOException {
+        return replicated(new LogPackageStore(Paths.get(directory), fsync), replicationLog);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "packageservice.store.type", havingValue = "memory", matchIfMissing = true)
+    public PackageStore inMemoryPackageStore(ObjectProvider<ReplicationLog> replicationLog) {
+        return replicated(new InMemoryPackageStore(), replicationLog);
+    }
+
+    private static PackageStore replicated(PackageStore store, ObjectProvider<ReplicationLog> replicationLog) {
+        ReplicationLog log = replicationLog.getIfAvailable();
+        return log == null ? store : new ReplicatingPackageStore(store, log);
+    }
+}
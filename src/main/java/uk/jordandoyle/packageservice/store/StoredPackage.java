@@ -0,0 +1,53 @@
+package uk.jordandoyle.packageservice.store;
+
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A package as it was read back from a {@link PackageStore}. Products are stored with the details they had when the
+ * package was last written so packages can be priced before our first product sync.
+ */
+public final class StoredPackage {
+    private final UUID uuid;
+
+    /**
+     * Version of the package when it was written
+     */
+    private final long version;
+
+    private final String name;
+
+    private final String description;
+
+    private final List<Product> products;
+
+    StoredPackage(UUID uuid, long version, String name, String description, List<Product> products) {
+        this.uuid = uuid;
+        this.version = version;
+        this.name = name;
+        this.description = description;
+        this.products = products;
+    }
+
+    public UUID getUuid() {
+        return this.uuid;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public List<Product> getProducts() {
+        return this.products;
+    }
+}
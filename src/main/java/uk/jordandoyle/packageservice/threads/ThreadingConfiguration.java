@@ -0,0 +1,60 @@
+package uk.jordandoyle.packageservice.threads;
+
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Decides which threads handle requests. By default requests are handled by Tomcat's fixed pool of platform threads.
+ * With {@code packageservice.virtual-threads.enabled=true}, on Java 21 or later, every request and every streamed
+ * response is handled on its own virtual thread instead, so a burst of slow requests can't use up the pool.
+ */
+@Configuration
+public class ThreadingConfiguration extends WebMvcConfigurerAdapter implements EmbeddedServletContainerCustomizer {
+    /**
+     * Class logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThreadingConfiguration.class);
+
+    /**
+     * Whether requests are handled on virtual threads
+     */
+    @Value("${packageservice.virtual-threads.enabled:false}")
+    private boolean virtualThreads;
+
+    @Override
+    public void customize(ConfigurableEmbeddedServletContainer container) {
+        if (!this.virtualThreads || !(container instanceof TomcatEmbeddedServletContainerFactory)) {
+            return;
+        }
+
+        // fail on startup rather than quietly falling back to platform threads
+        VirtualThreads.newThreadFactory("http-");
+
+        ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+            ProtocolHandler handler = connector.getProtocolHandler();
+
+            if (handler instanceof AbstractProtocol) {
+                ((AbstractProtocol<?>) handler).setExecutor(VirtualThreads.newExecutor("http-"));
+                LOGGER.info("Handling requests on virtual threads");
+            }
+        });
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        if (this.virtualThreads) {
+            // streamed responses are written on a separate thread once the request thread has been released
+            configurer.setTaskExecutor(new ConcurrentTaskExecutor(VirtualThreads.newExecutor("mvc-async-")));
+        }
+    }
+}
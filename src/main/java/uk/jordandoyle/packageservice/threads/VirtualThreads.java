@@ -0,0 +1,70 @@
+package uk.jordandoyle.packageservice.threads;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads on JVMs that have them (Java 21 onwards). We still build for Java 8, so the virtual thread
+ * API is looked up reflectively, once, when we start up.
+ */
+public final class VirtualThreads {
+    /**
+     * {@code Thread.ofVirtual()}, or {@code null} if this JVM doesn't have virtual threads
+     */
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Check if this JVM can create virtual threads.
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a factory for virtual threads.
+     *
+     * @param prefix threads are named with this prefix followed by a counter
+     * @return the factory
+     * @throws IllegalStateException if this JVM doesn't have virtual threads
+     */
+    public static ThreadFactory newThreadFactory(String prefix) {
+        if (OF_VIRTUAL == null) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later, we're running on Java "
+                    + System.getProperty("java.specification.version"));
+        }
+
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Couldn't create a virtual thread factory", e);
+        }
+    }
+
+    /**
+     * Create an executor that runs every task on a new virtual thread. Virtual threads are cheap enough that there's
+     * no need to pool them, so there's no limit on how many tasks can run at once.
+     *
+     * @param prefix threads are named with this prefix followed by a counter
+     * @return the executor
+     * @throws IllegalStateException if this JVM doesn't have virtual threads
+     */
+    public static Executor newExecutor(String prefix) {
+        ThreadFactory factory = newThreadFactory(prefix);
+        return task -> factory.newThread(task).start();
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package uk.jordandoyle.packageservice.web;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.http.HttpStatus;
+
+import java.util.UUID;
+
+/**
+ * Outcome of a single item in a batch request. Each item in a batch succeeds or fails on its own, so every item
+ * carries its own status alongside either the package or the reason it failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class BatchItem {
+    /**
+     * UUID of the package this item is for, if it has one
+     */
+    private final UUID uuid;
+
+    /**
+     * HTTP status this item would have had as a request of its own
+     */
+    private final int status;
+
+    /**
+     * Why this item failed
+     */
+    private final String error;
+
+    /**
+     * The package, serialised however the equivalent single request would have serialised it
+     */
+    private final Object body;
+
+    private BatchItem(UUID uuid, HttpStatus status, String error, Object body) {
+        this.uuid = uuid;
+        this.status = status.value();
+        this.error = error;
+        this.body = body;
+    }
+
+    static BatchItem ok(UUID uuid, Object body) {
+        return new BatchItem(uuid, HttpStatus.OK, null, body);
+    }
+
+    static BatchItem failed(UUID uuid, HttpStatus status, String error) {
+        return new BatchItem(uuid, status, error, null);
+    }
+
+    public UUID getUuid() {
+        return this.uuid;
+    }
+
+    public int getStatus() {
+        return this.status;
+    }
+
+    public String getError() {
+        return this.error;
+    }
+
+    @JsonProperty("package")
+    public Object getBody() {
+        return this.body;
+    }
+}
@@ -1,49 +1,229 @@
 package uk.jordandoyle.packageservice.web;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cglib.beans.BeanMap;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import uk.jordandoyle.packageservice.admission.Expensive;
+import uk.jordandoyle.packageservice.cluster.Cluster;
+import uk.jordandoyle.packageservice.cluster.NodeUnavailableException;
+import uk.jordandoyle.packageservice.cluster.PackageRouter;
+import uk.jordandoyle.packageservice.feed.PriceFeed;
 import uk.jordandoyle.packageservice.repository.ExchangeRateRepository;
+import uk.jordandoyle.packageservice.repository.PackageQuery;
 import uk.jordandoyle.packageservice.repository.PackageRepository;
+import uk.jordandoyle.packageservice.domain.ConversionRate;
 import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.PackagePrice;
 import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.domain.RateTable;
 import uk.jordandoyle.packageservice.repository.ProductRepository;
+import uk.jordandoyle.packageservice.repository.RateHistoryRepository;
+import uk.jordandoyle.packageservice.repository.VersionConflictException;
 import uk.jordandoyle.packageservice.request.PackageRequest;
 
-import java.math.BigDecimal;
-import java.util.Collection;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
-
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Creates, fetches, updates and deletes packages. Requests whose cost grows with what the client asks for are marked
+ * {@link Expensive} so they're admitted separately from requests for a single package. When packages are partitioned
+ * between nodes, requests for a single package only reach us if we own it, and everything else goes through a
+ * {@link PackageRouter}. Requests we turn away because of an unknown product or currency are counted in
+ * {@code /metrics} as {@code counter.package.create.unknown-product} and {@code counter.package.get.currency-rejected}.
+ */
 @RestController
 public class PackageController {
+    /**
+     * Media type for newline delimited JSON, one package per line
+     */
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    /**
+     * Number of packages in a page if the client doesn't ask for a limit
+     */
+    static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Most packages we'll put in a page, clients wanting more should stream them
+     */
+    static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Most packages we'll create or fetch in a single batch request
+     */
+    static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Number of packages written between flushes when streaming
+     */
+    private static final int FLUSH_INTERVAL = 256;
+
     @Autowired
     private ProductRepository productRepository;
 
     @Autowired
     private PackageRepository packageRepository;
 
+    @Autowired
+    private PackageRouter packageRouter;
+
+    @Autowired
+    private Cluster cluster;
+
     @Autowired
     private ExchangeRateRepository exchangeRateRepository;
 
+    @Autowired
+    private RateHistoryRepository rateHistoryRepository;
+
+    @Autowired
+    private PackageResponseCache responseCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CounterService counterService;
+
+    @Autowired
+    private PriceFeed priceFeed;
+
     /**
-     * Get all packages.
+     * List packages in a stable order, a page at a time. Pages are requested by passing the {@code cursor} from the
+     * {@code Link} header of the previous page. Clients that send {@code Accept: application/x-ndjson} get every
+     * package after the cursor written out one per line as we iterate over them, unless they also pass a
+     * {@code limit}.
      *
-     * @return all packages that have been created
+     * @param cursor uuid of the last package the client has already seen
+     * @param limit  maximum number of packages to return, defaults to {@value #DEFAULT_PAGE_SIZE}
+     * @param fields comma separated list of properties to include for each package
+     * @param accept media types the client accepts
+     * @return the packages or 400 if the limit or fields are invalid
      */
     @RequestMapping(value = "/package", method = RequestMethod.GET)
-    public Collection<Package> all() {
-        return this.packageRepository.getPackages();
+    @Expensive
+    public ResponseEntity<StreamingResponseBody> all(@RequestParam(value = "cursor", required = false) UUID cursor,
+                                                     @RequestParam(value = "limit", required = false) Integer limit,
+                                                     @RequestParam(value = "fields", required = false) String fields,
+                                                     @RequestHeader(value = HttpHeaders.ACCEPT, required = false)
+                                                             String accept) {
+        final PackageFields projection;
+
+        try {
+            projection = PackageFields.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (limit != null && limit < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (accept != null && MediaType.parseMediaTypes(accept).contains(NDJSON)) {
+            // stream as many packages as they asked for, there's no need to hold any of them while we write
+            return ResponseEntity.ok().contentType(NDJSON).body(out -> {
+                Stream<Package> packages = this.packageRouter.streamPackages(cursor, MAX_PAGE_SIZE);
+                this.writeLines(out, limit == null ? packages : packages.limit(limit), projection);
+            });
+        }
+
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        List<Package> page = this.packageRouter.streamPackages(cursor, pageSize)
+                .limit(pageSize)
+                .collect(Collectors.toList());
+
+        return this.pageResponse(page, pageSize, projection);
+    }
+
+    /**
+     * Search for packages by name, product and price, a page at a time in the same order as {@link #all}. Every
+     * parameter is optional and a package has to match all of those given.
+     *
+     * @param name     words that each have to start a word in the package's name, case insensitively
+     * @param products ids of products the package has to contain
+     * @param minPrice lowest total price in USD, in the same units as a USD {@code price}, inclusive
+     * @param maxPrice highest total price in USD, in the same units as a USD {@code price}, inclusive
+     * @param cursor   uuid of the last package the client has already seen
+     * @param limit    maximum number of packages to return, defaults to {@value #DEFAULT_PAGE_SIZE}
+     * @param fields   comma separated list of properties to include for each package
+     * @return the matching packages or 400 if the limit or fields are invalid
+     */
+    @RequestMapping(value = "/package/search", method = RequestMethod.GET)
+    @Expensive
+    public ResponseEntity<StreamingResponseBody> search(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "product", required = false) List<String> products,
+            @RequestParam(value = "minPrice", required = false) Long minPrice,
+            @RequestParam(value = "maxPrice", required = false) Long maxPrice,
+            @RequestParam(value = "cursor", required = false) UUID cursor,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "fields", required = false) String fields) {
+        final PackageFields projection;
+
+        try {
+            projection = PackageFields.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (limit != null && limit < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        List<Package> page = this.packageRouter.search(new PackageQuery(name, products, minPrice, maxPrice),
+                cursor, pageSize);
+
+        return this.pageResponse(page, pageSize, projection);
+    }
+
+    /**
+     * Build the response for a page of packages, linking to the next page if there might be one.
+     */
+    private ResponseEntity<StreamingResponseBody> pageResponse(List<Package> page, int pageSize,
+                                                               PackageFields projection) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8);
+
+        if (page.size() == pageSize) {
+            // there might be more packages after this page, tell the client how to get them
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("cursor", page.get(page.size() - 1).getUuid())
+                    .toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+
+        return response.body(out -> this.writeArray(out, page, projection));
     }
 
     /**
@@ -61,57 +241,104 @@ public class PackageController {
      * </pre></code>
      *
      * @param request details of the package to create
-     * @return the package we created or 400 if there was an invalid product passed
+     * @return the package we created, with an ETag for its version, or 400 if there was an invalid product passed
      */
     @RequestMapping(value = "/package", method = RequestMethod.POST)
+    @Expensive
     public ResponseEntity createPackage(@RequestBody PackageRequest request) {
-        Package p = new Package();
-        p.setName(request.getName());
-        p.setDescription(request.getDescription());
+        Set<String> productIds = productIds(request);
+        Map<String, Product> products = this.productRepository.getProductsById(productIds);
 
-        // loop over all the products given to us and add it to the package we just made
-        for (String productId : request.getProducts()) {
-            Product product = this.productRepository.getProductById(productId);
+        if (products.size() != productIds.size()) {
+            // we got passed an unknown product id, throw a 400
+            this.counterService.increment("package.create.unknown-product");
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        // successfully built a package from the request! lets add it to our store
+        Package p = this.packageRouter.addPackage(this.buildPackage(request, products));
+
+        return ResponseEntity.ok().eTag(PackageETags.of(p.getVersion())).body(p);
+    }
+
+    /**
+     * Create a batch of packages. The request is a JSON array where each item is in the same format as
+     * {@link #createPackage}. Each package is created or rejected on its own, the response has an item for each
+     * package in the request, in the same order, with the status the package would have had if it was created by
+     * itself.
+     *
+     * @param requests details of each package to create
+     * @return the outcome of each package or 400 if the batch is too big
+     */
+    @RequestMapping(value = "/package/batch", method = RequestMethod.POST)
+    @Expensive
+    public ResponseEntity<List<BatchItem>> createPackages(@RequestBody List<PackageRequest> requests) {
+        if (requests.size() > MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
 
-            if (product == null) {
-                // we got passed an unknown product id, throw a 400
-                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        // look up every product in the batch in one go, most batches share a lot of their products
+        Set<String> productIds = new HashSet<>();
+
+        for (PackageRequest request : requests) {
+            productIds.addAll(productIds(request));
+        }
+
+        Map<String, Product> products = this.productRepository.getProductsById(productIds);
+        List<BatchItem> items = new ArrayList<>(requests.size());
+        List<Package> created = new ArrayList<>(requests.size());
+
+        for (PackageRequest request : requests) {
+            Set<String> unknown = new TreeSet<>(productIds(request));
+            unknown.removeAll(products.keySet());
+
+            if (!unknown.isEmpty()) {
+                this.counterService.increment("package.create.unknown-product");
+                items.add(BatchItem.failed(null, HttpStatus.BAD_REQUEST, "Unknown products " + unknown));
+                continue;
             }
 
-            // add this product to the package
-            p.getProducts().add(product);
+            Package p = this.buildPackage(request, products);
+            created.add(p);
+            items.add(BatchItem.ok(p.getUuid(), p));
         }
 
-        // successfully built a package from the request! lets add it to our store
-        this.packageRepository.addPackage(p);
+        this.packageRouter.addPackages(created);
 
-        return ResponseEntity.ok(p);
+        return ResponseEntity.ok(items);
     }
 
     /**
-     * Get a package by UUID
+     * Get a package by UUID. Responses carry a strong ETag, if the client sends it back in {@code If-None-Match} and
+     * nothing has changed we'll respond with a 304.
      *
-     * @param uuid uuid of the package to grab
+     * @param uuid        uuid of the package to grab
+     * @param currency    currency to convert prices to
+     * @param date        day to use the exchange rates from, defaults to the latest rates
+     * @param ifNoneMatch ETags the client already has a copy of
      * @return the package or 404 if not found
      */
     @RequestMapping(value = "/package/{id}", method = RequestMethod.GET)
-    public ResponseEntity<Map<String, Object>> getPackage(@PathVariable("id") UUID uuid,
-                                                          @RequestParam(value = "currency", defaultValue = "USD")
-                                                                      String currency) {
-        currency = currency.toUpperCase();
-
-        if (!currency.equals("USD")) {
-            if (this.exchangeRateRepository.getRates() == null) {
-                // return a 503 if our exchange rate repository hasn't been instantiated yet.
-                return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
-            } else if (!this.exchangeRateRepository.getRates().containsKey(currency)) {
-                // we don't know about this currency so throw a 400
-                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-            }
+    public ResponseEntity<byte[]> getPackage(@PathVariable("id") UUID uuid,
+                                             @RequestParam(value = "currency", defaultValue = "USD") String currency,
+                                             @RequestParam(value = "date", required = false)
+                                             @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                             @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                     String ifNoneMatch) throws IOException {
+        final String code = currency.toUpperCase();
+
+        if (!this.isKnownDate(date)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
 
-        // multiplier defaults to 1 for USD
-        final BigDecimal multiplier = this.exchangeRateRepository.getRates().getOrDefault(currency, BigDecimal.ONE);
+        // use a single set of rates for the whole request, new rates might be installed while we're working
+        final RateTable rates = this.getRateTable(date);
+        HttpStatus currencyError = checkCurrency(code, rates);
+
+        if (currencyError != null) {
+            this.counterService.increment("package.get.currency-rejected");
+            return new ResponseEntity<>(currencyError);
+        }
 
         // get the package the user requested
         final Package p = this.packageRepository.getPackage(uuid);
@@ -121,79 +348,309 @@ public class PackageController {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
 
-        // sum all products to get the total cost of this item in USD
-        BigDecimal total = BigDecimal.valueOf(p.getProducts().stream().mapToInt(Product::getPrice).sum());
+        PackageResponseCache.CachedResponse response = this.getResponse(p, code, rates, date != null);
+
+        if (response.matches(ifNoneMatch)) {
+            // the client already has the latest copy of this package
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(response.getETag()).build();
+        }
+
+        return ResponseEntity.ok()
+                .eTag(response.getETag())
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(response.getBody());
+    }
+
+    /**
+     * Get a batch of packages by UUID. Each package is in the same format as {@link #getPackage}, the response has an
+     * item for each uuid requested, in the same order, with the status it would have had if it was fetched by itself.
+     *
+     * @param uuids    comma separated uuids of the packages to grab
+     * @param currency currency to convert prices to
+     * @param date     day to use the exchange rates from, defaults to the latest rates
+     * @return the outcome of each package, or 400/503 if the batch is too big or we can't convert to the currency
+     */
+    @RequestMapping(value = "/package/batch", method = RequestMethod.GET)
+    @Expensive
+    public ResponseEntity<List<BatchItem>> getPackages(@RequestParam("ids") List<UUID> uuids,
+                                                       @RequestParam(value = "currency", defaultValue = "USD")
+                                                               String currency,
+                                                       @RequestParam(value = "date", required = false)
+                                                       @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date)
+            throws IOException {
+        if (uuids.size() > MAX_BATCH_SIZE || !this.isKnownDate(date)) {
+            return ResponseEntity.badRequest().build();
+        }
 
-        // convert it to the requested currency
-        BigDecimal price = total.multiply(multiplier);
+        final String code = currency.toUpperCase();
 
-        // convert our package to a hash map so we can easily add arbitrary key, value pairs
-        Map<String, Object> res = new HashMap<String, Object>(BeanMap.create(p));
+        // every package in the batch is converted using the same rates
+        final RateTable rates = this.getRateTable(date);
+        HttpStatus currencyError = checkCurrency(code, rates);
 
-        // update price to the converted price & add currency we've converted to
-        res.put("price", price.setScale(2, BigDecimal.ROUND_HALF_UP));
-        res.put("currency", currency.toUpperCase());
+        if (currencyError != null) {
+            this.counterService.increment("package.get.currency-rejected");
+            return new ResponseEntity<>(currencyError);
+        }
 
-        Set<HashMap> products = new HashSet<>();
+        List<BatchItem> items = new ArrayList<>(uuids.size());
+        Map<UUID, Package> packages = this.packageRouter.getPackages(uuids);
 
-        for (Product product : p.getProducts()) {
-            // convert each product to a hash map
-            HashMap<String, Object> productMap = new HashMap<String, Object>(BeanMap.create(product));
+        for (UUID uuid : uuids) {
+            Package p = packages.get(uuid);
 
-            // convert product price to the requested currency and update hash map
-            productMap.put("price", BigDecimal.valueOf(product.getPrice()).multiply(multiplier)
-                    .setScale(2, BigDecimal.ROUND_HALF_UP));
+            if (p == null) {
+                items.add(BatchItem.failed(uuid, HttpStatus.NOT_FOUND, "Unknown package"));
+                continue;
+            }
 
-            products.add(productMap);
+            // copy in the cached response as is rather than building it again, packages from other nodes are new
+            // copies every time so there's no point caching them
+            byte[] body = this.getResponse(p, code, rates, date != null || !this.cluster.isLocal(uuid)).getBody();
+            items.add(BatchItem.ok(uuid, new RawValue(new String(body, StandardCharsets.UTF_8))));
         }
 
-        res.put("products", products);
+        return ResponseEntity.ok(items);
+    }
+
+    /**
+     * Respond with a 503 when a request needs another node that can't be reached right now.
+     */
+    @ExceptionHandler(NodeUnavailableException.class)
+    public ResponseEntity<Void> nodeUnavailable() {
+        return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Check we have exchange rates for a day a client asked for. We can't know the rates for a day that hasn't
+     * happened yet or from before we started keeping them.
+     *
+     * @param date requested day, or {@code null} if the client wants the latest rates
+     * @return true, if we can price packages for the day
+     */
+    private boolean isKnownDate(LocalDate date) {
+        return date == null || (!date.isAfter(LocalDate.now(ZoneOffset.UTC))
+                && this.rateHistoryRepository.getRateTable(date) != null);
+    }
+
+    /**
+     * Get the exchange rates for a day.
+     *
+     * @param date day to get rates for, or {@code null} for the latest rates
+     * @return the rates, or {@code null} if we haven't fetched any yet
+     */
+    private RateTable getRateTable(LocalDate date) {
+        return date == null
+                ? this.exchangeRateRepository.getRateTable()
+                : this.rateHistoryRepository.getRateTable(date);
+    }
+
+    /**
+     * Check we're able to convert prices to a currency.
+     *
+     * @param code  upper case currency code
+     * @param rates current exchange rates, or {@code null} if we haven't fetched any yet
+     * @return null if we can convert to the currency, otherwise the status to respond with
+     */
+    static HttpStatus checkCurrency(String code, RateTable rates) {
+        if (code.equals("USD")) {
+            return null;
+        }
+
+        if (rates == null) {
+            // return a 503 if our exchange rate repository hasn't been instantiated yet.
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        } else if (!rates.hasRate(code)) {
+            // we don't know about this currency so throw a 400
+            return HttpStatus.BAD_REQUEST;
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the serialised {@link #getPackage} response for a package. The response is only rebuilt & serialised if
+     * something has changed since the last request.
+     *
+     * @param p        package to get the response for
+     * @param code     upper case currency code, already checked by {@link #checkCurrency}
+     * @param rates    exchange rates to convert with
+     * @param uncached true if the response shouldn't be cached, because {@code rates} are from a past day rather
+     *                 than our current rates or the package is a copy from another node
+     */
+    private PackageResponseCache.CachedResponse getResponse(Package p, String code, RateTable rates,
+                                                            boolean uncached) throws IOException {
+        // USD is never converted, so it can be served before we have any rates
+        final ConversionRate rate = rates == null ? ConversionRate.IDENTITY : rates.getRate(code);
+
+        if (uncached) {
+            // each past day would need its own cache entries, which would push out the current responses
+            PackagePrice price = p.convertPrice(code, rate);
+            return this.responseCache.serialise(p, generator -> writePackageResponse(generator, p, price));
+        }
+
+        final long rateVersion = rates == null ? 0 : rates.getVersion();
+
+        return this.responseCache.get(p, code, rateVersion,
+                generator -> writePackageResponse(generator, p, p.getPrice(code, rate, rateVersion)));
+    }
+
+    /**
+     * Get the product ids from a create request, ignoring duplicates.
+     */
+    private static Set<String> productIds(PackageRequest request) {
+        return request.getProducts() == null ? Collections.emptySet() : request.getProducts();
+    }
+
+    /**
+     * Build a new package from a create request.
+     *
+     * @param request  details of the package
+     * @param products every product in the request, keyed by id
+     */
+    private Package buildPackage(PackageRequest request, Map<String, Product> products) {
+        List<Product> contents = new ArrayList<>(productIds(request).size());
+
+        for (String productId : productIds(request)) {
+            contents.add(products.get(productId));
+        }
 
-        return ResponseEntity.ok(res);
+        return new Package(this.productRepository.getOrdinals(), request.getName(), request.getDescription(),
+                contents);
+    }
+
+    /**
+     * Write a page of packages as a JSON array.
+     */
+    private void writeArray(OutputStream out, List<Package> packages, PackageFields fields) throws IOException {
+        try (JsonGenerator generator = this.createGenerator(out)) {
+            generator.writeStartArray();
+
+            for (Package p : packages) {
+                fields.write(generator, p);
+            }
+
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Write packages as newline delimited JSON, flushing as we go so the client sees packages as soon as they're
+     * written.
+     */
+    private void writeLines(OutputStream out, Stream<Package> packages, PackageFields fields) throws IOException {
+        try (JsonGenerator generator = this.createGenerator(out)) {
+            Iterator<Package> iterator = packages.iterator();
+
+            for (int written = 1; iterator.hasNext(); written++) {
+                fields.write(generator, iterator.next());
+                generator.writeRaw('\n');
+
+                if (written % FLUSH_INTERVAL == 0) {
+                    generator.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a generator writing to a response body, leaving the stream open for Spring to finish off.
+     */
+    private JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return this.objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                // we write our own newlines between packages
+                .setRootValueSeparator(null);
+    }
+
+    /**
+     * Write the body for {@link #getPackage}. Products are written in the same order as the package holds them, so
+     * the body is the same every time it's written.
+     *
+     * @param generator generator to write to
+     * @param p         package being requested
+     * @param price     prices of the package in the requested currency
+     */
+    private static void writePackageResponse(JsonGenerator generator, Package p, PackagePrice price)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("uuid", p.getUuid().toString());
+        generator.writeStringField("name", p.getName());
+        generator.writeStringField("description", p.getDescription());
+
+        // add the converted price & currency we've converted to
+        generator.writeNumberField("price", price.getPrice());
+        generator.writeStringField("currency", price.getCurrency());
+
+        generator.writeArrayFieldStart("products");
+        List<Product> products = price.getProducts();
+
+        for (int i = 0; i < products.size(); i++) {
+            Product product = products.get(i);
+
+            generator.writeStartObject();
+            generator.writeStringField("id", product.getId());
+            generator.writeStringField("name", product.getName());
+
+            // the product price in the requested currency
+            generator.writeNumberField("price", price.getProductPrice(i));
+            generator.writeEndObject();
+        }
+
+        generator.writeEndArray();
+        generator.writeEndObject();
     }
 
     /**
      * Update a package by UUID. All parameters are the same as {@link PackageController#createPackage} but they're
-     * all optional.
+     * all optional. Clients can send an ETag for the package in {@code If-Match} to only update the package if nobody
+     * else has changed it since they fetched it.
      *
      * @param uuid    uuid of the package to update
+     * @param ifMatch ETags of the versions of the package the client expects to be updating
      * @param request info to update the package with
-     * @return the package with updated info
+     * @return the package with updated info, 404 if not found or 412 if the package has changed since the client's
+     * version
      */
     @RequestMapping(value = "/package/{id}", method = RequestMethod.PUT)
     public ResponseEntity<Package> updatePackage(@PathVariable("id") UUID uuid,
+                                                 @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                                         String ifMatch,
                                                  @RequestBody(required = false) PackageRequest request) {
-        Package p = this.packageRepository.getPackage(uuid);
+        final String name = request == null ? null : request.getName();
+        final String description = request == null ? null : request.getDescription();
+        final List<Product> products;
 
-        if (p == null) {
-            // couldn't find the given uuid, throw a 404
-            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        if (request != null && request.getProducts() != null && !request.getProducts().isEmpty()) {
+            // if we get passed an unknown product id, we'll ignore it since we're in the middle of updating
+            products = new ArrayList<>(this.productRepository.getProductsById(request.getProducts()).values());
+        } else {
+            products = null;
         }
 
-        if (request.getName() != null) {
-            p.setName(request.getName());
-        }
+        final Package p;
 
-        if (request.getDescription() != null) {
-            p.setDescription(request.getDescription());
+        try {
+            p = this.packageRepository.updatePackage(uuid, PackageETags.parseIfMatch(ifMatch),
+                    current -> current.with(name, description, products));
+        } catch (VersionConflictException e) {
+            // someone else has changed the package since the client last saw it
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                    .eTag(PackageETags.of(e.getCurrent().getVersion()))
+                    .build();
         }
 
-        if (request.getProducts() != null && !request.getProducts().isEmpty()) {
-            // remove all products we already know about
-            p.getProducts().clear();
-
-            // loop over all the products given to us and add it to the package we just made
-            for (String productId : request.getProducts()) {
-                Product product = this.productRepository.getProductById(productId);
+        if (p == null) {
+            // couldn't find the given uuid, throw a 404
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
 
-                // if we get passed an unknown product id, we'll ignore it since we're in the middle of updating
-                if (product != null) {
-                    p.getProducts().add(product);
-                }
-            }
+        if (products != null) {
+            // new products mean a new price
+            this.priceFeed.onPackageChanged(uuid);
         }
 
-        return ResponseEntity.ok(p);
+        return ResponseEntity.ok().eTag(PackageETags.of(p.getVersion())).body(p);
     }
 
     /**
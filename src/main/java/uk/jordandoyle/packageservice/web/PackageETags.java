@@ -0,0 +1,85 @@
+package uk.jordandoyle.packageservice.web;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Entity tags for packages. Every tag we hand out starts with the version of the package it was built from, either
+ * on its own or followed by a hash of the response body, so any of them can be sent back in {@code If-Match} to only
+ * update a package if it hasn't changed since.
+ */
+final class PackageETags {
+    private PackageETags() {
+    }
+
+    /**
+     * Get the entity tag for a version of a package.
+     *
+     * @param version version of the package
+     * @return strong entity tag, including the surrounding quotes
+     */
+    static String of(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Get the entity tag for a response built from a version of a package.
+     *
+     * @param version version of the package
+     * @param hash    hash of the response body
+     * @return strong entity tag, including the surrounding quotes
+     */
+    static String of(long version, String hash) {
+        return "\"" + version + "-" + hash + "\"";
+    }
+
+    /**
+     * Parse an {@code If-Match} header sent by the client. {@code If-Match} uses strong comparison so weak tags never
+     * match, and {@code *} matches any version since it only asks for the package to exist.
+     *
+     * @param ifMatch value of the header, or {@code null} if it wasn't sent
+     * @return test for whether a version of a package matches the header
+     */
+    static LongPredicate parseIfMatch(String ifMatch) {
+        if (ifMatch == null) {
+            return version -> true;
+        }
+
+        LongPredicate matches = version -> false;
+
+        for (String tag : ifMatch.split(",")) {
+            tag = tag.trim();
+
+            if (tag.equals("*")) {
+                return version -> true;
+            }
+
+            long version = parseVersion(tag);
+
+            if (version > 0) {
+                matches = matches.or(v -> v == version);
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Get the version of a package from one of our entity tags.
+     *
+     * @return the version, or -1 if the tag is weak or isn't one of ours
+     */
+    private static long parseVersion(String tag) {
+        if (tag.length() < 3 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+            return -1;
+        }
+
+        int end = tag.indexOf('-');
+        String version = tag.substring(1, end < 0 ? tag.length() - 1 : end);
+
+        try {
+            return Long.parseLong(version);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package uk.jordandoyle.packageservice.web;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The properties of a package a caller asked for with {@code fields=}, written straight to a {@link JsonGenerator}
+ * so we never build an intermediate map or tree for each package.
+ */
+final class PackageFields {
+    /**
+     * Properties of a package that can be requested
+     */
+    enum Field {
+        UUID("uuid"),
+        NAME("name"),
+        DESCRIPTION("description"),
+        PRODUCTS("products");
+
+        private final String name;
+
+        Field(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Fields written when the caller doesn't ask for any, the same properties a {@link Package} serialises to
+     */
+    private static final PackageFields DEFAULT = new PackageFields(EnumSet.of(Field.UUID, Field.NAME,
+            Field.DESCRIPTION));
+
+    private final Set<Field> fields;
+
+    private PackageFields(Set<Field> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Parse a comma separated list of fields.
+     *
+     * @param fields fields requested by the caller, or {@code null} for the default set
+     * @return parsed fields
+     * @throws IllegalArgumentException if an unknown field is requested
+     */
+    static PackageFields parse(String fields) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return DEFAULT;
+        }
+
+        Set<Field> parsed = EnumSet.noneOf(Field.class);
+
+        for (String name : fields.split(",")) {
+            parsed.add(find(name.trim()));
+        }
+
+        return new PackageFields(parsed);
+    }
+
+    private static Field find(String name) {
+        for (Field field : Field.values()) {
+            if (field.name.equals(name)) {
+                return field;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown package field " + name);
+    }
+
+    /**
+     * Write a package as a JSON object containing only the requested fields.
+     *
+     * @param generator generator to write to
+     * @param p         package to write
+     * @throws IOException if the package couldn't be written
+     */
+    void write(JsonGenerator generator, Package p) throws IOException {
+        generator.writeStartObject();
+
+        for (Field field : this.fields) {
+            switch (field) {
+                case UUID:
+                    generator.writeStringField(field.name, p.getUuid().toString());
+                    break;
+                case NAME:
+                    generator.writeStringField(field.name, p.getName());
+                    break;
+                case DESCRIPTION:
+                    generator.writeStringField(field.name, p.getDescription());
+                    break;
+                case PRODUCTS:
+                    generator.writeArrayFieldStart(field.name);
+
+                    for (Product product : p.getProducts()) {
+                        generator.writeString(product.getId());
+                    }
+
+                    generator.writeEndArray();
+                    break;
+                default:
+                    throw new IllegalStateException("Unhandled package field " + field);
+            }
+        }
+
+        generator.writeEndObject();
+    }
+}
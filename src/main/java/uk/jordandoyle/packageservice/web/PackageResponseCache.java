@@ -0,0 +1,340 @@
+package uk.jordandoyle.packageservice.web;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.jordandoyle.packageservice.domain.Package;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds fully serialised {@code GET /package/{id}} responses so popular packages don't need to be rebuilt and
+ * serialised on every request.
+ *
+ * Entries are keyed by package and currency and are stamped with the copy of the package and the version of the
+ * exchange rates they were built from. Packages are immutable, so an entry is rebuilt as soon as a new copy of the
+ * package is swapped in or the rates move on, so there's no need to explicitly evict anything when data changes. The
+ * cache is bounded and evicts the least recently used entries once full, which is also how the responses of deleted
+ * packages are dropped.
+ *
+ * When a popular package changes, every request for it that arrives before the new response is built would build it
+ * too. Instead the first of them builds it and the rest wait for its response, as long as they're after the same copy
+ * of the package at the same rates. Waiting is bounded by {@code packageservice.response-cache.coalesce-timeout}
+ * milliseconds, after which a request gives up and builds the response itself.
+ */
+@Component
+public class PackageResponseCache {
+    /**
+     * Serialised responses we've already built
+     */
+    private final Cache<Key, CachedResponse> cache;
+
+    /**
+     * Responses being built right now, for requests arriving meanwhile to wait on
+     */
+    private final ConcurrentMap<Key, Build> builds = new ConcurrentHashMap<>();
+
+    /**
+     * Longest a request waits for another request to build its response, 0 to never wait
+     */
+    private final long coalesceTimeoutNanos;
+
+    /**
+     * Requests that were given a response built by another request
+     */
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Requests that gave up waiting for another request and built their response themselves
+     */
+    private final LongAdder coalesceTimeouts = new LongAdder();
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    public PackageResponseCache(@Value("${packageservice.response-cache.maximum-size:100000}") long maximumSize,
+                                @Value("${packageservice.response-cache.coalesce-timeout:100}")
+                                        long coalesceTimeoutMillis) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        this.coalesceTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(coalesceTimeoutMillis);
+    }
+
+    /**
+     * Get the serialised response for a package in the given currency, building it if we don't have an up to date
+     * copy already.
+     *
+     * @param p           current copy of the package
+     * @param currency    currency the response is in
+     * @param rateVersion current version of our exchange rates
+     * @param body        writes the response body if we need to serialise it again
+     * @return serialised response
+     * @throws IOException if the response body couldn't be serialised
+     */
+    public CachedResponse get(Package p, String currency, long rateVersion, BodyWriter body) throws IOException {
+        Key key = new Key(p.getUuid(), currency);
+        CachedResponse response = this.cache.getIfPresent(key);
+
+        if (response != null && response.isFor(p, rateVersion)) {
+            return response;
+        }
+
+        // either we've never seen this response or something has changed since we built it
+        if (this.coalesceTimeoutNanos <= 0) {
+            return this.build(key, p, rateVersion, body);
+        }
+
+        Build build = new Build(p, rateVersion);
+        Build existing = this.builds.putIfAbsent(key, build);
+
+        if (existing == null) {
+            return this.lead(key, build, body);
+        }
+
+        if (existing.isFor(p, rateVersion)) {
+            response = this.await(existing);
+
+            if (response != null) {
+                return response;
+            }
+        }
+
+        // someone is building a response for a different copy of the package or rates, or is taking too long
+        return this.build(key, p, rateVersion, body);
+    }
+
+    /**
+     * Build a response that other requests may be waiting on, and hand it to them.
+     */
+    private CachedResponse lead(Key key, Build build, BodyWriter body) throws IOException {
+        try {
+            // the last build may have finished between us missing the cache and starting our own
+            CachedResponse response = this.cache.getIfPresent(key);
+
+            if (response == null || !response.isFor(build.source, build.rateVersion)) {
+                response = this.build(key, build.source, build.rateVersion, body);
+            }
+
+            build.complete(response);
+            return response;
+        } catch (IOException | RuntimeException | Error e) {
+            // anyone waiting builds the response themselves
+            build.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.builds.remove(key, build);
+        }
+    }
+
+    /**
+     * Wait for another request to build a response.
+     *
+     * @return the response, or {@code null} if it failed or took too long
+     */
+    private CachedResponse await(Build build) {
+        try {
+            CachedResponse response = build.get(this.coalesceTimeoutNanos, TimeUnit.NANOSECONDS);
+            this.coalesced.increment();
+            return response;
+        } catch (TimeoutException e) {
+            this.coalesceTimeouts.increment();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private CachedResponse build(Key key, Package p, long rateVersion, BodyWriter body) throws IOException {
+        CachedResponse response = new CachedResponse(p, rateVersion, this.write(body));
+        this.cache.put(key, response);
+        return response;
+    }
+
+    /**
+     * Serialise a response without caching it, for responses that are unlikely to be requested again.
+     *
+     * @param p    package the response is for
+     * @param body writes the response body
+     * @return serialised response
+     * @throws IOException if the response body couldn't be serialised
+     */
+    public CachedResponse serialise(Package p, BodyWriter body) throws IOException {
+        return new CachedResponse(p, -1, this.write(body));
+    }
+
+    /**
+     * Write a response body out to bytes.
+     */
+    private byte[] write(BodyWriter body) throws IOException {
+        ByteArrayBuilder bytes = new ByteArrayBuilder();
+
+        try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(bytes)) {
+            body.write(generator);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Get the number of responses we're holding.
+     */
+    public long size() {
+        return this.cache.size();
+    }
+
+    /**
+     * Get hit/miss/eviction statistics for this cache.
+     */
+    public CacheStats getStats() {
+        return this.cache.stats();
+    }
+
+    /**
+     * Get the number of requests that were given a response another request built.
+     */
+    public long getCoalesced() {
+        return this.coalesced.sum();
+    }
+
+    /**
+     * Get the number of requests that gave up waiting for another request to build their response.
+     */
+    public long getCoalesceTimeouts() {
+        return this.coalesceTimeouts.sum();
+    }
+
+    /**
+     * A serialised response along with the copy of the package and the version of the rates it was built from.
+     */
+    public static final class CachedResponse {
+        private final Package source;
+
+        private final long rateVersion;
+
+        /**
+         * UTF-8 encoded JSON body
+         */
+        private final byte[] body;
+
+        /**
+         * Strong entity tag for {@link #body}, including the surrounding quotes. Starts with the version of the
+         * package so it can be sent back in {@code If-Match} when updating the package.
+         */
+        private final String eTag;
+
+        private CachedResponse(Package source, long rateVersion, byte[] body) {
+            this.source = source;
+            this.rateVersion = rateVersion;
+            this.body = body;
+            this.eTag = PackageETags.of(source.getVersion(), Hashing.murmur3_128().hashBytes(body).toString());
+        }
+
+        private boolean isFor(Package p, long rateVersion) {
+            return this.source == p && this.rateVersion == rateVersion;
+        }
+
+        public byte[] getBody() {
+            return this.body;
+        }
+
+        public String getETag() {
+            return this.eTag;
+        }
+
+        /**
+         * Check if this response matches an {@code If-None-Match} header sent by the client.
+         *
+         * @param ifNoneMatch value of the header, or {@code null} if it wasn't sent
+         * @return true, if the client already has this response
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+
+                // If-None-Match uses weak comparison so we can ignore the weak indicator
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+
+                if (tag.equals("*") || tag.equals(this.eTag)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Writes a response body to a generator.
+     */
+    public interface BodyWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * A response being built for a copy of a package at a version of the rates.
+     */
+    private static final class Build extends CompletableFuture<CachedResponse> {
+        private final Package source;
+
+        private final long rateVersion;
+
+        private Build(Package source, long rateVersion) {
+            this.source = source;
+            this.rateVersion = rateVersion;
+        }
+
+        private boolean isFor(Package p, long rateVersion) {
+            return this.source == p && this.rateVersion == rateVersion;
+        }
+    }
+
+    private static final class Key {
+        private final UUID uuid;
+
+        private final String currency;
+
+        private Key(UUID uuid, String currency) {
+            this.uuid = uuid;
+            this.currency = currency;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).uuid.equals(this.uuid)
+                    && ((Key) obj).currency.equals(this.currency);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.uuid, this.currency);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package uk.jordandoyle.packageservice.web;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import uk.jordandoyle.packageservice.domain.RateTable;
+import uk.jordandoyle.packageservice.feed.PriceFeed;
+import uk.jordandoyle.packageservice.feed.Subscription;
+import uk.jordandoyle.packageservice.repository.ExchangeRateRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Streams package prices to clients as server-sent events, as an alternative to polling {@code GET /package/:id}.
+ */
+@RestController
+public class PriceFeedController {
+    @Autowired
+    private PriceFeed priceFeed;
+
+    @Autowired
+    private ExchangeRateRepository exchangeRateRepository;
+
+    /**
+     * How long a client can stay subscribed before we end the stream, clients are expected to reconnect
+     */
+    @Value("${packageservice.price-feed.timeout:1800000}")
+    private long timeoutMillis;
+
+    /**
+     * Subscribe to the prices of up to {@value PackageController#MAX_BATCH_SIZE} packages. A {@code price} event is
+     * sent with the current prices of each package straight away, then again whenever the package's price changes in
+     * any of the requested currencies:
+     *
+     * <code><pre>
+     * event: price
+     * data: {"uuid": "...", "prices": {"GBP": 50.00, "EUR": 57.10}}
+     * </pre></code>
+     *
+     * Packages that don't exist are ignored. Clients that fall behind only get the latest prices of each package,
+     * and lose the oldest changes if they fall too far behind.
+     *
+     * @param uuids      uuids of the packages to subscribe to
+     * @param currencies currencies to send prices in
+     * @return the event stream, 400 if there are too many packages or we don't know a currency, or 503 if we haven't
+     * got any exchange rates yet
+     */
+    @RequestMapping(value = "/package/prices", method = RequestMethod.GET)
+    public ResponseEntity<SseEmitter> subscribe(@RequestParam("ids") List<UUID> uuids,
+                                                @RequestParam(value = "currencies", defaultValue = "USD")
+                                                        List<String> currencies) {
+        if (uuids.isEmpty() || uuids.size() > PackageController.MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        RateTable rates = this.exchangeRateRepository.getRateTable();
+        List<String> codes = new ArrayList<>(currencies.size());
+
+        for (String currency : currencies) {
+            String code = currency.toUpperCase();
+            HttpStatus currencyError = PackageController.checkCurrency(code, rates);
+
+            if (currencyError != null) {
+                return new ResponseEntity<>(currencyError);
+            }
+
+            if (!codes.contains(code)) {
+                codes.add(code);
+            }
+        }
+
+        SseEmitter emitter = new SseEmitter(this.timeoutMillis);
+        Subscription subscription = this.priceFeed.subscribe(uuids, codes, change -> emitter.send(SseEmitter.event()
+                .name("price")
+                .data(change, MediaType.APPLICATION_JSON)));
+
+        emitter.onCompletion(() -> this.priceFeed.unsubscribe(subscription));
+        emitter.onTimeout(() -> this.priceFeed.unsubscribe(subscription));
+
+        return ResponseEntity.ok().body(emitter);
+    }
+}
@@ -0,0 +1,146 @@
+package uk.jordandoyle.packageservice.web;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import uk.jordandoyle.packageservice.metrics.LatencyHistograms;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Serves everything in {@code /metrics}, along with our latency histograms, in the Prometheus text format so it can
+ * be scraped straight off each instance.
+ */
+@RestController
+public class PrometheusController {
+    /**
+     * Version 0.0.4 of the Prometheus text format
+     */
+    static final MediaType PROMETHEUS_TEXT = MediaType.parseMediaType("text/plain; version=0.0.4; charset=utf-8");
+
+    /**
+     * Nanoseconds in a second, Prometheus expects durations in seconds
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    @Autowired
+    private Collection<PublicMetrics> publicMetrics;
+
+    @Autowired
+    private LatencyHistograms latencyHistograms;
+
+    /**
+     * Get every metric we have. Actuator counters are reported as Prometheus counters and everything else as
+     * gauges. Latencies are reported as summaries with p50, p99 and p999 over the last complete window, along with
+     * the total count and time since we started and the maximum in the last window.
+     *
+     * @return metrics in the Prometheus text format
+     */
+    @RequestMapping(value = "/prometheus", method = RequestMethod.GET)
+    public ResponseEntity<String> scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        this.writeLatencies(out);
+        this.writePublicMetrics(out);
+
+        return ResponseEntity.ok().contentType(PROMETHEUS_TEXT).body(out.toString());
+    }
+
+    private void writeLatencies(StringBuilder out) {
+        List<LatencyHistograms.Snapshot> snapshots = new ArrayList<>(this.latencyHistograms.snapshot());
+        snapshots.sort(Comparator.comparing(LatencyHistograms.Snapshot::getMetric)
+                .thenComparing(LatencyHistograms.Snapshot::getValue));
+
+        String family = null;
+
+        for (LatencyHistograms.Snapshot snapshot : snapshots) {
+            String metric = snapshot.getMetric();
+            String labels = snapshot.getLabel() + "=\"" + snapshot.getValue() + "\"";
+
+            if (!metric.equals(family)) {
+                family = metric;
+                out.append("# TYPE ").append(metric).append(" summary\n");
+            }
+
+            writeQuantile(out, metric, labels, "0.5", snapshot.getP50Nanos());
+            writeQuantile(out, metric, labels, "0.99", snapshot.getP99Nanos());
+            writeQuantile(out, metric, labels, "0.999", snapshot.getP999Nanos());
+            writeSample(out, metric + "_count", labels, snapshot.getCount());
+            writeSample(out, metric + "_sum", labels, snapshot.getSumNanos() / NANOS_PER_SECOND);
+        }
+
+        family = null;
+
+        for (LatencyHistograms.Snapshot snapshot : snapshots) {
+            String metric = snapshot.getMetric() + "_max";
+
+            if (!metric.equals(family)) {
+                family = metric;
+                out.append("# TYPE ").append(metric).append(" gauge\n");
+            }
+
+            writeSample(out, metric, snapshot.getLabel() + "=\"" + snapshot.getValue() + "\"",
+                    snapshot.getMaxNanos() / NANOS_PER_SECOND);
+        }
+    }
+
+    private void writePublicMetrics(StringBuilder out) {
+        // sorted so the output is stable, and different sources publishing the same metric only write it once
+        Map<String, Metric<?>> metrics = new TreeMap<>();
+
+        for (PublicMetrics source : this.publicMetrics) {
+            for (Metric<?> metric : source.metrics()) {
+                metrics.put(metric.getName(), metric);
+            }
+        }
+
+        for (Metric<?> metric : metrics.values()) {
+            String name = sanitise(metric.getName());
+            String type = metric.getName().startsWith("counter.") ? "counter" : "gauge";
+
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            writeSample(out, name, null, metric.getValue().doubleValue());
+        }
+    }
+
+    private static void writeQuantile(StringBuilder out, String metric, String labels, String quantile,
+                                      double nanos) {
+        writeSample(out, metric, labels + ",quantile=\"" + quantile + "\"", nanos / NANOS_PER_SECOND);
+    }
+
+    private static void writeSample(StringBuilder out, String metric, String labels, double value) {
+        out.append(metric);
+
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Turn an actuator metric name into a valid Prometheus metric name, e.g. {@code counter.sync.products.runs}
+     * becomes {@code counter_sync_products_runs}.
+     */
+    static String sanitise(String name) {
+        StringBuilder sanitised = new StringBuilder(name.length());
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                    || (i > 0 && c >= '0' && c <= '9');
+            sanitised.append(valid ? c : '_');
+        }
+
+        return sanitised.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package uk.jordandoyle.packageservice.web;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import uk.jordandoyle.packageservice.replication.ReplicationClient;
+import uk.jordandoyle.packageservice.service.SyncStatus;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tells load balancers and deployments whether we have the downstream data we need to serve packages, and how stale
+ * that data is.
+ */
+@RestController
+public class ReadinessController {
+    @Autowired
+    private SyncStatus syncStatus;
+
+    /**
+     * Follows our primary if we're a replica
+     */
+    @Autowired(required = false)
+    private ReplicationClient replicationClient;
+
+    /**
+     * Products older than this are reported as stale, we normally sync them every 10 seconds
+     */
+    @Value("${packageservice.readiness.products-stale-after:300}")
+    private long productsStaleAfterSeconds;
+
+    /**
+     * Exchange rates older than this are reported as stale, Fixer only publishes them once a day
+     */
+    @Value("${packageservice.readiness.exchange-rates-stale-after:172800}")
+    private long exchangeRatesStaleAfterSeconds;
+
+    /**
+     * Check if we're ready to serve traffic. We're ready as soon as we have products and exchange rates, even if
+     * they're stale or came from a snapshot; old prices are better than no prices. A replica also has to have caught
+     * up from a snapshot of its primary, after that it stays ready while it's behind or can't reach the primary.
+     *
+     * @return 200 if we're ready or 503 if not, along with where each feed came from and how old it is, and how far
+     * behind its primary a replica is
+     */
+    @RequestMapping(value = "/ready", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Object>> ready() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        boolean ready = this.syncStatus.isReady()
+                && (this.replicationClient == null || this.replicationClient.isSynced());
+        res.put("ready", ready);
+        res.put("products", this.describe(SyncStatus.Feed.PRODUCTS, this.productsStaleAfterSeconds));
+        res.put("exchangeRates", this.describe(SyncStatus.Feed.EXCHANGE_RATES, this.exchangeRatesStaleAfterSeconds));
+
+        if (this.replicationClient != null) {
+            res.put("replication", this.describeReplication());
+        }
+
+        return ResponseEntity.status(ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(res);
+    }
+
+    private Map<String, Object> describe(SyncStatus.Feed feed, long staleAfterSeconds) {
+        SyncStatus.Status status = this.syncStatus.getStatus(feed);
+        Duration age = this.syncStatus.getAge(feed);
+
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("source", status.getSource().name().toLowerCase());
+        res.put("updated", status.getUpdated() == null ? null : status.getUpdated().toString());
+        res.put("ageSeconds", age == null ? null : age.getSeconds());
+        res.put("stale", age != null && age.getSeconds() > staleAfterSeconds);
+
+        return res;
+    }
+
+    private Map<String, Object> describeReplication() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("synced", this.replicationClient.isSynced());
+        res.put("connected", this.replicationClient.isConnected());
+        res.put("sequence", this.replicationClient.getSequence());
+        res.put("lagChanges", this.replicationClient.getLagChanges());
+        res.put("lagMillis", this.replicationClient.getLagMillis());
+        res.put("millisSinceContact", this.replicationClient.getMillisSinceContact());
+
+        return res;
+    }
+}
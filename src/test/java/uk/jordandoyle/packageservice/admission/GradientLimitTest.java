@@ -0,0 +1,106 @@
+package uk.jordandoyle.packageservice.admission;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GradientLimitTest {
+    private long now;
+
+    private final GradientLimit limit = new GradientLimit("test", 20, 2, 200, () -> this.now);
+
+    @Test
+    public void turnsAwayRequestsOverTheLimit() {
+        for (int i = 0; i < 20; i++) {
+            assertTrue(this.limit.tryAcquire());
+        }
+
+        assertFalse(this.limit.tryAcquire());
+        assertEquals(20, this.limit.getInFlight());
+
+        this.limit.release();
+        assertTrue(this.limit.tryAcquire());
+    }
+
+    @Test
+    public void growsWhileLatencyHoldsAndShrinksWhenItClimbs() {
+        this.run(50, 1);
+        int grown = this.limit.getLimit();
+        assertTrue("limit " + grown, grown > 20);
+
+        // requests start queueing, so they take far longer than they used to
+        this.run(20, 10);
+        assertTrue("limit " + this.limit.getLimit(), this.limit.getLimit() < grown / 2);
+    }
+
+    @Test
+    public void doesNotGrowWhileMostlyIdle() {
+        for (int window = 0; window < 50; window++) {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(this.limit.tryAcquire());
+                this.limit.release(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+
+            this.now += TimeUnit.MILLISECONDS.toNanos(100);
+        }
+
+        assertEquals(20, this.limit.getLimit());
+    }
+
+    @Test
+    public void keepsCountWhileReleasedFromManyThreads() throws Exception {
+        // every reading of the clock moves it on a millisecond, so windows close while threads are releasing
+        AtomicLong clock = new AtomicLong();
+        GradientLimit limit = new GradientLimit("test", 20, 2, 200,
+                () -> clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1)));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> threads = new ArrayList<>();
+
+        for (int thread = 0; thread < 8; thread++) {
+            threads.add(executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    if (limit.tryAcquire()) {
+                        limit.release(TimeUnit.MILLISECONDS.toNanos(1 + i % 5));
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> thread : threads) {
+            thread.get(30, TimeUnit.SECONDS);
+        }
+
+        executor.shutdown();
+        assertEquals(0, limit.getInFlight());
+        assertTrue("limit " + limit.getLimit(), limit.getLimit() >= 2 && limit.getLimit() <= 200);
+    }
+
+    /**
+     * Keep the limit full of requests taking the given latency for a number of windows.
+     */
+    private void run(int windows, long latencyMillis) {
+        for (int window = 0; window < windows; window++) {
+            int admitted = 0;
+
+            while (this.limit.tryAcquire()) {
+                admitted++;
+            }
+
+            this.now += TimeUnit.MILLISECONDS.toNanos(100);
+
+            for (int i = 0; i < admitted; i++) {
+                this.limit.release(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package uk.jordandoyle.packageservice.admission;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketsTest {
+    private long now;
+
+    private final TokenBuckets buckets = new TokenBuckets(10, 20, 100, () -> this.now);
+
+    @Test
+    public void clientsGetABurstThenTheirRate() {
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, this.buckets.tryTake("a", 1));
+        }
+
+        // empty, the next token is a tenth of a second away
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), this.buckets.tryTake("a", 1));
+
+        // other clients have buckets of their own
+        assertEquals(0, this.buckets.tryTake("b", 1));
+
+        this.now += TimeUnit.MILLISECONDS.toNanos(500);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, this.buckets.tryTake("a", 1));
+        }
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), this.buckets.tryTake("a", 1));
+    }
+
+    @Test
+    public void costlyRequestsTakeMoreTokens() {
+        assertEquals(0, this.buckets.tryTake("a", 15));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), this.buckets.tryTake("a", 15));
+
+        // a request costing more than the burst can still get through once the bucket is full
+        this.now += TimeUnit.SECONDS.toNanos(10);
+        assertEquals(0, this.buckets.tryTake("a", 50));
+    }
+}
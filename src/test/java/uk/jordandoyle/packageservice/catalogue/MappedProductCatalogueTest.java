@@ -0,0 +1,80 @@
+package uk.jordandoyle.packageservice.catalogue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MappedProductCatalogueTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsChangesStraightFromTheFiles() throws IOException {
+        try (MappedProductCatalogue catalogue = new MappedProductCatalogue(this.folder.getRoot().toPath())) {
+            assertEquals(ProductCatalogue.Change.ADDED, catalogue.put(new Product("a", "Product A", 100)));
+            assertEquals(ProductCatalogue.Change.UNCHANGED, catalogue.put(new Product("a", "Product A", 100)));
+            assertEquals(ProductCatalogue.Change.CHANGED,
+                    catalogue.put(new Product("a", "A much longer name than the one we started with", 150)));
+
+            Product product = catalogue.get("a");
+            assertEquals("A much longer name than the one we started with", product.getName());
+            assertEquals(150, product.getPrice());
+            assertEquals(150, catalogue.getPrice("a"));
+            assertEquals(-1, catalogue.getPrice("b"));
+            assertNull(catalogue.get("b"));
+        }
+    }
+
+    @Test
+    public void survivesRestartAndGrowth() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        int count = 200000;
+
+        try (MappedProductCatalogue catalogue = new MappedProductCatalogue(directory)) {
+            for (int i = 0; i < count; i++) {
+                catalogue.put(new Product("P" + i, i % 7 == 0 ? null : "Product " + i, i));
+            }
+        }
+
+        try (MappedProductCatalogue catalogue = new MappedProductCatalogue(directory)) {
+            assertEquals(count, catalogue.size());
+
+            for (int i = 0; i < count; i += 997) {
+                Product product = catalogue.get("P" + i);
+                assertEquals(i, product.getPrice());
+                assertEquals(i % 7 == 0 ? null : "Product " + i, product.getName());
+            }
+        }
+    }
+
+    @Test
+    public void rebuildsAMissingIndex() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+
+        try (MappedProductCatalogue catalogue = new MappedProductCatalogue(directory)) {
+            for (int i = 0; i < 1000; i++) {
+                catalogue.put(new Product("P" + i, "Product " + i, i));
+            }
+
+            // moved to a new record, so the old one has to be skipped over
+            catalogue.put(new Product("P1", "A much longer name than the one we started with", 150));
+        }
+
+        Files.delete(directory.resolve("products.idx"));
+
+        try (MappedProductCatalogue catalogue = new MappedProductCatalogue(directory)) {
+            assertEquals(1000, catalogue.size());
+            assertEquals(150, catalogue.getPrice("P1"));
+            assertEquals("A much longer name than the one we started with", catalogue.get("P1").getName());
+            assertEquals(999, catalogue.getPrice("P999"));
+        }
+    }
+}
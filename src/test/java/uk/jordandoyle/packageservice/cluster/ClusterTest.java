@@ -0,0 +1,59 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterTest {
+    private static final String NODES = "http://10.0.0.1:8080,http://10.0.0.2:8080";
+
+    @Test
+    public void trustsRequestsWithTheSecret() {
+        Cluster cluster = new Cluster(NODES, "http://10.0.0.1:8080", 16, "s3cret");
+
+        assertTrue(cluster.isTrusted(request("192.0.2.7", "s3cret")));
+        assertFalse(cluster.isTrusted(request("192.0.2.7", "guess")));
+
+        // once there's a secret, even other nodes and this host have to send it
+        assertFalse(cluster.isTrusted(request("10.0.0.2", null)));
+        assertFalse(cluster.isTrusted(request("127.0.0.1", null)));
+    }
+
+    @Test
+    public void trustsNodesAndThisHostWithoutASecret() {
+        Cluster cluster = new Cluster(NODES, "http://10.0.0.1:8080", 16);
+
+        assertTrue(cluster.isTrusted(request("10.0.0.2", null)));
+        assertTrue(cluster.isTrusted(request("127.0.0.1", null)));
+        assertFalse(cluster.isTrusted(request("192.0.2.7", null)));
+
+        // clients don't get trusted for sending a secret we don't have
+        assertFalse(cluster.isTrusted(request("192.0.2.7", "")));
+    }
+
+    @Test
+    public void onlyTrustedRequestsReachTheClusterEndpoints() {
+        Cluster cluster = new Cluster(NODES, "http://10.0.0.1:8080", 16);
+        ClusterTrustInterceptor interceptor = new ClusterTrustInterceptor(cluster);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(interceptor.preHandle(request("10.0.0.2", null), new MockHttpServletResponse(), null));
+        assertFalse(interceptor.preHandle(request("192.0.2.7", null), response, null));
+        assertEquals(403, response.getStatus());
+    }
+
+    private static MockHttpServletRequest request(String remoteAddress, String secret) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/package/x");
+        request.setRemoteAddr(remoteAddress);
+
+        if (secret != null) {
+            request.addHeader(Cluster.SECRET_HEADER, secret);
+        }
+
+        return request;
+    }
+}
@@ -0,0 +1,91 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashRingTest {
+    private static final int PACKAGES = 100000;
+
+    private static final int VIRTUAL_NODES = 1024;
+
+    private static final List<String> NODES = Arrays.asList("http://a:8080", "http://b:8080", "http://c:8080",
+            "http://d:8080");
+
+    private final List<UUID> uuids = new ArrayList<>(PACKAGES);
+
+    public HashRingTest() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < PACKAGES; i++) {
+            this.uuids.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+    }
+
+    @Test
+    public void packagesAreSplitEvenly() {
+        HashRing ring = new HashRing(NODES, VIRTUAL_NODES);
+        Map<String, Integer> counts = new HashMap<>();
+
+        for (UUID uuid : this.uuids) {
+            counts.merge(ring.getOwner(uuid), 1, Integer::sum);
+        }
+
+        assertEquals(NODES.size(), counts.size());
+
+        for (int count : counts.values()) {
+            // within 10% of a perfect split
+            assertTrue(String.valueOf(counts), Math.abs(count - PACKAGES / NODES.size()) < PACKAGES / 40);
+        }
+    }
+
+    @Test
+    public void joiningNodeOnlyTakesPackages() {
+        HashRing before = new HashRing(NODES.subList(0, 3), VIRTUAL_NODES);
+        HashRing after = new HashRing(NODES, VIRTUAL_NODES);
+        int moved = 0;
+
+        for (UUID uuid : this.uuids) {
+            if (!before.getOwner(uuid).equals(after.getOwner(uuid))) {
+                assertEquals("http://d:8080", after.getOwner(uuid));
+                moved++;
+            }
+        }
+
+        // roughly a quarter of the packages move, all of them to the new node
+        assertTrue(String.valueOf(moved), Math.abs(moved - PACKAGES / 4) < PACKAGES / 40);
+    }
+
+    @Test
+    public void leavingNodeOnlyGivesUpItsOwnPackages() {
+        HashRing before = new HashRing(NODES, VIRTUAL_NODES);
+        HashRing after = new HashRing(Arrays.asList("http://a:8080", "http://c:8080", "http://d:8080"),
+                VIRTUAL_NODES);
+
+        for (UUID uuid : this.uuids) {
+            if (!before.getOwner(uuid).equals(after.getOwner(uuid))) {
+                assertEquals("http://b:8080", before.getOwner(uuid));
+            }
+        }
+    }
+
+    @Test
+    public void ownershipDoesNotDependOnNodeOrder() {
+        HashRing ring = new HashRing(NODES, 16);
+        HashRing reversed = new HashRing(Arrays.asList("http://d:8080", "http://c:8080", "http://b:8080",
+                "http://a:8080"), 16);
+
+        for (UUID uuid : this.uuids) {
+            assertEquals(ring.getOwner(uuid), reversed.getOwner(uuid));
+        }
+    }
+}
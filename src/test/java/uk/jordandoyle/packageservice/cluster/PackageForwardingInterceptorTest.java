@@ -0,0 +1,155 @@
+package uk.jordandoyle.packageservice.cluster;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PackageForwardingInterceptorTest {
+    private static final String SELF = "http://127.0.0.1:1";
+
+    private HttpServer owner;
+
+    private String ownerName;
+
+    /**
+     * Requests that reached the owner
+     */
+    private final AtomicInteger received = new AtomicInteger();
+
+    private volatile String receivedRequest;
+
+    private volatile String receivedForwardedBy;
+
+    private volatile String receivedBody;
+
+    private PackageForwarder packageForwarder;
+
+    private PackageForwardingInterceptor interceptor;
+
+    private Cluster cluster;
+
+    @Before
+    public void setUp() throws IOException {
+        this.owner = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.owner.createContext("/package", exchange -> {
+            this.received.incrementAndGet();
+            this.receivedRequest = exchange.getRequestMethod() + " " + exchange.getRequestURI();
+            this.receivedForwardedBy = exchange.getRequestHeaders().getFirst(PackageForwarder.FORWARDED_BY);
+            this.receivedBody = new String(ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8);
+
+            byte[] body = "{\"name\":\"Remote\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("ETag", "\"remote\"");
+            exchange.sendResponseHeaders(201, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.owner.start();
+        this.ownerName = "http://127.0.0.1:" + this.owner.getAddress().getPort();
+
+        this.cluster = new Cluster(SELF + "," + this.ownerName, SELF, 16);
+        this.packageForwarder = new PackageForwarder(4, 2000);
+        ReflectionTestUtils.setField(this.packageForwarder, "cluster", this.cluster);
+        this.interceptor = new PackageForwardingInterceptor(this.cluster, this.packageForwarder);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.owner.stop(0);
+        this.packageForwarder.close();
+    }
+
+    @Test
+    public void requestsForRemotePackagesArePassedToTheirOwner() throws Exception {
+        UUID uuid = this.ownedBy(this.ownerName);
+        MockHttpServletRequest request = this.request("PUT", uuid);
+        request.setQueryString("currency=GBP");
+        request.setContentType("application/json");
+        request.setContent("{\"name\":\"Remote\"}".getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertFalse(this.interceptor.preHandle(request, response, null));
+
+        assertEquals("PUT /package/" + uuid + "?currency=GBP", this.receivedRequest);
+        assertEquals(SELF, this.receivedForwardedBy);
+        assertEquals("{\"name\":\"Remote\"}", this.receivedBody);
+
+        // and the owner's response is passed straight back
+        assertEquals(201, response.getStatus());
+        assertEquals("\"remote\"", response.getHeader("ETag"));
+        assertEquals("{\"name\":\"Remote\"}", response.getContentAsString());
+    }
+
+    @Test
+    public void localAndForwardedRequestsAreHandledHere() throws Exception {
+        assertTrue(this.interceptor.preHandle(this.request("GET", this.ownedBy(SELF)),
+                new MockHttpServletResponse(), null));
+
+        // the nodes disagree about who owns the package, but we answer it rather than sending it back
+        MockHttpServletRequest forwarded = this.request("GET", this.ownedBy(this.ownerName));
+        forwarded.addHeader(PackageForwarder.FORWARDED_BY, this.ownerName);
+        assertTrue(this.interceptor.preHandle(forwarded, new MockHttpServletResponse(), null));
+
+        assertEquals(0, this.received.get());
+    }
+
+    @Test
+    public void clientsClaimingToBeANodeAreStillForwarded() throws Exception {
+        UUID uuid = this.ownedBy(this.ownerName);
+        MockHttpServletRequest request = this.request("DELETE", uuid);
+        request.setRemoteAddr("192.0.2.7");
+        request.addHeader(PackageForwarder.FORWARDED_BY, this.ownerName);
+
+        assertFalse(this.interceptor.preHandle(request, new MockHttpServletResponse(), null));
+
+        // and the owner only sees our header, not the client's
+        assertEquals("DELETE /package/" + uuid, this.receivedRequest);
+        assertEquals(SELF, this.receivedForwardedBy);
+    }
+
+    @Test
+    public void unreachableOwnersGiveA503() throws Exception {
+        UUID uuid = this.ownedBy(this.ownerName);
+        this.owner.stop(0);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertFalse(this.interceptor.preHandle(this.request("GET", uuid), response, null));
+        assertEquals(503, response.getStatus());
+    }
+
+    private MockHttpServletRequest request(String method, UUID uuid) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/package/" + uuid);
+        request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE,
+                Collections.singletonMap("id", uuid.toString()));
+        return request;
+    }
+
+    /**
+     * Find a package uuid owned by a node.
+     */
+    private UUID ownedBy(String node) {
+        for (long i = 0; ; i++) {
+            UUID uuid = new UUID(0, i);
+
+            if (this.cluster.getOwner(uuid).equals(node)) {
+                return uuid;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package uk.jordandoyle.packageservice.domain;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks fixed-point conversions against the {@link BigDecimal} conversion they replace, over a large number of
+ * randomly generated rates and amounts.
+ */
+public class ConversionRateTest {
+    private static final int RATES = 20000;
+
+    private static final int AMOUNTS_PER_RATE = 50;
+
+    private final Random random = new Random(0x5eed);
+
+    @Test
+    public void matchesBigDecimalHalfUpForRandomRatesAndAmounts() {
+        for (int i = 0; i < RATES; i++) {
+            BigDecimal multiplier = this.randomRate();
+            ConversionRate rate = ConversionRate.of(multiplier);
+
+            for (int j = 0; j < AMOUNTS_PER_RATE; j++) {
+                assertConvertsLikeBigDecimal(rate, multiplier, this.randomAmount());
+            }
+        }
+    }
+
+    @Test
+    public void matchesBigDecimalHalfUpOnRoundingBoundaries() {
+        for (int i = 0; i < RATES; i++) {
+            // amount * unscaled / 10^scale lands exactly on, just below or just above half a unit of the output
+            int scale = 3 + this.random.nextInt(6);
+            long half = 5 * BigDecimal.TEN.pow(scale - 3).longValueExact();
+            long unscaled = this.random.nextInt(1000) * 2 * half + half + this.random.nextInt(3) - 1;
+            BigDecimal multiplier = BigDecimal.valueOf(this.random.nextBoolean() ? unscaled : -unscaled, scale);
+
+            assertConvertsLikeBigDecimal(ConversionRate.of(multiplier), multiplier, 1);
+            assertConvertsLikeBigDecimal(ConversionRate.of(multiplier), multiplier, -1);
+        }
+    }
+
+    @Test
+    public void matchesBigDecimalForValuesThatDoNotFitInALong() {
+        BigDecimal[] multipliers = {
+                new BigDecimal("0.12345678901234567890123"),
+                new BigDecimal("98765432109876543210"),
+                new BigDecimal("1E+25"),
+                new BigDecimal("1E-30"),
+                new BigDecimal("113.24")
+        };
+
+        long[] amounts = {0, 1, 99, Integer.MAX_VALUE, Long.MAX_VALUE / 3, Long.MAX_VALUE, Long.MIN_VALUE};
+
+        for (BigDecimal multiplier : multipliers) {
+            for (long amount : amounts) {
+                assertConvertsLikeBigDecimal(ConversionRate.of(multiplier), multiplier, amount);
+            }
+        }
+    }
+
+    private BigDecimal randomRate() {
+        // rates like Fixer's, from a handful of significant figures up to ones with far more precision
+        long unscaled = this.random.nextLong() >> this.random.nextInt(64);
+        int scale = this.random.nextInt(24) - 4;
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    private long randomAmount() {
+        switch (this.random.nextInt(3)) {
+            case 0:
+                return this.random.nextInt(100000);
+            case 1:
+                return this.random.nextInt();
+            default:
+                return this.random.nextLong() >> this.random.nextInt(64);
+        }
+    }
+
+    private static void assertConvertsLikeBigDecimal(ConversionRate rate, BigDecimal multiplier, long amount) {
+        BigDecimal expected = BigDecimal.valueOf(amount).multiply(multiplier).setScale(2, BigDecimal.ROUND_HALF_UP);
+
+        // compare with equals rather than compareTo, the scale must match too
+        assertEquals(amount + " * " + multiplier, expected, rate.convert(amount));
+    }
+}
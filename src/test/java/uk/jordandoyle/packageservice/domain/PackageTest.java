@@ -0,0 +1,72 @@
+package uk.jordandoyle.packageservice.domain;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PackageTest {
+    private final ProductOrdinals ordinals = new ProductOrdinals();
+
+    private final Product a = new Product("a", "Product A", 100);
+
+    private final Product b = new Product("b", "Product B", 200);
+
+    private final Product c = new Product("c", "Product C", 300);
+
+    @Test
+    public void addingAProductTwiceOnlyCountsItOnce() {
+        Package p = new Package(this.ordinals, "p", null, Arrays.asList(this.b, this.a, this.b));
+
+        assertEquals(2, p.getProducts().size());
+        assertTrue(p.containsProduct(this.a));
+        assertFalse(p.containsProduct(this.c));
+        assertEquals(new BigDecimal("300.00"), p.getPrice("USD", ConversionRate.IDENTITY, 0).getPrice());
+    }
+
+    @Test
+    public void productsAreListedByIdWhateverTheirOrdinals() {
+        this.ordinals.of(this.c);
+        this.ordinals.of(this.b);
+        Package p = new Package(this.ordinals, "p", null, Arrays.asList(this.c, this.a, this.b));
+
+        assertEquals(Arrays.asList(this.a, this.b, this.c), p.getProducts());
+        assertEquals("a", p.getPrice("USD", ConversionRate.IDENTITY, 0).getProducts().get(0).getId());
+    }
+
+    @Test
+    public void changesBuildANewVersion() {
+        Package original = new Package(this.ordinals, "p", "description", Arrays.asList(this.a, this.b));
+        Package changed = original.with(null, "changed", Arrays.asList(this.c, this.b, this.c));
+
+        assertEquals(Collections.singletonList(this.a), original.getProductsNotIn(changed));
+        assertEquals(Collections.singletonList(this.c), changed.getProductsNotIn(original));
+        assertEquals(original.getVersion() + 1, changed.getVersion());
+        assertEquals("p", changed.getName());
+        assertEquals("changed", changed.getDescription());
+        assertEquals(2, changed.getProducts().size());
+        assertFalse(changed.containsProduct(this.a));
+        assertEquals(new BigDecimal("500.00"), changed.getPrice("USD", ConversionRate.IDENTITY, 0).getPrice());
+
+        // the original is left as it was
+        assertEquals("description", original.getDescription());
+        assertEquals(new BigDecimal("300.00"), original.getPrice("USD", ConversionRate.IDENTITY, 0).getPrice());
+    }
+
+    @Test
+    public void convertedPricesRoundHalfUp() {
+        Package p = new Package(this.ordinals, "p", null,
+                Arrays.asList(new Product("x", "X", 2), new Product("y", "Y", 10)));
+        PackagePrice price = p.getPrice("EUR", ConversionRate.of(new BigDecimal("1.0025")), 1);
+
+        // 2.005 and 10.025 sit exactly on a half with an even digit before it, so HALF_EVEN would round them down
+        assertEquals(new BigDecimal("2.01"), price.getProductPrice(0));
+        assertEquals(new BigDecimal("10.03"), price.getProductPrice(1));
+        assertEquals(new BigDecimal("12.03"), price.getPrice());
+    }
+}
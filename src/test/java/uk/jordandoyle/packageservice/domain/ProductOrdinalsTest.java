@@ -0,0 +1,86 @@
+package uk.jordandoyle.packageservice.domain;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ProductOrdinalsTest {
+    private final ProductOrdinals ordinals = new ProductOrdinals();
+
+    @Test
+    public void copiesOfAProductShareTheFirstInstance() {
+        Product first = new Product("a", "Product A", 100);
+        Product copy = new Product("a", "Product A", 100);
+        int ordinal = this.ordinals.of(first);
+
+        assertEquals(ordinal, this.ordinals.of(copy));
+        assertSame(first, this.ordinals.get(ordinal));
+
+        // changes are copied to the instance packages hold
+        this.ordinals.update(new Product("a", "Renamed", 150));
+        assertEquals("Renamed", first.getName());
+        assertEquals(150, first.getPrice());
+    }
+
+    @Test
+    public void catchesUpWithChangesMadeWhileRegistering() {
+        ProductOrdinals ordinals = new ProductOrdinals(id -> new Product(id, "Changed", 200));
+        Product stale = new Product("a", "Product A", 100);
+        ordinals.of(stale);
+
+        assertEquals(200, stale.getPrice());
+    }
+
+    @Test
+    public void reclaimsOrdinalsOnceProductsHaveBeenOutOfUseForAWhile() {
+        Product a = new Product("a", "Product A", 100);
+        Product b = new Product("b", "Product B", 200);
+        int ordinalOfA = this.ordinals.of(a);
+        this.ordinals.of(b);
+
+        // nothing is given back until a product has been unused for a whole interval
+        assertEquals(0, this.ordinals.reclaim("b"::equals));
+        assertEquals(1, this.ordinals.reclaim("b"::equals));
+        assertEquals(1, this.ordinals.size());
+        assertNull(this.ordinals.get(ordinalOfA));
+        assertEquals(-1, this.ordinals.find(a));
+
+        // and the ordinal is handed out again
+        Product c = new Product("c", "Product C", 300);
+        assertEquals(ordinalOfA, this.ordinals.of(c));
+        assertSame(c, this.ordinals.get(ordinalOfA));
+    }
+
+    @Test
+    public void productsBackInUseAreKept() {
+        Product a = new Product("a", "Product A", 100);
+        int ordinal = this.ordinals.of(a);
+
+        assertEquals(0, this.ordinals.reclaim(id -> false));
+        new Package(this.ordinals, "p", null, Collections.singletonList(a));
+        assertEquals(0, this.ordinals.reclaim("a"::equals));
+        assertEquals(0, this.ordinals.reclaim(id -> false));
+
+        assertSame(a, this.ordinals.get(ordinal));
+    }
+
+    @Test
+    public void productsOfPackagesBeingBuiltAreKept() {
+        Product a = new Product("a", "Product A", 100);
+        int ordinal = this.ordinals.of(a);
+        assertEquals(0, this.ordinals.reclaim(id -> false));
+
+        // a package is built with the product between the passes, but isn't stored anywhere yet
+        assertEquals(ordinal, this.ordinals.of(new Product("a", "Product A", 100)));
+        assertEquals(0, this.ordinals.reclaim(id -> false));
+        assertSame(a, this.ordinals.get(ordinal));
+
+        // once it's been out of use for a whole interval it goes
+        assertEquals(1, this.ordinals.reclaim(id -> false));
+        assertNull(this.ordinals.get(ordinal));
+    }
+}
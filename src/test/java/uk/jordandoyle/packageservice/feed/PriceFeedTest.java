@@ -0,0 +1,161 @@
+package uk.jordandoyle.packageservice.feed;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.buffer.BufferCounterService;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffers;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.domain.ExchangeRate;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.repository.ExchangeRateRepository;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+import uk.jordandoyle.packageservice.repository.ProductRepository;
+import uk.jordandoyle.packageservice.store.InMemoryPackageStore;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PriceFeedTest {
+    private static final UUID FIRST = new UUID(0, 1);
+
+    private static final UUID SECOND = new UUID(0, 2);
+
+    private final ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+
+    private final PackageRepository packageRepository = new PackageRepository();
+
+    private final ExchangeRateRepository exchangeRateRepository = new ExchangeRateRepository();
+
+    private final CounterBuffers counters = new CounterBuffers();
+
+    private final PriceFeed priceFeed = new PriceFeed(2, 1, false);
+
+    private final BlockingQueue<PriceChange> sent = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        ReflectionTestUtils.setField(this.packageRepository, "packageStore", new InMemoryPackageStore());
+        ReflectionTestUtils.setField(this.packageRepository, "productRepository", this.productRepository);
+        ReflectionTestUtils.setField(this.priceFeed, "packageRepository", this.packageRepository);
+        ReflectionTestUtils.setField(this.priceFeed, "exchangeRateRepository", this.exchangeRateRepository);
+        ReflectionTestUtils.setField(this.priceFeed, "counterService", new BufferCounterService(this.counters));
+
+        this.exchangeRateRepository.setCurrentExchangeRate(JacksonFactory.getDefaultInstance()
+                .fromString("{\"base\":\"USD\",\"rates\":{\"GBP\":0.5}}", ExchangeRate.class));
+        this.productRepository.addProducts(new Product[]{
+                new Product("a", "Product A", 100),
+                new Product("b", "Product B", 200)
+        });
+        this.packageRepository.addPackage(new Package(this.productRepository.getOrdinals(), FIRST, "First", null,
+                Collections.singletonList(this.productRepository.getProductById("a"))));
+        this.packageRepository.addPackage(new Package(this.productRepository.getOrdinals(), SECOND, "Second", null,
+                Arrays.asList(this.productRepository.getProductById("a"), this.productRepository.getProductById("b"))));
+    }
+
+    @After
+    public void tearDown() {
+        this.priceFeed.shutdown();
+    }
+
+    @Test
+    public void sendsCurrentPricesThenOnlyChanges() throws Exception {
+        this.priceFeed.subscribe(Arrays.asList(FIRST, SECOND), Arrays.asList("USD", "GBP"), this.sent::add);
+
+        assertPrices(this.take(FIRST), "100.00", "50.00");
+        assertPrices(this.take(SECOND), "300.00", "150.00");
+
+        // only the second package holds b, and the first package's prices don't move
+        this.changeProducts(new Product("b", "Product B", 400));
+        assertPrices(this.take(SECOND), "500.00", "250.00");
+
+        this.changeProducts(new Product("b", "Product B v2", 400));
+        this.priceFeed.onRatesChanged(this.exchangeRateRepository.getRateTable());
+        assertNull(this.sent.poll(100, TimeUnit.MILLISECONDS));
+
+        this.exchangeRateRepository.setCurrentExchangeRate(JacksonFactory.getDefaultInstance()
+                .fromString("{\"base\":\"USD\",\"rates\":{\"GBP\":0.25}}", ExchangeRate.class));
+        this.priceFeed.onRatesChanged(this.exchangeRateRepository.getRateTable());
+        assertPrices(this.take(FIRST), "100.00", "25.00");
+        assertPrices(this.take(SECOND), "500.00", "125.00");
+    }
+
+    @Test
+    public void coalescesChangesToAPackageWhileTheSubscriberIsBehind() throws Exception {
+        Subscription subscription = new Subscription(Collections.emptySet(), Collections.singletonList("USD"),
+                this.sent::add, 2);
+        int[] dropped = new int[1];
+
+        subscription.offer(FIRST, usd("100"), () -> dropped[0]++);
+        subscription.offer(SECOND, usd("300"), () -> dropped[0]++);
+        subscription.offer(FIRST, usd("150"), () -> dropped[0]++);
+        subscription.offer(FIRST, usd("200"), () -> dropped[0]++);
+        subscription.drain();
+
+        // the first package keeps its place in the queue but only its latest price is sent
+        assertEquals(usd("200"), this.take(FIRST).getPrices());
+        assertEquals(usd("300"), this.take(SECOND).getPrices());
+        assertEquals(0, dropped[0]);
+
+        subscription.offer(FIRST, usd("200"), () -> dropped[0]++);
+        subscription.drain();
+        assertTrue(this.sent.isEmpty());
+    }
+
+    @Test
+    public void fullBuffersDropTheOldestChange() throws Exception {
+        Subscription subscription = new Subscription(Collections.emptySet(), Collections.singletonList("USD"),
+                this.sent::add, 2);
+        UUID third = new UUID(0, 3);
+        int[] dropped = new int[1];
+
+        assertTrue(subscription.offer(FIRST, usd("100"), () -> dropped[0]++));
+        assertFalse(subscription.offer(SECOND, usd("300"), () -> dropped[0]++));
+        subscription.offer(third, usd("400"), () -> dropped[0]++);
+        subscription.drain();
+
+        assertEquals(1, dropped[0]);
+        this.take(SECOND);
+        this.take(third);
+
+        // the dropped package's next change is sent even though its price is the same as the one that was dropped
+        subscription.offer(FIRST, usd("100"), () -> dropped[0]++);
+        subscription.drain();
+        this.take(FIRST);
+    }
+
+    private static Map<String, BigDecimal> usd(String price) {
+        return Collections.singletonMap("USD", new BigDecimal(price));
+    }
+
+    private void changeProducts(Product... products) {
+        this.priceFeed.onProductsChanged(this.productRepository.addProducts(products));
+    }
+
+    private PriceChange take(UUID uuid) throws InterruptedException {
+        PriceChange change = this.sent.poll(10, TimeUnit.SECONDS);
+        assertEquals(uuid, change.getUuid());
+        return change;
+    }
+
+    private static void assertPrices(PriceChange change, String usd, String gbp) {
+        assertEquals(Arrays.asList("USD", "GBP"), Arrays.asList(change.getPrices().keySet().toArray()));
+        assertEquals(new BigDecimal(usd), change.getPrices().get("USD"));
+        assertEquals(new BigDecimal(gbp), change.getPrices().get("GBP"));
+    }
+}
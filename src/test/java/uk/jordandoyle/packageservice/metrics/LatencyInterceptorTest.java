@@ -0,0 +1,49 @@
+package uk.jordandoyle.packageservice.metrics;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.method.HandlerMethod;
+import uk.jordandoyle.packageservice.cluster.ClusterController;
+import uk.jordandoyle.packageservice.web.PackageController;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyInterceptorTest {
+    private final LatencyHistograms latencyHistograms = new LatencyHistograms(60000);
+
+    private final LatencyInterceptor interceptor = new LatencyInterceptor();
+
+    @Test
+    public void methodsWithTheSameNameAreRecordedSeparately() {
+        ReflectionTestUtils.setField(this.interceptor, "latencyHistograms", this.latencyHistograms);
+
+        this.handle(PackageController.class, "search");
+        this.handle(PackageController.class, "search");
+        this.handle(ClusterController.class, "search");
+
+        Map<String, Long> counts = this.latencyHistograms.snapshot().stream()
+                .collect(Collectors.toMap(LatencyHistograms.Snapshot::getValue, LatencyHistograms.Snapshot::getCount));
+        assertEquals(2L, (long) counts.get("PackageController.search"));
+        assertEquals(1L, (long) counts.get("ClusterController.search"));
+    }
+
+    private void handle(Class<?> controller, String name) {
+        Method method = Arrays.stream(controller.getMethods())
+                .filter(m -> m.getName().equals(name))
+                .findFirst()
+                .get();
+        HandlerMethod handler = new HandlerMethod(new Object(), method);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        this.interceptor.preHandle(request, response, handler);
+        this.interceptor.afterCompletion(request, response, handler, null);
+    }
+}
@@ -0,0 +1,222 @@
+package uk.jordandoyle.packageservice.replication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.feed.PriceFeed;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+import uk.jordandoyle.packageservice.repository.ProductRepository;
+import uk.jordandoyle.packageservice.store.InMemoryPackageStore;
+import uk.jordandoyle.packageservice.store.PackageStore;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a primary and replicas in the same JVM, talking over loopback, and checks replicas end up holding exactly
+ * what the primary holds.
+ */
+public class ReplicationTest {
+    /**
+     * Changes held by the primary's log, kept small so replicas can easily fall out of it
+     */
+    private static final int LOG_SIZE = 100;
+
+    private static final Product[] PRODUCTS = {
+            new Product("p1", "Product 1", 100),
+            new Product("p2", "Product 2", 250),
+            new Product("p3", "Product 3", 1000)
+    };
+
+    private final ReplicationLog log = new ReplicationLog(LOG_SIZE);
+
+    private final PriceFeed priceFeed = new PriceFeed(16, 1, false);
+
+    private final ProductRepository primaryProducts = products();
+
+    private final List<ReplicationClient> replicas = new ArrayList<>();
+
+    private PackageRepository primary;
+
+    private ReplicationServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.primary = repository(new ReplicatingPackageStore(new InMemoryPackageStore(), this.log),
+                this.primaryProducts);
+        this.server = new ReplicationServer(0, this.log, this.primary, 50);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (ReplicationClient replica : this.replicas) {
+            replica.close();
+        }
+
+        this.server.close();
+        this.priceFeed.shutdown();
+    }
+
+    @Test
+    public void replicaCatchesUpFromSnapshotThenFollowsChanges() throws Exception {
+        List<UUID> uuids = new ArrayList<>();
+
+        for (int i = 0; i < 50; i++) {
+            uuids.add(this.primary.addPackage(this.newPackage(i)).getUuid());
+        }
+
+        PackageRepository replica = repository(new InMemoryPackageStore(), products());
+        ReplicationClient client = this.startReplica(replica);
+        awaitSameAs(this.primary, replica);
+
+        for (int i = 0; i < 10; i++) {
+            int n = i;
+            this.primary.updatePackage(uuids.get(i), version -> true,
+                    p -> p.with("Renamed " + n, null, this.products("p3")));
+            this.primary.deletePackage(uuids.get(10 + i));
+            this.primary.addPackage(this.newPackage(100 + i));
+        }
+
+        awaitSameAs(this.primary, replica);
+        awaitCaughtUp(client);
+        assertEquals(1000, replica.getPackage(uuids.get(0)).getTotalPrice());
+        assertFalse(replica.hasPackage(uuids.get(10)));
+    }
+
+    @Test
+    public void replicaTooFarBehindCatchesUpFromSnapshot() throws Exception {
+        List<UUID> uuids = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            uuids.add(this.primary.addPackage(this.newPackage(i)).getUuid());
+        }
+
+        PackageRepository replica = repository(new InMemoryPackageStore(), products());
+        ReplicationClient client = this.startReplica(replica);
+        awaitSameAs(this.primary, replica);
+        awaitCaughtUp(client);
+
+        // cut the replica off while the primary makes more changes than its log holds
+        int port = this.server.getPort();
+        this.server.close();
+
+        for (UUID uuid : uuids) {
+            this.primary.deletePackage(uuid);
+        }
+
+        for (int i = 0; i < LOG_SIZE * 2; i++) {
+            this.primary.addPackage(this.newPackage(100 + i));
+        }
+
+        assertFalse(this.log.canResume(client.getSequence()));
+
+        this.server = new ReplicationServer(port, this.log, this.primary, 50);
+        awaitSameAs(this.primary, replica);
+        awaitCaughtUp(client);
+        assertFalse(replica.hasPackage(uuids.get(0)));
+    }
+
+    @Test
+    public void logOnlyResumesFromChangesItStillHolds() throws Exception {
+        for (int i = 0; i < LOG_SIZE + 10; i++) {
+            this.log.append(new byte[0]);
+        }
+
+        assertFalse(this.log.canResume(ReplicationProtocol.NO_POSITION));
+        assertFalse(this.log.canResume(9));
+        assertTrue(this.log.canResume(10));
+        assertTrue(this.log.canResume(LOG_SIZE + 10));
+        assertFalse(this.log.canResume(LOG_SIZE + 11));
+        assertEquals(LOG_SIZE, this.log.read(10, Integer.MAX_VALUE, 0).getRecords().size());
+        assertNull(this.log.read(9, Integer.MAX_VALUE, 0));
+
+        // sequence numbers from another run of the primary mean nothing to us
+        assertTrue(this.log.getId() != new ReplicationLog(LOG_SIZE).getId());
+    }
+
+    private ReplicationClient startReplica(PackageRepository replica) {
+        ReplicationClient client = new ReplicationClient(new InetSocketAddress("localhost", this.server.getPort()),
+                replica, this.priceFeed, 1000, 20);
+        this.replicas.add(client);
+        client.start();
+
+        return client;
+    }
+
+    private Package newPackage(int i) {
+        return new Package(this.primaryProducts.getOrdinals(), "Package " + i, "Package number " + i,
+                this.products("p1", "p" + (1 + i % 3)));
+    }
+
+    private List<Product> products(String... ids) {
+        return new ArrayList<>(this.primaryProducts.getProductsById(Arrays.asList(ids)).values());
+    }
+
+    private static ProductRepository products() {
+        ProductRepository products = new ProductRepository(new HeapProductCatalogue());
+        products.addProducts(PRODUCTS);
+
+        return products;
+    }
+
+    private static PackageRepository repository(PackageStore store, ProductRepository products) throws IOException {
+        PackageRepository repository = new PackageRepository();
+        ReflectionTestUtils.setField(repository, "packageStore", store);
+        ReflectionTestUtils.setField(repository, "productRepository", products);
+        repository.recover();
+
+        return repository;
+    }
+
+    private static void awaitSameAs(PackageRepository expected, PackageRepository actual) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (!describe(expected).equals(describe(actual)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    private static void awaitCaughtUp(ReplicationClient client) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (client.getLagChanges() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(client.isConnected());
+        assertEquals(0, client.getLagChanges());
+        assertEquals(0, client.getLagMillis());
+    }
+
+    /**
+     * Everything about each package that's replicated, keyed by uuid.
+     */
+    private static Map<UUID, String> describe(PackageRepository repository) {
+        Map<UUID, String> packages = new TreeMap<>();
+
+        for (Package p : repository.getPackages()) {
+            packages.put(p.getUuid(), p.getVersion() + " " + p.getName() + " " + p.getDescription() + " "
+                    + p.getProducts().stream().map(Product::getId).collect(Collectors.toList()));
+        }
+
+        return packages;
+    }
+}
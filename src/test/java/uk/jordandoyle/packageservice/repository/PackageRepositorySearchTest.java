@@ -0,0 +1,147 @@
+package uk.jordandoyle.packageservice.repository;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.store.InMemoryPackageStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks searches return exactly what filtering every package by hand would, including after packages and product
+ * prices have changed underneath the indexes.
+ */
+public class PackageRepositorySearchTest {
+    private static final String[] WORDS = {"gold", "golden", "silver", "bronze", "box", "bundle", "pack"};
+
+    private static final int PRODUCTS = 20;
+
+    private final ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+
+    private final PackageRepository packageRepository = new PackageRepository();
+
+    private final Random random = new Random(0x5eed);
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(this.packageRepository, "packageStore", new InMemoryPackageStore());
+        ReflectionTestUtils.setField(this.packageRepository, "productRepository", this.productRepository);
+
+        Product[] products = new Product[PRODUCTS];
+
+        for (int i = 0; i < PRODUCTS; i++) {
+            products[i] = new Product("p" + i, "Product " + i, 100 * (i + 1));
+        }
+
+        this.productRepository.addProducts(products);
+
+        for (int i = 0; i < 2000; i++) {
+            this.packageRepository.addPackage(new Package(this.productRepository.getOrdinals(),
+                    new UUID(this.random.nextLong(), i), this.randomName(), null, this.randomProducts()));
+        }
+    }
+
+    @Test
+    public void matchesEveryPackageThatWouldBeFoundByHand() {
+        this.assertRandomSearchesMatch();
+    }
+
+    @Test
+    public void indexesFollowChanges() {
+        List<Package> packages = new ArrayList<>(this.packageRepository.getPackages());
+
+        for (int i = 0; i < 500; i++) {
+            Package p = packages.get(this.random.nextInt(packages.size()));
+
+            if (i % 5 == 0) {
+                this.packageRepository.deletePackage(p.getUuid());
+            } else {
+                this.packageRepository.updatePackage(p.getUuid(), version -> true,
+                        current -> current.with(this.randomName(), null, this.randomProducts()));
+            }
+        }
+
+        // reprice a few products so the packages holding them move in the price index
+        ProductChangeSet changes = this.productRepository.addProducts(new Product[]{
+                new Product("p0", "Product 0", 5000),
+                new Product("p7", "Product 7", 1)
+        });
+        this.packageRepository.onProductsChanged(changes);
+
+        this.assertRandomSearchesMatch();
+    }
+
+    @Test
+    public void pagesFollowTheCursor() {
+        PackageQuery query = new PackageQuery("gold", null, null, null);
+        List<Package> expected = this.byHand(query);
+        List<Package> paged = new ArrayList<>();
+        UUID cursor = null;
+
+        while (true) {
+            List<Package> page = this.packageRepository.search(query, cursor, 7);
+            paged.addAll(page);
+
+            if (page.size() < 7) {
+                break;
+            }
+
+            cursor = page.get(page.size() - 1).getUuid();
+        }
+
+        assertEquals(expected, paged);
+    }
+
+    @Test
+    public void unknownProductsMatchNothing() {
+        assertEquals(Collections.emptyList(), this.packageRepository.search(
+                new PackageQuery(null, Collections.singletonList("missing"), null, null), null, 10));
+    }
+
+    private void assertRandomSearchesMatch() {
+        for (int i = 0; i < 200; i++) {
+            String name = this.random.nextBoolean() ? null
+                    : WORDS[this.random.nextInt(WORDS.length)].substring(0, 1 + this.random.nextInt(3));
+            List<String> products = this.random.nextBoolean() ? null
+                    : Collections.singletonList("p" + this.random.nextInt(PRODUCTS));
+            Long minPrice = this.random.nextBoolean() ? null : (long) this.random.nextInt(3000);
+            Long maxPrice = this.random.nextBoolean() ? null : (long) this.random.nextInt(6000);
+            PackageQuery query = new PackageQuery(name, products, minPrice, maxPrice);
+
+            assertEquals(name + " " + products + " " + minPrice + "-" + maxPrice, this.byHand(query),
+                    this.packageRepository.search(query, null, Integer.MAX_VALUE));
+        }
+    }
+
+    private List<Package> byHand(PackageQuery query) {
+        return this.packageRepository.streamPackages(null)
+                .filter(p -> query.matchesName(p.getName()) && query.matchesPrice(p.getTotalPrice()))
+                .filter(p -> query.getProductIds().stream()
+                        .allMatch(id -> p.containsProduct(this.productRepository.getProductById(id))))
+                .collect(Collectors.toList());
+    }
+
+    private String randomName() {
+        return WORDS[this.random.nextInt(WORDS.length)] + " " + WORDS[this.random.nextInt(WORDS.length)];
+    }
+
+    private List<Product> randomProducts() {
+        List<Product> products = new ArrayList<>();
+
+        for (int i = 0; i < 1 + this.random.nextInt(4); i++) {
+            products.add(this.productRepository.getProductById("p" + this.random.nextInt(PRODUCTS)));
+        }
+
+        return products;
+    }
+}
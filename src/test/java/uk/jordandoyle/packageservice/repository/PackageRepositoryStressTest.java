@@ -0,0 +1,209 @@
+package uk.jordandoyle.packageservice.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.domain.ConversionRate;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.store.InMemoryPackageStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hammers a single package with changes from several threads while others read it, checking readers only ever see
+ * whole packages and no change is ever lost.
+ *
+ * Every change moves the package on to the next step {@code n}: the name and description are both set to {@code n}
+ * and the package contains product {@code i} if bit {@code i} of {@code n} is set, with product {@code i} costing
+ * {@code 2^i}. A reader that sees a package at a mix of two steps sees a name, description, products or price that
+ * disagree with each other.
+ */
+public class PackageRepositoryStressTest {
+    private static final int PRODUCTS = 8;
+
+    private static final int WRITERS = 4;
+
+    private static final int READERS = 4;
+
+    private static final int CHANGES_PER_WRITER = 5000;
+
+    private final ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+
+    private final PackageRepository packageRepository = new PackageRepository();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS + 1);
+
+    private UUID uuid;
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(this.packageRepository, "packageStore", new InMemoryPackageStore());
+        ReflectionTestUtils.setField(this.packageRepository, "productRepository", this.productRepository);
+
+        Product[] products = new Product[PRODUCTS];
+
+        for (int i = 0; i < PRODUCTS; i++) {
+            products[i] = new Product("p" + i, "Product " + i, 1 << i);
+        }
+
+        this.productRepository.addProducts(products);
+        this.uuid = this.packageRepository.addPackage(new Package(this.productRepository.getOrdinals(), "0", "0",
+                this.productsAt(0))).getUuid();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void readersNeverSeeTornPackages() throws Exception {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<>();
+        List<Future<Long>> readers = new ArrayList<>();
+
+        for (int i = 0; i < READERS; i++) {
+            readers.add(this.executor.submit(() -> this.read(writing)));
+        }
+
+        // refresh prices as fast as we can, racing every refresh against the writers
+        Future<?> refresher = this.executor.submit(() -> {
+            while (writing.get()) {
+                ProductChangeSet changes = new ProductChangeSet(PRODUCTS);
+
+                for (int i = 0; i < PRODUCTS; i++) {
+                    changes.changed(this.productRepository.getProductById("p" + i));
+                }
+
+                this.packageRepository.onProductsChanged(changes);
+            }
+        });
+
+        for (int i = 0; i < WRITERS; i++) {
+            writers.add(this.executor.submit(() -> {
+                for (int j = 0; j < CHANGES_PER_WRITER; j++) {
+                    this.packageRepository.updatePackage(this.uuid, version -> true, this::next);
+                }
+            }));
+        }
+
+        for (Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+
+        writing.set(false);
+        refresher.get(60, TimeUnit.SECONDS);
+
+        for (Future<Long> reader : readers) {
+            assertTrue("reader didn't see any packages", reader.get(60, TimeUnit.SECONDS) > 0);
+        }
+
+        Package p = this.packageRepository.getPackage(this.uuid);
+        assertConsistent(p);
+        assertEquals(String.valueOf(WRITERS * CHANGES_PER_WRITER), p.getName());
+        assertEquals(WRITERS * CHANGES_PER_WRITER + 1, p.getVersion());
+    }
+
+    @Test
+    public void conditionalChangesAreNeverLost() throws Exception {
+        List<Future<?>> writers = new ArrayList<>();
+
+        for (int i = 0; i < WRITERS; i++) {
+            writers.add(this.executor.submit(() -> {
+                for (int j = 0; j < CHANGES_PER_WRITER; j++) {
+                    // read, change and write back only if nobody else has written in between, like a client would
+                    while (true) {
+                        Package seen = this.packageRepository.getPackage(this.uuid);
+
+                        try {
+                            this.packageRepository.updatePackage(this.uuid, v -> v == seen.getVersion(),
+                                    current -> this.next(seen));
+                            break;
+                        } catch (VersionConflictException e) {
+                            assertTrue(e.getCurrent().getVersion() > seen.getVersion());
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+
+        Package p = this.packageRepository.getPackage(this.uuid);
+        assertConsistent(p);
+        assertEquals(String.valueOf(WRITERS * CHANGES_PER_WRITER), p.getName());
+        assertEquals(WRITERS * CHANGES_PER_WRITER + 1, p.getVersion());
+    }
+
+    /**
+     * Keep reading the package while the writers are running.
+     *
+     * @return number of copies of the package read
+     */
+    private long read(AtomicBoolean writing) {
+        long reads = 0;
+        long lastVersion = 0;
+
+        while (writing.get()) {
+            Package p = this.packageRepository.getPackage(this.uuid);
+            assertConsistent(p);
+
+            // versions only ever move forwards
+            assertTrue(p.getVersion() >= lastVersion);
+            lastVersion = p.getVersion();
+            reads++;
+        }
+
+        return reads;
+    }
+
+    /**
+     * Build the next step of a package.
+     */
+    private Package next(Package p) {
+        String step = String.valueOf(Long.parseLong(p.getName()) + 1);
+        return p.with(step, step, this.productsAt(Long.parseLong(step)));
+    }
+
+    private List<Product> productsAt(long step) {
+        List<Product> products = new ArrayList<>();
+
+        for (int i = 0; i < PRODUCTS; i++) {
+            if ((step & (1L << i)) != 0) {
+                products.add(this.productRepository.getProductById("p" + i));
+            }
+        }
+
+        return products;
+    }
+
+    private static void assertConsistent(Package p) {
+        long step = Long.parseLong(p.getName());
+        long bits = step & ((1L << PRODUCTS) - 1);
+
+        assertEquals(p.getName(), p.getDescription());
+        assertEquals(step + 1, p.getVersion());
+        assertEquals(Long.bitCount(bits), p.getProducts().size());
+
+        for (Product product : p.getProducts()) {
+            assertTrue((bits & product.getPrice()) != 0);
+        }
+
+        assertEquals(bits, p.getPrice("USD", ConversionRate.IDENTITY, 0).getPrice().longValueExact());
+    }
+}
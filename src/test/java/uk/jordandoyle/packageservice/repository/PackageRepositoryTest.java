@@ -0,0 +1,155 @@
+package uk.jordandoyle.packageservice.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.store.InMemoryPackageStore;
+import uk.jordandoyle.packageservice.store.PackageCodec;
+import uk.jordandoyle.packageservice.store.StoredPackage;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PackageRepositoryTest {
+    private static final UUID PACKAGE = new UUID(0, 1);
+
+    private final ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+
+    private final PackageRepository packageRepository = new PackageRepository();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final PausingMap packages = new PausingMap();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(this.packageRepository, "packageStore", new InMemoryPackageStore());
+        ReflectionTestUtils.setField(this.packageRepository, "productRepository", this.productRepository);
+        ReflectionTestUtils.setField(this.packageRepository, "packages", this.packages);
+
+        this.productRepository.addProducts(new Product[]{new Product("a", "Product A", 100)});
+        this.packageRepository.addPackage(new Package(this.productRepository.getOrdinals(), PACKAGE, "Original", null,
+                Collections.singletonList(this.productRepository.getProductById("a"))));
+    }
+
+    @After
+    public void tearDown() {
+        this.packages.resume.countDown();
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void refreshesNeverUndoAChangeMadeWhileTheyWereRunning() throws Exception {
+        ProductChangeSet changes = this.productRepository.addProducts(new Product[]{
+                new Product("a", "Product A", 150)
+        });
+
+        // the refresh reads the package, then waits for us before it swaps in its refreshed copy
+        Future<?> refresh = this.executor.submit(() -> {
+            this.packages.pause = Thread.currentThread();
+            this.packageRepository.onProductsChanged(changes);
+        });
+        assertTrue(this.packages.paused.await(10, TimeUnit.SECONDS));
+
+        this.packageRepository.updatePackage(PACKAGE, version -> true,
+                current -> current.with("Renamed", null, null));
+        this.packages.resume.countDown();
+        refresh.get(10, TimeUnit.SECONDS);
+
+        Package p = this.packageRepository.getPackage(PACKAGE);
+        assertEquals("Renamed", p.getName());
+        assertEquals(2, p.getVersion());
+        assertEquals(150, p.getTotalPrice());
+    }
+
+    @Test
+    public void handoversNeverUndoNewerLocalChanges() throws IOException {
+        this.packageRepository.updatePackage(PACKAGE, version -> true,
+                current -> current.with("Renamed", null, null));
+
+        // the old owner read its copy before the rename was forwarded to us
+        this.packageRepository.adoptPackages(this.handedOver("Handed over", 2));
+        assertEquals("Renamed", this.packageRepository.getPackage(PACKAGE).getName());
+
+        this.packageRepository.adoptPackages(this.handedOver("Handed over", 3));
+        Package p = this.packageRepository.getPackage(PACKAGE);
+        assertEquals("Handed over", p.getName());
+        assertEquals(3, p.getVersion());
+    }
+
+    @Test
+    public void localWritesRacingAHandoverAreBuiltOnTheAdoptedCopy() throws Exception {
+        // the write reads our copy, then waits for us before it builds its change
+        Future<Package> write = this.executor.submit(() -> {
+            this.packages.pause = Thread.currentThread();
+            return this.packageRepository.updatePackage(PACKAGE, version -> true,
+                    current -> current.with(null, "Described", null));
+        });
+        assertTrue(this.packages.paused.await(10, TimeUnit.SECONDS));
+
+        this.packageRepository.adoptPackages(this.handedOver("Handed over", 5));
+        this.packages.resume.countDown();
+
+        Package p = write.get(10, TimeUnit.SECONDS);
+        assertEquals("Handed over", p.getName());
+        assertEquals("Described", p.getDescription());
+        assertEquals(6, p.getVersion());
+        assertEquals(p, this.packageRepository.getPackage(PACKAGE));
+    }
+
+    /**
+     * Build a copy of our package as another node would hand it over to us.
+     */
+    private List<StoredPackage> handedOver(String name, long version) throws IOException {
+        Package p = new Package(this.productRepository.getOrdinals(), PACKAGE, name, null,
+                Collections.singletonList(this.productRepository.getProductById("a")), version);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(PackageCodec.encodeSave(p)));
+
+        return Collections.singletonList(PackageCodec.readSave(in, in.readByte()));
+    }
+
+    /**
+     * Map that holds up the first read made by a chosen thread until it's told to carry on.
+     */
+    private static final class PausingMap extends ConcurrentHashMap<UUID, Package> {
+        private final CountDownLatch paused = new CountDownLatch(1);
+
+        private final CountDownLatch resume = new CountDownLatch(1);
+
+        private volatile Thread pause;
+
+        @Override
+        public Package get(Object key) {
+            Package p = super.get(key);
+
+            if (Thread.currentThread() == this.pause && this.paused.getCount() > 0) {
+                this.paused.countDown();
+
+                try {
+                    this.resume.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return p;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package uk.jordandoyle.packageservice.repository;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PackageSearchIndexTest {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Counted down once the package sharing the word has been added
+     */
+    private final CountDownLatch added = new CountDownLatch(1);
+
+    /**
+     * Counted down once the renamed package has emptied the word's set
+     */
+    private final CountDownLatch emptied = new CountDownLatch(1);
+
+    private volatile Thread pause;
+
+    private final PackageSearchIndex index = new PackageSearchIndex(PausingSet::new);
+
+    @After
+    public void tearDown() {
+        this.added.countDown();
+        this.emptied.countDown();
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void packagesSharingAWordAreNeverLostFromIt() throws Exception {
+        UUID renamed = new UUID(0, 1);
+        UUID sharing = new UUID(0, 2);
+        this.index.updateName(renamed, null, "Gold");
+
+        // the rename leaves the word without any packages, then waits a while for the other package to be added
+        Future<?> renaming = this.executor.submit(() -> {
+            this.pause = Thread.currentThread();
+            this.index.updateName(renamed, "Gold", "Silver");
+        });
+        assertTrue(this.emptied.await(10, TimeUnit.SECONDS));
+
+        this.index.updateName(sharing, null, "Gold box");
+        this.added.countDown();
+        renaming.get(10, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singleton(sharing), this.index.getNamePrefix("gold"));
+        assertEquals(Collections.singleton(renamed), this.index.getNamePrefix("silver"));
+    }
+
+    /**
+     * Set that holds up the renaming thread when it finds the set has been emptied, until the other package has been
+     * added or, if adding it has to wait for the rename, a short while has passed.
+     */
+    private final class PausingSet extends AbstractSet<UUID> {
+        private final Set<UUID> uuids = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public boolean add(UUID uuid) {
+            return this.uuids.add(uuid);
+        }
+
+        @Override
+        public boolean remove(Object uuid) {
+            return this.uuids.remove(uuid);
+        }
+
+        @Override
+        public Iterator<UUID> iterator() {
+            return this.uuids.iterator();
+        }
+
+        @Override
+        public int size() {
+            return this.uuids.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            boolean empty = this.uuids.isEmpty();
+
+            if (empty && Thread.currentThread() == PackageSearchIndexTest.this.pause) {
+                PackageSearchIndexTest.this.emptied.countDown();
+
+                try {
+                    PackageSearchIndexTest.this.added.await(500, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return empty;
+        }
+    }
+}
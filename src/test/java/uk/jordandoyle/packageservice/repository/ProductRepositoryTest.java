@@ -0,0 +1,116 @@
+package uk.jordandoyle.packageservice.repository;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.catalogue.MappedProductCatalogue;
+import uk.jordandoyle.packageservice.domain.ConversionRate;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.store.InMemoryPackageStore;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProductRepositoryTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+
+    private final PackageRepository packageRepository = new PackageRepository();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(this.packageRepository, "packageStore", new InMemoryPackageStore());
+    }
+
+    @Test
+    public void changeSetCountsAddedChangedAndRemovedProducts() {
+        this.productRepository.addProducts(new Product[]{
+                new Product("a", "Product A", 100),
+                new Product("b", "Product B", 200),
+                new Product("c", "Product C", 300)
+        });
+
+        ProductChangeSet changes = this.productRepository.addProducts(new Product[]{
+                new Product("a", "Product A", 100),
+                new Product("b", "Product B", 250),
+                new Product("d", "Product D", 400)
+        });
+
+        assertEquals(1, changes.getAdded());
+        assertEquals(1, changes.getChanged());
+        assertEquals(1, changes.getRemoved());
+        assertTrue(changes.getChangedIds().contains("b"));
+    }
+
+    @Test
+    public void changedProductsAreUpdatedInPlace() {
+        Product original = new Product("a", "Product A", 100);
+        this.productRepository.addProducts(new Product[]{original});
+        this.productRepository.addProducts(new Product[]{new Product("a", "Renamed", 150)});
+
+        assertSame(original, this.productRepository.getProductById("a"));
+        assertEquals("Renamed", original.getName());
+        assertEquals(150, original.getPrice());
+    }
+
+    @Test
+    public void packagesKeepUpWithProductsDecodedFromFiles() throws IOException {
+        try (MappedProductCatalogue catalogue = new MappedProductCatalogue(this.folder.getRoot().toPath())) {
+            ProductRepository productRepository = new ProductRepository(catalogue);
+            productRepository.addProducts(new Product[]{new Product("a", "Product A", 100)});
+
+            // every lookup decodes a new copy, but the package holds on to the first one it was given
+            Package p = new Package(productRepository.getOrdinals(), "p", null,
+                    Collections.singletonList(productRepository.getProductById("a")));
+            new Package(productRepository.getOrdinals(), "q", null,
+                    Collections.singletonList(productRepository.getProductById("a")));
+            productRepository.addProducts(new Product[]{new Product("a", "Renamed", 150)});
+
+            assertEquals("Renamed", p.getProducts().get(0).getName());
+            assertFalse(p.isPriceCurrent());
+            assertEquals(150, p.refreshed().getTotalPrice());
+        }
+    }
+
+    @Test
+    public void onlyPackagesContainingChangedProductsAreRefreshed() {
+        this.productRepository.addProducts(new Product[]{
+                new Product("a", "Product A", 100),
+                new Product("b", "Product B", 200)
+        });
+
+        Package withA = this.createPackage("a");
+        Package withB = this.createPackage("b");
+        long withBVersion = withB.getVersion();
+
+        assertEquals(new BigDecimal("100.00"), withA.getPrice("USD", ConversionRate.IDENTITY, 0).getPrice());
+
+        this.packageRepository.onProductsChanged(this.productRepository.addProducts(new Product[]{
+                new Product("a", "Product A", 120),
+                new Product("b", "Product B", 200)
+        }));
+
+        Package refreshedA = this.packageRepository.getPackage(withA.getUuid());
+        assertEquals(new BigDecimal("120.00"), refreshedA.getPrice("USD", ConversionRate.IDENTITY, 0).getPrice());
+        assertEquals(withA.getVersion(), refreshedA.getVersion());
+        assertSame(withB, this.packageRepository.getPackage(withB.getUuid()));
+        assertEquals(withBVersion, withB.getVersion());
+    }
+
+    private Package createPackage(String productId) {
+        return this.packageRepository.addPackage(new Package(this.productRepository.getOrdinals(), productId, productId,
+                Collections.singletonList(this.productRepository.getProductById(productId))));
+    }
+}
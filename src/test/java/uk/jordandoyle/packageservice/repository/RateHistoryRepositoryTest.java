@@ -0,0 +1,71 @@
+package uk.jordandoyle.packageservice.repository;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.jordandoyle.packageservice.domain.ExchangeRate;
+import uk.jordandoyle.packageservice.domain.RateTable;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class RateHistoryRepositoryTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void looksUpRatesByDay() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("rates/history.dat");
+        RateHistoryRepository history = new RateHistoryRepository(file);
+
+        history.record(rates("2017-06-02", "\"GBP\":0.78,\"EUR\":0.89"));
+        history.record(rates("2017-06-05", "\"GBP\":0.77"));
+        // recorded out of order, before the first day we had
+        history.record(rates("2017-06-01", "\"GBP\":0.79,\"EUR\":0.9"));
+
+        assertNull(history.getRateTable(LocalDate.parse("2017-05-31")));
+        assertEquals(new BigDecimal("0.79"), rate(history, "2017-06-01", "GBP"));
+        assertEquals(new BigDecimal("0.89"), rate(history, "2017-06-02", "EUR"));
+
+        // the weekend carries Friday's rates forward
+        assertEquals(new BigDecimal("0.78"), rate(history, "2017-06-04", "GBP"));
+        assertEquals(new BigDecimal("0.89"), rate(history, "2017-06-04", "EUR"));
+
+        // but a day we were given rates for only has the currencies we were given
+        assertEquals(new BigDecimal("0.77"), rate(history, "2017-06-05", "GBP"));
+        assertFalse(history.getRateTable(LocalDate.parse("2017-06-05")).hasRate("EUR"));
+
+        // days after the last we have use the latest rates
+        assertEquals(new BigDecimal("0.77"), rate(history, "2017-07-01", "GBP"));
+
+        // everything survives being read back from disk
+        RateHistoryRepository reloaded = new RateHistoryRepository(file);
+        assertEquals(new BigDecimal("0.79"), rate(reloaded, "2017-06-01", "GBP"));
+        assertEquals(new BigDecimal("0.89"), rate(reloaded, "2017-06-03", "EUR"));
+        assertEquals("USD", reloaded.getRateTable(LocalDate.parse("2017-06-03")).getBase());
+    }
+
+    @Test
+    public void emptyHistoryHasNoRates() {
+        RateHistoryRepository history = new RateHistoryRepository(this.folder.getRoot().toPath().resolve("none.dat"));
+
+        assertNull(history.getRateTable(LocalDate.parse("2017-06-01")));
+    }
+
+    private static BigDecimal rate(RateHistoryRepository history, String date, String currency) {
+        RateTable table = history.getRateTable(LocalDate.parse(date));
+        return table.getRates().get(currency);
+    }
+
+    private static ExchangeRate rates(String date, String rates) throws IOException {
+        return JacksonFactory.getDefaultInstance().fromString(
+                "{\"base\":\"USD\",\"date\":\"" + date + "\",\"rates\":{" + rates + "}}", ExchangeRate.class);
+    }
+}
@@ -0,0 +1,108 @@
+package uk.jordandoyle.packageservice.service;
+
+import com.google.api.client.util.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.domain.ExchangeRate;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.repository.ExchangeRateRepository;
+import uk.jordandoyle.packageservice.repository.ProductRepository;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DownstreamSnapshotsTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoresLastKnownGoodData() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        List<Product> products = new ArrayList<>();
+
+        for (int i = 0; i < 2500; i++) {
+            products.add(new Product("p" + i, i % 2 == 0 ? "Product " + i : null, i));
+        }
+
+        DownstreamSnapshots snapshots = new DownstreamSnapshots(directory);
+        snapshots.saveProducts(products);
+        snapshots.saveExchangeRate(new ExchangeRate("USD", new DateTime("2017-06-01"),
+                Collections.singletonMap("GBP", new BigDecimal("0.78123"))));
+
+        ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+        ExchangeRateRepository exchangeRateRepository = new ExchangeRateRepository();
+        SyncStatus syncStatus = new SyncStatus();
+        assertFalse(syncStatus.isReady());
+
+        restore(directory, productRepository, exchangeRateRepository, syncStatus);
+
+        assertTrue(syncStatus.isReady());
+        assertEquals(SyncStatus.Source.SNAPSHOT, syncStatus.getStatus(SyncStatus.Feed.PRODUCTS).getSource());
+        assertEquals(2500, productRepository.size());
+        assertEquals("Product 10", productRepository.getProductById("p10").getName());
+        assertNull(productRepository.getProductById("p11").getName());
+        assertEquals(2499, productRepository.getPrice("p2499"));
+        assertEquals(new BigDecimal("0.78123"), exchangeRateRepository.getRates().get("GBP"));
+        assertEquals("USD", exchangeRateRepository.getBase());
+    }
+
+    @Test
+    public void fillsInProductsAfterPackagesHaveBeenRecovered() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        new DownstreamSnapshots(directory).saveProducts(Arrays.asList(new Product("a", "A", 100),
+                new Product("b", "B", 200), new Product("c", "C", 300)));
+
+        // recovering our packages puts their products into the catalogue first
+        ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+        productRepository.restoreProduct(new Product("a", "A", 90));
+        SyncStatus syncStatus = new SyncStatus();
+        restore(directory, productRepository, new ExchangeRateRepository(), syncStatus);
+
+        assertEquals(3, productRepository.size());
+        assertEquals(200, productRepository.getPrice("b"));
+        // the package's copy is kept so it still matches the package's total
+        assertEquals(90, productRepository.getPrice("a"));
+        assertEquals(SyncStatus.Source.SNAPSHOT, syncStatus.getStatus(SyncStatus.Feed.PRODUCTS).getSource());
+    }
+
+    @Test
+    public void ignoresCorruptSnapshots() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        new DownstreamSnapshots(directory).saveProducts(Collections.singletonList(new Product("a", "A", 1)));
+
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("products.snapshot").toFile(), "rw")) {
+            file.seek(file.length() - 12);
+            file.write(0xff);
+        }
+
+        ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+        SyncStatus syncStatus = new SyncStatus();
+        restore(directory, productRepository, new ExchangeRateRepository(), syncStatus);
+
+        assertEquals(0, productRepository.size());
+        assertEquals(SyncStatus.Source.NONE, syncStatus.getStatus(SyncStatus.Feed.PRODUCTS).getSource());
+    }
+
+    private static void restore(Path directory, ProductRepository productRepository,
+                                ExchangeRateRepository exchangeRateRepository, SyncStatus syncStatus) {
+        DownstreamSnapshots snapshots = new DownstreamSnapshots(directory);
+        ReflectionTestUtils.setField(snapshots, "productRepository", productRepository);
+        ReflectionTestUtils.setField(snapshots, "exchangeRateRepository", exchangeRateRepository);
+        ReflectionTestUtils.setField(snapshots, "syncStatus", syncStatus);
+        snapshots.restore();
+    }
+}
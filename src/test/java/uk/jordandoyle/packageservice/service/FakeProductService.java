@@ -0,0 +1,135 @@
+package uk.jordandoyle.packageservice.service;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the downstream Product Service. The catalogue is generated as it's written to the response so
+ * arbitrarily large catalogues can be served without holding them in memory.
+ */
+public class FakeProductService implements AutoCloseable {
+    private final HttpServer server;
+
+    /**
+     * Number of products in the catalogue
+     */
+    private volatile int products;
+
+    /**
+     * {@code ETag} sent with the catalogue, or {@code null} to send the catalogue without validators
+     */
+    private volatile String eTag;
+
+    /**
+     * How long to wait before sending each product, to stand in for a slow downstream
+     */
+    private volatile int trickleMillis;
+
+    /**
+     * Number of times the catalogue has been sent in full
+     */
+    private final AtomicInteger served = new AtomicInteger();
+
+    /**
+     * Start serving a generated catalogue on a random loopback port.
+     *
+     * @param products number of products in the catalogue
+     */
+    public FakeProductService(int products) throws IOException {
+        this.products = products;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/api/v1/products", exchange -> {
+            String eTag = this.eTag;
+            int count = this.products;
+
+            if (eTag != null && eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            if (eTag != null) {
+                exchange.getResponseHeaders().set("ETag", eTag);
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            this.served.incrementAndGet();
+
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                    StandardCharsets.UTF_8), 64 * 1024)) {
+                writer.write('[');
+
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+
+                    writer.write("{\"id\":\"P" + i + "\",\"name\":\"Product number " + i + "\",\"usdPrice\":"
+                            + (i % 10000) + "}");
+
+                    if (this.trickleMillis > 0) {
+                        writer.flush();
+
+                        try {
+                            Thread.sleep(this.trickleMillis);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+
+                writer.write(']');
+            }
+        });
+        this.server.start();
+    }
+
+    /**
+     * Change the number of products in the catalogue, the existing products stay as they are.
+     */
+    public void setProducts(int products) {
+        this.products = products;
+    }
+
+    /**
+     * Send an {@code ETag} with the catalogue and answer requests that already have it with a 304.
+     */
+    public void setETag(String eTag) {
+        this.eTag = eTag;
+    }
+
+    /**
+     * Send the catalogue a product at a time, waiting before each one.
+     */
+    public void setTrickleMillis(int trickleMillis) {
+        this.trickleMillis = trickleMillis;
+    }
+
+    /**
+     * Get the number of times the catalogue has been sent in full, rather than as a 304.
+     */
+    public int getServed() {
+        return this.served.get();
+    }
+
+    /**
+     * Get the url of the product catalogue.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/api/v1/products";
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+}
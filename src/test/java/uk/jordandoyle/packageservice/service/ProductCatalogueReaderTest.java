@@ -0,0 +1,79 @@
+package uk.jordandoyle.packageservice.service;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import org.junit.Test;
+import uk.jordandoyle.packageservice.domain.Product;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProductCatalogueReaderTest {
+    private static final int CATALOGUE_SIZE = 1_000_000;
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Test
+    public void readsProductsAndSkipsUnknownFields() throws Exception {
+        String json = "[{\"id\":\"a\",\"name\":\"A\",\"usdPrice\":100,\"tags\":[\"x\",{\"y\":1}]},"
+                + "{\"meta\":{\"id\":\"ignored\"},\"id\":\"b\",\"usdPrice\":200,\"name\":\"B\"},"
+                + "{\"name\":\"no id\"}]";
+        List<Product> products = new ArrayList<>();
+
+        long count = new ProductCatalogueReader(1)
+                .read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), products::addAll);
+
+        assertEquals(2, count);
+        assertEquals("a", products.get(0).getId());
+        assertEquals(100, products.get(0).getPrice());
+        assertEquals("b", products.get(1).getId());
+        assertEquals("B", products.get(1).getName());
+        assertEquals(200, products.get(1).getPrice());
+    }
+
+    @Test
+    public void streamsLargeCatalogueWithBoundedHeap() throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong batches = new AtomicLong();
+        AtomicLong largestBatch = new AtomicLong();
+        AtomicLong peakHeap = new AtomicLong();
+
+        System.gc();
+        long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+
+        try (FakeProductService productService = new FakeProductService(CATALOGUE_SIZE)) {
+            HttpResponse response = new NetHttpTransport().createRequestFactory()
+                    .buildGetRequest(new GenericUrl(productService.getUrl())).execute();
+
+            long count;
+
+            try (InputStream in = response.getContent()) {
+                count = new ProductCatalogueReader(BATCH_SIZE).read(in, batch -> {
+                    largestBatch.accumulateAndGet(batch.size(), Math::max);
+
+                    // sample the live heap every so often, a fully materialised catalogue would be well over 100MB
+                    if (batches.incrementAndGet() % 100 == 0) {
+                        System.gc();
+                        peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    }
+                });
+            }
+
+            assertEquals(CATALOGUE_SIZE, count);
+        }
+
+        assertEquals(BATCH_SIZE, largestBatch.get());
+        assertTrue("Live heap grew by " + (peakHeap.get() - baselineHeap) + " bytes",
+                peakHeap.get() - baselineHeap < 32 * 1024 * 1024);
+    }
+}
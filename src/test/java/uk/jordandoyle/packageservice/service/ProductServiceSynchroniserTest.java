@@ -0,0 +1,155 @@
+package uk.jordandoyle.packageservice.service;
+
+import com.google.common.base.Stopwatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.actuate.metrics.buffer.BufferCounterService;
+import org.springframework.boot.actuate.metrics.buffer.BufferGaugeService;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffers;
+import org.springframework.boot.actuate.metrics.buffer.GaugeBuffers;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.metrics.LatencyHistograms;
+import uk.jordandoyle.packageservice.repository.ExchangeRateRepository;
+import uk.jordandoyle.packageservice.repository.ProductRepository;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProductServiceSynchroniserTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final CounterBuffers counters = new CounterBuffers();
+
+    private final ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+
+    private final ProductServiceSynchroniser synchroniser = new ProductServiceSynchroniser();
+
+    private FakeProductService productService;
+
+    @Before
+    public void setUp() throws IOException {
+        this.productService = new FakeProductService(100);
+
+        BufferCounterService counterService = new BufferCounterService(this.counters);
+        BufferGaugeService gaugeService = new BufferGaugeService(new GaugeBuffers());
+
+        SyncRunner syncRunner = new SyncRunner();
+        ReflectionTestUtils.setField(syncRunner, "counterService", counterService);
+        ReflectionTestUtils.setField(syncRunner, "gaugeService", gaugeService);
+        ReflectionTestUtils.setField(syncRunner, "latencyHistograms", new LatencyHistograms(60000));
+
+        ReflectionTestUtils.setField(this.synchroniser, "productEndpoint", this.productService.getUrl());
+        ReflectionTestUtils.setField(this.synchroniser, "batchSize", 10);
+        ReflectionTestUtils.setField(this.synchroniser, "timeBudgetMillis", 5000);
+        ReflectionTestUtils.setField(this.synchroniser, "productRepository", this.productRepository);
+        ReflectionTestUtils.setField(this.synchroniser, "eventPublisher", new ApplicationEventPublisher() {
+            @Override
+            public void publishEvent(ApplicationEvent event) {
+            }
+
+            @Override
+            public void publishEvent(Object event) {
+            }
+        });
+        ReflectionTestUtils.setField(this.synchroniser, "counterService", counterService);
+        ReflectionTestUtils.setField(this.synchroniser, "gaugeService", gaugeService);
+        ReflectionTestUtils.setField(this.synchroniser, "snapshots",
+                new DownstreamSnapshots(this.folder.getRoot().getPath()));
+        ReflectionTestUtils.setField(this.synchroniser, "syncStatus", new SyncStatus());
+        ReflectionTestUtils.setField(this.synchroniser, "syncRunner", syncRunner);
+    }
+
+    @After
+    public void tearDown() {
+        this.productService.close();
+    }
+
+    @Test
+    public void skipsACatalogueItHasAlreadyApplied() throws IOException {
+        this.synchroniser.synchronise();
+        assertEquals(100, this.productRepository.size());
+
+        // no validators, so the catalogue is sent again and we spot it's identical ourselves
+        this.synchroniser.synchronise();
+
+        assertEquals(2, this.productService.getServed());
+        assertEquals(1L, this.counter("skipped.unchanged"));
+        assertNull(this.counters.find("counter.sync.products.skipped.not-modified"));
+    }
+
+    @Test
+    public void sendsBackTheETagOfTheLastCatalogue() throws IOException {
+        this.productService.setETag("\"v1\"");
+
+        this.synchroniser.synchronise();
+        this.synchroniser.synchronise();
+
+        assertEquals(1, this.productService.getServed());
+        assertEquals(1L, this.counter("skipped.not-modified"));
+
+        // a new catalogue is applied as soon as the ETag changes
+        this.productService.setProducts(150);
+        this.productService.setETag("\"v2\"");
+        this.synchroniser.synchronise();
+
+        assertEquals(150, this.productRepository.size());
+        assertEquals(2, this.productService.getServed());
+    }
+
+    @Test
+    public void savesCataloguesThatOnlyAddProducts() throws IOException {
+        this.synchroniser.synchronise();
+        assertEquals(100, this.restoreSnapshot().size());
+
+        this.productService.setProducts(150);
+        this.synchroniser.synchronise();
+        assertEquals(150, this.restoreSnapshot().size());
+    }
+
+    @Test
+    public void slowResponsesAreCutOffWhenTheTimeBudgetRunsOut() {
+        // the whole catalogue would take 5 seconds, and every product arrives well within a read timeout
+        this.productService.setTrickleMillis(50);
+        ReflectionTestUtils.setField(this.synchroniser, "timeBudgetMillis", 500);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+
+        try {
+            this.synchroniser.synchronise();
+            fail("Sync should have run out of time");
+        } catch (IOException e) {
+            assertTrue(e.toString(), stopwatch.elapsed(TimeUnit.MILLISECONDS) < 2000);
+        }
+
+        assertEquals(0, this.productRepository.size());
+    }
+
+    /**
+     * Read our product snapshot back into an empty repository.
+     */
+    private ProductRepository restoreSnapshot() {
+        ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+        DownstreamSnapshots snapshots = new DownstreamSnapshots(this.folder.getRoot().getPath());
+        ReflectionTestUtils.setField(snapshots, "productRepository", productRepository);
+        ReflectionTestUtils.setField(snapshots, "exchangeRateRepository", new ExchangeRateRepository());
+        ReflectionTestUtils.setField(snapshots, "syncStatus", new SyncStatus());
+        snapshots.restore();
+
+        return productRepository;
+    }
+
+    private long counter(String name) {
+        return this.counters.find("counter.sync.products." + name).getValue().longValue();
+    }
+}
@@ -0,0 +1,99 @@
+package uk.jordandoyle.packageservice.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.buffer.BufferCounterService;
+import org.springframework.boot.actuate.metrics.buffer.BufferGaugeService;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffers;
+import org.springframework.boot.actuate.metrics.buffer.GaugeBuffers;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.metrics.LatencyHistograms;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SyncRunnerTest {
+    private final CounterBuffers counters = new CounterBuffers();
+
+    private final GaugeBuffers gauges = new GaugeBuffers();
+
+    private final LatencyHistograms latencies = new LatencyHistograms(60000);
+
+    private final SyncRunner runner = new SyncRunner();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(this.runner, "counterService", new BufferCounterService(this.counters));
+        ReflectionTestUtils.setField(this.runner, "gaugeService", new BufferGaugeService(this.gauges));
+        ReflectionTestUtils.setField(this.runner, "latencyHistograms", this.latencies);
+    }
+
+    @Test
+    public void overlappingRunsAreSkipped() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.runner.run("products", () -> {
+                    started.countDown();
+                    await(release);
+                });
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        started.await();
+
+        // the first run is still going, but other syncs aren't held up by it
+        assertFalse(this.runner.run("products", () -> fail("overlapping run")));
+        assertTrue(this.runner.run("exchange-rates", () -> {
+        }));
+
+        release.countDown();
+        assertTrue(first.get());
+
+        // and once it's finished the next run goes ahead
+        assertTrue(this.runner.run("products", () -> {
+        }));
+
+        assertEquals(2L, this.counters.find("counter.sync.products.runs").getValue().longValue());
+        assertEquals(1L, this.counters.find("counter.sync.products.skipped.overlap").getValue().longValue());
+        assertNotNull(this.gauges.find("gauge.sync.products.duration"));
+        assertEquals(2L, this.latencies.snapshot().stream()
+                .filter(snapshot -> snapshot.getValue().equals("products"))
+                .findFirst().get().getCount());
+    }
+
+    @Test
+    public void failedRunsAreCounted() throws IOException {
+        try {
+            this.runner.run("products", () -> {
+                throw new IOException("downstream unavailable");
+            });
+            fail("expected the failure to be rethrown");
+        } catch (IOException expected) {
+            // expected
+        }
+
+        assertEquals(1L, this.counters.find("counter.sync.products.failed").getValue().longValue());
+        assertTrue(this.runner.run("products", () -> {
+        }));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package uk.jordandoyle.packageservice.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.domain.ProductOrdinals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogPackageStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversPackagesFromLog() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        Package first = createPackage("first", new Product("a", "Product A", 100));
+        Package second = createPackage("second", new Product("b", "Product B", 200));
+
+        try (LogPackageStore store = new LogPackageStore(directory, true)) {
+            store.recover();
+            store.save(first).join();
+            store.save(second).join();
+
+            first = first.with("renamed", null, null);
+            store.save(first).join();
+            store.delete(second.getUuid()).join();
+        }
+
+        Map<UUID, StoredPackage> recovered = recover(directory);
+
+        assertEquals(1, recovered.size());
+        assertEquals("renamed", recovered.get(first.getUuid()).getName());
+        assertEquals(2, recovered.get(first.getUuid()).getVersion());
+        assertEquals("a", recovered.get(first.getUuid()).getProducts().get(0).getId());
+        assertEquals(100, recovered.get(first.getUuid()).getProducts().get(0).getPrice());
+    }
+
+    @Test
+    public void recoversFromSnapshotAndLogTail() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        Package first = createPackage("first", new Product("a", "Product A", 100));
+        Package second = createPackage("second", new Product("b", "Product B", 200));
+
+        try (LogPackageStore store = new LogPackageStore(directory, true)) {
+            store.recover();
+            store.save(first).join();
+            store.snapshot(Arrays.asList(first));
+
+            store.save(second).join();
+            store.delete(first.getUuid()).join();
+        }
+
+        // the segment covered by the snapshot should have been compacted away
+        try (Stream<Path> files = Files.list(directory)) {
+            assertFalse(files.anyMatch(f -> f.getFileName().toString().equals("log-1.wal")));
+        }
+
+        Map<UUID, StoredPackage> recovered = recover(directory);
+
+        assertEquals(1, recovered.size());
+        assertTrue(recovered.containsKey(second.getUuid()));
+    }
+
+    @Test
+    public void discardsTornRecordAtEndOfLog() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        Package first = createPackage("first", new Product("a", "Product A", 100));
+
+        try (LogPackageStore store = new LogPackageStore(directory, true)) {
+            store.recover();
+            store.save(first).join();
+        }
+
+        // simulate a crash half way through writing the next record
+        try (FileChannel log = FileChannel.open(directory.resolve("log-1.wal"), StandardOpenOption.APPEND)) {
+            log.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 100, 1, 2, 3}));
+        }
+
+        Map<UUID, StoredPackage> recovered = recover(directory);
+
+        assertEquals(1, recovered.size());
+        assertEquals("first", recovered.get(first.getUuid()).getName());
+    }
+
+    private static Map<UUID, StoredPackage> recover(Path directory) throws IOException {
+        try (LogPackageStore store = new LogPackageStore(directory, true)) {
+            Collection<StoredPackage> packages = store.recover();
+            return packages.stream().collect(Collectors.toMap(StoredPackage::getUuid, p -> p, (a, b) -> b,
+                    HashMap::new));
+        }
+    }
+
+    private static Package createPackage(String name, Product... products) {
+        return new Package(new ProductOrdinals(), name, name + " description", Arrays.asList(products));
+    }
+}
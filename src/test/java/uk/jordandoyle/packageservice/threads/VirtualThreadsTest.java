@@ -0,0 +1,36 @@
+package uk.jordandoyle.packageservice.threads;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadsTest {
+    @Test
+    public void runsTasksOnNamedVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+
+        CompletableFuture<String> name = new CompletableFuture<>();
+        VirtualThreads.newExecutor("test-").execute(() -> name.complete(Thread.currentThread().getName()));
+
+        assertEquals("test-0", name.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void refusesToStartWithoutVirtualThreads() {
+        assumeFalse(VirtualThreads.isSupported());
+
+        try {
+            VirtualThreads.newThreadFactory("test-");
+            fail("Expected virtual threads to be unsupported");
+        } catch (IllegalStateException e) {
+            assertFalse(e.getMessage().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package uk.jordandoyle.packageservice.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.springframework.boot.actuate.metrics.buffer.BufferCounterService;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffers;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import uk.jordandoyle.packageservice.catalogue.HeapProductCatalogue;
+import uk.jordandoyle.packageservice.cluster.Cluster;
+import uk.jordandoyle.packageservice.cluster.PackageRouter;
+import uk.jordandoyle.packageservice.domain.ExchangeRate;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.Product;
+import uk.jordandoyle.packageservice.feed.PriceFeed;
+import uk.jordandoyle.packageservice.repository.ExchangeRateRepository;
+import uk.jordandoyle.packageservice.repository.PackageRepository;
+import uk.jordandoyle.packageservice.repository.ProductRepository;
+import uk.jordandoyle.packageservice.repository.RateHistoryRepository;
+import uk.jordandoyle.packageservice.store.InMemoryPackageStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class PackageControllerTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ProductRepository productRepository = new ProductRepository(new HeapProductCatalogue());
+
+    private final PackageRepository packageRepository = new PackageRepository();
+
+    private final ExchangeRateRepository exchangeRateRepository = new ExchangeRateRepository();
+
+    private final PackageResponseCache responseCache = new PackageResponseCache(100, 100);
+
+    private final PackageController controller = new PackageController();
+
+    private final CounterBuffers counters = new CounterBuffers();
+
+    private final PriceFeed priceFeed = new PriceFeed(16, 1, false);
+
+    private MockMvc mvc;
+
+    @Before
+    public void setUp() throws IOException {
+        this.exchangeRateRepository.setCurrentExchangeRate(JacksonFactory.getDefaultInstance()
+                .fromString("{\"base\":\"USD\",\"rates\":{\"GBP\":0.5}}", ExchangeRate.class));
+
+        RateHistoryRepository rateHistoryRepository = new RateHistoryRepository(
+                this.folder.getRoot().toPath().resolve("history.dat").toString());
+        rateHistoryRepository.record(JacksonFactory.getDefaultInstance().fromString(
+                "{\"base\":\"USD\",\"date\":\"2017-06-01\",\"rates\":{\"GBP\":0.25}}", ExchangeRate.class));
+
+        Cluster cluster = new Cluster("", "", 1);
+        PackageRouter packageRouter = new PackageRouter();
+        ReflectionTestUtils.setField(packageRouter, "cluster", cluster);
+        ReflectionTestUtils.setField(packageRouter, "packageRepository", this.packageRepository);
+
+        ReflectionTestUtils.setField(this.responseCache, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(this.packageRepository, "packageStore", new InMemoryPackageStore());
+        ReflectionTestUtils.setField(this.packageRepository, "productRepository", this.productRepository);
+        ReflectionTestUtils.setField(this.controller, "productRepository", this.productRepository);
+        ReflectionTestUtils.setField(this.controller, "packageRepository", this.packageRepository);
+        ReflectionTestUtils.setField(this.controller, "packageRouter", packageRouter);
+        ReflectionTestUtils.setField(this.controller, "cluster", cluster);
+        ReflectionTestUtils.setField(this.controller, "exchangeRateRepository", this.exchangeRateRepository);
+        ReflectionTestUtils.setField(this.controller, "rateHistoryRepository", rateHistoryRepository);
+        ReflectionTestUtils.setField(this.controller, "responseCache", this.responseCache);
+        ReflectionTestUtils.setField(this.controller, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(this.controller, "counterService", new BufferCounterService(this.counters));
+        ReflectionTestUtils.setField(this.controller, "priceFeed", this.priceFeed);
+        ReflectionTestUtils.setField(this.priceFeed, "packageRepository", this.packageRepository);
+        ReflectionTestUtils.setField(this.priceFeed, "exchangeRateRepository", this.exchangeRateRepository);
+        ReflectionTestUtils.setField(this.priceFeed, "counterService", new BufferCounterService(this.counters));
+        this.mvc = MockMvcBuilders.standaloneSetup(this.controller).build();
+
+        this.productRepository.addProducts(new Product[]{new Product("a", "Product A", 100)});
+
+        for (int i = 0; i < 5; i++) {
+            this.addPackage(new UUID(0, i), "Package " + i, null, "a");
+        }
+    }
+
+    @Test
+    public void pagesFollowTheNextLink() throws Exception {
+        MockHttpServletResponse first = this.perform(get("/package?limit=2&fields=uuid"));
+
+        assertEquals(200, first.getStatus());
+        JSONAssert.assertEquals("[{\"uuid\":\"" + new UUID(0, 0) + "\"},{\"uuid\":\"" + new UUID(0, 1) + "\"}]",
+                first.getContentAsString(), true);
+        assertEquals("<http://localhost/package?limit=2&fields=uuid&cursor=" + new UUID(0, 1) + ">; rel=\"next\"",
+                first.getHeader("Link"));
+
+        MockHttpServletResponse last = this.perform(get("/package?limit=2&cursor=" + new UUID(0, 3)));
+
+        assertEquals(200, last.getStatus());
+        JSONAssert.assertEquals("[{\"uuid\":\"" + new UUID(0, 4) + "\",\"name\":\"Package 4\",\"description\":null}]",
+                last.getContentAsString(), true);
+        assertNull(last.getHeader("Link"));
+    }
+
+    @Test
+    public void streamsNewlineDelimitedJson() throws Exception {
+        MockHttpServletResponse response = this.perform(get("/package?fields=name,products")
+                .header("Accept", "application/x-ndjson"));
+
+        String[] lines = response.getContentAsString().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("{\"name\":\"Package 0\",\"products\":[\"a\"]}", lines[0]);
+        assertTrue(response.getContentAsString().endsWith("\n"));
+    }
+
+    @Test
+    public void searchesByNameProductAndPrice() throws Exception {
+        this.productRepository.addProducts(new Product[]{
+                new Product("a", "Product A", 100),
+                new Product("b", "Product B", 250)
+        });
+        this.addPackage(new UUID(1, 0), "Golden Package", null, "a", "b");
+        this.addPackage(new UUID(1, 1), "Gold", null, "b");
+
+        MockHttpServletResponse golden = this.perform(get("/package/search?product=a&minPrice=300&fields=uuid")
+                .param("name", "gold pack"));
+        JSONAssert.assertEquals("[{\"uuid\":\"" + new UUID(1, 0) + "\"}]", golden.getContentAsString(), true);
+        JSONAssert.assertEquals("[{\"name\":\"Golden Package\"},{\"name\":\"Gold\"}]", this.perform(
+                get("/package/search?product=b&fields=name")).getContentAsString(), true);
+
+        MockHttpServletResponse first = this.perform(get("/package/search?maxPrice=100&limit=3&fields=uuid"));
+        assertEquals("<http://localhost/package/search?maxPrice=100&limit=3&fields=uuid&cursor=" + new UUID(0, 2)
+                + ">; rel=\"next\"", first.getHeader("Link"));
+    }
+
+    @Test
+    public void unknownFieldsAreRejected() throws Exception {
+        this.mvc.perform(get("/package?fields=uuid,secret")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void batchCreateReportsEachPackage() throws Exception {
+        this.mvc.perform(post("/package/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"name\":\"Good\",\"products\":[\"a\"]},{\"name\":\"Bad\",\"products\":[\"a\",\"x\"]}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(200))
+                .andExpect(jsonPath("$[0].package.name").value("Good"))
+                .andExpect(jsonPath("$[1].status").value(400))
+                .andExpect(jsonPath("$[1].error").value("Unknown products [x]"));
+
+        assertEquals(6, this.packageRepository.getPackages().size());
+        assertEquals(1L, this.counters.find("counter.package.create.unknown-product").getValue().longValue());
+    }
+
+    @Test
+    public void batchFetchReportsEachPackage() throws Exception {
+        this.mvc.perform(get("/package/batch?currency=gbp&ids=" + new UUID(0, 1) + "," + new UUID(1, 1)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(200))
+                .andExpect(jsonPath("$[0].package.price").value(50.0))
+                .andExpect(jsonPath("$[0].package.currency").value("GBP"))
+                .andExpect(jsonPath("$[1].uuid").value(new UUID(1, 1).toString()))
+                .andExpect(jsonPath("$[1].status").value(404));
+    }
+
+    @Test
+    public void convertsWithPastRates() throws Exception {
+        String uri = "/package/" + new UUID(0, 1) + "?currency=GBP&date=";
+
+        this.mvc.perform(get(uri + "2017-06-03"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.price").value(25.0));
+        this.mvc.perform(get("/package/" + new UUID(0, 1) + "?currency=GBP"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.price").value(50.0));
+
+        // before we started keeping rates, and the future
+        this.mvc.perform(get(uri + "2017-05-31")).andExpect(status().isBadRequest());
+        this.mvc.perform(get(uri + "2999-01-01")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void writesResponsesInAStableOrder() throws Exception {
+        this.productRepository.addProducts(new Product[]{
+                new Product("b", "Product B", 100),
+                new Product("c", "Product C", 250)
+        });
+        // c is given an ordinal before b, but products are still listed by id
+        this.addPackage(new UUID(2, 0), "Two", "Two products", "c", "b");
+
+        assertEquals("{\"uuid\":\"" + new UUID(2, 0) + "\",\"name\":\"Two\",\"description\":\"Two products\","
+                        + "\"price\":175.00,\"currency\":\"GBP\",\"products\":["
+                        + "{\"id\":\"b\",\"name\":\"Product B\",\"price\":50.00},"
+                        + "{\"id\":\"c\",\"name\":\"Product C\",\"price\":125.00}]}",
+                this.mvc.perform(get("/package/" + new UUID(2, 0) + "?currency=GBP")).andReturn().getResponse()
+                        .getContentAsString());
+
+        String created = this.mvc.perform(post("/package")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"New\",\"products\":[\"a\"]}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertTrue(created, created.matches("\\{\"uuid\":\"[0-9a-f-]{36}\",\"name\":\"New\",\"description\":null}"));
+    }
+
+    @Test
+    public void updatesOnlyMatchingVersions() throws Exception {
+        String uri = "/package/" + new UUID(0, 1);
+        String eTag = this.mvc.perform(get(uri)).andReturn().getResponse().getHeader("ETag");
+        assertTrue(eTag.startsWith("\"1-"));
+
+        this.mvc.perform(put(uri)
+                .header("If-Match", eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Renamed\"}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"2\""))
+                .andExpect(jsonPath("$.name").value("Renamed"));
+
+        // the client's copy is now out of date, so a second change with it is rejected
+        this.mvc.perform(put(uri)
+                .header("If-Match", eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Lost update\"}"))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(header().string("ETag", "\"2\""));
+
+        // weak tags never match
+        this.mvc.perform(put(uri)
+                .header("If-Match", "W/\"2\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Lost update\"}"))
+                .andExpect(status().isPreconditionFailed());
+
+        assertEquals("Renamed", this.packageRepository.getPackage(new UUID(0, 1)).getName());
+        this.mvc.perform(put("/package/" + new UUID(1, 1)).header("If-Match", "*")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{}"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void conditionalGetsOfAnUnchangedPackageAreNotModified() throws Exception {
+        String uri = "/package/" + new UUID(0, 3);
+        String eTag = this.mvc.perform(get(uri)).andExpect(status().isOk()).andReturn().getResponse()
+                .getHeader("ETag");
+
+        MockHttpServletResponse notModified = this.mvc.perform(get(uri).header("If-None-Match", eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", eTag))
+                .andReturn().getResponse();
+        assertEquals(0, notModified.getContentLength());
+        assertEquals("", notModified.getContentAsString());
+
+        // If-None-Match compares weakly, so a weak copy of the tag matches too
+        this.mvc.perform(get(uri).header("If-None-Match", "W/" + eTag)).andExpect(status().isNotModified());
+        this.mvc.perform(get(uri).header("If-None-Match", "*")).andExpect(status().isNotModified());
+
+        // any of a list of tags can match
+        this.mvc.perform(get(uri).header("If-None-Match", "\"1-stale\", " + eTag + " ,W/\"other\""))
+                .andExpect(status().isNotModified());
+        this.mvc.perform(get(uri).header("If-None-Match", "\"1-stale\", W/\"other\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", eTag));
+
+        // the same package in another currency is a different response
+        this.mvc.perform(get(uri + "?currency=GBP").header("If-None-Match", eTag)).andExpect(status().isOk());
+    }
+
+    @Test
+    public void servesChangesStraightAway() throws Exception {
+        String uri = "/package/" + new UUID(0, 2) + "?currency=GBP";
+        String eTag = this.mvc.perform(get(uri)).andReturn().getResponse().getHeader("ETag");
+
+        // cached now, so the client's copy is still current
+        this.mvc.perform(get(uri).header("If-None-Match", eTag)).andExpect(status().isNotModified());
+
+        this.mvc.perform(put("/package/" + new UUID(0, 2))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Renamed\"}"))
+                .andExpect(status().isOk());
+
+        this.mvc.perform(get(uri).header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Renamed"))
+                .andExpect(jsonPath("$.price").value(50.0));
+
+        // new rates reprice the cached response
+        this.exchangeRateRepository.setCurrentExchangeRate(JacksonFactory.getDefaultInstance()
+                .fromString("{\"base\":\"USD\",\"rates\":{\"GBP\":0.75}}", ExchangeRate.class));
+        this.mvc.perform(get(uri))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.price").value(75.0));
+    }
+
+    /**
+     * Add a package made up of products we already know about.
+     */
+    private void addPackage(UUID uuid, String name, String description, String... productIds) {
+        List<Product> products = new ArrayList<>(productIds.length);
+
+        for (String productId : productIds) {
+            products.add(this.productRepository.getProductById(productId));
+        }
+
+        this.packageRepository.addPackage(new Package(this.productRepository.getOrdinals(), uuid, name, description,
+                products));
+    }
+
+    /**
+     * Perform a request and wait for the streamed response body to be written.
+     */
+    private MockHttpServletResponse perform(MockHttpServletRequestBuilder request) throws Exception {
+        MvcResult result = this.mvc.perform(request).andReturn();
+        result.getAsyncResult();
+        return result.getResponse();
+    }
+}
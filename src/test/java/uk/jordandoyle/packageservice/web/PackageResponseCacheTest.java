@@ -0,0 +1,143 @@
+package uk.jordandoyle.packageservice.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.domain.Package;
+import uk.jordandoyle.packageservice.domain.ProductOrdinals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class PackageResponseCacheTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final AtomicInteger builds = new AtomicInteger();
+
+    private final CountDownLatch building = new CountDownLatch(1);
+
+    private final CountDownLatch finish = new CountDownLatch(1);
+
+    private final Package original = new Package(new ProductOrdinals(), new UUID(0, 1), "Original", null,
+            Collections.emptyList());
+
+    @After
+    public void tearDown() {
+        this.finish.countDown();
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void servesTheSameResponseUntilThePackageOrRatesChange() throws Exception {
+        PackageResponseCache cache = cache(100);
+        PackageResponseCache.CachedResponse first = this.getCounting(cache, this.original, 1);
+
+        assertSame(first, this.getCounting(cache, this.original, 1));
+        assertEquals(1, this.builds.get());
+        assertEquals(1, cache.getStats().hitCount());
+
+        // a PUT swaps in a new copy of the package
+        Package renamed = this.original.with("Renamed", null, null);
+        PackageResponseCache.CachedResponse changed = this.getCounting(cache, renamed, 1);
+        assertEquals("\"Renamed\"", new String(changed.getBody(), StandardCharsets.UTF_8));
+        assertNotEquals(first.getETag(), changed.getETag());
+
+        // new exchange rates
+        assertNotSame(changed, this.getCounting(cache, renamed, 2));
+        assertEquals(3, this.builds.get());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneBuild() throws Exception {
+        PackageResponseCache cache = cache(10000);
+        Future<PackageResponseCache.CachedResponse> leader = this.executor.submit(() -> this.getSlowly(cache, 1));
+        this.building.await();
+
+        Future<PackageResponseCache.CachedResponse> waiter = this.executor.submit(() -> this.getSlowly(cache, 1));
+        // give the waiter time to start waiting before the leader finishes
+        Thread.sleep(100);
+        this.finish.countDown();
+
+        assertSame(leader.get(), waiter.get());
+        assertEquals(1, this.builds.get());
+        assertEquals(1, cache.getCoalesced());
+    }
+
+    @Test
+    public void requestsForANewerCopyDoNotWait() throws Exception {
+        PackageResponseCache cache = cache(10000);
+        Future<PackageResponseCache.CachedResponse> leader = this.executor.submit(() -> this.getSlowly(cache, 1));
+        this.building.await();
+
+        // the package is renamed while the old copy's response is being built
+        Package renamed = this.original.with("Renamed", null, null);
+        PackageResponseCache.CachedResponse response = cache.get(renamed, "USD", 1,
+                generator -> generator.writeString(renamed.getName()));
+        assertEquals("\"Renamed\"", new String(response.getBody(), StandardCharsets.UTF_8));
+
+        // as are new rates
+        response = cache.get(this.original, "USD", 2, generator -> generator.writeString("new rates"));
+        assertEquals("\"new rates\"", new String(response.getBody(), StandardCharsets.UTF_8));
+
+        this.finish.countDown();
+        assertEquals("\"Original\"", new String(leader.get().getBody(), StandardCharsets.UTF_8));
+        assertEquals(0, cache.getCoalesced());
+    }
+
+    @Test
+    public void waitsAreBounded() throws Exception {
+        PackageResponseCache cache = cache(50);
+        this.executor.submit(() -> this.getSlowly(cache, 1));
+        this.building.await();
+
+        // the leader is stuck, so we give up on it and build the response ourselves
+        PackageResponseCache.CachedResponse response = cache.get(this.original, "USD", 1,
+                generator -> generator.writeString("own"));
+        assertEquals("\"own\"", new String(response.getBody(), StandardCharsets.UTF_8));
+        assertEquals(1, cache.getCoalesceTimeouts());
+    }
+
+    private PackageResponseCache.CachedResponse getSlowly(PackageResponseCache cache, long rateVersion)
+            throws Exception {
+        return cache.get(this.original, "USD", rateVersion, generator -> {
+            this.builds.incrementAndGet();
+            this.building.countDown();
+
+            try {
+                this.finish.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            generator.writeString(this.original.getName());
+        });
+    }
+
+    private PackageResponseCache.CachedResponse getCounting(PackageResponseCache cache, Package p, long rateVersion)
+            throws IOException {
+        return cache.get(p, "USD", rateVersion, generator -> {
+            this.builds.incrementAndGet();
+            generator.writeString(p.getName());
+        });
+    }
+
+    private static PackageResponseCache cache(long coalesceTimeoutMillis) {
+        PackageResponseCache cache = new PackageResponseCache(100, coalesceTimeoutMillis);
+        ReflectionTestUtils.setField(cache, "objectMapper", new ObjectMapper());
+        return cache;
+    }
+}
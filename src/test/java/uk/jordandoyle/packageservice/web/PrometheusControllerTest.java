@@ -0,0 +1,71 @@
+package uk.jordandoyle.packageservice.web;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.jordandoyle.packageservice.metrics.LatencyHistograms;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusControllerTest {
+    private static final String HANDLER = "PackageController.getPackage";
+
+    private final LatencyHistograms latencyHistograms = new LatencyHistograms(0);
+
+    private final PrometheusController controller = new PrometheusController();
+
+    @Before
+    public void setUp() {
+        PublicMetrics metrics = () -> Arrays.asList(
+                new Metric<>("counter.sync.products.runs", 3L),
+                new Metric<>("packages.count", 12));
+
+        ReflectionTestUtils.setField(this.controller, "publicMetrics", Collections.singletonList(metrics));
+        ReflectionTestUtils.setField(this.controller, "latencyHistograms", this.latencyHistograms);
+    }
+
+    @Test
+    public void writesPrometheusTextFormat() {
+        LatencyHistograms.Latency latency = this.latencyHistograms.forHandler(HANDLER);
+
+        for (int i = 1; i <= 1000; i++) {
+            latency.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        String body = this.controller.scrape().getBody();
+        assertTrue(body, body.contains("# TYPE http_request_duration_seconds summary\n"));
+        assertTrue(body, body.contains("http_request_duration_seconds_count{handler=\"" + HANDLER + "\"} 1000.0\n"));
+        assertTrue(body, body.contains("# TYPE counter_sync_products_runs counter\ncounter_sync_products_runs 3.0\n"));
+        assertTrue(body, body.contains("# TYPE packages_count gauge\npackages_count 12.0\n"));
+
+        // percentiles are accurate to 1%
+        assertEquals(500e-6, quantile(body, "0.5"), 5e-6);
+        assertEquals(990e-6, quantile(body, "0.99"), 10e-6);
+        assertEquals(999e-6, quantile(body, "0.999"), 10e-6);
+    }
+
+    @Test
+    public void sanitisesActuatorNames() {
+        assertEquals("gauge_sync_exchange_rates_duration",
+                PrometheusController.sanitise("gauge.sync.exchange-rates.duration"));
+    }
+
+    private static double quantile(String body, String quantile) {
+        String prefix = "http_request_duration_seconds{handler=\"" + HANDLER + "\",quantile=\"" + quantile + "\"} ";
+
+        for (String line : body.split("\n")) {
+            if (line.startsWith(prefix)) {
+                return Double.parseDouble(line.substring(prefix.length()));
+            }
+        }
+
+        throw new AssertionError("No " + quantile + " quantile in " + body);
+    }
+}